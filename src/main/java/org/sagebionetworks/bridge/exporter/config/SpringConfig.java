@@ -8,6 +8,10 @@ import java.nio.file.Paths;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
@@ -32,7 +36,15 @@ import org.sagebionetworks.bridge.dynamodb.DynamoQueryHelper;
 import org.sagebionetworks.bridge.dynamodb.DynamoScanHelper;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterSqsCallback;
 import org.sagebionetworks.bridge.exporter.synapse.ColumnDefinition;
+import org.sagebionetworks.bridge.exporter.synapse.DynamoTokenBucketStore;
+import org.sagebionetworks.bridge.exporter.synapse.FileHandleCache;
+import org.sagebionetworks.bridge.exporter.synapse.InMemoryTokenBucketStore;
+import org.sagebionetworks.bridge.exporter.synapse.SharedRateLimiter;
+import org.sagebionetworks.bridge.exporter.synapse.SynapseRateLimiter;
+import org.sagebionetworks.bridge.exporter.synapse.TableSchemaCache;
+import org.sagebionetworks.bridge.exporter.synapse.TokenBucketStore;
 import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
+import org.sagebionetworks.bridge.exporter.worker.ExportWorkerManager;
 import org.sagebionetworks.bridge.file.FileHelper;
 import org.sagebionetworks.bridge.heartbeat.HeartbeatLogger;
 import org.sagebionetworks.bridge.json.DefaultObjectMapper;
@@ -190,9 +202,102 @@ public class SpringConfig {
         return synapseClient;
     }
 
+    // This is equivalent to Executors.newFixedThreadPool(), but exposes the ThreadPoolExecutor so that
+    // WorkerPoolController can resize it. threadpool.worker.count is the initial size.
     @Bean(name = "workerExecutorService")
-    public ExecutorService workerExecutorService() {
-        return Executors.newFixedThreadPool(bridgeConfig().getInt("threadpool.worker.count"));
+    public ThreadPoolExecutor workerExecutorService() {
+        // Mark the worker threads, so the worker pool controller only counts their rate limiter waits.
+        ThreadFactory defaultThreadFactory = Executors.defaultThreadFactory();
+        ThreadFactory workerThreadFactory = runnable -> defaultThreadFactory.newThread(() -> {
+            SynapseRateLimiter.markWorkerThread();
+            runnable.run();
+        });
+
+        int threadCount = bridgeConfig().getInt("threadpool.worker.count");
+        return new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), workerThreadFactory);
+    }
+
+    // Used at end of stream to upload TSVs to Synapse tables in parallel. This is separate from the worker executor,
+    // since uploads spend most of their time waiting on Synapse async jobs.
+    @Bean(name = "synapseUploadExecutorService")
+    public ExecutorService synapseUploadExecutorService() {
+        return Executors.newFixedThreadPool(bridgeConfig().getInt("threadpool.synapse.upload.count"));
+    }
+
+    // Uploads TSVs that are rotated out mid-stream. End of stream uploads wait on these, so these need their own pool.
+    @Bean(name = "rotatedTsvUploadExecutorService")
+    public ExecutorService rotatedTsvUploadExecutorService() {
+        return Executors.newFixedThreadPool(bridgeConfig().getInt("threadpool.rotated.tsv.upload.count"));
+    }
+
+    // Attachment pipeline. S3 metadata calls run ahead of the (rate limited) Synapse file handle calls, so these are
+    // sized separately. See SynapseHelper.uploadFromS3ToSynapseFileHandleAsync().
+    @Bean(name = "attachmentMetadataExecutorService")
+    public ExecutorService attachmentMetadataExecutorService() {
+        return Executors.newFixedThreadPool(bridgeConfig().getInt("threadpool.attachment.metadata.count"));
+    }
+
+    @Bean(name = "attachmentFileHandleExecutorService")
+    public ExecutorService attachmentFileHandleExecutorService() {
+        return Executors.newFixedThreadPool(bridgeConfig().getInt("threadpool.attachment.file.handle.count"));
+    }
+
+    // Attachment file handles, keyed by storage location and attachment ID, so redrives and re-exports don't create
+    // new file handles for the same attachments.
+    @Bean(name = "attachmentFileHandleCache")
+    public FileHandleCache attachmentFileHandleCache() {
+        Config config = bridgeConfig();
+        Table ddbTable = ddbClient().getTable(config.get(ExportWorkerManager.CONFIG_KEY_EXPORTER_DDB_PREFIX) +
+                "AttachmentFileHandles");
+        return new FileHandleCache("attachment", ddbTable, config.getInt(
+                "file.handle.cache.attachment.max.local.entries"), config.getInt("file.handle.cache.ttl.days"));
+    }
+
+    // Raw metadata file handles, keyed by content MD5. This lives next to the exporter's Synapse table maps, since
+    // file handles belong to the exporter's Synapse account.
+    @Bean(name = "rawMetadataFileHandleCache")
+    public FileHandleCache rawMetadataFileHandleCache() {
+        Config config = bridgeConfig();
+        Table ddbTable = ddbClient().getTable(config.get(ExportWorkerManager.CONFIG_KEY_EXPORTER_DDB_PREFIX) +
+                "RawMetadataFileHandles");
+        return new FileHandleCache("rawMetadata", ddbTable, config.getInt(
+                "file.handle.cache.raw.metadata.max.local.entries"), config.getInt("file.handle.cache.ttl.days"));
+    }
+
+    // Synapse table column models, keyed by table ID and validated by etag, so we don't need to call the heavily rate
+    // limited column models API for tables that haven't changed.
+    @Bean(name = "tableSchemaCache")
+    public TableSchemaCache tableSchemaCache() {
+        Config config = bridgeConfig();
+        Table ddbTable = ddbClient().getTable(config.get(ExportWorkerManager.CONFIG_KEY_EXPORTER_DDB_PREFIX) +
+                "TableSchemas");
+        return new TableSchemaCache(ddbTable, config.getInt("table.schema.cache.max.local.entries"));
+    }
+
+    // Token buckets for rate limits shared by all exporter hosts. Local dev uses an in-memory store, since there's only
+    // one host.
+    @Bean
+    public TokenBucketStore tokenBucketStore() {
+        Config config = bridgeConfig();
+        if ("local".equals(config.get("rate.limiter.store"))) {
+            return new InMemoryTokenBucketStore();
+        }
+        Table ddbTable = ddbClient().getTable(config.get(ExportWorkerManager.CONFIG_KEY_EXPORTER_DDB_PREFIX) +
+                "RateLimiterBuckets");
+        return new DynamoTokenBucketStore(ddbTable);
+    }
+
+    // Synapse limits getColumnModels per host, but all exporter hosts share one budget, so that a busy host can use
+    // the whole budget while the others are idle. The global rate leaves some headroom under the cluster budget (48
+    // per minute). If the token bucket store is down, each host falls back to its per-host share (6 per minute), so
+    // the cluster stays within budget even then.
+    @Bean(name = "getColumnModelsSharedRateLimiter")
+    public SharedRateLimiter getColumnModelsSharedRateLimiter() {
+        Config config = bridgeConfig();
+        return new SharedRateLimiter("getColumnModels", tokenBucketStore(),
+                config.getInt("synapse.get.column.models.global.rate.limit.per.minute") / 60.0,
+                config.getInt("synapse.get.column.models.rate.limit.per.minute") / 60.0);
     }
 
     @Bean(name = "synapseColumnDefinitions")
@@ -8,6 +8,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
 
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.exporter.request.BridgeExporterRequestScheduler;
+import org.sagebionetworks.bridge.exporter.synapse.SynapseMetricsReporter;
+import org.sagebionetworks.bridge.exporter.worker.WorkerPoolController;
 import org.sagebionetworks.bridge.heartbeat.HeartbeatLogger;
 import org.sagebionetworks.bridge.sqs.PollSqsWorker;
 
@@ -19,22 +23,58 @@ import org.sagebionetworks.bridge.sqs.PollSqsWorker;
 public class WorkerLauncher implements CommandLineRunner {
     private static final Logger LOG = LoggerFactory.getLogger(WorkerLauncher.class);
 
+    // package-scoped to be available to unit tests
+    static final String CONFIG_KEY_REQUEST_CONCURRENCY = "exporter.request.concurrency";
+
+    private int requestConcurrency;
     private HeartbeatLogger heartbeatLogger;
     private List<PollSqsWorker> pollSqsWorkers;
+    private SynapseMetricsReporter synapseMetricsReporter;
+    private WorkerPoolController workerPoolController;
+
+    /**
+     * Config, used to get the number of export requests to process concurrently. This defaults to the number of
+     * scheduler slots, so that received requests don't wait for a slot while their SQS message is un-acked.
+     */
+    @Autowired
+    public final void setConfig(Config config) {
+        int slots = Math.max(1, config.getInt(BridgeExporterRequestScheduler.CONFIG_KEY_SCHEDULER_SLOTS));
+        this.requestConcurrency = config.getInt(CONFIG_KEY_REQUEST_CONCURRENCY);
+        if (requestConcurrency < 1) {
+            requestConcurrency = slots;
+        } else if (requestConcurrency > slots) {
+            LOG.warn("Request concurrency " + requestConcurrency + " is greater than scheduler slots " + slots +
+                    ". Requests waiting for a slot may exceed the SQS visibility timeout.");
+        }
+    }
 
     @Autowired
     public final void setHeartbeatLogger(HeartbeatLogger heartbeatLogger) {
         this.heartbeatLogger = heartbeatLogger;
     }
 
-    // This is singleton, because the bottleneck is how many threads we can spin up to handle one export job, not how
-    // many export jobs we can do in parallel. If we for some reason find we need to do parallel export jobs, we can
-    // move this to multi-threading.
+    // Each poll SQS worker is run on multiple threads, so that small requests (like redrives) don't have to wait
+    // behind a long-running request (like the daily export). All requests share the same worker executor and Synapse
+    // rate limiters. ExportWorkerManager bounds each request's outstanding subtasks, so they get a fair share. If
+    // there are more poll threads than BridgeExporterRequestScheduler slots, the extra threads hold requests waiting
+    // to be scheduled by priority, which only makes sense if the SQS visibility timeout covers the wait.
     @Autowired
     public final void setPollSqsWorkers(List<PollSqsWorker> pollSqsWorkers) {
         this.pollSqsWorkers = pollSqsWorkers;
     }
 
+    /** Publishes Synapse metrics shared by all requests. Runs in its own thread. */
+    @Autowired
+    public final void setSynapseMetricsReporter(SynapseMetricsReporter synapseMetricsReporter) {
+        this.synapseMetricsReporter = synapseMetricsReporter;
+    }
+
+    /** Adjusts the worker thread pool size. Runs in its own thread. */
+    @Autowired
+    public final void setWorkerPoolController(WorkerPoolController workerPoolController) {
+        this.workerPoolController = workerPoolController;
+    }
+
     /**
      * Main entry point into the app. Should only be called by Spring Boot.
      *
@@ -46,10 +86,18 @@ public class WorkerLauncher implements CommandLineRunner {
         LOG.info("Starting heartbeat...");
         new Thread(heartbeatLogger).start();
 
+        LOG.info("Starting worker pool controller...");
+        new Thread(workerPoolController).start();
+
+        LOG.info("Starting Synapse metrics reporter...");
+        new Thread(synapseMetricsReporter).start();
+
         LOG.info("Starting poll SQS workers...");
         for (PollSqsWorker pollSqsWorker : pollSqsWorkers) {
-            LOG.info("Starting poll SQS worker");
-            new Thread(pollSqsWorker).start();
+            for (int i = 0; i < requestConcurrency; i++) {
+                LOG.info("Starting poll SQS worker thread " + i);
+                new Thread(pollSqsWorker).start();
+            }
         }
     }
 }
@@ -0,0 +1,15 @@
+package org.sagebionetworks.bridge.exporter.exceptions;
+
+import org.sagebionetworks.client.exceptions.SynapseClientException;
+
+/**
+ * Represents when the calling thread was interrupted while waiting for a Synapse async job. This is distinct from a
+ * timeout, and from the job failing in Synapse: We stopped waiting, but the job may still finish in Synapse. The
+ * thread's interrupt flag is still set.
+ */
+@SuppressWarnings("serial")
+public class AsyncJobInterruptedException extends SynapseClientException {
+    public AsyncJobInterruptedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,26 @@
+package org.sagebionetworks.bridge.exporter.exceptions;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A special kind of BridgeExporterException, which is thrown when only part of a table's rows failed to upload to
+ * Synapse. The rest of the rows were already imported, so redriving the whole table would import them twice. Instead,
+ * this exception carries the record IDs of the rows that weren't imported, so that only those records are redriven.
+ * The cause is the underlying upload error.
+ */
+@SuppressWarnings("serial")
+public class BridgeExporterPartialUploadException extends BridgeExporterException {
+    private final List<String> redriveRecordIds;
+
+    public BridgeExporterPartialUploadException(String message, Throwable cause, List<String> redriveRecordIds) {
+        super(message, cause);
+        this.redriveRecordIds = ImmutableList.copyOf(redriveRecordIds);
+    }
+
+    /** Record IDs of the rows that weren't imported into Synapse, and should be redriven. */
+    public List<String> getRedriveRecordIds() {
+        return redriveRecordIds;
+    }
+}
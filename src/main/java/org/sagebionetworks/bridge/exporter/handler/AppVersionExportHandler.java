@@ -4,7 +4,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import com.amazonaws.services.dynamodbv2.document.Item;
 import com.google.common.collect.ImmutableList;
 import org.apache.commons.lang3.StringUtils;
 import org.sagebionetworks.repo.model.table.ColumnModel;
@@ -74,10 +73,9 @@ public class AppVersionExportHandler extends SynapseExportHandler {
     @Override
     protected Map<String, String> getTsvRowValueMap(ExportSubtask subtask) {
         ExportTask task = subtask.getParentTask();
-        Item record = subtask.getOriginalRecord();
 
         // book keeping - unique app versions
-        PhoneAppVersionInfo phoneAppVersionInfo = PhoneAppVersionInfo.fromRecord(record);
+        PhoneAppVersionInfo phoneAppVersionInfo = subtask.getPhoneAppVersionInfo();
         String appVersion = phoneAppVersionInfo.getAppVersion();
         if (StringUtils.isNotBlank(appVersion)) {
             task.getMetrics().addKeyValuePair("uniqueAppVersions[" + getStudyId() + "]", appVersion);
@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.exporter.handler;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 import org.sagebionetworks.client.exceptions.SynapseException;
 
@@ -53,4 +54,15 @@ public abstract class ExportHandler {
     /** Handles the task. Whatever it might be. */
     public abstract void handle(ExportSubtask subtask) throws BridgeExporterException, IOException,
             SchemaNotFoundException, SynapseException;
+
+    /**
+     * Handles the task, like {@link #handle}, but if part of the work is still running in the background when this
+     * returns, returns a future that completes when it's done. Returns null if all the work is done. The default
+     * implementation does all the work synchronously.
+     */
+    public CompletableFuture<Void> handleAsync(ExportSubtask subtask) throws BridgeExporterException, IOException,
+            SchemaNotFoundException, SynapseException {
+        handle(subtask);
+        return null;
+    }
 }
@@ -2,15 +2,19 @@ package org.sagebionetworks.bridge.exporter.handler;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.jcabi.aspects.Cacheable;
 import org.apache.commons.lang3.StringUtils;
@@ -18,13 +22,14 @@ import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.sagebionetworks.client.exceptions.SynapseException;
-import org.sagebionetworks.repo.model.file.FileHandle;
 import org.sagebionetworks.repo.model.table.ColumnModel;
 import org.sagebionetworks.repo.model.table.ColumnType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterException;
 import org.sagebionetworks.bridge.exporter.exceptions.SchemaNotFoundException;
+import org.sagebionetworks.bridge.exporter.helper.BridgeHelper;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
 import org.sagebionetworks.bridge.exporter.worker.ExportSubtask;
 import org.sagebionetworks.bridge.exporter.worker.ExportTask;
@@ -51,6 +56,8 @@ public abstract class HealthDataExportHandler extends SynapseExportHandler {
     private static final String METADATA_FIELD_NAME_PREFIX = "metadata.";
     private static final char MULTI_CHOICE_FIELD_SEPARATOR = '.';
     private static final String OTHER_CHOICE_FIELD_SUFFIX = ".other";
+    private static final String FALSE_STRING = String.valueOf(false);
+    private static final String TRUE_STRING = String.valueOf(true);
     private static final String TIME_ZONE_FIELD_SUFFIX = ".timezone";
     private static final long TIME_ZONE_FIELD_LENGTH = 5;
     private static final DateTimeFormatter TIME_ZONE_FORMATTER = DateTimeFormat.forPattern("Z");
@@ -209,101 +216,166 @@ public abstract class HealthDataExportHandler extends SynapseExportHandler {
     }
 
     @Override
-    protected Map<String, String> getTsvRowValueMap(ExportSubtask subtask) throws IOException, SchemaNotFoundException,
+    protected TsvRowSerializer compileTsvRowSerializer(ExportTask task, TsvRowLayout layout)
+            throws SchemaNotFoundException {
+        // Compile the metadata fields and schema fields into lists of field serializers, with pre-computed column
+        // indexes. Metadata columns have the metadata prefix, but we extract them by their unprefixed name.
+        List<UploadFieldDefinition> metadataFieldDefList = getStudyUploadMetadataFieldDefList();
+        List<CompiledField> metadataFieldList = compileFields(metadataFieldDefList, METADATA_FIELD_NAME_PREFIX,
+                layout);
+        List<CompiledField> schemaFieldList = compileFields(getSchemaFieldDefList(task.getMetrics()), "", layout);
+        int rawDataIndex = layout.indexOf(COLUMN_NAME_RAW_DATA);
+        int rawMetadataIndex = layout.indexOf(COLUMN_NAME_RAW_METADATA);
+
+        // Record data only needs the schema fields. Everything else in the record data is skipped during parsing.
+        Set<String> schemaFieldNameSet = ImmutableSet.copyOf(schemaFieldList.stream()
+                .map(oneField -> oneField.fieldDef.getName()).iterator());
+
+        return (subtask, row) -> serializeRow(subtask, row, metadataFieldList, schemaFieldList, schemaFieldNameSet,
+                rawDataIndex, rawMetadataIndex);
+    }
+
+    // Helper method to compile a field def list into field serializers.
+    private static List<CompiledField> compileFields(List<UploadFieldDefinition> fieldDefList, String columnPrefix,
+            TsvRowLayout layout) {
+        if (fieldDefList == null || fieldDefList.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        ImmutableList.Builder<CompiledField> compiledFieldListBuilder = ImmutableList.builder();
+        for (UploadFieldDefinition oneFieldDef : fieldDefList) {
+            compiledFieldListBuilder.add(new CompiledField(oneFieldDef, columnPrefix, layout));
+        }
+        return compiledFieldListBuilder.build();
+    }
+
+    // Serializes the record into the row, using the compiled field lists. Attachments are uploaded in the background.
+    // Returns a future that completes when their file handle IDs have been written into the row, or null if there are
+    // no attachments.
+    private CompletableFuture<Void> serializeRow(ExportSubtask subtask, String[] row,
+            List<CompiledField> metadataFieldList, List<CompiledField> schemaFieldList,
+            Set<String> schemaFieldNameSet, int rawDataIndex, int rawMetadataIndex) throws IOException,
             SynapseException {
         ExportWorkerManager manager = getManager();
         ExportTask task = subtask.getParentTask();
         String synapseProjectId = manager.getSynapseProjectIdForStudyAndTask(getStudyId(), task);
         SynapseHelper synapseHelper = manager.getSynapseHelper();
-        Map<String, String> rowValueMap = new HashMap<>();
+        List<CompletableFuture<Void>> pendingAttachmentList = new ArrayList<>();
 
         // metadata columns
         String userMetadataJsonText = subtask.getOriginalRecord().getString(DDB_KEY_USER_METADATA);
         if (StringUtils.isNotBlank(userMetadataJsonText)) {
             // extract and serialize from the raw DDB record
-            JsonNode userMetadataNode = DefaultObjectMapper.INSTANCE.readTree(userMetadataJsonText);
-            List<UploadFieldDefinition> metadataFieldDefList = getStudyUploadMetadataFieldDefList();
-            if (metadataFieldDefList != null && !metadataFieldDefList.isEmpty()) {
-                Map<String, String> metadataFieldMap = extractAndSerializeFields(subtask, metadataFieldDefList,
-                        userMetadataNode);
-
-                // Add to the row value map, but pre-pend the metadata prefix.
-                metadataFieldMap.forEach((key, value) -> rowValueMap.put(METADATA_FIELD_NAME_PREFIX + key, value));
+            if (!metadataFieldList.isEmpty()) {
+                JsonNode userMetadataNode = DefaultObjectMapper.INSTANCE.readTree(userMetadataJsonText);
+                extractAndSerializeFields(subtask, synapseProjectId, metadataFieldList, userMetadataNode, row,
+                        pendingAttachmentList);
             }
 
-            // Upload raw metadata as a file handle.
-            FileHandle metadataFileHandle = synapseHelper.createFileHandleFromStringWithRetry(userMetadataJsonText,
+            // Upload raw metadata as a file handle. Many records have identical metadata, so this re-uses file
+            // handles for content we've already uploaded.
+            String metadataFileHandleId = synapseHelper.createFileHandleFromStringWithDedup(userMetadataJsonText,
                     FILE_NAME_RAW_METADATA_JSON, CONTENT_TYPE_APPLICATION_JSON);
-            rowValueMap.put(COLUMN_NAME_RAW_METADATA, metadataFileHandle.getId());
+            TsvRowLayout.setRowValue(row, rawMetadataIndex, metadataFileHandleId);
         }
 
-        // schema-specific columns - These write directly to the rowValueMap, possibly overwriting metadata if there's
-        // a name conflict.
-        List<UploadFieldDefinition> schemaFieldDefList = getSchemaFieldDefList(task.getMetrics());
-        Map<String, String> schemaFieldMap = extractAndSerializeFields(subtask, schemaFieldDefList,
-                subtask.getRecordData());
-        rowValueMap.putAll(schemaFieldMap);
+        // schema-specific columns - These are written after metadata, possibly overwriting metadata if there's a name
+        // conflict.
+        if (!schemaFieldList.isEmpty()) {
+            JsonNode recordDataNode = subtask.getRecordDataFields(schemaFieldNameSet);
+            extractAndSerializeFields(subtask, synapseProjectId, schemaFieldList, recordDataNode, row,
+                    pendingAttachmentList);
+        }
 
         // Upload raw data. Attachment ID includes record ID, so we can use it verbatim.
         String rawDataAttachmentId = subtask.getOriginalRecord().getString(DDB_KEY_RAW_DATA_ATTACHMENT_ID);
         if (StringUtils.isNotBlank(rawDataAttachmentId)) {
-            String fileHandleId = synapseHelper.uploadFromS3ToSynapseFileHandle(synapseProjectId, rawDataAttachmentId);
-            rowValueMap.put(COLUMN_NAME_RAW_DATA, fileHandleId);
+            pendingAttachmentList.add(synapseHelper.uploadFromS3ToSynapseFileHandleAsync(synapseProjectId,
+                    rawDataAttachmentId, task.isReexport()).thenAccept(fileHandleId -> TsvRowLayout.setRowValue(row,
+                    rawDataIndex, fileHandleId)));
         }
 
-        return rowValueMap;
+        if (pendingAttachmentList.isEmpty()) {
+            return null;
+        }
+        return CompletableFuture.allOf(pendingAttachmentList.toArray(new CompletableFuture[pendingAttachmentList
+                .size()]));
+    }
+
+    /**
+     * Map-based view of the row, for callers that need one. The export path writes rows through
+     * {@link #compileTsvRowSerializer} instead. This re-uses the task's compiled serializer.
+     */
+    @Override
+    protected Map<String, String> getTsvRowValueMap(ExportSubtask subtask) throws BridgeExporterException,
+            IOException, SchemaNotFoundException, SynapseException {
+        return serializeToRowValueMap(subtask);
     }
 
     /**
-     * Helper method to serialize fields from the given JSON node and return them as a map.
+     * Helper method to serialize fields from the given JSON node and write them into the row.
      *
      * @param subtask
      *         export subtask, used for looking up variables and logging info
-     * @param fieldDefList
-     *         field definition list; either study upload metadata fields or schema fields
+     * @param synapseProjectId
+     *         Synapse project to upload attachments to
+     * @param compiledFieldList
+     *         compiled fields; either study upload metadata fields or schema fields
      * @param jsonNode
      *         JSON node containing data; either record data or record user metadata
+     * @param row
+     *         row to write into
+     * @param pendingAttachmentList
+     *         list to add attachment uploads to; each one writes its file handle ID into the row when it completes
      */
-    private Map<String, String> extractAndSerializeFields(ExportSubtask subtask,
-            List<UploadFieldDefinition> fieldDefList, JsonNode jsonNode) throws IOException, SynapseException {
-        ExportWorkerManager manager = getManager();
+    private void extractAndSerializeFields(ExportSubtask subtask, String synapseProjectId,
+            List<CompiledField> compiledFieldList, JsonNode jsonNode, String[] row,
+            List<CompletableFuture<Void>> pendingAttachmentList) throws IOException, SynapseException {
         ExportTask task = subtask.getParentTask();
-        String synapseProjectId = manager.getSynapseProjectIdForStudyAndTask(getStudyId(), task);
+        SynapseHelper synapseHelper = getManager().getSynapseHelper();
         String recordId = subtask.getRecordId();
 
-        Map<String, String> rowValueMap = new HashMap<>();
-        for (UploadFieldDefinition oneFieldDef : fieldDefList) {
-            String oneFieldName = oneFieldDef.getName();
-            UploadFieldType bridgeType = oneFieldDef.getType();
-            JsonNode valueNode = jsonNode.get(oneFieldName);
-
-            if (bridgeType == UploadFieldType.MULTI_CHOICE) {
-                // MULTI_CHOICE serializes into multiple fields. See getSynapseTableColumnList() for details.
-                Map<String, String> serializedMultiChoiceFields = serializeMultiChoice(recordId, oneFieldDef,
-                        valueNode);
-                rowValueMap.putAll(serializedMultiChoiceFields);
-            } else if (bridgeType == UploadFieldType.TIMESTAMP) {
-                // Similarly, TIMESTAMP serializes into 2 different fields.
-                Map<String, String> serializedTimestampFields = serializeTimestamp(recordId, oneFieldName, valueNode);
-                rowValueMap.putAll(serializedTimestampFields);
-            } else {
-                String value = manager.getSynapseHelper().serializeToSynapseType(task.getMetrics(), task.getTmpDir(),
-                        synapseProjectId, recordId, getStudyId(), oneFieldDef, valueNode);
-                rowValueMap.put(oneFieldName, value);
+        for (CompiledField oneField : compiledFieldList) {
+            UploadFieldDefinition oneFieldDef = oneField.fieldDef;
+            JsonNode valueNode = jsonNode.get(oneFieldDef.getName());
+
+            switch (oneField.kind) {
+                case MULTI_CHOICE:
+                    // MULTI_CHOICE serializes into multiple fields. See getSynapseTableColumnList() for details.
+                    serializeMultiChoice(recordId, oneField, valueNode, row);
+                    break;
+                case TIMESTAMP:
+                    // Similarly, TIMESTAMP serializes into 2 different fields.
+                    serializeTimestamp(recordId, valueNode, row, oneField.valueIndex, oneField.timeZoneIndex);
+                    break;
+                case ATTACHMENT:
+                    // File handles are text nodes, where the text is the attachment ID (which is the S3 Key). Upload
+                    // in the background, so the worker can move on to the next record.
+                    if (valueNode != null && valueNode.isTextual()) {
+                        task.getMetrics().incrementCounter("numAttachments");
+                        int valueIndex = oneField.valueIndex;
+                        pendingAttachmentList.add(synapseHelper.uploadFromS3ToSynapseFileHandleAsync(
+                                synapseProjectId, valueNode.textValue(), task.isReexport()).thenAccept(
+                                fileHandleId -> TsvRowLayout.setRowValue(row, valueIndex, fileHandleId)));
+                    }
+                    break;
+                default:
+                    String value = synapseHelper.serializeToSynapseType(task.getMetrics(), task.getTmpDir(),
+                            synapseProjectId, recordId, getStudyId(), oneFieldDef, valueNode);
+                    TsvRowLayout.setRowValue(row, oneField.valueIndex, value);
+                    break;
             }
         }
-
-        return rowValueMap;
     }
 
     /**
-     * post process tsv to call update records' exporter status as SUCCEEDED
+     * post process tsv to call update records' exporter status as SUCCEEDED, for the rows that were imported
      */
     @Override
-    protected void postProcessTsv(TsvInfo tsvInfo) {
-        List<String> recordIds = tsvInfo.getRecordIds();
-
-        getManager().getBridgeHelper().updateRecordExporterStatus(recordIds, SynapseExporterStatus.SUCCEEDED);
+    protected void postProcessTsv(TsvInfo tsvInfo, int fromRow, int toRow) {
+        BridgeHelper bridgeHelper = getManager().getBridgeHelper();
+        tsvInfo.forEachRecordIdBatch(fromRow, toRow, BridgeHelper.MAX_BATCH_SIZE, recordIdBatch ->
+                bridgeHelper.updateRecordExporterStatus(recordIdBatch, SynapseExporterStatus.SUCCEEDED));
     }
 
     // Helper method for getting the upload metadata field def list from the study. This is similarly cached in
@@ -329,14 +401,35 @@ public abstract class HealthDataExportHandler extends SynapseExportHandler {
      * @return partial row value map with serialized multi-choice answers
      */
     static Map<String, String> serializeMultiChoice(String recordId, UploadFieldDefinition fieldDef, JsonNode node) {
+        // Lay out the answer columns, followed by the "other" column.
+        String fieldName = fieldDef.getName();
+        List<String> columnNameList = new ArrayList<>();
+        for (String oneAnswer : fieldDef.getMultiChoiceAnswerList()) {
+            columnNameList.add(fieldName + MULTI_CHOICE_FIELD_SEPARATOR + oneAnswer);
+        }
+        columnNameList.add(fieldName + OTHER_CHOICE_FIELD_SUFFIX);
+        TsvRowLayout layout = new TsvRowLayout(columnNameList);
+
+        String[] row = layout.newRow();
+        CompiledField compiledField = new CompiledField(fieldDef, "", layout);
+        serializeMultiChoice(recordId, compiledField, node, row);
+        return toPartialRowValueMap(columnNameList, row);
+    }
+
+    // Serialize a multi-choice answer directly into the row, using the compiled field's answer lookup table and column
+    // indexes.
+    private static void serializeMultiChoice(String recordId, CompiledField compiledField, JsonNode node,
+            String[] row) {
         if (node == null || node.isNull() || !node.isArray()) {
-            // Missing or invalid format. Return empty map (no values).
-            return ImmutableMap.of();
+            // Missing or invalid format. Don't write any values.
+            return;
         }
 
-        // Determine selected answers. Use TreeSet to maintain answers in a predictable (alphabetical) order.
+        // Determine selected answers. Known answers are tracked as bits by their position in the answer list. Other
+        // answers are rare, and are collected in a TreeSet to maintain them in a predictable (alphabetical) order.
         int numSelected = node.size();
-        Set<String> selectedSet = new TreeSet<>();
+        BitSet selectedBits = new BitSet(compiledField.answerIndexes.length);
+        Set<String> otherSet = null;
         for (int i = 0; i < numSelected; i++) {
             JsonNode oneSelectedNode = node.get(i);
             String oneSelectedAnswer;
@@ -348,38 +441,41 @@ public abstract class HealthDataExportHandler extends SynapseExportHandler {
                 oneSelectedAnswer = oneSelectedNode.toString();
             }
 
-            selectedSet.add(oneSelectedAnswer);
+            Integer answerPosition = compiledField.answerPositionMap.get(oneSelectedAnswer);
+            if (answerPosition != null) {
+                selectedBits.set(answerPosition);
+            } else {
+                if (otherSet == null) {
+                    otherSet = new TreeSet<>();
+                }
+                otherSet.add(oneSelectedAnswer);
+            }
         }
 
-        // Write "true" and "false" values based on fieldDef answer list.
-        String fieldName = fieldDef.getName();
-        Map<String, String> partialValueMap = new HashMap<>();
-        for (String oneAnswer : fieldDef.getMultiChoiceAnswerList()) {
-            String answerFieldName = fieldName + MULTI_CHOICE_FIELD_SEPARATOR + oneAnswer;
-            String answerFieldValue = String.valueOf(selectedSet.contains(oneAnswer));
-            partialValueMap.put(answerFieldName, answerFieldValue);
-
-            // Remove the answer from the set, so we can determine leftover answers for "allow other".
-            selectedSet.remove(oneAnswer);
+        // Write "true" and "false" values based on fieldDef answer list. If the answer list has duplicates, only the
+        // first occurrence is a lookup target, so later occurrences are always false.
+        for (int i = 0; i < compiledField.answerIndexes.length; i++) {
+            TsvRowLayout.setRowValue(row, compiledField.answerIndexes[i], selectedBits.get(i) ? TRUE_STRING :
+                    FALSE_STRING);
         }
 
-        if (!selectedSet.isEmpty()) {
+        if (otherSet != null) {
+            UploadFieldDefinition fieldDef = compiledField.fieldDef;
+            String fieldName = fieldDef.getName();
             String otherChoice;
-            if (selectedSet.size() == 1) {
-                otherChoice = Iterables.getOnlyElement(selectedSet);
+            if (otherSet.size() == 1) {
+                otherChoice = Iterables.getOnlyElement(otherSet);
             } else {
-                otherChoice = BridgeExporterUtil.COMMA_SPACE_JOINER.join(selectedSet);
+                otherChoice = BridgeExporterUtil.COMMA_SPACE_JOINER.join(otherSet);
                 LOG.warn("Multiple other choices " + otherChoice + " for field " + fieldName + " record " + recordId);
             }
 
             if (Boolean.TRUE.equals(fieldDef.getAllowOtherChoices())) {
-                partialValueMap.put(fieldName + OTHER_CHOICE_FIELD_SUFFIX, otherChoice);
+                TsvRowLayout.setRowValue(row, compiledField.otherIndex, otherChoice);
             } else {
                 LOG.warn("Unknown choice(s) " + otherChoice + " for field " + fieldName + " record " + recordId);
             }
         }
-
-        return partialValueMap;
     }
 
     /**
@@ -400,16 +496,29 @@ public abstract class HealthDataExportHandler extends SynapseExportHandler {
      * @return partial row value map with serialized timestamp
      */
     static Map<String, String> serializeTimestamp(String recordId, String fieldName, JsonNode node) {
+        List<String> columnNameList = ImmutableList.of(fieldName, fieldName + TIME_ZONE_FIELD_SUFFIX);
+        String[] row = new String[2];
+        serializeTimestamp(recordId, node, row, 0, 1);
+        return toPartialRowValueMap(columnNameList, row);
+    }
+
+    // Serialize a timestamp directly into the row.
+    private static void serializeTimestamp(String recordId, JsonNode node, String[] row, int valueIndex,
+            int timeZoneIndex) {
         if (node != null && !node.isNull()) {
             if (node.isTextual()) {
-                // Timestamp in ISO format. Parse using Joda.
+                // Timestamp in ISO format. Most timestamps are in the common format, which we can serialize without
+                // allocating intermediate objects.
                 String timestampString = node.textValue();
+                if (TimestampSerializer.serializeTimestamp(timestampString, row, valueIndex, timeZoneIndex)) {
+                    return;
+                }
+
+                // Otherwise, parse using Joda, which handles the full ISO 8601 spec.
                 try {
                     DateTime dateTime = DateTime.parse(timestampString);
-                    String epochMillisString = String.valueOf(dateTime.getMillis());
-                    String timeZoneString = TIME_ZONE_FORMATTER.print(dateTime);
-                    return ImmutableMap.<String, String>builder().put(fieldName, epochMillisString)
-                            .put(fieldName + TIME_ZONE_FIELD_SUFFIX, timeZoneString).build();
+                    TsvRowLayout.setRowValue(row, valueIndex, String.valueOf(dateTime.getMillis()));
+                    TsvRowLayout.setRowValue(row, timeZoneIndex, TIME_ZONE_FORMATTER.print(dateTime));
                 } catch (IllegalArgumentException ex) {
                     // log a warning, but throw out malformatted dates
                     LOG.warn("Invalid timestamp " + timestampString + " for record ID " + recordId);
@@ -417,13 +526,76 @@ public abstract class HealthDataExportHandler extends SynapseExportHandler {
             } else if (node.isNumber()) {
                 // Timestamp is epoch milliseconds. Push this straight across as the timestamp. The timezone is UTC
                 // ("+0000").
-                String epochMillisString = String.valueOf(node.longValue());
-                return ImmutableMap.<String, String>builder().put(fieldName, epochMillisString)
-                        .put(fieldName + TIME_ZONE_FIELD_SUFFIX, TIME_ZONE_UTC_STRING).build();
+                TsvRowLayout.setRowValue(row, valueIndex, String.valueOf(node.longValue()));
+                TsvRowLayout.setRowValue(row, timeZoneIndex, TIME_ZONE_UTC_STRING);
             }
         }
+    }
+
+    // Helper method to convert a partial row back to a map, skipping empty values.
+    private static Map<String, String> toPartialRowValueMap(List<String> columnNameList, String[] row) {
+        ImmutableMap.Builder<String, String> mapBuilder = ImmutableMap.builder();
+        for (int i = 0; i < row.length; i++) {
+            if (row[i] != null) {
+                mapBuilder.put(columnNameList.get(i), row[i]);
+            }
+        }
+        return mapBuilder.build();
+    }
+
+    // A field def, compiled against a TSV row layout.
+    private static class CompiledField {
+        enum Kind {
+            ATTACHMENT,
+            MULTI_CHOICE,
+            TIMESTAMP,
+            OTHER,
+        }
+
+        final UploadFieldDefinition fieldDef;
+        final Kind kind;
+        final int valueIndex;
+        final int timeZoneIndex;
+        final int[] answerIndexes;
+        final Map<String, Integer> answerPositionMap;
+        final int otherIndex;
 
-        return ImmutableMap.of();
+        CompiledField(UploadFieldDefinition fieldDef, String columnPrefix, TsvRowLayout layout) {
+            this.fieldDef = fieldDef;
+            String columnName = columnPrefix + fieldDef.getName();
+            UploadFieldType bridgeType = fieldDef.getType();
+
+            if (bridgeType == UploadFieldType.MULTI_CHOICE) {
+                List<String> answerList = fieldDef.getMultiChoiceAnswerList();
+                this.kind = Kind.MULTI_CHOICE;
+                this.answerIndexes = new int[answerList.size()];
+                Map<String, Integer> answerPositionMap = new HashMap<>();
+                for (int i = 0; i < answerIndexes.length; i++) {
+                    String oneAnswer = answerList.get(i);
+                    answerIndexes[i] = layout.indexOf(columnName + MULTI_CHOICE_FIELD_SEPARATOR + oneAnswer);
+                    answerPositionMap.putIfAbsent(oneAnswer, i);
+                }
+                this.answerPositionMap = ImmutableMap.copyOf(answerPositionMap);
+                this.otherIndex = layout.indexOf(columnName + OTHER_CHOICE_FIELD_SUFFIX);
+                this.valueIndex = -1;
+                this.timeZoneIndex = -1;
+            } else if (bridgeType == UploadFieldType.TIMESTAMP) {
+                this.kind = Kind.TIMESTAMP;
+                this.valueIndex = layout.indexOf(columnName);
+                this.timeZoneIndex = layout.indexOf(columnName + TIME_ZONE_FIELD_SUFFIX);
+                this.answerIndexes = null;
+                this.answerPositionMap = null;
+                this.otherIndex = -1;
+            } else {
+                this.kind = SynapseHelper.BRIDGE_TYPE_TO_SYNAPSE_TYPE.get(bridgeType) == ColumnType.FILEHANDLEID ?
+                        Kind.ATTACHMENT : Kind.OTHER;
+                this.valueIndex = layout.indexOf(columnName);
+                this.timeZoneIndex = -1;
+                this.answerIndexes = null;
+                this.answerPositionMap = null;
+                this.otherIndex = -1;
+            }
+        }
     }
 
     /** Gets the field definition from the schema. Returns an empty list if not based on a schema. */
@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 
 import org.sagebionetworks.bridge.json.DefaultObjectMapper;
 import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
+import org.sagebionetworks.bridge.exporter.util.ValueInternPool;
 
 /** Encapsulates getting appVersion and phoneInfo from record metadata. */
 public class PhoneAppVersionInfo {
@@ -23,6 +24,14 @@ public class PhoneAppVersionInfo {
      * metadata can't be parsed.
      */
     public static PhoneAppVersionInfo fromRecord(Item record) {
+        return fromRecord(record, null);
+    }
+
+    /**
+     * Same as {@link #fromRecord(Item)}, except the app version and phone info are interned in the given pool, since
+     * they repeat across many records. The pool may be null, in which case nothing is interned.
+     */
+    public static PhoneAppVersionInfo fromRecord(Item record, ValueInternPool valueInternPool) {
         String recordId = record.getString("id");
         String studyId = record.getString("studyId");
 
@@ -43,6 +52,11 @@ public class PhoneAppVersionInfo {
             }
         }
 
+        if (valueInternPool != null) {
+            appVersion = valueInternPool.intern(appVersion);
+            phoneInfo = valueInternPool.intern(phoneInfo);
+        }
+
         return new PhoneAppVersionInfo(appVersion, phoneInfo);
     }
 
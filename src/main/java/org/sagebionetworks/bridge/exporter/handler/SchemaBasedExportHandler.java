@@ -4,6 +4,7 @@ import java.util.List;
 
 import org.sagebionetworks.bridge.exporter.exceptions.SchemaNotFoundException;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+import org.sagebionetworks.bridge.exporter.synapse.SynapseHelper;
 import org.sagebionetworks.bridge.exporter.worker.ExportTask;
 import org.sagebionetworks.bridge.exporter.worker.TsvInfo;
 import org.sagebionetworks.bridge.rest.model.UploadFieldDefinition;
@@ -29,12 +30,12 @@ public class SchemaBasedExportHandler extends HealthDataExportHandler {
 
     @Override
     protected String getDdbTableName() {
-        return "SynapseTables";
+        return SynapseHelper.DDB_TABLE_SYNAPSE_TABLES;
     }
 
     @Override
     protected String getDdbTableKeyName() {
-        return "schemaKey";
+        return SynapseHelper.DDB_KEY_SCHEMA_KEY;
     }
 
     @Override
@@ -1,39 +1,54 @@
 package org.sagebionetworks.bridge.exporter.handler;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
-import com.amazonaws.services.dynamodbv2.document.Item;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.sagebionetworks.client.exceptions.SynapseException;
 import org.sagebionetworks.client.exceptions.SynapseNotFoundException;
+import org.sagebionetworks.client.exceptions.SynapseServiceUnavailable;
 import org.sagebionetworks.repo.model.table.ColumnChange;
 import org.sagebionetworks.repo.model.table.ColumnModel;
 import org.sagebionetworks.repo.model.table.ColumnType;
 import org.sagebionetworks.repo.model.table.TableSchemaChangeRequest;
+import org.sagebionetworks.repo.model.table.TableEntity;
+import org.sagebionetworks.repo.model.table.UploadToTableResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.sagebionetworks.bridge.exporter.exceptions.AsyncJobInterruptedException;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterException;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterNonRetryableException;
+import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterPartialUploadException;
 import org.sagebionetworks.bridge.exporter.exceptions.SchemaNotFoundException;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
 import org.sagebionetworks.bridge.exporter.synapse.ColumnDefinition;
 import org.sagebionetworks.bridge.exporter.synapse.SynapseHelper;
 import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
 import org.sagebionetworks.bridge.exporter.worker.ExportSubtask;
+import org.sagebionetworks.bridge.exporter.worker.ExportSubtaskFuture;
 import org.sagebionetworks.bridge.exporter.worker.ExportTask;
 import org.sagebionetworks.bridge.exporter.worker.ExportWorkerManager;
 import org.sagebionetworks.bridge.exporter.worker.TsvInfo;
@@ -47,9 +62,16 @@ import org.sagebionetworks.bridge.file.FileHelper;
 public abstract class SynapseExportHandler extends ExportHandler {
     private static final Logger LOG = LoggerFactory.getLogger(SynapseExportHandler.class);
 
-    private List<ColumnModel> commonColumnList;
+    // Number of times we try to import a single TSV chunk before giving up on the table.
+    private static final int MAX_CHUNK_IMPORT_ATTEMPTS = 2;
 
-    private List<ColumnDefinition> columnDefinition;
+    // Buffer size for reading and writing TSV chunks.
+    private static final int TSV_BUFFER_SIZE = 64 * 1024;
+
+    // These are initialized during table init, but read by every worker thread, so they need to be volatile.
+    private volatile List<ColumnModel> commonColumnList;
+
+    private volatile List<ColumnDefinition> columnDefinition;
 
     private void initSynapseColumnDefinitionsAndColumnList() {
         this.columnDefinition = getManager().getColumnDefinitions();
@@ -93,6 +115,17 @@ public abstract class SynapseExportHandler extends ExportHandler {
     @Override
     public void handle(ExportSubtask subtask) throws BridgeExporterException, IOException, SchemaNotFoundException,
             SynapseException {
+        handleAsync(subtask);
+    }
+
+    /**
+     * Similar to {@link #handle}, but if the row is still waiting on values computed in the background, returns a
+     * future that completes when the row is written. The future is also registered with the parent task, so end of
+     * stream waits for it.
+     */
+    @Override
+    public CompletableFuture<Void> handleAsync(ExportSubtask subtask) throws BridgeExporterException, IOException,
+            SchemaNotFoundException, SynapseException {
         String tableKey = getDdbTableKeyValue();
         ExportTask task = subtask.getParentTask();
         Metrics metrics = task.getMetrics();
@@ -103,16 +136,49 @@ public abstract class SynapseExportHandler extends ExportHandler {
             TsvInfo tsvInfo = initTsvForTask(task);
             tsvInfo.checkInitAndThrow();
 
-            // Construct row value map. Merge row values from common columns and getTsvRowValueMap()
-            Map<String, String> rowValueMap = new HashMap<>();
-            rowValueMap.putAll(getCommonRowValueMap(subtask));
-            rowValueMap.putAll(getTsvRowValueMap(subtask));
-
-            // write to TSV
-            tsvInfo.writeRow(rowValueMap);
-            // add one record into tsv
-            tsvInfo.addRecordId(recordId);
-            metrics.incrementCounter(tableKey + ".lineCount");
+            // Construct row. Common columns first, then the handler-specific columns, which may overwrite common
+            // columns.
+            TsvRowPlan plan = getRowPlan(task, tsvInfo.getColumnNameList());
+            String[] row = plan.layout.newRow();
+            writeCommonRowValues(subtask, plan, row);
+            CompletableFuture<Void> pendingValuesFuture = plan.serializer.serialize(subtask, row);
+
+            if (pendingValuesFuture == null || pendingValuesFuture.isDone()) {
+                if (pendingValuesFuture != null) {
+                    joinPendingValues(pendingValuesFuture);
+                }
+                writeRow(task, tsvInfo, recordId, row);
+                return null;
+            } else {
+                // Some values (generally attachment file handles) are still being computed in the background. Don't
+                // tie up the worker thread waiting for them. Instead, write the row when they're ready, and register
+                // the write as another subtask future, so that end of stream waits for it and handles errors (and
+                // redrives) the same way as any other subtask.
+                TsvInfo initialTsvInfo = tsvInfo;
+                CompletableFuture<Void> rowFuture = new CompletableFuture<>();
+                pendingValuesFuture.whenComplete((result, pendingEx) -> {
+                    try {
+                        if (pendingEx != null) {
+                            joinPendingValues(pendingValuesFuture);
+                        }
+                        writeRow(task, initialTsvInfo, recordId, row);
+                        rowFuture.complete(null);
+                    } catch (BridgeExporterException | IOException | RuntimeException | SchemaNotFoundException |
+                            SynapseException ex) {
+                        metrics.incrementCounter(tableKey + ".errorCount");
+                        LOG.error("Error processing record " + recordId + " for table " + tableKey + ": " +
+                                ex.getMessage(), ex);
+                        rowFuture.completeExceptionally(ex);
+                    } catch (Error ex) {
+                        // Don't leave end of stream waiting forever.
+                        rowFuture.completeExceptionally(ex);
+                        throw ex;
+                    }
+                });
+                task.addSubtaskFuture(new ExportSubtaskFuture.Builder().withSubtask(subtask).withFuture(rowFuture)
+                        .build());
+                return rowFuture;
+            }
         } catch (BridgeExporterException | IOException | RuntimeException | SchemaNotFoundException |
                 SynapseException ex) {
             // Log metrics and rethrow.
@@ -122,44 +188,194 @@ public abstract class SynapseExportHandler extends ExportHandler {
         }
     }
 
+    // Helper method to write a completed row to the TSV. This also tracks the record ID in the same TSV. If the TSV
+    // was rotated out from under us, get the new TSV and try again. Rotated TSVs have the same columns, so the row is
+    // still valid.
+    private void writeRow(ExportTask task, TsvInfo tsvInfo, String recordId, String[] row)
+            throws BridgeExporterException, IOException {
+        while (!tsvInfo.writeRowForRecord(recordId, row)) {
+            synchronized (this) {
+                tsvInfo = getTsvInfoForTask(task);
+            }
+        }
+        task.getMetrics().incrementCounter(getDdbTableKeyValue() + ".lineCount");
+
+        // If the TSV is full, rotate it out and upload it in the background.
+        if (shouldRotateTsv(tsvInfo)) {
+            rotateTsv(task, tsvInfo);
+        }
+    }
+
+    /**
+     * Waits for values that a TsvRowSerializer is computing in the background, and rethrows the original exception
+     * if any of them failed. Package-scoped so subclasses that need the values synchronously can share it.
+     */
+    static void joinPendingValues(CompletableFuture<?> pendingValuesFuture) throws BridgeExporterException,
+            IOException, SchemaNotFoundException, SynapseException {
+        try {
+            pendingValuesFuture.join();
+        } catch (CompletionException | CancellationException ex) {
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof BridgeExporterException) {
+                throw (BridgeExporterException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof SchemaNotFoundException) {
+                throw (SchemaNotFoundException) cause;
+            } else if (cause instanceof SynapseException) {
+                throw (SynapseException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new BridgeExporterException("Error computing row values: " + cause.getMessage(), cause);
+            }
+        }
+    }
+
+    /**
+     * Gets the future for the TSV (and Synapse table) initialization for the given task, or null if initialization
+     * hasn't started yet. ExportWorkerManager uses this to park subtasks until the table is ready, instead of having
+     * them tie up worker threads.
+     */
+    public CompletableFuture<TsvInfo> getTsvInitFutureForTask(ExportTask task) {
+        return task.getTsvInitFuture(getDdbTableKeyValue());
+    }
+
     // Gets the TSV for the task, initializing it if it hasn't been created yet. Also initializes the Synapse table if
-    // it hasn't been created.
-    private synchronized TsvInfo initTsvForTask(ExportTask task) {
+    // it hasn't been created. Initialization is memoized as a future in the task, so only the first caller does the
+    // work, and everyone else shares the result.
+    private TsvInfo initTsvForTask(ExportTask task) {
         // check if the TSV is already saved in the task
         TsvInfo savedTsvInfo = getTsvInfoForTask(task);
-
         if (savedTsvInfo != null) {
             return savedTsvInfo;
         }
 
+        String tableKey = getDdbTableKeyValue();
+        CompletableFuture<TsvInfo> initFuture = new CompletableFuture<>();
+        CompletableFuture<TsvInfo> existingFuture = task.putTsvInitFutureIfAbsent(tableKey, initFuture);
+        if (existingFuture != null) {
+            // Someone else is initializing (or has initialized) the TSV. Subtasks queued after initialization started
+            // are parked by the ExportWorkerManager, so we only get here for subtasks that were already running.
+            try {
+                return existingFuture.join();
+            } catch (CompletionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw ex;
+            }
+        }
+
         TsvInfo tsvInfo;
         try {
-            // get column name list
-            List<String> columnNameList = getColumnNameList(task);
-
-            // create TSV and writer
-            FileHelper fileHelper = getManager().getFileHelper();
+            tsvInfo = createTsvForTask(task);
+        } catch (RuntimeException ex) {
+            // Unexpected error. Clear the future so the next subtask can retry initialization, and fail everyone
+            // who's currently waiting.
+            task.removeTsvInitFuture(tableKey, initFuture);
+            initFuture.completeExceptionally(ex);
+            throw ex;
+        }
 
-            // For the TSV filename, replace any characters that aren't alphanumeric, dash, or underscore. Since these
-            // are temp files, we don't need to worry about readability, so don't worry about replacing these
-            // characters with anything. Also append a short random string to (probabilistically) ensure uniqueness.
-            String filename = getDdbTableKeyValue().replaceAll("[^A-Za-z0-9\\-_]", "") +
-                    RandomStringUtils.randomAlphabetic(4) + ".tsv";
+        setTsvInfoForTask(task, tsvInfo);
+        initFuture.complete(tsvInfo);
+        return tsvInfo;
+    }
 
-            File tsvFile = fileHelper.newFile(task.getTmpDir(), filename);
-            Writer fileWriter = fileHelper.getWriter(tsvFile);
+    // Helper method which does the actual work of initializing the Synapse table and TSV.
+    private TsvInfo createTsvForTask(ExportTask task) {
+        TsvInfo tsvInfo;
+        try {
+            // get column name list
+            List<String> columnNameList = getColumnNameList(task);
 
             // create TSV info
-            tsvInfo = new TsvInfo(columnNameList, tsvFile, fileWriter);
+            tsvInfo = createTsvFile(task, columnNameList);
         } catch (BridgeExporterException | FileNotFoundException | SchemaNotFoundException | SynapseException ex) {
             LOG.error("Error initializing TSV for table " + getDdbTableKeyValue() + ": " + ex.getMessage(), ex);
             tsvInfo = new TsvInfo(ex);
         }
-
-        setTsvInfoForTask(task, tsvInfo);
         return tsvInfo;
     }
 
+    // Helper method to create the TSV file and writer. This is called both when initializing the TSV and when
+    // rotating the TSV.
+    private TsvInfo createTsvFile(ExportTask task, List<String> columnNameList) throws FileNotFoundException {
+        FileHelper fileHelper = getManager().getFileHelper();
+
+        // For the TSV filename, replace any characters that aren't alphanumeric, dash, or underscore. Since these
+        // are temp files, we don't need to worry about readability, so don't worry about replacing these
+        // characters with anything. Also append a short random string to (probabilistically) ensure uniqueness.
+        String filename = getDdbTableKeyValue().replaceAll("[^A-Za-z0-9\\-_]", "") +
+                RandomStringUtils.randomAlphabetic(4) + ".tsv";
+
+        File tsvFile = fileHelper.newFile(task.getTmpDir(), filename);
+        Writer fileWriter = fileHelper.getWriter(tsvFile);
+        return new TsvInfo(columnNameList, tsvFile, fileWriter);
+    }
+
+    // Returns true if the TSV has reached the configured row or size threshold.
+    private boolean shouldRotateTsv(TsvInfo tsvInfo) {
+        ExportWorkerManager manager = getManager();
+        int maxRows = manager.getTsvRotateMaxRows();
+        long maxBytes = manager.getTsvRotateMaxBytes();
+        return (maxRows > 0 && tsvInfo.getLineCount() >= maxRows) ||
+                (maxBytes > 0 && tsvInfo.getApproximateByteCount() >= maxBytes);
+    }
+
+    // Rotates out the given TSV. New rows are written to a fresh TSV, while the old TSV is uploaded to Synapse in the
+    // background. This allows large tables to upload to Synapse while records are still being processed.
+    private void rotateTsv(ExportTask task, TsvInfo fullTsvInfo) {
+        String tableKey = getDdbTableKeyValue();
+        synchronized (this) {
+            if (getTsvInfoForTask(task) != fullTsvInfo) {
+                // Another worker already rotated this TSV.
+                return;
+            }
+
+            TsvInfo newTsvInfo;
+            try {
+                newTsvInfo = createTsvFile(task, fullTsvInfo.getColumnNameList());
+            } catch (FileNotFoundException | RuntimeException ex) {
+                // Not fatal. Keep writing to the current TSV, and we'll try again on the next row.
+                LOG.error("Error rotating TSV for table " + tableKey + ": " + ex.getMessage(), ex);
+                return;
+            }
+
+            // Close the old TSV before swapping in the new one. Any worker that tries to write to the old TSV after
+            // this will block on this lock until the new TSV is available.
+            fullTsvInfo.closeForWrites();
+            setTsvInfoForTask(task, newTsvInfo);
+        }
+
+        task.getMetrics().incrementCounter(tableKey + ".rotatedTsvCount");
+        LOG.info("Rotating TSV for table " + tableKey + " after " + fullTsvInfo.getLineCount() + " rows");
+        Future<Void> uploadFuture = getManager().getRotatedTsvUploadExecutor().submit(() -> {
+            uploadRotatedTsv(task, fullTsvInfo);
+            return null;
+        });
+        task.addRotatedTsvUploadFuture(tableKey, uploadFuture);
+    }
+
+    // Helper method to upload a rotated TSV. Other TSVs for the same table may already have been imported, so if this
+    // TSV fails, we only want to redrive this TSV's records, not the whole table.
+    private void uploadRotatedTsv(ExportTask task, TsvInfo tsvInfo) throws BridgeExporterException, IOException,
+            SynapseException {
+        try {
+            uploadTsv(task, tsvInfo);
+        } catch (BridgeExporterPartialUploadException ex) {
+            // Already knows which records to redrive.
+            throw ex;
+        } catch (BridgeExporterException | IOException | RuntimeException | SynapseException ex) {
+            throw new BridgeExporterPartialUploadException("Error uploading rotated TSV for table " +
+                    getDdbTableKeyValue() + ": " + ex.getMessage(), ex, tsvInfo.getRecordIds());
+        }
+    }
+
     // Gets the column name list from Synapse. If the Synapse table doesn't exist, this will create it. This is called
     // when initializing the TSV for a task.
     private List<String> getColumnNameList(ExportTask task) throws BridgeExporterException, SchemaNotFoundException,
@@ -180,18 +396,19 @@ public abstract class SynapseExportHandler extends ExportHandler {
         // check if the table in synapse currently
         ExportWorkerManager manager = getManager();
         SynapseHelper synapseHelper = manager.getSynapseHelper();
+        TableEntity table = null;
         if (synapseTableId != null) {
             try {
-                synapseHelper.getTableWithRetry(synapseTableId);
+                table = synapseHelper.getTableWithRetry(synapseTableId);
             } catch (SynapseNotFoundException e) {
                 isExisted = false;
             }
         }
 
         if (synapseTableId == null || !isExisted) {
-            createNewTable(task, columnDefList);
+            createNewTable(task, synapseTableId, columnDefList);
         } else {
-            updateTableIfNeeded(synapseTableId, columnDefList);
+            updateTableIfNeeded(synapseTableId, table, columnDefList);
         }
 
         // Extract column names from column models
@@ -203,9 +420,10 @@ public abstract class SynapseExportHandler extends ExportHandler {
         return columnNameList;
     }
 
-    // Helper method to create the new Synapse table.
-    private void createNewTable(ExportTask task, List<ColumnModel> columnDefList) throws BridgeExporterException,
-            SynapseException {
+    // Helper method to create the new Synapse table. oldSynapseTableId is the table ID that was in DDB, if the old
+    // table was deleted from Synapse, or null if there was no table.
+    private void createNewTable(ExportTask task, String oldSynapseTableId, List<ColumnModel> columnDefList)
+            throws BridgeExporterException, SynapseException {
         ExportWorkerManager manager = getManager();
         SynapseHelper synapseHelper = manager.getSynapseHelper();
 
@@ -218,18 +436,26 @@ public abstract class SynapseExportHandler extends ExportHandler {
 
         // write back to DDB table
         manager.setSynapseTableIdToDdb(task, getDdbTableName(), getDdbTableKeyName(), getDdbTableKeyValue(),
-                synapseTableId);
+                oldSynapseTableId, synapseTableId);
     }
 
     // Helper method to detect when a schema changes and updates the Synapse table accordingly. Will reject schema
     // changes that delete or modify columns. Optimized so if no columns were inserted, it won't modify the table.
-    private void updateTableIfNeeded(String synapseTableId, List<ColumnModel> columnDefList)
+    private void updateTableIfNeeded(String synapseTableId, TableEntity table, List<ColumnModel> columnDefList)
             throws BridgeExporterException, SynapseException {
         ExportWorkerManager manager = getManager();
         SynapseHelper synapseHelper = manager.getSynapseHelper();
 
-        // Get existing columns from table.
+        // Steady state: If the table hasn't changed since we cached its columns, and our columns match the cached
+        // columns, there's nothing to update, and we don't need to get column models from Synapse.
+        List<ColumnModel> cachedColumnList = synapseHelper.getCachedColumnModelsForTable(table);
+        if (cachedColumnList != null && isSameColumns(cachedColumnList, columnDefList)) {
+            return;
+        }
+
+        // Get existing columns from table, and refresh the cache.
         List<ColumnModel> existingColumnList = synapseHelper.getColumnModelsForTableWithRetry(synapseTableId);
+        synapseHelper.cacheColumnModelsForTable(table, existingColumnList);
 
         // Compute the columns that were added, deleted, and kept.
         Map<String, ColumnModel> existingColumnsByName = Maps.uniqueIndex(existingColumnList, ColumnModel::getName);
@@ -255,8 +481,7 @@ public abstract class SynapseExportHandler extends ExportHandler {
             // can't use .equals(), because newly generated columns don't have IDs.
             ColumnModel existingColumn = existingColumnsByName.get(oneKeptColumnName);
             ColumnModel columnDef = columnDefsByName.get(oneKeptColumnName);
-            if (existingColumn.getColumnType() != columnDef.getColumnType() ||
-                    !Objects.equals(existingColumn.getMaximumSize(), columnDef.getMaximumSize())) {
+            if (isModifiedColumn(existingColumn, columnDef)) {
                 modifiedColumnNameSet.add(oneKeptColumnName);
             } else {
                 continue;
@@ -315,58 +540,277 @@ public abstract class SynapseExportHandler extends ExportHandler {
         synapseHelper.updateTableColumns(schemaChangeRequest, synapseTableId);
     }
 
-    // Helper method to get row values that are common across all Synapse tables and handlers.
-    private Map<String, String> getCommonRowValueMap(ExportSubtask subtask) {
+    // Helper method which returns true if the existing columns have the same names, types, and max sizes as the
+    // column definitions. Order and column IDs don't matter.
+    private static boolean isSameColumns(List<ColumnModel> existingColumnList, List<ColumnModel> columnDefList) {
+        if (existingColumnList.size() != columnDefList.size()) {
+            return false;
+        }
+
+        Map<String, ColumnModel> existingColumnsByName = Maps.uniqueIndex(existingColumnList, ColumnModel::getName);
+        for (ColumnModel oneColumnDef : columnDefList) {
+            ColumnModel existingColumn = existingColumnsByName.get(oneColumnDef.getName());
+            if (existingColumn == null || isModifiedColumn(existingColumn, oneColumnDef)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Helper method which returns true if the column was modified. Checks type and max size, since those are the only
+    // fields we care about.
+    private static boolean isModifiedColumn(ColumnModel existingColumn, ColumnModel columnDef) {
+        return existingColumn.getColumnType() != columnDef.getColumnType() ||
+                !Objects.equals(existingColumn.getMaximumSize(), columnDef.getMaximumSize());
+    }
+
+    // Gets the task's row plan for the given TSV column list, compiling a new one if the task doesn't have one yet.
+    // Column lists are fixed for the life of a TSV (including rotated TSVs), so this is generally compiled once per
+    // task. Multiple tasks can run at the same time with different column lists, so the plan is stored in the task.
+    // It's removed in uploadToSynapseForTask() once all rows have been written, or released with the task if the task
+    // is aborted.
+    private TsvRowPlan getRowPlan(ExportTask task, List<String> columnNameList) throws SchemaNotFoundException {
+        String tableKey = getDdbTableKeyValue();
+        TsvRowPlan plan = task.getTsvRowPlan(tableKey);
+        if (plan != null && plan.layout.getColumnNameList() == columnNameList) {
+            return plan;
+        }
+
+        synchronized (this) {
+            plan = task.getTsvRowPlan(tableKey);
+            if (plan == null || plan.layout.getColumnNameList() != columnNameList) {
+                TsvRowLayout layout = new TsvRowLayout(columnNameList);
+                plan = new TsvRowPlan(layout, columnDefinition, compileTsvRowSerializer(task, layout));
+                task.setTsvRowPlan(tableKey, plan);
+            }
+            return plan;
+        }
+    }
+
+    /**
+     * Serializes the handler-specific values for the subtask into a map of column names to values, using the same
+     * compiled row plan as the TSV. Waits for values computed in the background. Subclasses that implement
+     * {@link #compileTsvRowSerializer} can use this to implement {@link #getTsvRowValueMap}.
+     */
+    protected final Map<String, String> serializeToRowValueMap(ExportSubtask subtask) throws BridgeExporterException,
+            IOException, SchemaNotFoundException, SynapseException {
+        ExportTask task = subtask.getParentTask();
+        TsvInfo tsvInfo = initTsvForTask(task);
+        tsvInfo.checkInitAndThrow();
+        TsvRowPlan plan = getRowPlan(task, tsvInfo.getColumnNameList());
+
+        String[] row = plan.layout.newRow();
+        CompletableFuture<Void> pendingValuesFuture = plan.serializer.serialize(subtask, row);
+        if (pendingValuesFuture != null) {
+            joinPendingValues(pendingValuesFuture);
+        }
+
+        List<String> columnNameList = plan.layout.getColumnNameList();
+        Map<String, String> rowValueMap = new HashMap<>();
+        for (int i = 0; i < row.length; i++) {
+            if (row[i] != null) {
+                rowValueMap.put(columnNameList.get(i), row[i]);
+            }
+        }
+        return rowValueMap;
+    }
+
+    // Helper method to write row values that are common across all Synapse tables and handlers. The values derived
+    // from the record are computed once per subtask and shared with the other handlers for the same record.
+    private static void writeCommonRowValues(ExportSubtask subtask, TsvRowPlan plan, String[] row) {
         ExportTask task = subtask.getParentTask();
-        Item record = subtask.getOriginalRecord();
-        String recordId = subtask.getRecordId();
 
         // get phone and app info
-        PhoneAppVersionInfo phoneAppVersionInfo = PhoneAppVersionInfo.fromRecord(record);
-        String appVersion = phoneAppVersionInfo.getAppVersion();
-        String phoneInfo = phoneAppVersionInfo.getPhoneInfo();
+        PhoneAppVersionInfo phoneAppVersionInfo = subtask.getPhoneAppVersionInfo();
 
-        // construct row
-        Map<String, String> rowValueMap = new HashMap<>();
-        rowValueMap.put("recordId", recordId);
-        rowValueMap.put("appVersion", appVersion);
-        rowValueMap.put("phoneInfo", phoneInfo);
-        rowValueMap.put("uploadDate", task.getExporterDate().toString());
+        TsvRowLayout.setRowValue(row, plan.recordIdIndex, subtask.getRecordId());
+        TsvRowLayout.setRowValue(row, plan.appVersionIndex, phoneAppVersionInfo.getAppVersion());
+        TsvRowLayout.setRowValue(row, plan.phoneInfoIndex, phoneAppVersionInfo.getPhoneInfo());
+        TsvRowLayout.setRowValue(row, plan.uploadDateIndex, task.getExporterDateString());
 
-        BridgeExporterUtil.getRowValuesFromRecordBasedOnColumnDefinition(rowValueMap,record, columnDefinition, recordId);
+        String[] columnDefinitionValues = subtask.getColumnDefinitionValues(plan.columnDefinitionList);
+        for (int i = 0; i < columnDefinitionValues.length; i++) {
+            if (columnDefinitionValues[i] != null) {
+                TsvRowLayout.setRowValue(row, plan.columnDefinitionIndexes[i], columnDefinitionValues[i]);
+            }
+        }
+    }
 
-        return rowValueMap;
+    /**
+     * Compiles a serializer that writes this handler's columns into a row with the given layout. This is called once
+     * per TSV column list, so subclasses should do any per-schema work here instead of per record. The default
+     * implementation calls {@link #getTsvRowValueMap} and copies the values into the row.
+     */
+    protected TsvRowSerializer compileTsvRowSerializer(ExportTask task, TsvRowLayout layout)
+            throws SchemaNotFoundException {
+        return (subtask, row) -> {
+            getTsvRowValueMap(subtask).forEach((columnName, value) -> TsvRowLayout.setRowValue(row,
+                    layout.indexOf(columnName), value));
+            return null;
+        };
+    }
+
+    /** Writes handler-specific values for a single record into a TSV row. */
+    @FunctionalInterface
+    protected interface TsvRowSerializer {
+        /**
+         * Serializes the subtask's record into the row.
+         *
+         * @param subtask
+         *         subtask containing the record to serialize
+         * @param row
+         *         row to write values into, indexed by the TsvRowLayout the serializer was compiled with
+         * @return null if all values have been written into the row, or a future that completes when the remaining
+         *         values (computed in the background) have been written into the row
+         */
+        CompletableFuture<Void> serialize(ExportSubtask subtask, String[] row) throws BridgeExporterException,
+                IOException, SchemaNotFoundException, SynapseException;
     }
 
     /**
      * This is called at the end of the record stream for a given export task. This will then upload the TSV to
-     * Synapse.
+     * Synapse. If any TSVs were rotated out mid-stream, this also waits for those uploads to finish. If the table was
+     * only partially uploaded (some TSVs were imported, and others failed), this throws a
+     * {@link BridgeExporterPartialUploadException} with the record IDs that weren't imported. Otherwise, upload errors
+     * are rethrown as is, and the whole table can be redriven.
      */
     public void uploadToSynapseForTask(ExportTask task) throws BridgeExporterException, IOException, SynapseException {
-        ExportWorkerManager manager = getManager();
         TsvInfo tsvInfo = getTsvInfoForTask(task);
         if (tsvInfo == null) {
             // No TSV. This means we never wrote any records. Skip.
             return;
         }
 
-        File tsvFile = tsvInfo.getFile();
+        // All rows have been written by now, so the task's row plan is no longer needed.
+        String tableKey = getDdbTableKeyValue();
+        task.removeTsvRowPlan(tableKey);
+
+        // Wait for rotated TSVs first. Each TSV is independent, so even if one of them failed, we still want to
+        // upload the rest. Rotated uploads run on their own executor, so it's safe to block here.
+        Collection<Future<Void>> rotatedUploadFutures = task.getRotatedTsvUploadFutures(tableKey);
+        List<String> redriveRecordIdList = new ArrayList<>();
+        Throwable partialUploadError = null;
+        Throwable unknownUploadError = null;
+        for (Future<Void> oneUploadFuture : rotatedUploadFutures) {
+            try {
+                oneUploadFuture.get();
+            } catch (CancellationException | ExecutionException | InterruptedException ex) {
+                Throwable originalEx = ex instanceof ExecutionException ? ex.getCause() : ex;
+                LOG.error("Error uploading rotated TSV for table " + tableKey + ": " + originalEx.getMessage(),
+                        originalEx);
+                if (originalEx instanceof BridgeExporterPartialUploadException) {
+                    redriveRecordIdList.addAll(((BridgeExporterPartialUploadException) originalEx)
+                            .getRedriveRecordIds());
+                    partialUploadError = pickUploadError(partialUploadError, originalEx.getCause());
+                } else if (unknownUploadError == null) {
+                    // We don't know which of this TSV's records were imported. Fall back to redriving the table.
+                    unknownUploadError = originalEx;
+                }
+            }
+        }
+
+        try {
+            uploadTsv(task, tsvInfo);
+        } catch (BridgeExporterPartialUploadException ex) {
+            redriveRecordIdList.addAll(ex.getRedriveRecordIds());
+            partialUploadError = pickUploadError(partialUploadError, ex.getCause());
+        } catch (BridgeExporterException | IOException | RuntimeException | SynapseException ex) {
+            if (rotatedUploadFutures.isEmpty()) {
+                // This is the only TSV for the table, so nothing was imported. Redriving the table is safe.
+                throw ex;
+            }
+            LOG.error("Error uploading final TSV for table " + tableKey + ": " + ex.getMessage(), ex);
+            redriveRecordIdList.addAll(tsvInfo.getRecordIds());
+            partialUploadError = pickUploadError(partialUploadError, ex);
+        }
+
+        if (unknownUploadError != null) {
+            rethrowUploadError(unknownUploadError);
+        } else if (partialUploadError != null) {
+            throw new BridgeExporterPartialUploadException(redriveRecordIdList.size() + " rows failed to upload " +
+                    "to table " + tableKey + ": " + partialUploadError.getMessage(), partialUploadError,
+                    redriveRecordIdList);
+        }
+    }
+
+    // Helper method to pick which error to report for a partial upload. If Synapse is down, we want to report that,
+    // since end of stream handles Synapse outages differently. Otherwise, report the first error.
+    private static Throwable pickUploadError(Throwable curError, Throwable newError) {
+        if (newError == null) {
+            return curError;
+        } else if (curError == null || (newError instanceof SynapseServiceUnavailable &&
+                !(curError instanceof SynapseServiceUnavailable))) {
+            return newError;
+        } else {
+            return curError;
+        }
+    }
+
+    // Helper method to rethrow an upload error with its original type, if possible.
+    private static void rethrowUploadError(Throwable error) throws BridgeExporterException, IOException,
+            SynapseException {
+        if (error instanceof BridgeExporterException) {
+            throw (BridgeExporterException) error;
+        } else if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error instanceof SynapseException) {
+            throw (SynapseException) error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else {
+            throw new BridgeExporterException("Error uploading rotated TSV: " + error.getMessage(), error);
+        }
+    }
+
+    /**
+     * Retries the upload of this table's TSV, after Synapse recovered from an outage that failed the upload. The TSV
+     * is still on disk, so this is cheaper than redriving the table. This only retries if the table has a single TSV,
+     * since if any TSVs were rotated out mid-stream, we don't know which of them were imported. Returns true if the
+     * upload was retried and succeeded, or false if the upload can't be retried, and the table needs to be redriven.
+     */
+    public boolean retryUploadToSynapseForTask(ExportTask task) throws BridgeExporterException, IOException,
+            SynapseException {
+        TsvInfo tsvInfo = getTsvInfoForTask(task);
+        if (tsvInfo == null || !task.getRotatedTsvUploadFutures(getDdbTableKeyValue()).isEmpty()) {
+            return false;
+        }
+
+        // The writer was already closed by the failed upload.
+        uploadClosedTsv(task, tsvInfo);
+        return true;
+    }
+
+    // Helper method to upload a single TSV to Synapse, then delete the TSV.
+    private void uploadTsv(ExportTask task, TsvInfo tsvInfo) throws BridgeExporterException, IOException,
+            SynapseException {
         tsvInfo.flushAndCloseWriter();
+        uploadClosedTsv(task, tsvInfo);
+    }
+
+    // Helper method to upload a single TSV to Synapse, after its writer has been closed, then delete the TSV.
+    private void uploadClosedTsv(ExportTask task, TsvInfo tsvInfo) throws BridgeExporterException, IOException,
+            SynapseException {
+        ExportWorkerManager manager = getManager();
+        File tsvFile = tsvInfo.getFile();
 
         // filter on line count
         int lineCount = tsvInfo.getLineCount();
         if (lineCount > 0) {
-            String projectId = manager.getSynapseProjectIdForStudyAndTask(getStudyId(), task);
             String synapseTableId = manager.getSynapseTableIdFromDdb(task, getDdbTableName(), getDdbTableKeyName(),
                     getDdbTableKeyValue());
-            long linesProcessed = manager.getSynapseHelper().uploadTsvFileToTable(projectId, synapseTableId, tsvFile);
-            if (linesProcessed != lineCount) {
-                throw new BridgeExporterException("Wrong number of lines processed importing to table=" +
-                        synapseTableId + ", expected=" + lineCount + ", actual=" + linesProcessed);
-            }
+            long chunkMaxBytes = manager.getTsvUploadChunkMaxBytes();
+            if (chunkMaxBytes > 0 && tsvInfo.getApproximateByteCount() > chunkMaxBytes) {
+                // This post-processes each chunk as it's confirmed.
+                uploadTsvInChunks(task, synapseTableId, tsvInfo, chunkMaxBytes);
+            } else {
+                String projectId = manager.getSynapseProjectIdForStudyAndTask(getStudyId(), task);
+                long linesProcessed = manager.getSynapseHelper().uploadTsvFileToTable(projectId, synapseTableId,
+                        tsvFile);
+                checkLinesProcessed(synapseTableId, lineCount, linesProcessed);
 
-            // call java sdk api to update records' exporter status
-            postProcessTsv(tsvInfo);
+                // call java sdk api to update records' exporter status
+                postProcessTsv(tsvInfo, 0, lineCount);
+            }
 
             LOG.info("Done uploading to Synapse for table name=" + getDdbTableKeyValue() + ", id=" + synapseTableId);
         }
@@ -375,6 +819,309 @@ public abstract class SynapseExportHandler extends ExportHandler {
         manager.getFileHelper().deleteFile(tsvFile);
     }
 
+    // Helper method to verify the number of lines Synapse imported.
+    private static void checkLinesProcessed(String synapseTableId, long expected, long actual)
+            throws BridgeExporterException {
+        if (actual != expected) {
+            throw new BridgeExporterException("Wrong number of lines processed importing to table=" +
+                    synapseTableId + ", expected=" + expected + ", actual=" + actual);
+        }
+    }
+
+    // Helper method to upload very large TSVs. The TSV is split into chunks, each with its own header. All chunks are
+    // uploaded and their imports started before we wait on any of them, so the imports run concurrently in Synapse,
+    // and are all polled from the async job poller. Chunks are imported independently, so unlike a single TSV import,
+    // a failure can leave the table partially imported. To avoid importing rows twice, we track the state of each
+    // chunk. We only re-import a chunk if we know its import failed, and on failure, we only redrive the records of
+    // chunks that weren't imported.
+    private void uploadTsvInChunks(ExportTask task, String synapseTableId, TsvInfo tsvInfo, long chunkMaxBytes)
+            throws BridgeExporterException, IOException, SynapseException {
+        String tableKey = getDdbTableKeyValue();
+        Metrics metrics = task.getMetrics();
+        List<TsvChunk> chunkList = splitTsv(task, tsvInfo.getFile(), chunkMaxBytes);
+        LOG.info("Split TSV for table " + tableKey + " into " + chunkList.size() + " chunks");
+
+        try {
+            // Upload file handles and start imports. If Synapse is down, don't bother starting the rest.
+            for (TsvChunk oneChunk : chunkList) {
+                startChunkImport(synapseTableId, oneChunk);
+                if (oneChunk.error instanceof SynapseServiceUnavailable) {
+                    break;
+                }
+            }
+
+            // Wait for imports.
+            for (TsvChunk oneChunk : chunkList) {
+                if (oneChunk.state == ChunkState.STARTED) {
+                    awaitChunkImport(synapseTableId, oneChunk);
+                }
+            }
+
+            // Retry chunks whose imports failed. Only the chunks that failed are retried, not the whole table.
+            for (TsvChunk oneChunk : chunkList) {
+                for (int attempt = 2; attempt <= MAX_CHUNK_IMPORT_ATTEMPTS && oneChunk.state == ChunkState.FAILED;
+                        attempt++) {
+                    metrics.incrementCounter(tableKey + ".tsvChunkRetryCount");
+                    startChunkImport(synapseTableId, oneChunk);
+                    if (oneChunk.state == ChunkState.STARTED) {
+                        awaitChunkImport(synapseTableId, oneChunk);
+                    }
+                }
+            }
+
+            // Post-process the chunks that were imported, and collect the records of the chunks that weren't.
+            boolean anyImported = false;
+            List<String> redriveRecordIdList = new ArrayList<>();
+            Throwable uploadError = null;
+            for (TsvChunk oneChunk : chunkList) {
+                int toRow = oneChunk.firstRow + oneChunk.lineCount;
+                switch (oneChunk.state) {
+                    case COMMITTED:
+                        anyImported = true;
+                        postProcessTsv(tsvInfo, oneChunk.firstRow, toRow);
+                        break;
+                    case UNKNOWN:
+                        // The import may or may not have finished in Synapse. Importing or redriving these rows again
+                        // risks duplicate rows, so we leave it for manual follow-up.
+                        anyImported = true;
+                        metrics.incrementCounter(tableKey + ".tsvChunkUnknownCount");
+                        LOG.error("Unknown import status for rows " + oneChunk.firstRow + " to " + toRow +
+                                " of table " + tableKey + ", jobToken=" + oneChunk.jobToken + ", not redriving");
+                        uploadError = pickUploadError(uploadError, oneChunk.error);
+                        break;
+                    default:
+                        // NOT_STARTED or FAILED. Nothing was imported, so it's safe to redrive.
+                        redriveRecordIdList.addAll(tsvInfo.getRecordIds(oneChunk.firstRow, toRow));
+                        uploadError = pickUploadError(uploadError, oneChunk.error);
+                        break;
+                }
+            }
+
+            if (uploadError != null) {
+                if (!anyImported) {
+                    // Nothing was imported. This is the same as failing a single TSV import, and the whole table can
+                    // be redriven.
+                    rethrowUploadError(uploadError);
+                }
+                throw new BridgeExporterPartialUploadException(redriveRecordIdList.size() + " rows failed to " +
+                        "upload to table " + tableKey + ": " + uploadError.getMessage(), uploadError,
+                        redriveRecordIdList);
+            }
+        } finally {
+            FileHelper fileHelper = getManager().getFileHelper();
+            for (TsvChunk oneChunk : chunkList) {
+                fileHelper.deleteFile(oneChunk.file);
+            }
+        }
+    }
+
+    // Helper method to upload the chunk's file handle and start its import. If this succeeds, the chunk is STARTED.
+    // Otherwise, nothing was imported, so the chunk is FAILED (or NOT_STARTED, if Synapse is down).
+    private void startChunkImport(String synapseTableId, TsvChunk chunk) {
+        SynapseHelper synapseHelper = getManager().getSynapseHelper();
+        try {
+            chunk.fileHandleId = synapseHelper.createFileHandleWithRetry(chunk.file).getId();
+            chunk.jobToken = synapseHelper.startTsvImport(synapseTableId, chunk.fileHandleId);
+            chunk.importFuture = synapseHelper.pollTsvImport(synapseTableId, chunk.jobToken);
+            chunk.state = ChunkState.STARTED;
+        } catch (IOException | RuntimeException | SynapseException ex) {
+            logChunkFailure(chunk, ex);
+            chunk.error = ex;
+            chunk.state = ex instanceof SynapseServiceUnavailable ? ChunkState.NOT_STARTED : ChunkState.FAILED;
+        }
+    }
+
+    // Helper method to wait for a started chunk import. If the import job finished, the chunk is COMMITTED. If the
+    // import job failed in Synapse, nothing was imported, so the chunk is FAILED and can be imported again. If we
+    // don't know (for example, our poll timed out), the job might still finish in Synapse, so instead of importing
+    // again, we poll the original job again. If we still don't know, the chunk is UNKNOWN.
+    private void awaitChunkImport(String synapseTableId, TsvChunk chunk) {
+        SynapseHelper synapseHelper = getManager().getSynapseHelper();
+        boolean isRepoll = false;
+        while (true) {
+            try {
+                long linesProcessed;
+                if (isRepoll) {
+                    linesProcessed = synapseHelper.waitForTsvImport(synapseTableId, chunk.fileHandleId,
+                            chunk.jobToken);
+                } else {
+                    linesProcessed = synapseHelper.waitForTsvImport(chunk.fileHandleId, chunk.importFuture);
+                }
+
+                if (linesProcessed == chunk.lineCount) {
+                    chunk.state = ChunkState.COMMITTED;
+                } else {
+                    // The job finished, but we don't know which rows were imported.
+                    chunk.state = ChunkState.UNKNOWN;
+                    chunk.error = new BridgeExporterException("Wrong number of lines processed importing to table=" +
+                            synapseTableId + ", expected=" + chunk.lineCount + ", actual=" + linesProcessed);
+                }
+                return;
+            } catch (AsyncJobInterruptedException ex) {
+                // We stopped waiting, but the job might still finish in Synapse, so we can't import it again.
+                logChunkFailure(chunk, ex);
+                chunk.error = ex;
+                chunk.state = ChunkState.UNKNOWN;
+                return;
+            } catch (SynapseServiceUnavailable ex) {
+                // Synapse is down. If it recovers, we can check on the job.
+                logChunkFailure(chunk, ex);
+                chunk.error = ex;
+                if (isRepoll || !synapseHelper.awaitSynapseRecovery(ex)) {
+                    chunk.state = ChunkState.UNKNOWN;
+                    return;
+                }
+            } catch (SynapseException ex) {
+                // The import job failed in Synapse.
+                logChunkFailure(chunk, ex);
+                chunk.error = ex;
+                chunk.state = ChunkState.FAILED;
+                return;
+            } catch (BridgeExporterException | RuntimeException ex) {
+                // Generally, this means our poll timed out.
+                logChunkFailure(chunk, ex);
+                chunk.error = ex;
+                if (isRepoll) {
+                    chunk.state = ChunkState.UNKNOWN;
+                    return;
+                }
+            }
+
+            isRepoll = true;
+            LOG.info("Polling import job again for TSV chunk, table=" + getDdbTableKeyValue() + ", jobToken=" +
+                    chunk.jobToken);
+        }
+    }
+
+    // Helper method to log chunk failures.
+    private void logChunkFailure(TsvChunk chunk, Exception ex) {
+        LOG.error("Error importing TSV chunk for table " + getDdbTableKeyValue() + ", rows " + chunk.firstRow +
+                " to " + (chunk.firstRow + chunk.lineCount) + ": " + ex.getMessage(), ex);
+    }
+
+    // Splits the TSV file into chunks of at most chunkMaxBytes each (unless a single row is bigger than that). Each
+    // chunk repeats the header. Note that values may contain newlines, so we can't just split on lines. Instead, we
+    // track quotes, since CSVWriter quotes all values and escapes quotes within values by doubling them. We split at
+    // the byte level, since quotes and newlines are single bytes in UTF-8 and never appear inside multi-byte chars.
+    // This way, we don't decode and re-encode multi-GB files, and chunk sizes are exact.
+    private List<TsvChunk> splitTsv(ExportTask task, File tsvFile, long chunkMaxBytes) throws IOException {
+        FileHelper fileHelper = getManager().getFileHelper();
+        List<TsvChunk> chunkList = new ArrayList<>();
+        try (InputStream inputStream = fileHelper.getInputStream(tsvFile)) {
+            TsvRowReader rowReader = new TsvRowReader(inputStream);
+            ByteArrayOutputStream rowBuffer = new ByteArrayOutputStream();
+            if (!rowReader.readRow(rowBuffer)) {
+                return chunkList;
+            }
+            byte[] header = rowBuffer.toByteArray();
+
+            TsvChunk curChunk = null;
+            OutputStream curOutputStream = null;
+            long curChunkSize = 0;
+            int numRows = 0;
+            try {
+                while (rowReader.readRow(rowBuffer)) {
+                    int rowSize = rowBuffer.size();
+                    if (curChunk == null || (curChunkSize + rowSize > chunkMaxBytes && curChunk.lineCount > 0)) {
+                        if (curOutputStream != null) {
+                            curOutputStream.close();
+                        }
+
+                        curChunk = new TsvChunk();
+                        curChunk.firstRow = numRows;
+                        curChunk.file = fileHelper.newFile(task.getTmpDir(), tsvFile.getName() + ".chunk" +
+                                chunkList.size());
+                        chunkList.add(curChunk);
+                        curOutputStream = new BufferedOutputStream(fileHelper.getOutputStream(curChunk.file),
+                                TSV_BUFFER_SIZE);
+                        curOutputStream.write(header);
+                        curChunkSize = header.length;
+                    }
+
+                    rowBuffer.writeTo(curOutputStream);
+                    curChunk.lineCount++;
+                    numRows++;
+                    curChunkSize += rowSize;
+                }
+            } finally {
+                if (curOutputStream != null) {
+                    curOutputStream.close();
+                }
+            }
+        }
+        return chunkList;
+    }
+
+    // Reads TSV rows as raw bytes. Reads the file in large blocks and scans them directly, instead of reading one char
+    // at a time through a synchronized reader.
+    private static class TsvRowReader {
+        private final InputStream inputStream;
+        private final byte[] buffer = new byte[TSV_BUFFER_SIZE];
+        private int bufferPos = 0;
+        private int bufferLength = 0;
+        private boolean inQuotes = false;
+
+        TsvRowReader(InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+        // Reads a single TSV row, including the trailing newline, into the row buffer, replacing what was there.
+        // Returns false if there are no more rows.
+        boolean readRow(ByteArrayOutputStream rowBuffer) throws IOException {
+            rowBuffer.reset();
+            while (true) {
+                if (bufferPos == bufferLength) {
+                    bufferLength = inputStream.read(buffer);
+                    bufferPos = 0;
+                    if (bufferLength <= 0) {
+                        // End of file. Return whatever we have left, if anything.
+                        bufferLength = 0;
+                        return rowBuffer.size() > 0;
+                    }
+                }
+
+                int rowStart = bufferPos;
+                while (bufferPos < bufferLength) {
+                    byte b = buffer[bufferPos++];
+                    if (b == '"') {
+                        inQuotes = !inQuotes;
+                    } else if (b == '\n' && !inQuotes) {
+                        rowBuffer.write(buffer, rowStart, bufferPos - rowStart);
+                        return true;
+                    }
+                }
+                rowBuffer.write(buffer, rowStart, bufferPos - rowStart);
+            }
+        }
+    }
+
+    // State of a single TSV chunk import. See uploadTsvInChunks().
+    private enum ChunkState {
+        // Import was never started, generally because Synapse is down. Nothing was imported.
+        NOT_STARTED,
+        // Import was started, but we haven't seen the result yet.
+        STARTED,
+        // Import finished, and all rows were imported.
+        COMMITTED,
+        // Import failed in Synapse. Nothing was imported, so it's safe to import again.
+        FAILED,
+        // We don't know whether the import finished. Importing again could import rows twice.
+        UNKNOWN,
+    }
+
+    // A single chunk of a TSV, used when uploading very large TSVs.
+    private static class TsvChunk {
+        File file;
+        // Index of the chunk's first row in the original TSV, excluding the header. Used to look up record IDs.
+        int firstRow;
+        int lineCount;
+        ChunkState state = ChunkState.NOT_STARTED;
+        Throwable error;
+        String fileHandleId;
+        String jobToken;
+        CompletableFuture<UploadToTableResult> importFuture;
+    }
+
     /** Table name (excluding prefix) of the DDB table that holds Synapse table IDs. */
     protected abstract String getDdbTableName();
 
@@ -411,10 +1158,12 @@ public abstract class SynapseExportHandler extends ExportHandler {
 
 
     /**
-     * dummy method to implement by healthDataExportHandler to handle update record exporter status
+     * dummy method to implement by healthDataExportHandler to handle update record exporter status. Called for the rows
+     * [fromRow, toRow) after they're imported into Synapse. Large TSVs are imported in chunks, so this may be called
+     * several times per TSV.
      * @throws BridgeExporterException
      */
-    protected void postProcessTsv(TsvInfo tsvInfo) throws BridgeExporterException {
+    protected void postProcessTsv(TsvInfo tsvInfo, int fromRow, int toRow) throws BridgeExporterException {
 
     }
 }
@@ -0,0 +1,188 @@
+package org.sagebionetworks.bridge.exporter.handler;
+
+/**
+ * <p>
+ * Allocation-light serializer for timestamps in the common ISO 8601 format, yyyy-MM-ddTHH:mm:ss[.SSS](Z|+HH:mm).
+ * This writes the same epoch milliseconds and time zone offset (+HHmm) as parsing with Joda's DateTime.parse() and
+ * printing with the "Z" pattern, without creating any intermediate objects.
+ * </p>
+ * <p>
+ * Timestamps in any other format (or with out-of-range fields) aren't handled here. Callers should fall back to Joda,
+ * which handles all of ISO 8601 and reports errors.
+ * </p>
+ */
+final class TimestampSerializer {
+    private static final long MILLIS_PER_SECOND = 1000;
+    private static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+    private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+    private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+    // Length of yyyy-MM-ddTHH:mm:ss.
+    private static final int DATE_TIME_LENGTH = 19;
+
+    // Offsets are almost always a multiple of 15 minutes between -18:00 and +18:00, so we pre-compute those strings.
+    private static final int CACHED_OFFSET_MAX_MINUTES = 18 * 60;
+    private static final int CACHED_OFFSET_STEP_MINUTES = 15;
+    private static final String[] CACHED_OFFSET_STRINGS;
+    static {
+        int numCachedOffsets = 2 * CACHED_OFFSET_MAX_MINUTES / CACHED_OFFSET_STEP_MINUTES + 1;
+        CACHED_OFFSET_STRINGS = new String[numCachedOffsets];
+        for (int i = 0; i < numCachedOffsets; i++) {
+            int offsetMinutes = i * CACHED_OFFSET_STEP_MINUTES - CACHED_OFFSET_MAX_MINUTES;
+            CACHED_OFFSET_STRINGS[i] = formatOffset(offsetMinutes);
+        }
+    }
+
+    private TimestampSerializer() {
+        // Static utility class. Don't instantiate.
+    }
+
+    /**
+     * Parses the given timestamp and writes the epoch milliseconds and time zone offset into the row.
+     *
+     * @param timestampString
+     *         timestamp to serialize
+     * @param row
+     *         row to write into
+     * @param valueIndex
+     *         column index for the epoch milliseconds, or -1 if not in the row
+     * @param timeZoneIndex
+     *         column index for the time zone offset, or -1 if not in the row
+     * @return true if the timestamp was serialized, false if it isn't in the common format and the caller should fall
+     *         back to Joda
+     */
+    static boolean serializeTimestamp(String timestampString, String[] row, int valueIndex, int timeZoneIndex) {
+        int length = timestampString.length();
+        if (length <= DATE_TIME_LENGTH) {
+            return false;
+        }
+
+        // Date and time: yyyy-MM-ddTHH:mm:ss
+        if (timestampString.charAt(4) != '-' || timestampString.charAt(7) != '-' ||
+                timestampString.charAt(10) != 'T' || timestampString.charAt(13) != ':' ||
+                timestampString.charAt(16) != ':') {
+            return false;
+        }
+        int year = parseDigits(timestampString, 0, 4);
+        int month = parseDigits(timestampString, 5, 2);
+        int day = parseDigits(timestampString, 8, 2);
+        int hour = parseDigits(timestampString, 11, 2);
+        int minute = parseDigits(timestampString, 14, 2);
+        int second = parseDigits(timestampString, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour < 0 ||
+                hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return false;
+        }
+
+        // Optional fraction of a second, 1 to 3 digits. Joda treats these as a fraction, so ".5" is 500 millis.
+        int pos = DATE_TIME_LENGTH;
+        int millis = 0;
+        if (timestampString.charAt(pos) == '.') {
+            pos++;
+            int fractionStart = pos;
+            while (pos < length && pos - fractionStart < 3 && isDigit(timestampString.charAt(pos))) {
+                millis = millis * 10 + (timestampString.charAt(pos) - '0');
+                pos++;
+            }
+            int numFractionDigits = pos - fractionStart;
+            if (numFractionDigits == 0 || (pos < length && isDigit(timestampString.charAt(pos)))) {
+                // No digits or more than 3 digits.
+                return false;
+            }
+            for (int i = numFractionDigits; i < 3; i++) {
+                millis *= 10;
+            }
+        }
+
+        // Offset: Z or +HH:mm
+        int offsetMinutes;
+        if (pos == length - 1 && timestampString.charAt(pos) == 'Z') {
+            offsetMinutes = 0;
+        } else if (pos == length - 6 && timestampString.charAt(pos + 3) == ':') {
+            char sign = timestampString.charAt(pos);
+            int offsetHour = parseDigits(timestampString, pos + 1, 2);
+            int offsetMinute = parseDigits(timestampString, pos + 4, 2);
+            if ((sign != '+' && sign != '-') || offsetHour < 0 || offsetHour > 23 || offsetMinute < 0 ||
+                    offsetMinute > 59) {
+                return false;
+            }
+            offsetMinutes = offsetHour * 60 + offsetMinute;
+            if (sign == '-') {
+                offsetMinutes = -offsetMinutes;
+            }
+        } else {
+            return false;
+        }
+
+        long epochMillis = daysFromCivil(year, month, day) * MILLIS_PER_DAY + hour * MILLIS_PER_HOUR +
+                minute * MILLIS_PER_MINUTE + second * MILLIS_PER_SECOND + millis - offsetMinutes * MILLIS_PER_MINUTE;
+        TsvRowLayout.setRowValue(row, valueIndex, Long.toString(epochMillis));
+        TsvRowLayout.setRowValue(row, timeZoneIndex, getOffsetString(offsetMinutes));
+        return true;
+    }
+
+    // Gets the +HHmm string for the given offset, using the pre-computed strings where possible.
+    private static String getOffsetString(int offsetMinutes) {
+        if (offsetMinutes % CACHED_OFFSET_STEP_MINUTES == 0 && Math.abs(offsetMinutes) <= CACHED_OFFSET_MAX_MINUTES) {
+            return CACHED_OFFSET_STRINGS[(offsetMinutes + CACHED_OFFSET_MAX_MINUTES) / CACHED_OFFSET_STEP_MINUTES];
+        }
+        return formatOffset(offsetMinutes);
+    }
+
+    // Formats the offset the same way as Joda's "Z" pattern. Zero is +0000.
+    private static String formatOffset(int offsetMinutes) {
+        int absOffsetMinutes = Math.abs(offsetMinutes);
+        int offsetHour = absOffsetMinutes / 60;
+        int offsetMinute = absOffsetMinutes % 60;
+        char[] chars = new char[5];
+        chars[0] = offsetMinutes < 0 ? '-' : '+';
+        chars[1] = (char) ('0' + offsetHour / 10);
+        chars[2] = (char) ('0' + offsetHour % 10);
+        chars[3] = (char) ('0' + offsetMinute / 10);
+        chars[4] = (char) ('0' + offsetMinute % 10);
+        return new String(chars);
+    }
+
+    // Parses the given number of decimal digits starting at the given position. Returns -1 if any aren't digits.
+    private static int parseDigits(String str, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = str.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean isLeapYear = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+                return isLeapYear ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // Days since 1970-01-01 in the proleptic Gregorian calendar (which is what Joda's ISO chronology uses). See
+    // http://howardhinnant.github.io/date_algorithms.html#days_from_civil
+    private static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,51 @@
+package org.sagebionetworks.bridge.exporter.handler;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Maps TSV column names to column indexes. This is computed once per TSV column list, so that per-record
+ * serialization can write directly into a row array instead of building a map.
+ */
+public class TsvRowLayout {
+    private final List<String> columnNameList;
+    private final Map<String, Integer> columnIndexByName;
+
+    /** Creates a layout for the given column list. */
+    public TsvRowLayout(List<String> columnNameList) {
+        this.columnNameList = columnNameList;
+
+        // Synapse column names are unique, but for safety, if a column name is duplicated, the first one wins.
+        Map<String, Integer> indexMap = new HashMap<>();
+        for (int i = 0; i < columnNameList.size(); i++) {
+            indexMap.putIfAbsent(columnNameList.get(i), i);
+        }
+        this.columnIndexByName = ImmutableMap.copyOf(indexMap);
+    }
+
+    /** Column name list this layout was computed from. */
+    public List<String> getColumnNameList() {
+        return columnNameList;
+    }
+
+    /** Returns the index of the given column, or -1 if there is no such column. */
+    public int indexOf(String columnName) {
+        Integer index = columnIndexByName.get(columnName);
+        return index != null ? index : -1;
+    }
+
+    /** Creates an empty row, sized for this layout. */
+    public String[] newRow() {
+        return new String[columnNameList.size()];
+    }
+
+    /** Writes the value into the row at the given index. Does nothing if the index is -1 (no such column). */
+    public static void setRowValue(String[] row, int index, String value) {
+        if (index >= 0) {
+            row[index] = value;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.sagebionetworks.bridge.exporter.handler;
+
+import java.util.List;
+
+import org.sagebionetworks.bridge.exporter.synapse.ColumnDefinition;
+
+/**
+ * Column indexes and serializer compiled for a TSV column list. Row plans are compiled by
+ * {@link SynapseExportHandler} once per table per task, and are stored in the task, so that they're released with the
+ * task even if the task is aborted. Row plans are opaque outside of the handler package.
+ */
+public class TsvRowPlan {
+    final TsvRowLayout layout;
+    final int recordIdIndex;
+    final int appVersionIndex;
+    final int phoneInfoIndex;
+    final int uploadDateIndex;
+    final List<ColumnDefinition> columnDefinitionList;
+    final int[] columnDefinitionIndexes;
+    final SynapseExportHandler.TsvRowSerializer serializer;
+
+    TsvRowPlan(TsvRowLayout layout, List<ColumnDefinition> columnDefinitionList,
+            SynapseExportHandler.TsvRowSerializer serializer) {
+        this.layout = layout;
+        this.recordIdIndex = layout.indexOf("recordId");
+        this.appVersionIndex = layout.indexOf("appVersion");
+        this.phoneInfoIndex = layout.indexOf("phoneInfo");
+        this.uploadDateIndex = layout.indexOf("uploadDate");
+        this.columnDefinitionList = columnDefinitionList;
+        this.columnDefinitionIndexes = new int[columnDefinitionList.size()];
+        for (int i = 0; i < columnDefinitionIndexes.length; i++) {
+            columnDefinitionIndexes[i] = layout.indexOf(columnDefinitionList.get(i).getName());
+        }
+        this.serializer = serializer;
+    }
+}
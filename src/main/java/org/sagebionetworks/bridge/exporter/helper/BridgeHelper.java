@@ -27,7 +27,8 @@ import org.sagebionetworks.bridge.schema.UploadSchemaKey;
  */
 @Component
 public class BridgeHelper {
-    private static final int MAX_BATCH_SIZE = 25;
+    /** Max number of record IDs per call to update record export statuses. */
+    public static final int MAX_BATCH_SIZE = 25;
 
     private ClientManager bridgeClientManager;
 
@@ -164,6 +164,9 @@ public class BridgeExporterRecordProcessor {
             LOG.info("Exporting the following studies: " + BridgeExporterUtil.COMMA_SPACE_JOINER.join(studyIdsToQuery
                     .keySet()));
 
+            // Load the Synapse table IDs for these studies up front, so table initialization doesn't have to.
+            workerManager.preloadSynapseTableIds(task, studyIdsToQuery.keySet());
+
             Iterable<String> recordIdIterable = recordIdSourceFactory.getRecordSourceForRequest(request,
                     studyIdsToQuery);
             for (String oneRecordId : recordIdIterable) {
@@ -224,6 +227,7 @@ public class BridgeExporterRecordProcessor {
             } else {
                 LOG.error("Error processing request; elapsed time " + elapsedTime + " seconds, " + request.toString());
             }
+            task.getValueInternPool().reportMetrics(metrics);
             metricsHelper.publishMetrics(metrics);
         }
 
@@ -0,0 +1,212 @@
+package org.sagebionetworks.bridge.exporter.request;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.exporter.exceptions.RestartBridgeExporterException;
+import org.sagebionetworks.bridge.exporter.exceptions.SynapseUnavailableException;
+import org.sagebionetworks.bridge.exporter.record.BridgeExporterRecordProcessor;
+import org.sagebionetworks.bridge.sqs.PollSqsWorkerBadRequestException;
+
+/**
+ * <p>
+ * Schedules export requests in front of the {@link BridgeExporterRecordProcessor}. Requests that arrive while all
+ * slots are in use wait for a slot, and waiting requests are run in priority order (see
+ * {@link BridgeExporterRequestType}), with smaller time windows first within the same type. To keep low-priority
+ * requests from starving, a request's priority goes up for every aging period it waits. To keep large requests from
+ * starving small requests, large requests can use at most all but one slot while a small request is waiting.
+ * </p>
+ * <p>
+ * A waiting request holds an un-acked SQS message, which can exceed the queue's visibility timeout and be delivered
+ * again. So by default, there is one poll thread per slot (see WorkerLauncher), and a large request never waits for
+ * the reserved slot if no small request needs it. That way, requests only wait if the poll thread count is raised
+ * above the slot count.
+ * </p>
+ */
+@Component
+public class BridgeExporterRequestScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(BridgeExporterRequestScheduler.class);
+
+    // package-scoped to be available to unit tests
+    static final String CONFIG_KEY_SCHEDULER_AGING_MILLIS = "exporter.request.scheduler.aging.millis";
+
+    /** Number of requests that can run at once. Public, since this is also the default number of poll threads. */
+    public static final String CONFIG_KEY_SCHEDULER_SLOTS = "exporter.request.scheduler.slots";
+
+    // config attributes
+    private long agingMillis;
+    private int slots;
+
+    // Spring helpers
+    private BridgeExporterRecordProcessor recordProcessor;
+
+    // scheduler state, guarded by lock
+    private final Object lock = new Object();
+    private final List<ScheduledRequest> waitingList = new ArrayList<>();
+    private int runningCount = 0;
+    private int runningLargeCount = 0;
+    private long sequence = 0;
+
+    /** Config, used to get the number of slots and the aging period. */
+    @Autowired
+    public final void setConfig(Config config) {
+        this.agingMillis = config.getInt(CONFIG_KEY_SCHEDULER_AGING_MILLIS);
+        this.slots = Math.max(1, config.getInt(CONFIG_KEY_SCHEDULER_SLOTS));
+    }
+
+    /** Record processor, which runs the request once it's been scheduled. */
+    @Autowired
+    public final void setRecordProcessor(BridgeExporterRecordProcessor recordProcessor) {
+        this.recordProcessor = recordProcessor;
+    }
+
+    /**
+     * Waits for the request's turn, then processes the request. Blocks until the request is finished.
+     *
+     * @param request
+     *         request to process
+     * @throws IOException
+     *         if a call to an underlying service fails
+     * @throws PollSqsWorkerBadRequestException
+     *         if the request is invalid
+     * @throws RestartBridgeExporterException
+     *         if the request needs to be restarted, including if we're interrupted waiting for a slot
+     * @throws SynapseUnavailableException
+     *         if Synapse is not available
+     */
+    public void processRequest(BridgeExporterRequest request) throws IOException, PollSqsWorkerBadRequestException,
+            RestartBridgeExporterException, SynapseUnavailableException {
+        ScheduledRequest scheduledRequest = acquireSlot(request);
+        try {
+            recordProcessor.processRecordsForRequest(request);
+        } finally {
+            releaseSlot(scheduledRequest);
+        }
+    }
+
+    // Blocks until the request is the highest priority request that can run and there's a free slot.
+    private ScheduledRequest acquireSlot(BridgeExporterRequest request) throws RestartBridgeExporterException {
+        ScheduledRequest scheduledRequest;
+        synchronized (lock) {
+            scheduledRequest = new ScheduledRequest(request, sequence++, System.currentTimeMillis());
+            waitingList.add(scheduledRequest);
+            try {
+                while (getNextRunnable(System.currentTimeMillis()) != scheduledRequest) {
+                    lock.wait();
+                }
+            } catch (InterruptedException ex) {
+                waitingList.remove(scheduledRequest);
+                lock.notifyAll();
+                Thread.currentThread().interrupt();
+                throw new RestartBridgeExporterException("Interrupted waiting to schedule request " +
+                        request.toString(), ex);
+            }
+
+            waitingList.remove(scheduledRequest);
+            runningCount++;
+            if (scheduledRequest.type.isLarge()) {
+                runningLargeCount++;
+            }
+
+            // Since this request was removed from the waiting list, another request might be next in line for a
+            // remaining slot.
+            lock.notifyAll();
+        }
+
+        LOG.info("Scheduled request of type " + scheduledRequest.type + " after waiting " +
+                (System.currentTimeMillis() - scheduledRequest.enqueuedMillis) + " ms: " + request.toString());
+        return scheduledRequest;
+    }
+
+    private void releaseSlot(ScheduledRequest scheduledRequest) {
+        synchronized (lock) {
+            runningCount--;
+            if (scheduledRequest.type.isLarge()) {
+                runningLargeCount--;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    // Returns the waiting request that should run next, or null if nothing can run right now. Must be called while
+    // holding the lock.
+    private ScheduledRequest getNextRunnable(long nowMillis) {
+        if (runningCount >= slots) {
+            return null;
+        }
+        boolean canRunLarge = runningLargeCount < Math.max(1, slots - 1) || !isSmallRequestWaiting();
+
+        ScheduledRequest next = null;
+        for (ScheduledRequest candidate : waitingList) {
+            if (candidate.type.isLarge() && !canRunLarge) {
+                continue;
+            }
+            if (next == null || compare(candidate, next, nowMillis) < 0) {
+                next = candidate;
+            }
+        }
+        return next;
+    }
+
+    // Returns true if a small (not large) request is waiting. Must be called while holding the lock.
+    private boolean isSmallRequestWaiting() {
+        for (ScheduledRequest candidate : waitingList) {
+            if (!candidate.type.isLarge()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Compares by effective priority (lower first), then by window size (smaller first), then by arrival order.
+    private int compare(ScheduledRequest a, ScheduledRequest b, long nowMillis) {
+        int result = Long.compare(getEffectivePriority(a, nowMillis), getEffectivePriority(b, nowMillis));
+        if (result != 0) {
+            return result;
+        }
+        result = Integer.compare(a.windowHours, b.windowHours);
+        if (result != 0) {
+            return result;
+        }
+        return Long.compare(a.sequence, b.sequence);
+    }
+
+    // Priority is the type's ordinal, minus one for every aging period spent waiting. Lower runs first.
+    // Package-scoped to be available to unit tests.
+    long getEffectivePriority(ScheduledRequest scheduledRequest, long nowMillis) {
+        long priority = scheduledRequest.type.ordinal();
+        if (agingMillis > 0) {
+            priority -= (nowMillis - scheduledRequest.enqueuedMillis) / agingMillis;
+        }
+        return priority;
+    }
+
+    /** Number of requests waiting for a slot. Package-scoped to be available to unit tests. */
+    int getWaitingCount() {
+        synchronized (lock) {
+            return waitingList.size();
+        }
+    }
+
+    // Bookkeeping for a request in the scheduler. Package-scoped to be available to unit tests.
+    static class ScheduledRequest {
+        final BridgeExporterRequestType type;
+        final int windowHours;
+        final long sequence;
+        final long enqueuedMillis;
+
+        ScheduledRequest(BridgeExporterRequest request, long sequence, long enqueuedMillis) {
+            this.type = BridgeExporterRequestType.forRequest(request);
+            this.windowHours = BridgeExporterRequestType.getWindowHours(request);
+            this.sequence = sequence;
+            this.enqueuedMillis = enqueuedMillis;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.sagebionetworks.bridge.exporter.request;
+
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.Hours;
+
+/**
+ * Classifies export requests for scheduling. Types are listed in priority order, from most latency-sensitive (and
+ * generally smallest) to least.
+ */
+public enum BridgeExporterRequestType {
+    /** Redrive of a specific list of records, specified by recordIdS3Override. */
+    RECORD_REDRIVE(false, true),
+
+    /** Custom-schedule (generally hourly) export, specified by a study whitelist. */
+    HOURLY(false, false),
+
+    /** Redrive of specific tables, specified by tableWhitelist. */
+    TABLE_REDRIVE(false, true),
+
+    /** Daily export of all studies. */
+    DAILY(true, false),
+
+    /** Export over a time range longer than a day, generally a backfill. */
+    BACKFILL(true, true);
+
+    // Requests with an explicit time range longer than this are considered backfills.
+    private static final int BACKFILL_MIN_HOURS = 24;
+
+    private final boolean large;
+    private final boolean reexport;
+
+    BridgeExporterRequestType(boolean large, boolean reexport) {
+        this.large = large;
+        this.reexport = reexport;
+    }
+
+    /**
+     * True if requests of this type are expected to be large and long-running. The scheduler limits how many large
+     * requests can run at once, so they can't starve small requests.
+     */
+    public boolean isLarge() {
+        return large;
+    }
+
+    /**
+     * True if requests of this type generally export records that have already been exported. Redrives and backfills
+     * are re-exports. Scheduled exports (daily and hourly) generally only export new records.
+     */
+    public boolean isReexport() {
+        return reexport;
+    }
+
+    /** Classifies the given request. */
+    public static BridgeExporterRequestType forRequest(BridgeExporterRequest request) {
+        if (StringUtils.isNotBlank(request.getRecordIdS3Override())) {
+            return RECORD_REDRIVE;
+        }
+
+        int windowHours = getWindowHours(request);
+        if (windowHours > BACKFILL_MIN_HOURS) {
+            return BACKFILL;
+        } else if (request.getTableWhitelist() != null) {
+            return TABLE_REDRIVE;
+        } else if (request.getStudyWhitelist() != null) {
+            // Studies with usesCustomExportSchedule are only exported by requests with a study whitelist.
+            return HOURLY;
+        } else {
+            return DAILY;
+        }
+    }
+
+    /**
+     * True if the given request may export records that have already been exported. This is true for re-export types
+     * (see {@link #isReexport}), for redriven requests, and for any request with an explicit time range instead of
+     * the last export time.
+     */
+    public static boolean mayReexportRecords(BridgeExporterRequest request) {
+        return request.getRedriveCount() > 0 || !request.getUseLastExportTime() || forRequest(request).isReexport();
+    }
+
+    /**
+     * Returns the number of hours covered by the request's explicit time range, or 0 if the request doesn't specify a
+     * start time (useLastExportTime or recordIdS3Override). Used to estimate request size.
+     */
+    public static int getWindowHours(BridgeExporterRequest request) {
+        if (request.getStartDateTime() == null || request.getEndDateTime() == null) {
+            return 0;
+        }
+        return Hours.hoursBetween(request.getStartDateTime(), request.getEndDateTime()).getHours();
+    }
+}
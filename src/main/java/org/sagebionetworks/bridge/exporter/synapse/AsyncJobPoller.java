@@ -0,0 +1,362 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.sagebionetworks.client.exceptions.SynapseClientException;
+import org.sagebionetworks.client.exceptions.SynapseException;
+
+import org.sagebionetworks.bridge.exporter.exceptions.AsyncJobInterruptedException;
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+
+/**
+ * <p>
+ * Polls Synapse asynchronous jobs (table transactions, TSV imports, table queries) until they finish or time out.
+ * </p>
+ * <p>
+ * Instead of sleeping a fixed interval before each poll, this keeps a latency model for each job type, which is an
+ * exponentially weighted moving average of how long past jobs of that type took to finish. The first poll is
+ * scheduled slightly before the job is expected to finish, and subsequent polls back off exponentially (with jitter,
+ * so that jobs started together don't poll together) up to a max delay. Small jobs get picked up quickly, and long
+ * jobs don't spend our Synapse rate limit on useless polls.
+ * </p>
+ * <p>
+ * A single scheduler thread keeps time for all outstanding jobs. When a poll comes due, the scheduler hands it off to a
+ * small pool of poll threads, since each poll is a blocking Synapse call (which may also wait on the rate limiter or
+ * circuit breaker), and a slow poll shouldn't delay the polls for other jobs. Callers submit a job and get back a
+ * CompletableFuture, instead of holding their own thread in a sleep loop for each job. Polls go through the Synapse
+ * rate limiter like any other call, so jobs that come due together are polled back to back within the rate limit.
+ * </p>
+ * <p>
+ * This is thread-safe, and is shared across all requests, so the latency model learns from all past runs in this
+ * process.
+ * </p>
+ */
+public class AsyncJobPoller {
+    // Job types. These are used as keys for the latency model and for metrics.
+    public static final String JOB_TYPE_TABLE_QUERY = "tableQuery";
+    public static final String JOB_TYPE_TABLE_QUERY_NEXT_PAGE = "tableQueryNextPage";
+    public static final String JOB_TYPE_TABLE_TRANSACTION = "tableTransaction";
+    public static final String JOB_TYPE_TSV_IMPORT = "tsvImport";
+
+    // Weight of the newest completion time in the latency model.
+    static final double LATENCY_MODEL_ALPHA = 0.3;
+
+    // We schedule the first poll at this fraction of the expected completion time, since polling slightly early and
+    // backing off is cheaper than polling late.
+    static final double INITIAL_DELAY_FRACTION = 0.75;
+
+    // Each delay is this multiple of the previous delay.
+    static final double BACKOFF_MULTIPLIER = 2.0;
+
+    // Each delay is randomly adjusted by up to this fraction in either direction.
+    static final double JITTER_FRACTION = 0.2;
+
+    // Number of poll threads, if not specified.
+    static final int DEFAULT_POLL_THREAD_COUNT = 4;
+
+    // The scheduler and poll threads exit after being idle this long, and are restarted when a job is submitted.
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    /** Polls an async job once. Returns the job result, or null if the job isn't done yet. */
+    @FunctionalInterface
+    public interface PollFunction<T> {
+        T poll() throws SynapseException;
+    }
+
+    // Per-job-type latency model (expected completion time in milliseconds) and stats.
+    private static class JobTypeStats {
+        // Null until the first job of this type finishes. Guarded by this.
+        private Double expectedCompletionMillis;
+
+        private final LongAdder jobCount = new LongAdder();
+        private final LongAdder pollCount = new LongAdder();
+        private final LongAdder completedCount = new LongAdder();
+        private final LongAdder completionMillis = new LongAdder();
+        private final LongAdder failureCount = new LongAdder();
+        private final LongAdder timeoutCount = new LongAdder();
+
+        synchronized Double getExpectedCompletionMillis() {
+            return expectedCompletionMillis;
+        }
+
+        synchronized void addCompletionMillis(long millis) {
+            if (expectedCompletionMillis == null) {
+                expectedCompletionMillis = (double) millis;
+            } else {
+                expectedCompletionMillis = LATENCY_MODEL_ALPHA * millis +
+                        (1.0 - LATENCY_MODEL_ALPHA) * expectedCompletionMillis;
+            }
+        }
+    }
+
+    private final long minDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxPolls;
+    private final long timeoutMillis;
+    private final Map<String, JobTypeStats> statsByJobType = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ThreadPoolExecutor pollExecutor;
+
+    /**
+     * Creates an async job poller with the default number of poll threads.
+     *
+     * @see #AsyncJobPoller(long, long, int, long, int)
+     */
+    public AsyncJobPoller(long minDelayMillis, long maxDelayMillis, int maxPolls, long timeoutMillis) {
+        this(minDelayMillis, maxDelayMillis, maxPolls, timeoutMillis, DEFAULT_POLL_THREAD_COUNT);
+    }
+
+    /**
+     * Creates an async job poller.
+     *
+     * @param minDelayMillis
+     *         min delay before each poll
+     * @param maxDelayMillis
+     *         max delay before each poll; if this is zero, we poll without sleeping
+     * @param maxPolls
+     *         max number of polls per job before timing out
+     * @param timeoutMillis
+     *         max total time per job before timing out; zero means there's no time limit, only the poll limit
+     * @param pollThreadCount
+     *         number of threads that run polls; if this is less than 1, we use 1
+     */
+    public AsyncJobPoller(long minDelayMillis, long maxDelayMillis, int maxPolls, long timeoutMillis,
+            int pollThreadCount) {
+        this.minDelayMillis = minDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxPolls = maxPolls;
+        this.timeoutMillis = timeoutMillis;
+
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat("synapse-async-job-scheduler-%d").setDaemon(true).build());
+        scheduler.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        scheduler.allowCoreThreadTimeOut(true);
+
+        int threadCount = Math.max(1, pollThreadCount);
+        pollExecutor = new ThreadPoolExecutor(threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new ThreadFactoryBuilder().setNameFormat("synapse-async-job-poller-%d")
+                .setDaemon(true).build());
+        pollExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Polls the async job until it finishes, or until we hit the poll limit or time limit. This blocks the calling
+     * thread. Callers that want to wait on several jobs at once should use {@link #submit} instead.
+     *
+     * @param jobType
+     *         job type, used for the latency model and for metrics
+     * @param pollFunction
+     *         function that polls the job once, returning null if the job isn't done
+     * @return job result, or null if the job timed out
+     * @throws AsyncJobInterruptedException
+     *         if the calling thread was interrupted while waiting
+     * @throws SynapseException
+     *         if polling the job fails
+     */
+    public <T> T poll(String jobType, PollFunction<T> pollFunction) throws SynapseException {
+        return waitFor(submit(jobType, pollFunction));
+    }
+
+    /**
+     * Submits the async job to be polled in the background until it finishes, or until we hit the poll limit or time
+     * limit.
+     *
+     * @param jobType
+     *         job type, used for the latency model and for metrics
+     * @param pollFunction
+     *         function that polls the job once, returning null if the job isn't done
+     * @return future with the job result, or null if the job timed out; completes exceptionally if polling the job
+     *         fails
+     */
+    public <T> CompletableFuture<T> submit(String jobType, PollFunction<T> pollFunction) {
+        JobTypeStats stats = statsByJobType.computeIfAbsent(jobType, key -> new JobTypeStats());
+        stats.jobCount.increment();
+
+        PendingJob<T> job = new PendingJob<>(stats, pollFunction,
+                getInitialDelayMillis(stats.getExpectedCompletionMillis()));
+        job.scheduleNextPoll();
+        return job.future;
+    }
+
+    /**
+     * Waits for a future returned by {@link #submit}, unwrapping the exception if polling failed.
+     *
+     * @param future
+     *         future to wait for
+     * @return job result, or null if the job timed out
+     * @throws AsyncJobInterruptedException
+     *         if the calling thread was interrupted while waiting
+     * @throws SynapseException
+     *         if polling the job fails
+     */
+    public static <T> T waitFor(CompletableFuture<T> future) throws SynapseException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            // Stop polling. The job itself may still finish in Synapse, so this is distinct from a timeout.
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new AsyncJobInterruptedException("Interrupted while waiting for async job", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof SynapseException) {
+                throw (SynapseException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new SynapseClientException("Error polling async job: " + cause.getMessage(), cause);
+            }
+        }
+    }
+
+    /**
+     * Writes the number of jobs, number of polls, average time to completion, and number of failures and timeouts for
+     * each job type since the last call, and resets those stats. The latency model isn't reset.
+     */
+    public void reportMetrics(Metrics metrics) {
+        // Sort by job type, so the metrics are written in a consistent order.
+        SortedMap<String, JobTypeStats> sortedStatsByJobType = new TreeMap<>(statsByJobType);
+        for (Map.Entry<String, JobTypeStats> oneEntry : sortedStatsByJobType.entrySet()) {
+            String prefix = "asyncJob." + oneEntry.getKey();
+            JobTypeStats stats = oneEntry.getValue();
+
+            long jobCount = stats.jobCount.sumThenReset();
+            long pollCount = stats.pollCount.sumThenReset();
+            long completedCount = stats.completedCount.sumThenReset();
+            long completionMillis = stats.completionMillis.sumThenReset();
+            long failureCount = stats.failureCount.sumThenReset();
+            long timeoutCount = stats.timeoutCount.sumThenReset();
+            if (jobCount == 0 && pollCount == 0) {
+                continue;
+            }
+
+            metrics.addKeyValuePair(prefix + ".jobs", String.valueOf(jobCount));
+            metrics.addKeyValuePair(prefix + ".polls", String.valueOf(pollCount));
+            metrics.addKeyValuePair(prefix + ".failures", String.valueOf(failureCount));
+            metrics.addKeyValuePair(prefix + ".timeouts", String.valueOf(timeoutCount));
+            if (completedCount > 0) {
+                metrics.addKeyValuePair(prefix + ".avgCompletionMillis", String.valueOf(completionMillis /
+                        completedCount));
+            }
+        }
+    }
+
+    /** Expected completion time for the given job type, or null if no jobs have finished. For unit tests. */
+    Double getExpectedCompletionMillis(String jobType) {
+        JobTypeStats stats = statsByJobType.get(jobType);
+        return stats != null ? stats.getExpectedCompletionMillis() : null;
+    }
+
+    // Delay before the first poll, based on the latency model. If we have no history, start at the min delay.
+    // Package-scoped for unit tests.
+    long getInitialDelayMillis(Double expectedCompletionMillis) {
+        if (expectedCompletionMillis == null) {
+            return clampDelay(minDelayMillis);
+        }
+        return clampDelay((long) (expectedCompletionMillis * INITIAL_DELAY_FRACTION));
+    }
+
+    // Package-scoped for unit tests.
+    long getNextDelayMillis(long delayMillis) {
+        return clampDelay((long) (delayMillis * BACKOFF_MULTIPLIER));
+    }
+
+    private long clampDelay(long delayMillis) {
+        return Math.min(Math.max(delayMillis, minDelayMillis), maxDelayMillis);
+    }
+
+    // Package-scoped for unit tests.
+    static long addJitter(long delayMillis) {
+        if (delayMillis <= 0) {
+            return 0;
+        }
+        double jitter = ThreadLocalRandom.current().nextDouble(-JITTER_FRACTION, JITTER_FRACTION);
+        return Math.round(delayMillis * (1.0 + jitter));
+    }
+
+    // Schedules the poll. The scheduler thread only waits out the delay, then hands the poll off to the poll threads,
+    // so it's never blocked on Synapse. Package-scoped so unit tests can skip the delay.
+    void schedule(Runnable poll, long delayMillis) {
+        scheduler.schedule(() -> pollExecutor.execute(poll), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // An outstanding job. Each poll runs on a poll thread and, if the job isn't done, schedules the next poll.
+    private class PendingJob<T> implements Runnable {
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final JobTypeStats stats;
+        private final PollFunction<T> pollFunction;
+        private final long startNanos = System.nanoTime();
+        private long delayMillis;
+        private int polls = 0;
+
+        PendingJob(JobTypeStats stats, PollFunction<T> pollFunction, long initialDelayMillis) {
+            this.stats = stats;
+            this.pollFunction = pollFunction;
+            this.delayMillis = initialDelayMillis;
+        }
+
+        // Schedules the next poll, or completes the future with null if we've hit the poll limit or time limit.
+        void scheduleNextPoll() {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            if (polls >= maxPolls || (timeoutMillis > 0 && elapsedMillis >= timeoutMillis)) {
+                stats.timeoutCount.increment();
+                future.complete(null);
+                return;
+            }
+
+            // Don't wait past the time limit.
+            long waitMillis = addJitter(delayMillis);
+            if (timeoutMillis > 0) {
+                waitMillis = Math.min(waitMillis, timeoutMillis - elapsedMillis);
+            }
+            schedule(this, Math.max(waitMillis, 0));
+        }
+
+        @Override
+        public void run() {
+            if (future.isDone()) {
+                // The caller stopped waiting.
+                return;
+            }
+
+            // poll
+            polls++;
+            stats.pollCount.increment();
+            T result;
+            try {
+                result = pollFunction.poll();
+            } catch (Throwable t) {
+                stats.failureCount.increment();
+                future.completeExceptionally(t);
+                return;
+            }
+
+            if (result != null) {
+                long completionMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                stats.completedCount.increment();
+                stats.completionMillis.add(completionMillis);
+                stats.addCompletionMillis(completionMillis);
+                future.complete(result);
+                return;
+            }
+
+            // Result not ready. Back off and poll again.
+            delayMillis = getNextDelayMillis(delayMillis);
+            scheduleNextPoll();
+        }
+    }
+}
@@ -6,6 +6,7 @@ public class ColumnDefinition  {
     private TransferMethod transferMethod;
     private String ddbName;
     private boolean sanitize;
+    private boolean intern;
 
     public String getName() {
         return name;
@@ -47,4 +48,12 @@ public class ColumnDefinition  {
         this.sanitize = sanitize;
     }
 
+    public boolean getIntern() {
+        return intern;
+    }
+
+    public void setIntern(boolean intern) {
+        this.intern = intern;
+    }
+
 }
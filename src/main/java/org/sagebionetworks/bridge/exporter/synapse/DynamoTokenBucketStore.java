@@ -0,0 +1,63 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.document.utils.NameMap;
+import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+
+/**
+ * Token bucket store backed by a DDB table (hash key "bucketName", attributes "tokens", "updatedMillis", and
+ * "version"), so that buckets are shared by all exporter hosts. Compare-and-set is a conditional put on the version.
+ * Other DDB errors are thrown to the caller.
+ */
+public class DynamoTokenBucketStore implements TokenBucketStore {
+    static final String DDB_KEY_BUCKET_NAME = "bucketName";
+    static final String DDB_KEY_TOKENS = "tokens";
+    static final String DDB_KEY_UPDATED_MILLIS = "updatedMillis";
+    static final String DDB_KEY_VERSION = "version";
+
+    private final Table ddbTable;
+
+    /** Creates a token bucket store backed by the given DDB table. */
+    public DynamoTokenBucketStore(Table ddbTable) {
+        this.ddbTable = ddbTable;
+    }
+
+    @Override
+    public State get(String bucketName) {
+        // Consistent read, so we don't compare-and-set against a stale version.
+        Item item = ddbTable.getItem(new GetItemSpec().withPrimaryKey(DDB_KEY_BUCKET_NAME, bucketName)
+                .withConsistentRead(true));
+        if (item == null) {
+            return null;
+        }
+        return new State(item.getDouble(DDB_KEY_TOKENS), item.getLong(DDB_KEY_UPDATED_MILLIS),
+                item.getLong(DDB_KEY_VERSION));
+    }
+
+    @Override
+    public boolean compareAndSet(String bucketName, State expectedState, State newState) {
+        Item item = new Item().withPrimaryKey(DDB_KEY_BUCKET_NAME, bucketName)
+                .withDouble(DDB_KEY_TOKENS, newState.getTokens())
+                .withLong(DDB_KEY_UPDATED_MILLIS, newState.getUpdatedMillis())
+                .withLong(DDB_KEY_VERSION, newState.getVersion());
+        PutItemSpec putItemSpec = new PutItemSpec().withItem(item);
+        if (expectedState == null) {
+            putItemSpec.withConditionExpression("attribute_not_exists(#b)")
+                    .withNameMap(new NameMap().with("#b", DDB_KEY_BUCKET_NAME));
+        } else {
+            putItemSpec.withConditionExpression("#v = :v").withNameMap(new NameMap().with("#v", DDB_KEY_VERSION))
+                    .withValueMap(new ValueMap().withLong(":v", expectedState.getVersion()));
+        }
+
+        try {
+            ddbTable.putItem(putItemSpec);
+            return true;
+        } catch (ConditionalCheckFailedException ex) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.joda.time.DateTimeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+
+/**
+ * <p>
+ * Persistent cache of Synapse file handle IDs, so that we can re-use file handles instead of creating a new one for
+ * the same content. Entries are persisted in a DDB table (hash key "cacheKey", attribute "fileHandleId"), so they
+ * survive across runs and are shared by all hosts. A size-bounded in-memory cache sits in front of DDB, so that
+ * repeated keys within a run don't need a DDB call.
+ * </p>
+ * <p>
+ * Each DDB entry has an "expiresOn" attribute (epoch seconds), so that the table can be configured with a DDB TTL and
+ * doesn't grow forever. Callers that know the key is new (for example, first-time exports of a record's attachments)
+ * can skip the DDB read with {@link #get(String, boolean)}.
+ * </p>
+ * <p>
+ * The cache is best effort. DDB errors are logged and treated as cache misses, and the caller falls back to creating
+ * a new file handle. This is thread-safe.
+ * </p>
+ */
+public class FileHandleCache {
+    private static final Logger LOG = LoggerFactory.getLogger(FileHandleCache.class);
+
+    static final String DDB_KEY_CACHE_KEY = "cacheKey";
+    static final String DDB_KEY_EXPIRES_ON = "expiresOn";
+    static final String DDB_KEY_FILE_HANDLE_ID = "fileHandleId";
+
+    private final String name;
+    private final Table ddbTable;
+    private final long ttlSeconds;
+    private final Cache<String, String> localCache;
+
+    private final LongAdder localHitCount = new LongAdder();
+    private final LongAdder ddbHitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    /**
+     * Creates a file handle cache.
+     *
+     * @param name
+     *         cache name, used for metrics and logging
+     * @param ddbTable
+     *         DDB table that persists the cache
+     * @param maxLocalEntries
+     *         max number of entries held in memory
+     * @param ttlDays
+     *         number of days DDB entries should be kept, written to the expiresOn attribute
+     */
+    public FileHandleCache(String name, Table ddbTable, long maxLocalEntries, int ttlDays) {
+        this.name = name;
+        this.ddbTable = ddbTable;
+        this.ttlSeconds = TimeUnit.DAYS.toSeconds(ttlDays);
+        this.localCache = CacheBuilder.newBuilder().maximumSize(maxLocalEntries).build();
+    }
+
+    /** Returns the cached file handle ID for the given key, or null if there isn't one. */
+    public String get(String key) {
+        return get(key, true);
+    }
+
+    /**
+     * Returns the cached file handle ID for the given key, or null if there isn't one. If checkDdb is false, this only
+     * checks the in-memory cache. This is used when the caller knows the key is almost certainly new, to save a DDB
+     * read.
+     */
+    public String get(String key, boolean checkDdb) {
+        String fileHandleId = localCache.getIfPresent(key);
+        if (fileHandleId != null) {
+            localHitCount.increment();
+            return fileHandleId;
+        }
+
+        if (!checkDdb) {
+            missCount.increment();
+            return null;
+        }
+
+        try {
+            Item item = ddbTable.getItem(DDB_KEY_CACHE_KEY, key);
+            if (item != null) {
+                fileHandleId = item.getString(DDB_KEY_FILE_HANDLE_ID);
+            }
+        } catch (AmazonClientException ex) {
+            LOG.warn("Error reading file handle cache " + name + " for key " + key + ": " + ex.getMessage(), ex);
+        }
+
+        if (fileHandleId != null) {
+            ddbHitCount.increment();
+            localCache.put(key, fileHandleId);
+        } else {
+            missCount.increment();
+        }
+        return fileHandleId;
+    }
+
+    /** Caches the file handle ID for the given key, both in memory and in DDB. */
+    public void put(String key, String fileHandleId) {
+        localCache.put(key, fileHandleId);
+        try {
+            long expiresOn = TimeUnit.MILLISECONDS.toSeconds(DateTimeUtils.currentTimeMillis()) + ttlSeconds;
+            ddbTable.putItem(new Item().withPrimaryKey(DDB_KEY_CACHE_KEY, key).withString(DDB_KEY_FILE_HANDLE_ID,
+                    fileHandleId).withLong(DDB_KEY_EXPIRES_ON, expiresOn));
+        } catch (AmazonClientException ex) {
+            LOG.warn("Error writing file handle cache " + name + " for key " + key + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /** Writes the hit and miss counts since the last call to the given metrics, and resets them. */
+    public void reportMetrics(Metrics metrics) {
+        long localHits = localHitCount.sumThenReset();
+        long ddbHits = ddbHitCount.sumThenReset();
+        long misses = missCount.sumThenReset();
+        if (localHits + ddbHits + misses == 0) {
+            return;
+        }
+
+        String prefix = "fileHandleCache." + name;
+        metrics.addKeyValuePair(prefix + ".localHits", String.valueOf(localHits));
+        metrics.addKeyValuePair(prefix + ".ddbHits", String.valueOf(ddbHits));
+        metrics.addKeyValuePair(prefix + ".misses", String.valueOf(misses));
+    }
+}
@@ -0,0 +1,26 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory token bucket store. Buckets are only shared within this JVM, so this is a stand-in for local development
+ * and unit tests, where there's only one host.
+ */
+public class InMemoryTokenBucketStore implements TokenBucketStore {
+    private final ConcurrentMap<String, State> stateByBucketName = new ConcurrentHashMap<>();
+
+    @Override
+    public State get(String bucketName) {
+        return stateByBucketName.get(bucketName);
+    }
+
+    @Override
+    public boolean compareAndSet(String bucketName, State expectedState, State newState) {
+        if (expectedState == null) {
+            return stateByBucketName.putIfAbsent(bucketName, newState) == null;
+        } else {
+            return stateByBucketName.replace(bucketName, expectedState, newState);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.AmazonClientException;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Rate limiter shared by all exporter hosts, implemented as a token bucket in a {@link TokenBucketStore}. Hosts share
+ * the global budget dynamically, so a single busy host can use the whole budget while the others are idle, instead of
+ * each host being limited to a fixed fraction.
+ * </p>
+ * <p>
+ * The bucket refills at the global rate, up to one second's worth of tokens (minimum 1 token). The bucket's update
+ * time comes from the hosts' wall clocks. It never moves backwards, so a host with a slow clock can't refill the
+ * bucket twice. And an update time more than {@link #MAX_CLOCK_SKEW_MILLIS} in the future (another host's clock is
+ * ahead of ours) is reset to our clock, so a host with a fast clock can't stop the bucket from refilling for everyone
+ * else.
+ * </p>
+ * <p>
+ * If the store is unavailable, we fall back to a per-host rate limiter, so an outage in the store doesn't stop the
+ * export. The warning for this is logged at most once per minute, with a count of the errors in between. This is
+ * thread-safe.
+ * </p>
+ */
+public class SharedRateLimiter {
+    private static final Logger LOG = LoggerFactory.getLogger(SharedRateLimiter.class);
+
+    // Package-scoped for unit tests.
+    static final long FALLBACK_WARNING_PERIOD_MILLIS = 60 * 1000;
+    static final long MAX_CLOCK_SKEW_MILLIS = 1000;
+
+    private final String bucketName;
+    private final TokenBucketStore store;
+    private final double permitsPerMilli;
+    private final double maxTokens;
+    private final RateLimiter fallbackRateLimiter;
+
+    // Fallback warning state. Errors are counted, and the warning is logged at most once per period.
+    private final AtomicLong lastFallbackWarningMillis = new AtomicLong(Long.MIN_VALUE);
+    private final LongAdder suppressedFallbackWarningCount = new LongAdder();
+
+    /**
+     * Creates a shared rate limiter.
+     *
+     * @param bucketName
+     *         name of the token bucket in the store, shared by all hosts
+     * @param store
+     *         token bucket store
+     * @param globalPermitsPerSecond
+     *         rate shared by all hosts
+     * @param fallbackPermitsPerSecond
+     *         per-host rate, used if the store is unavailable
+     */
+    public SharedRateLimiter(String bucketName, TokenBucketStore store, double globalPermitsPerSecond,
+            double fallbackPermitsPerSecond) {
+        this.bucketName = bucketName;
+        this.store = store;
+        this.permitsPerMilli = globalPermitsPerSecond / 1000.0;
+        this.maxTokens = Math.max(1.0, globalPermitsPerSecond);
+        this.fallbackRateLimiter = RateLimiter.create(fallbackPermitsPerSecond);
+    }
+
+    /** Acquires a permit, blocking until one is available. */
+    public void acquire() {
+        while (true) {
+            long waitMillis;
+            try {
+                waitMillis = tryAcquire();
+            } catch (AmazonClientException ex) {
+                logFallbackWarning(ex);
+                fallbackRateLimiter.acquire();
+                return;
+            }
+
+            if (waitMillis == 0) {
+                return;
+            }
+            // Jitter the wait, so hosts waiting on the same bucket don't all retry at the same time.
+            sleep(AsyncJobPoller.addJitter(waitMillis));
+        }
+    }
+
+    // Logs the fallback warning, unless we've already logged it in the last period. Otherwise, just counts the error,
+    // so the next warning can report it. Package-scoped for unit tests. Returns true if the warning was logged.
+    boolean logFallbackWarning(AmazonClientException ex) {
+        long nowMillis = now();
+        long lastMillis = lastFallbackWarningMillis.get();
+        if (lastMillis != Long.MIN_VALUE && nowMillis - lastMillis < FALLBACK_WARNING_PERIOD_MILLIS) {
+            suppressedFallbackWarningCount.increment();
+            return false;
+        }
+        if (!lastFallbackWarningMillis.compareAndSet(lastMillis, nowMillis)) {
+            // Another thread is logging this warning right now.
+            suppressedFallbackWarningCount.increment();
+            return false;
+        }
+
+        long suppressedCount = suppressedFallbackWarningCount.sumThenReset();
+        LOG.warn("Error acquiring shared rate limiter " + bucketName + ", falling back to per-host rate limiter (" +
+                suppressedCount + " similar errors since last warning): " + ex.getMessage(), ex);
+        return true;
+    }
+
+    // Makes one attempt to take a token from the bucket. Returns 0 if we got a token, otherwise how long to wait
+    // before trying again. Package-scoped for unit tests.
+    long tryAcquire() {
+        long nowMillis = now();
+        TokenBucketStore.State state = store.get(bucketName);
+
+        // Refill the bucket for the time since it was last updated. New buckets start full.
+        double tokens;
+        long version;
+        long updatedMillis;
+        if (state == null) {
+            tokens = maxTokens;
+            updatedMillis = nowMillis;
+            version = 0;
+        } else {
+            long storedUpdatedMillis = state.getUpdatedMillis();
+            if (storedUpdatedMillis > nowMillis + MAX_CLOCK_SKEW_MILLIS) {
+                // Another host's clock is far ahead of ours. Reset the update time to our clock, or the bucket
+                // wouldn't refill until our clock caught up. Then retry almost right away with the reset state.
+                store.compareAndSet(bucketName, state, new TokenBucketStore.State(state.getTokens(), nowMillis,
+                        state.getVersion() + 1));
+                return 1;
+            }
+
+            long elapsedMillis = Math.max(0, nowMillis - storedUpdatedMillis);
+            tokens = Math.min(maxTokens, state.getTokens() + elapsedMillis * permitsPerMilli);
+            version = state.getVersion() + 1;
+
+            // Never move the update time backwards, so a host with a slow clock doesn't refill the bucket twice.
+            updatedMillis = Math.max(storedUpdatedMillis, nowMillis);
+        }
+
+        if (tokens < 1.0) {
+            // Wait until the bucket has refilled enough for one token. If the update time is ahead of our clock, the
+            // bucket doesn't start refilling until then.
+            return Math.max(1, (long) Math.ceil((1.0 - tokens) / permitsPerMilli) + (updatedMillis - nowMillis));
+        }
+
+        // If another caller updated the bucket first, retry almost right away with the new state.
+        boolean success = store.compareAndSet(bucketName, state, new TokenBucketStore.State(tokens - 1.0,
+                updatedMillis, version));
+        return success ? 0 : 1;
+    }
+
+    // Current time. Package-scoped so unit tests can control the clock.
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    // Sleeps. Package-scoped so unit tests can skip the wait.
+    void sleep(long millis) {
+        Uninterruptibles.sleepUninterruptibly(millis, TimeUnit.MILLISECONDS);
+    }
+}
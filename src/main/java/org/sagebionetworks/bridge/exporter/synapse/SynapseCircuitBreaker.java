@@ -0,0 +1,206 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Circuit breaker for Synapse outages. When Synapse is down (503), the breaker opens, and Synapse calls wait at the
+ * breaker instead of failing. Work that doesn't need Synapse, such as reading records and writing local TSVs, keeps
+ * going. While the breaker is open, one thread probes Synapse's stack status with exponential backoff. When Synapse is
+ * writable again, the breaker closes and the waiting calls resume.
+ * </p>
+ * <p>
+ * If Synapse doesn't recover within the max open time, we give up. Once we've given up, calls fail fast (callers fall
+ * back to restarting the request), and further Synapse errors don't re-open the breaker with a fresh wait. We stay
+ * given up until a probe shows Synapse is writable again. Callers probe at most once per max probe delay, and a
+ * successful external health check (see {@link #onSynapseWritable}) also counts. This is thread-safe.
+ * </p>
+ */
+public class SynapseCircuitBreaker {
+    private static final Logger LOG = LoggerFactory.getLogger(SynapseCircuitBreaker.class);
+
+    // Breaker states.
+    private enum State {
+        // Synapse is up. Calls pass through.
+        CLOSED,
+
+        // Synapse is down. Calls wait for it to recover.
+        OPEN,
+
+        // Synapse didn't recover within the max open time. Calls fail fast until a probe succeeds.
+        GAVE_UP,
+    }
+
+    private final Callable<Boolean> probe;
+    private final long minProbeDelayMillis;
+    private final long maxProbeDelayMillis;
+    private final long maxOpenMillis;
+
+    // State, guarded by this.
+    private State state = State.CLOSED;
+    private long openedAtMillis;
+    private boolean probing = false;
+    private long nextGaveUpProbeMillis;
+
+    /**
+     * Creates a circuit breaker.
+     *
+     * @param probe
+     *         returns true if Synapse is up and writable. Must not wait at this breaker.
+     * @param minProbeDelayMillis
+     *         delay after the first failed probe
+     * @param maxProbeDelayMillis
+     *         max delay between probes, including between probes after we gave up
+     * @param maxOpenMillis
+     *         how long to wait for Synapse to recover before giving up
+     */
+    public SynapseCircuitBreaker(Callable<Boolean> probe, long minProbeDelayMillis, long maxProbeDelayMillis,
+            long maxOpenMillis) {
+        this.probe = probe;
+        this.minProbeDelayMillis = minProbeDelayMillis;
+        this.maxProbeDelayMillis = maxProbeDelayMillis;
+        this.maxOpenMillis = maxOpenMillis;
+    }
+
+    /** True if the breaker is open, meaning Synapse is down and Synapse calls are paused. */
+    public synchronized boolean isOpen() {
+        return state == State.OPEN;
+    }
+
+    /** True if we gave up waiting for Synapse to recover, meaning Synapse calls fail fast. */
+    public synchronized boolean hasGivenUp() {
+        return state == State.GAVE_UP;
+    }
+
+    /**
+     * Opens the breaker (if it isn't already open) because of the given Synapse error, then waits for Synapse to
+     * recover.
+     *
+     * @param cause
+     *         Synapse error that showed Synapse is down
+     * @return true if Synapse recovered, false if we gave up
+     */
+    public boolean tripAndAwaitRecovery(Throwable cause) {
+        trip(cause);
+        return awaitClosed();
+    }
+
+    /**
+     * Opens the breaker (if it isn't already open) because of the given Synapse error, without waiting. Subsequent
+     * calls to {@link #awaitClosed} wait for Synapse to recover. If we already gave up, this does nothing, and calls
+     * keep failing fast.
+     *
+     * @param cause
+     *         Synapse error that showed Synapse is down
+     */
+    public synchronized void trip(Throwable cause) {
+        if (state == State.CLOSED) {
+            LOG.warn("Synapse is down, pausing Synapse calls: " + cause.getMessage());
+            state = State.OPEN;
+            openedAtMillis = now();
+        }
+    }
+
+    /**
+     * Called when a health check outside the breaker (such as the stack status check at the start of each request)
+     * finds Synapse writable. If we gave up on Synapse, this closes the breaker.
+     */
+    public synchronized void onSynapseWritable() {
+        if (state == State.GAVE_UP) {
+            LOG.info("Synapse is writable again, resuming Synapse calls");
+            state = State.CLOSED;
+        }
+    }
+
+    /**
+     * If the breaker is open, waits until Synapse recovers or we give up. The first caller to arrive probes Synapse.
+     * Other callers wait for the result. If we already gave up, this returns false right away, except that if a probe
+     * is due, the caller probes once.
+     *
+     * @return true if the breaker is closed because Synapse recovered (or was never down), false if we gave up
+     */
+    public boolean awaitClosed() {
+        synchronized (this) {
+            while (state == State.OPEN && probing) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            if (state == State.CLOSED) {
+                return true;
+            }
+            if (state == State.GAVE_UP && (probing || now() < nextGaveUpProbeMillis)) {
+                return false;
+            }
+            probing = true;
+        }
+
+        // We're the prober. Probe outside the lock, so other callers can check the state. If we already gave up, we
+        // only probe once.
+        boolean writable;
+        boolean gaveUp;
+        synchronized (this) {
+            gaveUp = state == State.GAVE_UP;
+        }
+        if (gaveUp) {
+            writable = probeQuietly();
+        } else {
+            long delayMillis = minProbeDelayMillis;
+            while (true) {
+                writable = probeQuietly();
+                long remainingMillis = openedAtMillis + maxOpenMillis - now();
+                if (writable || remainingMillis <= 0) {
+                    break;
+                }
+                sleep(Math.min(AsyncJobPoller.addJitter(delayMillis), remainingMillis));
+                delayMillis = Math.min(delayMillis * 2, maxProbeDelayMillis);
+            }
+        }
+
+        synchronized (this) {
+            long openMillis = now() - openedAtMillis;
+            if (writable) {
+                LOG.info("Synapse recovered after " + openMillis + " ms, resuming Synapse calls");
+                state = State.CLOSED;
+            } else {
+                if (!gaveUp) {
+                    LOG.error("Synapse still down after " + openMillis + " ms, giving up. Synapse calls fail fast " +
+                            "until Synapse recovers");
+                }
+                state = State.GAVE_UP;
+                nextGaveUpProbeMillis = now() + maxProbeDelayMillis;
+            }
+            probing = false;
+            notifyAll();
+            return writable;
+        }
+    }
+
+    // Helper method to call the probe. Errors count as Synapse being down.
+    private boolean probeQuietly() {
+        try {
+            return probe.call();
+        } catch (Exception ex) {
+            LOG.info("Synapse probe failed: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    // Current time. Package-scoped so unit tests can control the clock.
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    // Sleeps. Package-scoped so unit tests can skip the wait.
+    void sleep(long millis) {
+        Uninterruptibles.sleepUninterruptibly(millis, TimeUnit.MILLISECONDS);
+    }
+}
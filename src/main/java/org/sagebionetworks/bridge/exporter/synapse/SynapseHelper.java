@@ -10,7 +10,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Resource;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.s3.model.ObjectMetadata;
@@ -22,10 +26,12 @@ import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.SetMultimap;
 import com.google.common.util.concurrent.RateLimiter;
 import com.jcabi.aspects.RetryOnFailure;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.sagebionetworks.client.SynapseClient;
 import org.sagebionetworks.client.exceptions.SynapseException;
 import org.sagebionetworks.client.exceptions.SynapseResultNotReadyException;
+import org.sagebionetworks.client.exceptions.SynapseServiceUnavailable;
 import org.sagebionetworks.repo.model.ACCESS_TYPE;
 import org.sagebionetworks.repo.model.AccessControlList;
 import org.sagebionetworks.repo.model.ResourceAccess;
@@ -51,6 +57,7 @@ import org.sagebionetworks.schema.adapter.JSONObjectAdapterException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.config.Config;
@@ -72,7 +79,15 @@ public class SynapseHelper {
 
     // Config keys. Package-scoped to allow unit tests to mock.
     static final String CONFIG_KEY_SYNAPSE_ASYNC_INTERVAL_MILLIS = "synapse.async.interval.millis";
+    static final String CONFIG_KEY_SYNAPSE_ASYNC_MAX_DELAY_MILLIS = "synapse.async.max.delay.millis";
+    static final String CONFIG_KEY_SYNAPSE_ASYNC_MIN_DELAY_MILLIS = "synapse.async.min.delay.millis";
+    static final String CONFIG_KEY_SYNAPSE_ASYNC_POLL_THREAD_COUNT = "synapse.async.poll.thread.count";
     static final String CONFIG_KEY_SYNAPSE_ASYNC_TIMEOUT_LOOPS = "synapse.async.timeout.loops";
+    static final String CONFIG_KEY_SYNAPSE_CIRCUIT_BREAKER_MAX_OPEN_MILLIS = "synapse.circuit.breaker.max.open.millis";
+    static final String CONFIG_KEY_SYNAPSE_CIRCUIT_BREAKER_MAX_PROBE_DELAY_MILLIS =
+            "synapse.circuit.breaker.max.probe.delay.millis";
+    static final String CONFIG_KEY_SYNAPSE_CIRCUIT_BREAKER_MIN_PROBE_DELAY_MILLIS =
+            "synapse.circuit.breaker.min.probe.delay.millis";
     static final String CONFIG_KEY_SYNAPSE_RATE_LIMIT_PER_SECOND = "synapse.rate.limit.per.second";
     static final String CONFIG_KEY_SYNAPSE_GET_COLUMN_MODELS_RATE_LIMIT_PER_MINUTE =
             "synapse.get.column.models.rate.limit.per.minute";
@@ -86,6 +101,8 @@ public class SynapseHelper {
             ACCESS_TYPE.CHANGE_SETTINGS, ACCESS_TYPE.MODERATE);
     public static final Set<ACCESS_TYPE> ACCESS_TYPE_READ = ImmutableSet.of(ACCESS_TYPE.READ, ACCESS_TYPE.DOWNLOAD);
     public static final String DDB_TABLE_SYNAPSE_META_TABLES = "SynapseMetaTables";
+    public static final String DDB_TABLE_SYNAPSE_TABLES = "SynapseTables";
+    public static final String DDB_KEY_SCHEMA_KEY = "schemaKey";
     public static final String DDB_KEY_TABLE_NAME = "tableName";
 
     // Map of allowed column type changes. Key is the old type. Value is the new type.
@@ -169,31 +186,52 @@ public class SynapseHelper {
                     .build();
 
     // config
-    private int asyncIntervalMillis;
-    private int asyncTimeoutLoops;
+    private AsyncJobPoller asyncJobPoller;
     private String attachmentBucket;
     private long bridgeAdminTeamId;
     private long bridgeStaffTeamId;
+    private SynapseCircuitBreaker circuitBreaker;
     private long storageLocationId;
 
     // Spring helpers
+    private FileHandleCache attachmentFileHandleCache;
+    private ExecutorService attachmentFileHandleExecutor;
+    private ExecutorService attachmentMetadataExecutor;
+    private SharedRateLimiter getColumnModelsSharedRateLimiter;
+    private FileHandleCache rawMetadataFileHandleCache;
     private S3Helper s3Helper;
     private SynapseClient synapseClient;
+    private TableSchemaCache tableSchemaCache;
 
-    // Rate limiter, used to limit the amount of traffic to Synapse. Synapse throttles at 10 requests per second.
-    private final RateLimiter rateLimiter = RateLimiter.create(10.0);
+    // Rate limiter, used to limit the amount of traffic to Synapse. Synapse throttles at 10 requests per second. This
+    // is split into priority classes, so async job polls and foreground work aren't starved by background uploads.
+    private final SynapseRateLimiter rateLimiter = new SynapseRateLimiter(10.0);
 
-    // Rate limiter for getColumnModelsForEntity(). This is rate limited to 6 per minute per host, for each of 8 hosts,
-    // for a total of 48 calls per minute. Add a safety factor and rate limit to 24 per minute.
-    private final RateLimiter getColumnModelsRateLimiter = RateLimiter.create(24.0 / 60.0);
+    // Rate limiter for getColumnModelsForEntity(). Synapse allows 6 per minute per host, for each of 8 hosts, for a
+    // total of 48 calls per minute. This per-host limiter is only used if the shared (cluster-wide) limiter isn't
+    // configured, so it's limited to the per-host share, which keeps the cluster within budget even if every host
+    // uses it.
+    private final RateLimiter getColumnModelsRateLimiter = RateLimiter.create(6.0 / 60.0);
 
     /** Config, used to get the attachment S3 bucket to get Bridge attachments. */
     @Autowired
     public final void setConfig(Config config) {
-        this.asyncIntervalMillis = config.getInt(CONFIG_KEY_SYNAPSE_ASYNC_INTERVAL_MILLIS);
-        this.asyncTimeoutLoops = config.getInt(CONFIG_KEY_SYNAPSE_ASYNC_TIMEOUT_LOOPS);
+        // Async jobs back off from the min delay to the max delay between polls. The overall timeout is the same as
+        // when we polled at a fixed interval (interval times loops).
+        int asyncIntervalMillis = config.getInt(CONFIG_KEY_SYNAPSE_ASYNC_INTERVAL_MILLIS);
+        int asyncTimeoutLoops = config.getInt(CONFIG_KEY_SYNAPSE_ASYNC_TIMEOUT_LOOPS);
+        this.asyncJobPoller = new AsyncJobPoller(config.getInt(CONFIG_KEY_SYNAPSE_ASYNC_MIN_DELAY_MILLIS),
+                config.getInt(CONFIG_KEY_SYNAPSE_ASYNC_MAX_DELAY_MILLIS), asyncTimeoutLoops,
+                (long) asyncIntervalMillis * asyncTimeoutLoops,
+                config.getInt(CONFIG_KEY_SYNAPSE_ASYNC_POLL_THREAD_COUNT));
         this.attachmentBucket = config.get(BridgeExporterUtil.CONFIG_KEY_ATTACHMENT_S3_BUCKET);
 
+        // When Synapse is down, Synapse calls wait at the circuit breaker while it probes the stack status.
+        this.circuitBreaker = new SynapseCircuitBreaker(this::probeSynapseWritable,
+                config.getInt(CONFIG_KEY_SYNAPSE_CIRCUIT_BREAKER_MIN_PROBE_DELAY_MILLIS),
+                config.getInt(CONFIG_KEY_SYNAPSE_CIRCUIT_BREAKER_MAX_PROBE_DELAY_MILLIS),
+                config.getInt(CONFIG_KEY_SYNAPSE_CIRCUIT_BREAKER_MAX_OPEN_MILLIS));
+
         String bridgeAdminTeamIdStr = config.get(CONFIG_KEY_TEAM_BRIDGE_ADMIN);
         if (StringUtils.isNotBlank(bridgeAdminTeamIdStr)) {
             this.bridgeAdminTeamId = Long.parseLong(bridgeAdminTeamIdStr);
@@ -230,11 +268,159 @@ public class SynapseHelper {
         this.bridgeStaffTeamId = bridgeStaffTeamId;
     }
 
+    // Package-scoped for unit tests.
+    void setCircuitBreaker(SynapseCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
     // Package-scoped for unit tests.
     void setRateLimit(@SuppressWarnings("SameParameterValue") double rateLimit) {
         rateLimiter.setRate(rateLimit);
     }
 
+    /**
+     * Returns the total time (in microseconds) that worker threads have spent waiting on the Synapse rate limiter for
+     * foreground calls since the last call to this method, and resets the total. Used by the worker pool controller to
+     * detect when Synapse throttling, rather than worker count, is the bottleneck. Waits on other threads (such as TSV
+     * uploads and async job polls) aren't counted, since the worker pool size doesn't affect them.
+     */
+    public long getAndResetRateLimiterWaitMicros() {
+        return rateLimiter.getAndResetWorkerWaitMicros();
+    }
+
+    /** Writes rate limiter permit counts and wait times per priority class since the last call to the given metrics. */
+    public void reportRateLimiterMetrics(Metrics metrics) {
+        rateLimiter.reportMetrics(metrics);
+    }
+
+    /** Poller for Synapse async jobs. Also used by callers that poll their own async jobs, such as table queries. */
+    public AsyncJobPoller getAsyncJobPoller() {
+        return asyncJobPoller;
+    }
+
+    /** Writes async job poll counts and completion times since the last call to the given metrics. */
+    public void reportAsyncJobMetrics(Metrics metrics) {
+        asyncJobPoller.reportMetrics(metrics);
+    }
+
+    /** Writes file handle and table schema cache hits and misses since the last call to the given metrics. */
+    public void reportCacheMetrics(Metrics metrics) {
+        if (attachmentFileHandleCache != null) {
+            attachmentFileHandleCache.reportMetrics(metrics);
+        }
+        if (rawMetadataFileHandleCache != null) {
+            rawMetadataFileHandleCache.reportMetrics(metrics);
+        }
+        if (tableSchemaCache != null) {
+            tableSchemaCache.reportMetrics(metrics);
+        }
+    }
+
+    // Acquires a foreground permit from the Synapse rate limiter.
+    private void acquireRateLimiter() throws SynapseServiceUnavailable {
+        acquireRateLimiter(SynapseRateLimiter.Priority.FOREGROUND);
+    }
+
+    // Acquires a permit from the Synapse rate limiter for the given priority class. If Synapse is down, this first
+    // waits at the circuit breaker until Synapse recovers. If the breaker gave up on Synapse, this fails fast.
+    //
+    // Async job polls don't wait at the breaker. They run on the small poll pool, so a single waiting poll would block
+    // polls for every other job. Async jobs keep running in Synapse during an outage, and a poll that fails is handled
+    // by the caller waiting on the job.
+    private void acquireRateLimiter(SynapseRateLimiter.Priority priority) throws SynapseServiceUnavailable {
+        if (priority != SynapseRateLimiter.Priority.POLL) {
+            awaitCircuitBreaker();
+        }
+        rateLimiter.acquire(priority);
+    }
+
+    // Waits at the circuit breaker until Synapse recovers. Throws if the breaker gave up on Synapse, so that calls fail
+    // fast instead of hitting Synapse while it's down.
+    private void awaitCircuitBreaker() throws SynapseServiceUnavailable {
+        if (circuitBreaker != null && !circuitBreaker.awaitClosed()) {
+            throw new SynapseServiceUnavailable("Synapse is down, failing fast until it recovers");
+        }
+    }
+
+    // Called by the retry wrappers when a Synapse call fails because Synapse is down. Opens the circuit breaker without
+    // waiting, so that other Synapse calls, and this call's retry, wait for Synapse to recover instead of failing.
+    // Returns the exception, so callers can rethrow it.
+    private SynapseServiceUnavailable tripCircuitBreaker(SynapseServiceUnavailable ex) {
+        if (circuitBreaker != null) {
+            circuitBreaker.trip(ex);
+        }
+        return ex;
+    }
+
+    /**
+     * Called when a Synapse call fails because Synapse is down. Opens the circuit breaker, which pauses all Synapse
+     * calls, and waits until Synapse is writable again.
+     *
+     * @param cause
+     *         Synapse error that showed Synapse is down
+     * @return true if Synapse recovered and the caller can retry, false if Synapse is still down and the caller should
+     *         give up
+     */
+    public boolean awaitSynapseRecovery(Throwable cause) {
+        if (circuitBreaker == null) {
+            return false;
+        }
+        return circuitBreaker.tripAndAwaitRecovery(cause);
+    }
+
+    // Circuit breaker probe. Checks the stack status without waiting at the circuit breaker (which is what's calling
+    // this) and without retries (the circuit breaker has its own backoff).
+    private boolean probeSynapseWritable() throws JSONObjectAdapterException, SynapseException {
+        rateLimiter.acquire(SynapseRateLimiter.Priority.POLL);
+        StackStatus status = synapseClient.getCurrentStackStatus();
+        return status.getStatus() == StatusEnum.READ_WRITE;
+    }
+
+    /**
+     * Cache of attachment file handles, keyed by storage location and attachment ID. Optional. If this isn't set,
+     * every call creates a new file handle.
+     */
+    @Autowired(required = false)
+    @Qualifier("attachmentFileHandleCache")
+    public final void setAttachmentFileHandleCache(FileHandleCache attachmentFileHandleCache) {
+        this.attachmentFileHandleCache = attachmentFileHandleCache;
+    }
+
+    /**
+     * Executor for creating attachment file handles in Synapse. Calls are rate limited, so this mainly bounds the
+     * number of concurrent Synapse calls.
+     */
+    @Resource(name = "attachmentFileHandleExecutorService")
+    public final void setAttachmentFileHandleExecutor(ExecutorService attachmentFileHandleExecutor) {
+        this.attachmentFileHandleExecutor = attachmentFileHandleExecutor;
+    }
+
+    /** Executor for getting attachment metadata from S3, which runs ahead of the file handle creation. */
+    @Resource(name = "attachmentMetadataExecutorService")
+    public final void setAttachmentMetadataExecutor(ExecutorService attachmentMetadataExecutor) {
+        this.attachmentMetadataExecutor = attachmentMetadataExecutor;
+    }
+
+    /**
+     * Rate limiter for getColumnModelsForEntity(), shared by all exporter hosts. Optional. If this isn't set, we use a
+     * fixed per-host rate limit.
+     */
+    @Autowired(required = false)
+    @Qualifier("getColumnModelsSharedRateLimiter")
+    public final void setGetColumnModelsSharedRateLimiter(SharedRateLimiter getColumnModelsSharedRateLimiter) {
+        this.getColumnModelsSharedRateLimiter = getColumnModelsSharedRateLimiter;
+    }
+
+    /**
+     * Cache of raw metadata file handles, keyed by content MD5. Optional. If this isn't set, every call creates a new
+     * file handle.
+     */
+    @Autowired(required = false)
+    @Qualifier("rawMetadataFileHandleCache")
+    public final void setRawMetadataFileHandleCache(FileHandleCache rawMetadataFileHandleCache) {
+        this.rawMetadataFileHandleCache = rawMetadataFileHandleCache;
+    }
+
     /** S3 Helper, used to download Bridge attachments before uploading them to Synapse. */
     @Autowired
     public final void setS3Helper(S3Helper s3Helper) {
@@ -247,6 +433,16 @@ public class SynapseHelper {
         this.synapseClient = synapseClient;
     }
 
+    /**
+     * Cache of table column models, keyed by table ID and validated by etag. Optional. If this isn't set, we always
+     * get column models from Synapse.
+     */
+    @Autowired(required = false)
+    @Qualifier("tableSchemaCache")
+    public final void setTableSchemaCache(TableSchemaCache tableSchemaCache) {
+        this.tableSchemaCache = tableSchemaCache;
+    }
+
     /**
      * Returns true if the old column can be converted to the new column in a meaningful way without data loss. Used to
      * determine if the schema changes, whether BridgeEX should try to modify the table.
@@ -400,13 +596,13 @@ public class SynapseHelper {
             }
             case FLOAT: {
                 if (node.isNumber()) {
-                    return String.valueOf(node.decimalValue());
+                    return serializeFloat(node);
                 }
                 return null;
             }
             case INT: {
                 if (node.isNumber()) {
-                    return String.valueOf(node.bigIntegerValue());
+                    return serializeInt(node);
                 }
                 return null;
             }
@@ -431,6 +627,39 @@ public class SynapseHelper {
         }
     }
 
+    /**
+     * Serializes a number node as a FLOAT. This is equivalent to String.valueOf(node.decimalValue()), but has fast
+     * paths for ints, longs, and doubles that don't need to go through BigDecimal. Package-scoped for unit tests.
+     */
+    static String serializeFloat(JsonNode node) {
+        if (node.isInt() || node.isLong()) {
+            return Long.toString(node.longValue());
+        }
+        if (node.isDouble()) {
+            // BigDecimal.valueOf(double) is parsed from Double.toString(), and prints the same string back unless
+            // it's in scientific notation or negative zero (BigDecimal has no negative zero).
+            double value = node.doubleValue();
+            if (value != 0.0 && !Double.isNaN(value) && !Double.isInfinite(value)) {
+                String doubleString = Double.toString(value);
+                if (doubleString.indexOf('E') < 0) {
+                    return doubleString;
+                }
+            }
+        }
+        return String.valueOf(node.decimalValue());
+    }
+
+    /**
+     * Serializes a number node as an INT. This is equivalent to String.valueOf(node.bigIntegerValue()), but has a
+     * fast path for ints and longs that doesn't need to go through BigInteger. Package-scoped for unit tests.
+     */
+    static String serializeInt(JsonNode node) {
+        if (node.isInt() || node.isLong()) {
+            return Long.toString(node.longValue());
+        }
+        return String.valueOf(node.bigIntegerValue());
+    }
+
     /**
      * Helper method to download a large text attachment from S3. This is a separate public helper method to facilitate
      * mocking and spying in unit tests, and should never be called directly.
@@ -441,11 +670,87 @@ public class SynapseHelper {
 
     /**
      * Creates a Synapse file handle for the given Synapse project and Bridge attachment ID. Uses External S3
-     * file handles.
+     * file handles. If we've already created a file handle for this attachment (for example, on a redrive), this
+     * returns the cached file handle without calling S3 or Synapse.
      */
     public String uploadFromS3ToSynapseFileHandle(String projectId, String attachmentId) throws SynapseException {
-        // Create a Synapse S3 file handle from the S3 object metadata.
+        return uploadFromS3ToSynapseFileHandle(projectId, attachmentId, true);
+    }
+
+    /**
+     * Creates a Synapse file handle for the given Synapse project and Bridge attachment ID. If checkPersistentCache is
+     * false, this only checks the in-memory file handle cache, and doesn't read DDB. Callers should set this to false
+     * when the attachment is being exported for the first time (that is, the request isn't a redrive or re-export),
+     * since it can't have a cached file handle yet.
+     */
+    public String uploadFromS3ToSynapseFileHandle(String projectId, String attachmentId, boolean checkPersistentCache)
+            throws SynapseException {
+        String cachedFileHandleId = getCachedAttachmentFileHandleId(attachmentId, checkPersistentCache);
+        if (cachedFileHandleId != null) {
+            return cachedFileHandleId;
+        }
+
         ObjectMetadata s3ObjectMetadata = s3Helper.getObjectMetadata(attachmentBucket, attachmentId);
+        return createFileHandleFromS3Metadata(attachmentId, s3ObjectMetadata);
+    }
+
+    /**
+     * <p>
+     * Asynchronous version of {@link #uploadFromS3ToSynapseFileHandle}. This is a two-stage pipeline. The S3 metadata
+     * call runs on the attachment metadata executor. The Synapse file handle call then runs on the attachment file
+     * handle executor, within the Synapse rate limit. Callers never block on either call.
+     * </p>
+     * <p>
+     * The future completes with the file handle ID, or null if the attachment is empty. If either call fails, the
+     * future completes exceptionally with the original exception.
+     * </p>
+     */
+    public CompletableFuture<String> uploadFromS3ToSynapseFileHandleAsync(String projectId, String attachmentId) {
+        return uploadFromS3ToSynapseFileHandleAsync(projectId, attachmentId, true);
+    }
+
+    /**
+     * Asynchronous version of {@link #uploadFromS3ToSynapseFileHandle(String, String, boolean)}. See
+     * {@link #uploadFromS3ToSynapseFileHandleAsync(String, String)} for details.
+     */
+    public CompletableFuture<String> uploadFromS3ToSynapseFileHandleAsync(String projectId, String attachmentId,
+            boolean checkPersistentCache) {
+        // Check the cache first, on the metadata executor, since the cache may need to call DDB. If it's cached, we
+        // skip both S3 and Synapse.
+        return CompletableFuture.supplyAsync(() -> getCachedAttachmentFileHandleId(attachmentId,
+                checkPersistentCache), attachmentMetadataExecutor).thenCompose(cachedFileHandleId -> {
+                    if (cachedFileHandleId != null) {
+                        return CompletableFuture.completedFuture(cachedFileHandleId);
+                    }
+                    return CompletableFuture.supplyAsync(() -> s3Helper.getObjectMetadata(attachmentBucket,
+                            attachmentId), attachmentMetadataExecutor).thenApplyAsync(s3ObjectMetadata -> {
+                                try {
+                                    return createFileHandleFromS3Metadata(attachmentId, s3ObjectMetadata);
+                                } catch (SynapseException ex) {
+                                    throw new CompletionException(ex);
+                                }
+                            }, attachmentFileHandleExecutor);
+                });
+    }
+
+    // Attachment IDs are immutable S3 keys (they include the record ID), so the same attachment in the same storage
+    // location always has the same content, and we can re-use its file handle.
+    private String getAttachmentCacheKey(String attachmentId) {
+        return storageLocationId + ":" + attachmentId;
+    }
+
+    // Returns the cached file handle ID for the attachment, or null if there isn't one. Only reads DDB if
+    // checkPersistentCache is true.
+    private String getCachedAttachmentFileHandleId(String attachmentId, boolean checkPersistentCache) {
+        if (attachmentFileHandleCache == null) {
+            return null;
+        }
+        return attachmentFileHandleCache.get(getAttachmentCacheKey(attachmentId), checkPersistentCache);
+    }
+
+    // Creates a Synapse S3 file handle from the S3 object metadata. Returns null for empty attachments.
+    private String createFileHandleFromS3Metadata(String attachmentId, ObjectMetadata s3ObjectMetadata)
+            throws SynapseException {
         if (s3ObjectMetadata.getContentLength() == 0) {
             // Don't upload empty files.
             return null;
@@ -463,7 +768,11 @@ public class SynapseHelper {
 
         // Create file handle in Synapse.
         S3FileHandle createdS3FileHandle = createS3FileHandleWithRetry(s3FileHandle);
-        return createdS3FileHandle.getId();
+        String fileHandleId = createdS3FileHandle.getId();
+        if (attachmentFileHandleCache != null) {
+            attachmentFileHandleCache.put(getAttachmentCacheKey(attachmentId), fileHandleId);
+        }
+        return fileHandleId;
     }
 
     /**
@@ -510,28 +819,9 @@ public class SynapseHelper {
         String jobToken = startTableTransactionWithRetry(changeList, tableId);
 
         // Poll async get until success or timeout.
-        boolean success = false;
-        List<TableUpdateResponse> responseList = null;
-        for (int loops = 0; loops < asyncTimeoutLoops; loops++) {
-            if (asyncIntervalMillis > 0) {
-                try {
-                    Thread.sleep(asyncIntervalMillis);
-                } catch (InterruptedException ex) {
-                    // noop
-                }
-            }
-
-            // poll
-            responseList = getTableTransactionResultWithRetry(jobToken, tableId);
-            if (responseList != null) {
-                success = true;
-                break;
-            }
-
-            // Result not ready. Loop around again.
-        }
-
-        if (!success) {
+        List<TableUpdateResponse> responseList = asyncJobPoller.poll(AsyncJobPoller.JOB_TYPE_TABLE_TRANSACTION,
+                () -> getTableTransactionResultWithRetry(jobToken, tableId));
+        if (responseList == null) {
             throw new BridgeExporterException("Timed out updating table columns for table " + tableId);
         }
 
@@ -572,38 +862,84 @@ public class SynapseHelper {
         FileHandle tableFileHandle = createFileHandleWithRetry(file);
         String fileHandleId = tableFileHandle.getId();
 
-        // start tsv import
+        // start tsv import and wait for it to finish
+        String jobToken = startTsvImport(tableId, fileHandleId);
+        return waitForTsvImport(tableId, fileHandleId, jobToken);
+    }
+
+    /**
+     * Starts the asynchronous import of a TSV file handle into a Synapse table. This is separate from
+     * {@link #waitForTsvImport} so callers can start several imports before waiting on any of them.
+     *
+     * @param tableId
+     *         Synapse table ID to upload the TSV to
+     * @param fileHandleId
+     *         file handle ID of the TSV, which must have a header line
+     * @return job token for the import
+     * @throws SynapseException
+     *         if there's an error calling Synapse
+     */
+    public String startTsvImport(String tableId, String fileHandleId) throws SynapseException {
         CsvTableDescriptor tableDesc = new CsvTableDescriptor();
         tableDesc.setIsFirstLineHeader(true);
         tableDesc.setSeparator("\t");
-        String jobToken = uploadTsvStartWithRetry(tableId, fileHandleId, tableDesc);
-
-        // poll asyncGet until success or timeout
-        boolean success = false;
-        Long linesProcessed = null;
-        for (int loops = 0; loops < asyncTimeoutLoops; loops++) {
-            if (asyncIntervalMillis > 0) {
-                try {
-                    Thread.sleep(asyncIntervalMillis);
-                } catch (InterruptedException ex) {
-                    // noop
-                }
-            }
+        return uploadTsvStartWithRetry(tableId, fileHandleId, tableDesc);
+    }
 
-            // poll
-            UploadToTableResult uploadResult = getUploadTsvStatus(jobToken, tableId);
-            if (uploadResult != null) {
-                linesProcessed = uploadResult.getRowsProcessed();
-                success = true;
-                break;
-            }
+    /**
+     * Polls the TSV import job until it finishes or times out.
+     *
+     * @param tableId
+     *         Synapse table ID the TSV is being uploaded to
+     * @param fileHandleId
+     *         file handle ID of the TSV, used for logging
+     * @param jobToken
+     *         job token returned by {@link #startTsvImport}
+     * @return number of rows processed
+     * @throws BridgeExporterException
+     *         if the import times out
+     * @throws SynapseException
+     *         if there's an error calling Synapse
+     */
+    public long waitForTsvImport(String tableId, String fileHandleId, String jobToken)
+            throws BridgeExporterException, SynapseException {
+        return waitForTsvImport(fileHandleId, pollTsvImport(tableId, jobToken));
+    }
 
-            // Result not ready. Loop around again.
-        }
+    /**
+     * Submits the TSV import job to the async job poller. This returns immediately. The job is polled on the poller's
+     * own threads, so callers can wait on several imports without holding a thread for each.
+     *
+     * @param tableId
+     *         Synapse table ID the TSV is being uploaded to
+     * @param jobToken
+     *         job token returned by {@link #startTsvImport}
+     * @return future with the upload result, or null if the import timed out
+     */
+    public CompletableFuture<UploadToTableResult> pollTsvImport(String tableId, String jobToken) {
+        return asyncJobPoller.submit(AsyncJobPoller.JOB_TYPE_TSV_IMPORT, () -> getUploadTsvStatus(jobToken, tableId));
+    }
 
-        if (!success) {
+    /**
+     * Waits for the TSV import future from {@link #pollTsvImport} to finish.
+     *
+     * @param fileHandleId
+     *         file handle ID of the TSV, used for logging
+     * @param importFuture
+     *         future from {@link #pollTsvImport}
+     * @return number of rows processed
+     * @throws BridgeExporterException
+     *         if the import times out
+     * @throws SynapseException
+     *         if there's an error calling Synapse
+     */
+    public long waitForTsvImport(String fileHandleId, CompletableFuture<UploadToTableResult> importFuture)
+            throws BridgeExporterException, SynapseException {
+        UploadToTableResult uploadResult = AsyncJobPoller.waitFor(importFuture);
+        if (uploadResult == null) {
             throw new BridgeExporterException("Timed out uploading file handle " + fileHandleId);
         }
+        Long linesProcessed = uploadResult.getRowsProcessed();
         if (linesProcessed == null) {
             // Not sure if Synapse will ever do this, but code defensively, just in case.
             throw new BridgeExporterException("Null rows processed");
@@ -628,8 +964,12 @@ public class SynapseHelper {
             types = { InterruptedException.class, SynapseException.class }, randomize = false)
     public void appendRowsToTableWithRetry(AppendableRowSet rowSet, String tableId) throws InterruptedException,
             SynapseException {
-        rateLimiter.acquire();
-        synapseClient.appendRowsToTable(rowSet, APPEND_TIMEOUT_MILLISECONDS, tableId);
+        acquireRateLimiter();
+        try {
+            synapseClient.appendRowsToTable(rowSet, APPEND_TIMEOUT_MILLISECONDS, tableId);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
     }
 
     /**
@@ -644,8 +984,12 @@ public class SynapseHelper {
     @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
             randomize = false)
     public AccessControlList createAclWithRetry(AccessControlList acl) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.createACL(acl);
+        acquireRateLimiter();
+        try {
+            return synapseClient.createACL(acl);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
     }
 
     /**
@@ -660,8 +1004,12 @@ public class SynapseHelper {
     @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
             randomize = false)
     public List<ColumnModel> createColumnModelsWithRetry(List<ColumnModel> columnList) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.createColumnModels(columnList);
+        acquireRateLimiter();
+        try {
+            return synapseClient.createColumnModels(columnList);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
     }
 
     /**
@@ -679,9 +1027,36 @@ public class SynapseHelper {
             types = { AmazonClientException.class, SynapseException.class }, randomize = false)
     public FileHandle createFileHandleWithRetry(File file) throws IOException,
             SynapseException {
-        rateLimiter.acquire();
-        // Pass in forceRestart=true. Otherwise, retries will fail deterministically.
-        return synapseClient.multipartUpload(file, null, null, true);
+        acquireRateLimiter();
+        try {
+            // Pass in forceRestart=true. Otherwise, retries will fail deterministically.
+            return synapseClient.multipartUpload(file, null, null, true);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
+    }
+
+    /**
+     * Uploads a string to Synapse as a file handle, re-using an existing file handle if we've already uploaded the
+     * same content (with the same file name and content type). This is used for raw metadata, since many records have
+     * identical metadata.
+     *
+     * @return file handle ID
+     */
+    public String createFileHandleFromStringWithDedup(String content, String fileName, String contentType)
+            throws SynapseException {
+        if (rawMetadataFileHandleCache == null) {
+            return createFileHandleFromStringWithRetry(content, fileName, contentType).getId();
+        }
+
+        String cacheKey = contentType + ':' + fileName + ':' + DigestUtils.md5Hex(content.getBytes(
+                StandardCharsets.UTF_8));
+        String fileHandleId = rawMetadataFileHandleCache.get(cacheKey);
+        if (fileHandleId == null) {
+            fileHandleId = createFileHandleFromStringWithRetry(content, fileName, contentType).getId();
+            rawMetadataFileHandleCache.put(cacheKey, fileHandleId);
+        }
+        return fileHandleId;
     }
 
     /** Uploads a string to Synapse as a file handle. This is a retry wrapper. */
@@ -691,18 +1066,26 @@ public class SynapseHelper {
             throws SynapseException {
         byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
 
-        rateLimiter.acquire();
-        // Pass in forceRestart=true. Otherwise, retries will fail deterministically.
-        return synapseClient.multipartUpload(new ByteArrayInputStream(bytes), bytes.length, fileName, contentType,
-                null, null, true);
+        acquireRateLimiter();
+        try {
+            // Pass in forceRestart=true. Otherwise, retries will fail deterministically.
+            return synapseClient.multipartUpload(new ByteArrayInputStream(bytes), bytes.length, fileName, contentType,
+                    null, null, true);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
     }
 
     /** Creates the S3 file handle in Synapse. This is a retry wrapper. */
     @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
             randomize = false)
     public S3FileHandle createS3FileHandleWithRetry(S3FileHandle s3FileHandle) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.createExternalS3FileHandle(s3FileHandle);
+        acquireRateLimiter(SynapseRateLimiter.Priority.BACKGROUND);
+        try {
+            return synapseClient.createExternalS3FileHandle(s3FileHandle);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
     }
 
     /** Create a project setting. This is a retry wrapper. */
@@ -710,8 +1093,12 @@ public class SynapseHelper {
             randomize = false)
     @SuppressWarnings("UnusedReturnValue")
     public ProjectSetting createProjectSettingWithRetry(ProjectSetting projectSetting) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.createProjectSetting(projectSetting);
+        acquireRateLimiter();
+        try {
+            return synapseClient.createProjectSetting(projectSetting);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
     }
 
     /** Retrieve a project setting for the given project. This is a retry wrapper. */
@@ -719,16 +1106,24 @@ public class SynapseHelper {
             randomize = false)
     public ProjectSetting getProjectSettingWithRetry(String projectId, ProjectSettingsType type)
             throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.getProjectSetting(projectId, type);
+        acquireRateLimiter();
+        try {
+            return synapseClient.getProjectSetting(projectId, type);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
     }
 
     /** Update a project setting. */
     @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
             randomize = false)
     public void updateProjectSettingWithRetry(ProjectSetting projectSetting) throws SynapseException {
-        rateLimiter.acquire();
-        synapseClient.updateProjectSetting(projectSetting);
+        acquireRateLimiter();
+        try {
+            synapseClient.updateProjectSetting(projectSetting);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
     }
 
     /** Create a storage location setting. This is a retry wrapper. */
@@ -736,8 +1131,12 @@ public class SynapseHelper {
             randomize = false)
     public <T extends StorageLocationSetting> T createStorageLocationSettingWithRetry(T storageLocationSetting)
             throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.createStorageLocationSetting(storageLocationSetting);
+        acquireRateLimiter();
+        try {
+            return synapseClient.createStorageLocationSetting(storageLocationSetting);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
     }
 
     /**
@@ -837,8 +1236,31 @@ public class SynapseHelper {
     @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
             randomize = false)
     public TableEntity createTableWithRetry(TableEntity table) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.createEntity(table);
+        acquireRateLimiter();
+        try {
+            return synapseClient.createEntity(table);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
+    }
+
+    /**
+     * Delete table in Synapse. This is a retry wrapper.
+     *
+     * @param tableId
+     *         table to delete
+     * @throws SynapseException
+     *         if the Synapse call fails
+     */
+    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
+            randomize = false)
+    public void deleteTableWithRetry(String tableId) throws SynapseException {
+        acquireRateLimiter();
+        try {
+            synapseClient.deleteEntityById(tableId);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
     }
 
     /**
@@ -854,12 +1276,18 @@ public class SynapseHelper {
     @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
             randomize = false)
     public void downloadFileHandleWithRetry(String fileHandleId, File toFile) throws SynapseException {
-        rateLimiter.acquire();
-        synapseClient.downloadFromFileHandleTemporaryUrl(fileHandleId, toFile);
+        acquireRateLimiter();
+        try {
+            synapseClient.downloadFromFileHandleTemporaryUrl(fileHandleId, toFile);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
     }
 
     /**
      * Gets the Synapse stack status and returns true if Synapse is up and in read/write state. Also includes retries.
+     * This is a health check, so it doesn't wait at the circuit breaker. If Synapse is writable, this closes the
+     * circuit breaker if it gave up on Synapse.
      *
      * @return true if Synapse is up and in read/write state
      * @throws JSONObjectAdapterException
@@ -870,9 +1298,18 @@ public class SynapseHelper {
     @RetryOnFailure(attempts = 5, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
             randomize = false)
     public boolean isSynapseWritable() throws JSONObjectAdapterException, SynapseException {
-        rateLimiter.acquire();
-        StackStatus status = synapseClient.getCurrentStackStatus();
-        return status.getStatus() == StatusEnum.READ_WRITE;
+        rateLimiter.acquire(SynapseRateLimiter.Priority.FOREGROUND);
+        StackStatus status;
+        try {
+            status = synapseClient.getCurrentStackStatus();
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
+        boolean writable = status.getStatus() == StatusEnum.READ_WRITE;
+        if (writable && circuitBreaker != null) {
+            circuitBreaker.onSynapseWritable();
+        }
+        return writable;
     }
 
     /**
@@ -887,8 +1324,49 @@ public class SynapseHelper {
     @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
             randomize = false)
     public List<ColumnModel> getColumnModelsForTableWithRetry(String tableId) throws SynapseException {
-        getColumnModelsRateLimiter.acquire();
-        return synapseClient.getColumnModelsForTableEntity(tableId);
+        // This has its own rate limiter, but still waits at the circuit breaker like other Synapse calls.
+        awaitCircuitBreaker();
+        if (getColumnModelsSharedRateLimiter != null) {
+            getColumnModelsSharedRateLimiter.acquire();
+        } else {
+            getColumnModelsRateLimiter.acquire();
+        }
+        try {
+            return synapseClient.getColumnModelsForTableEntity(tableId);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
+    }
+
+    /**
+     * Gets the cached column models for the given table, if the table hasn't changed (same etag) since they were
+     * cached. This lets callers skip getColumnModelsForTableWithRetry(), which is heavily rate limited.
+     *
+     * @param table
+     *         table to get column info for, as returned by getTableWithRetry()
+     * @return cached list of columns, or null if there are none or they may be outdated
+     */
+    public List<ColumnModel> getCachedColumnModelsForTable(TableEntity table) {
+        if (tableSchemaCache == null || table == null || table.getId() == null || table.getEtag() == null) {
+            return null;
+        }
+        return tableSchemaCache.get(table.getId(), table.getEtag());
+    }
+
+    /**
+     * Caches the column models for the given table at its current etag. Call this with the column models from
+     * getColumnModelsForTableWithRetry().
+     *
+     * @param table
+     *         table the columns belong to, as returned by getTableWithRetry()
+     * @param columnList
+     *         list of columns
+     */
+    public void cacheColumnModelsForTable(TableEntity table, List<ColumnModel> columnList) {
+        if (tableSchemaCache == null || table == null || table.getId() == null || table.getEtag() == null) {
+            return;
+        }
+        tableSchemaCache.put(table.getId(), table.getEtag(), columnList);
     }
 
     /**
@@ -903,8 +1381,12 @@ public class SynapseHelper {
     @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
             randomize = false)
     public TableEntity getTableWithRetry(String tableId) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.getEntity(tableId, TableEntity.class);
+        acquireRateLimiter();
+        try {
+            return synapseClient.getEntity(tableId, TableEntity.class);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
     }
 
     /**
@@ -922,8 +1404,12 @@ public class SynapseHelper {
             randomize = false)
     public String startTableTransactionWithRetry(List<TableUpdateRequest> changeList, String tableId)
             throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.startTableTransactionJob(changeList, tableId);
+        acquireRateLimiter();
+        try {
+            return synapseClient.startTableTransactionJob(changeList, tableId);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
     }
 
     /**
@@ -944,11 +1430,13 @@ public class SynapseHelper {
     public List<TableUpdateResponse> getTableTransactionResultWithRetry(String jobToken, String tableId)
             throws SynapseException {
         try {
-            rateLimiter.acquire();
+            acquireRateLimiter(SynapseRateLimiter.Priority.POLL);
             return synapseClient.getTableTransactionJobResults(jobToken, tableId);
         } catch (SynapseResultNotReadyException ex) {
             // catch this and return null so we don't retry on "not ready"
             return null;
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
         }
     }
 
@@ -964,8 +1452,12 @@ public class SynapseHelper {
     @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
             randomize = false)
     public TableEntity updateTableWithRetry(TableEntity table) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.putEntity(table);
+        acquireRateLimiter();
+        try {
+            return synapseClient.putEntity(table);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
     }
 
     /** Get upload destination locations for the given parent (usually a project). */
@@ -973,8 +1465,12 @@ public class SynapseHelper {
             randomize = false)
     public UploadDestinationLocation[] getUploadDestinationLocationsWithRetry(String parentEntityId)
             throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.getUploadDestinationLocations(parentEntityId);
+        acquireRateLimiter();
+        try {
+            return synapseClient.getUploadDestinationLocations(parentEntityId);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
     }
 
     /**
@@ -994,8 +1490,12 @@ public class SynapseHelper {
             randomize = false)
     public String uploadTsvStartWithRetry(String tableId, String fileHandleId, CsvTableDescriptor tableDescriptor)
             throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.uploadCsvToTableAsyncStart(tableId, fileHandleId, null, null, tableDescriptor, null);
+        acquireRateLimiter();
+        try {
+            return synapseClient.uploadCsvToTableAsyncStart(tableId, fileHandleId, null, null, tableDescriptor, null);
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
+        }
     }
 
     /**
@@ -1015,11 +1515,13 @@ public class SynapseHelper {
             randomize = false)
     public UploadToTableResult getUploadTsvStatus(String jobToken, String tableId) throws SynapseException {
         try {
-            rateLimiter.acquire();
+            acquireRateLimiter(SynapseRateLimiter.Priority.POLL);
             return synapseClient.uploadCsvToTableAsyncGet(jobToken, tableId);
         } catch (SynapseResultNotReadyException ex) {
             // catch this and return null so we don't retry on "not ready"
             return null;
+        } catch (SynapseServiceUnavailable ex) {
+            throw tripCircuitBreaker(ex);
         }
     }
 }
@@ -0,0 +1,85 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+import org.sagebionetworks.bridge.exporter.metrics.MetricsHelper;
+
+/**
+ * Periodically publishes the process-wide Synapse metrics: async job polls, file handle and table schema caches, and
+ * the Synapse rate limiter. These are shared by every request running at the same time, so they can't be attributed
+ * to any single request's metrics. Instead, they're published on their own schedule.
+ */
+@Component
+public class SynapseMetricsReporter implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(SynapseMetricsReporter.class);
+
+    // package-scoped to be available to unit tests
+    static final String CONFIG_KEY_REPORT_PERIOD_MILLIS = "synapse.metrics.report.period.millis";
+
+    // config attributes
+    private long reportPeriodMillis;
+
+    // Spring helpers
+    private MetricsHelper metricsHelper;
+    private SynapseHelper synapseHelper;
+
+    /** Config, used to get the report period. */
+    @Autowired
+    public final void setConfig(Config config) {
+        this.reportPeriodMillis = config.getInt(CONFIG_KEY_REPORT_PERIOD_MILLIS);
+    }
+
+    /** Metrics helper, used to publish the metrics. */
+    @Autowired
+    public final void setMetricsHelper(MetricsHelper metricsHelper) {
+        this.metricsHelper = metricsHelper;
+    }
+
+    /** Synapse helper, which accumulates the metrics. */
+    @Autowired
+    public final void setSynapseHelper(SynapseHelper synapseHelper) {
+        this.synapseHelper = synapseHelper;
+    }
+
+    /** Periodically publishes Synapse metrics. Runs until interrupted. */
+    @Override
+    public void run() {
+        if (reportPeriodMillis <= 0) {
+            LOG.info("Synapse metrics reporter disabled");
+            return;
+        }
+
+        while (true) {
+            try {
+                Thread.sleep(reportPeriodMillis);
+            } catch (InterruptedException ex) {
+                LOG.info("Synapse metrics reporter interrupted, exiting");
+                return;
+            }
+
+            try {
+                reportMetrics();
+            } catch (RuntimeException ex) {
+                // Never let the reporter thread die.
+                LOG.error("Error reporting Synapse metrics: " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * Publishes the Synapse metrics accumulated since the last report, and resets them. Package-scoped to be available
+     * to unit tests.
+     */
+    void reportMetrics() {
+        Metrics metrics = new Metrics();
+        synapseHelper.reportAsyncJobMetrics(metrics);
+        synapseHelper.reportCacheMetrics(metrics);
+        synapseHelper.reportRateLimiterMetrics(metrics);
+        metricsHelper.publishMetrics(metrics);
+    }
+}
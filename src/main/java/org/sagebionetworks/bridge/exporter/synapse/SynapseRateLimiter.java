@@ -0,0 +1,130 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+
+/**
+ * <p>
+ * Rate limiter for Synapse calls, split into priority classes. Each class gets a guaranteed share of the total rate,
+ * so that (for example) async job polls at the end of a task aren't starved by attachment uploads that are still
+ * running. Shares are work-conserving: if our own share has no permit available right now, we borrow an idle permit
+ * from another class, starting with the lowest priority class. Only if no class has an idle permit do we wait for our
+ * own share. Since every permit comes from exactly one class, the total rate never exceeds the configured rate.
+ * </p>
+ * <p>
+ * Wait times are tracked per class, for metrics. Foreground waits on worker threads are also tracked separately, for
+ * the worker pool controller. This is thread-safe.
+ * </p>
+ */
+public class SynapseRateLimiter {
+    /** Priority classes, in order from highest to lowest priority. */
+    public enum Priority {
+        /** Async job completion polls. These gate the end of the task, so they're never starved. */
+        POLL(0.3),
+
+        /** Work that record processing is blocked on, such as table setup, TSV uploads, and metadata file handles. */
+        FOREGROUND(0.5),
+
+        /** Best-effort work that's pipelined off the worker threads, such as attachment file handles. */
+        BACKGROUND(0.2);
+
+        private final double share;
+
+        Priority(double share) {
+            this.share = share;
+        }
+
+        /** Fraction of the total rate guaranteed to this class. */
+        public double getShare() {
+            return share;
+        }
+    }
+
+    private static final Priority[] LOWEST_PRIORITY_FIRST = { Priority.BACKGROUND, Priority.FOREGROUND,
+            Priority.POLL };
+
+    private final Map<Priority, RateLimiter> rateLimiterByPriority = new EnumMap<>(Priority.class);
+    private final Map<Priority, LongAdder> permitCountByPriority = new EnumMap<>(Priority.class);
+    private final Map<Priority, LongAdder> waitMicrosByPriority = new EnumMap<>(Priority.class);
+    private final LongAdder workerWaitMicros = new LongAdder();
+
+    // Marks the worker threads. Other threads (TSV uploads, async job polls) also wait on the rate limiter, but adding
+    // or removing worker threads doesn't change those waits, so the worker pool controller shouldn't count them.
+    private static final ThreadLocal<Boolean> IS_WORKER_THREAD = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    /** Creates a rate limiter with the given total rate, split between the priority classes. */
+    public SynapseRateLimiter(double permitsPerSecond) {
+        for (Priority onePriority : Priority.values()) {
+            rateLimiterByPriority.put(onePriority, RateLimiter.create(permitsPerSecond * onePriority.share));
+            permitCountByPriority.put(onePriority, new LongAdder());
+            waitMicrosByPriority.put(onePriority, new LongAdder());
+        }
+    }
+
+    /**
+     * Marks the current thread as a worker thread, so that its foreground waits count toward
+     * {@link #getAndResetWorkerWaitMicros}. Called once by each thread in the worker pool.
+     */
+    public static void markWorkerThread() {
+        IS_WORKER_THREAD.set(Boolean.TRUE);
+    }
+
+    /** Sets the total rate, split between the priority classes. */
+    public void setRate(double permitsPerSecond) {
+        rateLimiterByPriority.forEach((priority, rateLimiter) -> rateLimiter.setRate(permitsPerSecond *
+                priority.share));
+    }
+
+    /** Acquires a permit for the given priority class, blocking if necessary. */
+    public void acquire(Priority priority) {
+        permitCountByPriority.get(priority).increment();
+
+        // Fast path: our own share, then idle permits from other classes.
+        if (rateLimiterByPriority.get(priority).tryAcquire()) {
+            return;
+        }
+        for (Priority oneLender : LOWEST_PRIORITY_FIRST) {
+            if (oneLender != priority && rateLimiterByPriority.get(oneLender).tryAcquire()) {
+                return;
+            }
+        }
+
+        // Nothing idle. Wait for our own share.
+        double waitSeconds = rateLimiterByPriority.get(priority).acquire();
+        if (waitSeconds > 0.0) {
+            long waitMicros = (long) (waitSeconds * 1000000);
+            waitMicrosByPriority.get(priority).add(waitMicros);
+            if (priority == Priority.FOREGROUND && IS_WORKER_THREAD.get()) {
+                workerWaitMicros.add(waitMicros);
+            }
+        }
+    }
+
+    /**
+     * Returns the total time (in microseconds) that worker threads have spent waiting for foreground permits since the
+     * last call to this method, and resets the total.
+     */
+    public long getAndResetWorkerWaitMicros() {
+        return workerWaitMicros.sumThenReset();
+    }
+
+    /** Writes permit counts and wait times per class since the last call to the given metrics, and resets them. */
+    public void reportMetrics(Metrics metrics) {
+        for (Priority onePriority : Priority.values()) {
+            long permitCount = permitCountByPriority.get(onePriority).sumThenReset();
+            long waitMicros = waitMicrosByPriority.get(onePriority).sumThenReset();
+            if (permitCount == 0) {
+                continue;
+            }
+
+            String prefix = "synapseRateLimiter." + onePriority.name().toLowerCase();
+            metrics.addKeyValuePair(prefix + ".permits", String.valueOf(permitCount));
+            metrics.addKeyValuePair(prefix + ".waitMillis", String.valueOf(waitMicros / 1000));
+        }
+    }
+}
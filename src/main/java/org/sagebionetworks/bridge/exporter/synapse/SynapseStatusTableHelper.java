@@ -90,7 +90,7 @@ public class SynapseStatusTableHelper {
         }
 
         if (synapseTableId == null || !isExisted) {
-            synapseTableId = createStatusTable(task, studyId);
+            synapseTableId = createStatusTable(task, studyId, synapseTableId);
         }
 
         // Table definitely exists now. Write status with this internal helper.
@@ -102,9 +102,10 @@ public class SynapseStatusTableHelper {
         return studyId + "-status";
     }
 
-    // Helper method to create the status table. It sets up the columns, then calls through Synapse Helper.
-    private String createStatusTable(ExportTask task, String studyId) throws BridgeExporterException,
-            SynapseException {
+    // Helper method to create the status table. It sets up the columns, then calls through Synapse Helper. Returns the
+    // table ID in DDB, which may be another worker's table if they created it first.
+    private String createStatusTable(ExportTask task, String studyId, String oldSynapseTableId)
+            throws BridgeExporterException, SynapseException {
         // Delegate table creation to SynapseHelper.
         long dataAccessTeamId = manager.getDataAccessTeamIdForStudy(studyId);
         long principalId = manager.getSynapsePrincipalId();
@@ -114,10 +115,8 @@ public class SynapseStatusTableHelper {
                 projectId, tableName);
 
         // write back to DDB table
-        manager.setSynapseTableIdToDdb(task, SynapseHelper.DDB_TABLE_SYNAPSE_META_TABLES,
-                SynapseHelper.DDB_KEY_TABLE_NAME, getStatusTableName(studyId), synapseTableId);
-
-        return synapseTableId;
+        return manager.setSynapseTableIdToDdb(task, SynapseHelper.DDB_TABLE_SYNAPSE_META_TABLES,
+                SynapseHelper.DDB_KEY_TABLE_NAME, getStatusTableName(studyId), oldSynapseTableId, synapseTableId);
     }
 
     // Helper method to write the actual status. It creates a partial row set, then calls through to the Synapse
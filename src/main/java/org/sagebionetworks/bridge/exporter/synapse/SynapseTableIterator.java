@@ -19,9 +19,8 @@ import org.sagebionetworks.repo.model.table.SelectColumn;
 /** Helper class to query Synapse tables and iterate over the results, abstracting away pagination. */
 // This doesn't implement Iterator, since Iterator's methods can't throw checked exceptions.
 public class SynapseTableIterator {
-    private static final int ASYNC_QUERY_TIMEOUT_SECONDS = 300;
-
     // Constructor args.
+    private final AsyncJobPoller asyncJobPoller;
     private final SynapseClient synapseClient;
     private final String synapseTableId;
 
@@ -43,15 +42,19 @@ public class SynapseTableIterator {
      *         SQL query to run, defaults to "SELECT * FROM [synapseTableId]"
      * @param synapseTableId
      *         synapse table ID to run the query against
+     * @param asyncJobPoller
+     *         poller used to wait for query pages, from {@link SynapseHelper#getAsyncJobPoller}, so that queries share
+     *         the poll threads, latency model, and metrics with all other async jobs
      * @throws SynapseException
      *         if the synapse call fails
      */
-    public SynapseTableIterator(SynapseClient synapseClient, String sql, String synapseTableId)
-            throws SynapseException {
+    public SynapseTableIterator(SynapseClient synapseClient, String sql, String synapseTableId,
+            AsyncJobPoller asyncJobPoller) throws SynapseException {
         if (StringUtils.isBlank(sql)) {
             sql = "SELECT * FROM " + synapseTableId;
         }
 
+        this.asyncJobPoller = asyncJobPoller;
         this.synapseClient = synapseClient;
         this.synapseTableId = synapseTableId;
         this.asyncJobToken = queryTableAsyncStartWithRetry(sql);
@@ -170,47 +173,29 @@ public class SynapseTableIterator {
 
     private void fetchNextPage() throws SynapseException {
         // poll asyncGet until success or timeout
-        boolean success = false;
-        for (int sec = 0; sec < ASYNC_QUERY_TIMEOUT_SECONDS; sec++) {
-            // sleep for 1 sec
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException ex) {
-                // noop
+        String jobToken = asyncJobToken;
+        if (firstPage) {
+            // This is the first page, so we call bundle get instead of next page get.
+            QueryResultBundle resultBundle = asyncJobPoller.poll(AsyncJobPoller.JOB_TYPE_TABLE_QUERY,
+                    () -> queryTableAsyncGetWithRetry(jobToken));
+            if (resultBundle == null) {
+                throw new SynapseClientException("Timed out querying table " + synapseTableId);
             }
+            curResult = resultBundle.getQueryResult();
 
-            // poll
-            if (firstPage) {
-                // This is the first page, so we call bundle get instead of next page get.
-                QueryResultBundle resultBundle = queryTableAsyncGetWithRetry(asyncJobToken);
-                if (resultBundle == null) {
-                    // not ready, loop around again
-                    continue;
-                }
-                curResult = resultBundle.getQueryResult();
-
-                // fetch etag
-                etag = curResult.getQueryResults().getEtag();
-                headers = curResult.getQueryResults().getHeaders();
+            // fetch etag
+            etag = curResult.getQueryResults().getEtag();
+            headers = curResult.getQueryResults().getHeaders();
 
-                // This is no longer the first page.
-                firstPage = false;
-            } else {
-                // We're getting a next page.
-                curResult = queryTableNextPageAsyncGetWithRetry(asyncJobToken);
-                if (curResult == null) {
-                    // not ready, loop around again
-                    continue;
-                }
+            // This is no longer the first page.
+            firstPage = false;
+        } else {
+            // We're getting a next page.
+            curResult = asyncJobPoller.poll(AsyncJobPoller.JOB_TYPE_TABLE_QUERY_NEXT_PAGE,
+                    () -> queryTableNextPageAsyncGetWithRetry(jobToken));
+            if (curResult == null) {
+                throw new SynapseClientException("Timed out querying table " + synapseTableId);
             }
-
-            // If we made it this far, we've successfully fetched the page.
-            success = true;
-            break;
-        }
-
-        if (!success) {
-            throw new SynapseClientException("Timed out querying table " + synapseTableId);
         }
     }
 
@@ -0,0 +1,140 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import org.sagebionetworks.repo.model.table.ColumnModel;
+import org.sagebionetworks.schema.adapter.JSONObjectAdapterException;
+import org.sagebionetworks.schema.adapter.org.json.EntityFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+
+/**
+ * <p>
+ * Persistent cache of Synapse table column models, keyed by table ID and validated against the table's etag. Getting
+ * column models is heavily rate limited in Synapse, but the table itself (including its etag) is cheap to get, and the
+ * etag changes whenever the table's schema changes. So if the etag matches what we cached, the cached column models
+ * are still current.
+ * </p>
+ * <p>
+ * Entries are persisted in a DDB table (hash key "tableId", attributes "etag" and "columnModels"), so they survive
+ * across runs and are shared by all hosts. A size-bounded in-memory cache sits in front of DDB. The cache is best
+ * effort. DDB and serialization errors are logged and treated as cache misses. This is thread-safe.
+ * </p>
+ */
+public class TableSchemaCache {
+    private static final Logger LOG = LoggerFactory.getLogger(TableSchemaCache.class);
+
+    static final String DDB_KEY_COLUMN_MODELS = "columnModels";
+    static final String DDB_KEY_ETAG = "etag";
+    static final String DDB_KEY_TABLE_ID = "tableId";
+
+    private final Table ddbTable;
+    private final Cache<String, CachedSchema> localCache;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    /**
+     * Creates a table schema cache.
+     *
+     * @param ddbTable
+     *         DDB table that persists the cache
+     * @param maxLocalEntries
+     *         max number of tables held in memory
+     */
+    public TableSchemaCache(Table ddbTable, long maxLocalEntries) {
+        this.ddbTable = ddbTable;
+        this.localCache = CacheBuilder.newBuilder().maximumSize(maxLocalEntries).build();
+    }
+
+    /**
+     * Returns the cached column models for the given table, or null if there aren't any or if the table has changed
+     * (different etag) since they were cached.
+     */
+    public List<ColumnModel> get(String tableId, String etag) {
+        // Check memory first. If the etag doesn't match, another host may have already refreshed DDB.
+        CachedSchema cachedSchema = localCache.getIfPresent(tableId);
+        if (cachedSchema == null || !etag.equals(cachedSchema.etag)) {
+            cachedSchema = getFromDdb(tableId);
+            if (cachedSchema != null) {
+                localCache.put(tableId, cachedSchema);
+            }
+        }
+
+        if (cachedSchema != null && etag.equals(cachedSchema.etag)) {
+            hitCount.increment();
+            return cachedSchema.columnList;
+        } else {
+            missCount.increment();
+            return null;
+        }
+    }
+
+    // Helper method to read a cache entry from DDB. Returns null if there is no entry or it can't be read.
+    private CachedSchema getFromDdb(String tableId) {
+        try {
+            Item item = ddbTable.getItem(DDB_KEY_TABLE_ID, tableId);
+            if (item == null || !item.isPresent(DDB_KEY_COLUMN_MODELS)) {
+                return null;
+            }
+
+            List<String> columnJsonList = item.getList(DDB_KEY_COLUMN_MODELS);
+            List<ColumnModel> columnList = new ArrayList<>();
+            for (String oneColumnJson : columnJsonList) {
+                columnList.add(EntityFactory.createEntityFromJSONString(oneColumnJson, ColumnModel.class));
+            }
+            return new CachedSchema(item.getString(DDB_KEY_ETAG), columnList);
+        } catch (AmazonClientException | JSONObjectAdapterException ex) {
+            LOG.warn("Error reading table schema cache for table " + tableId + ": " + ex.getMessage(), ex);
+            return null;
+        }
+    }
+
+    /** Caches the column models for the given table at the given etag, both in memory and in DDB. */
+    public void put(String tableId, String etag, List<ColumnModel> columnList) {
+        localCache.put(tableId, new CachedSchema(etag, columnList));
+        try {
+            List<String> columnJsonList = new ArrayList<>();
+            for (ColumnModel oneColumn : columnList) {
+                columnJsonList.add(EntityFactory.createJSONStringForEntity(oneColumn));
+            }
+            ddbTable.putItem(new Item().withPrimaryKey(DDB_KEY_TABLE_ID, tableId).withString(DDB_KEY_ETAG, etag)
+                    .withList(DDB_KEY_COLUMN_MODELS, columnJsonList));
+        } catch (AmazonClientException | JSONObjectAdapterException ex) {
+            LOG.warn("Error writing table schema cache for table " + tableId + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /** Writes the hit and miss counts since the last call to the given metrics, and resets them. */
+    public void reportMetrics(Metrics metrics) {
+        long hits = hitCount.sumThenReset();
+        long misses = missCount.sumThenReset();
+        if (hits + misses == 0) {
+            return;
+        }
+
+        metrics.addKeyValuePair("tableSchemaCache.hits", String.valueOf(hits));
+        metrics.addKeyValuePair("tableSchemaCache.misses", String.valueOf(misses));
+    }
+
+    // Cache entry. Column list is immutable, since it's shared between callers.
+    private static class CachedSchema {
+        private final String etag;
+        private final List<ColumnModel> columnList;
+
+        CachedSchema(String etag, List<ColumnModel> columnList) {
+            this.etag = etag;
+            this.columnList = ImmutableList.copyOf(columnList);
+        }
+    }
+}
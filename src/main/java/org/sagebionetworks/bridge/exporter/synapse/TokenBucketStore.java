@@ -0,0 +1,71 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import java.util.Objects;
+
+/**
+ * Storage for token buckets shared between exporter hosts. Updates are compare-and-set, so that concurrent hosts
+ * never spend the same token twice. See {@link SharedRateLimiter}.
+ */
+public interface TokenBucketStore {
+    /** Returns the bucket's current state, or null if the bucket doesn't exist yet. */
+    State get(String bucketName);
+
+    /**
+     * Writes the bucket's new state, but only if the bucket's state hasn't changed since we read it.
+     *
+     * @param bucketName
+     *         bucket to write
+     * @param expectedState
+     *         state we read from get(), or null if the bucket didn't exist
+     * @param newState
+     *         state to write
+     * @return true if the state was written, false if another caller changed the bucket first
+     */
+    boolean compareAndSet(String bucketName, State expectedState, State newState);
+
+    /** Token bucket state. Version is incremented on every write, and is what compare-and-set compares. */
+    final class State {
+        private final double tokens;
+        private final long updatedMillis;
+        private final long version;
+
+        public State(double tokens, long updatedMillis, long version) {
+            this.tokens = tokens;
+            this.updatedMillis = updatedMillis;
+            this.version = version;
+        }
+
+        /** Number of tokens in the bucket, as of updatedMillis. May be fractional. */
+        public double getTokens() {
+            return tokens;
+        }
+
+        /** Epoch milliseconds when the tokens were last computed. */
+        public long getUpdatedMillis() {
+            return updatedMillis;
+        }
+
+        /** Write version. */
+        public long getVersion() {
+            return version;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            State that = (State) o;
+            return Double.compare(tokens, that.tokens) == 0 && updatedMillis == that.updatedMillis &&
+                    version == that.version;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tokens, updatedMillis, version);
+        }
+    }
+}
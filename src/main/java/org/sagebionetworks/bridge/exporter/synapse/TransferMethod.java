@@ -2,6 +2,7 @@ package org.sagebionetworks.bridge.exporter.synapse;
 
 import com.amazonaws.services.dynamodbv2.document.Item;
 import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
+import org.sagebionetworks.bridge.exporter.util.ValueInternPool;
 import org.sagebionetworks.repo.model.table.ColumnType;
 
 import java.util.ArrayList;
@@ -40,15 +41,21 @@ public enum TransferMethod {
     STRINGSET {
         @Override
         public String transfer(String ddbName, Item record) {
-            String valueToAdd = "";
             Set<String> stringSet = record.getStringSet(ddbName);
-            if (stringSet != null) {
-                List<String> stringSetList = new ArrayList<>();
-                stringSetList.addAll(stringSet);
-                Collections.sort(stringSetList);
-                valueToAdd = BridgeExporterUtil.STRING_SET_JOINER.join(stringSetList);
+            if (stringSet == null) {
+                return "";
             }
-            return valueToAdd;
+            return joinStringSet(stringSet);
+        }
+
+        @Override
+        public String transfer(String ddbName, Item record, ValueInternPool valueInternPool) {
+            // Memoize the sorted and joined value, keyed by the raw string set.
+            Set<String> stringSet = record.getStringSet(ddbName);
+            if (stringSet == null) {
+                return "";
+            }
+            return valueInternPool.memoize(ddbName, stringSet, TransferMethod::joinStringSet);
         }
 
         @Override
@@ -66,6 +73,16 @@ public enum TransferMethod {
             return BridgeExporterUtil.serializeSubstudyMemberships(substudyMap);
         }
 
+        @Override
+        public String transfer(String ddbName, Item record, ValueInternPool valueInternPool) {
+            // Memoize the serialized value, keyed by the raw map.
+            Map<String,String> substudyMap = record.getMap(ddbName);
+            if (substudyMap == null || substudyMap.isEmpty()) {
+                return null;
+            }
+            return valueInternPool.memoize(ddbName, substudyMap, BridgeExporterUtil::serializeSubstudyMemberships);
+        }
+
         @Override
         public ColumnType getColumnType() {
             return ColumnType.STRING;
@@ -96,6 +113,22 @@ public enum TransferMethod {
 
     public abstract String transfer(final String ddbName, final Item record);
 
+    /**
+     * Same as {@link #transfer(String, Item)}, except the result is interned in the given pool. Transfer methods with
+     * derived values memoize them by their raw DDB value.
+     */
+    public String transfer(final String ddbName, final Item record, final ValueInternPool valueInternPool) {
+        return valueInternPool.intern(transfer(ddbName, record));
+    }
+
+    // Helper method to sort a string set and join it into a single string.
+    private static String joinStringSet(Set<String> stringSet) {
+        List<String> stringSetList = new ArrayList<>();
+        stringSetList.addAll(stringSet);
+        Collections.sort(stringSetList);
+        return BridgeExporterUtil.STRING_SET_JOINER.join(stringSetList);
+    }
+
     // helper method to get column type from transfer method -- since they share same value in exporter
     public abstract ColumnType getColumnType();
 }
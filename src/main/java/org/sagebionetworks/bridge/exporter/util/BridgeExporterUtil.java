@@ -2,7 +2,10 @@ package org.sagebionetworks.bridge.exporter.util;
 
 
 import com.amazonaws.services.dynamodbv2.document.Item;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import org.jsoup.Jsoup;
@@ -13,15 +16,18 @@ import org.sagebionetworks.repo.model.table.ColumnModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.sagebionetworks.bridge.json.DefaultObjectMapper;
 import org.sagebionetworks.bridge.rest.model.UploadFieldDefinition;
 import org.sagebionetworks.bridge.rest.model.UploadSchema;
 import org.sagebionetworks.bridge.schema.UploadSchemaKey;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /** Various static utility methods that don't neatly fit anywhere else. */
 public class BridgeExporterUtil {
@@ -167,7 +173,10 @@ public class BridgeExporterUtil {
 
         // Strip HTML.
         // As it turns out, Jsoup also flattens all whitespace (tabs, newlines, carriage returns, etc).
-        in = Jsoup.clean(in, Whitelist.none());
+        // Most values are plain text, which Jsoup returns unchanged. Skip the (expensive) HTML parse for those.
+        if (!isJsoupInvariant(in)) {
+            in = Jsoup.clean(in, Whitelist.none());
+        }
 
         // Check against max length, truncating and warning as necessary.
         if (maxLength != null && in.length() > maxLength) {
@@ -179,6 +188,41 @@ public class BridgeExporterUtil {
         return in;
     }
 
+    /**
+     * <p>
+     * Returns true if Jsoup.clean(in, Whitelist.none()) is guaranteed to return the input unchanged. This is
+     * deliberately conservative. Anything that might be touched by Jsoup (markup and entity characters, whitespace
+     * that Jsoup would flatten or trim, control characters, non-breaking spaces, and surrogates) falls back to the
+     * full clean.
+     * </p>
+     * <p>
+     * Package-scoped to facilitate unit tests.
+     * </p>
+     */
+    static boolean isJsoupInvariant(String in) {
+        int length = in.length();
+        if (length > 0 && (in.charAt(0) == ' ' || in.charAt(length - 1) == ' ')) {
+            // Jsoup trims leading and trailing whitespace.
+            return false;
+        }
+
+        char prev = 0;
+        for (int i = 0; i < length; i++) {
+            char c = in.charAt(i);
+            if (c == ' ') {
+                if (prev == ' ') {
+                    // Jsoup collapses runs of whitespace.
+                    return false;
+                }
+            } else if (c < 0x21 || (c >= 0x7F && c <= 0xA0) || c == '<' || c == '>' || c == '&' ||
+                    Character.isSurrogate(c)) {
+                return false;
+            }
+            prev = c;
+        }
+        return true;
+    }
+
     /**
      * Helper method to convert a list of ColumnDefinition to a ColumnModel list.
      */
@@ -206,25 +250,107 @@ public class BridgeExporterUtil {
 
         for (ColumnDefinition columnDefinition : columnDefinitions) {
             // use name if there is no ddbName
-            final String ddbName = columnDefinition.getDdbName() == null? columnDefinition.getName() : columnDefinition.getDdbName();
+            final String ddbName = getDdbNameForColumnDefinition(columnDefinition);
 
             // Short-cut: If the value isn't present, skip it.
             if (!record.hasAttribute(ddbName)) {
                 continue;
             }
 
-            String valueToAdd;
-            if (columnDefinition.getSanitize()) {
-                valueToAdd = sanitizeDdbValue(record, ddbName, columnDefinition.getMaximumSize(), recordId);
+            rowMap.put(columnDefinition.getName(), getRowValueFromRecord(record, columnDefinition, ddbName,
+                    recordId));
+        }
+    }
+
+    /**
+     * Same as {@link #getRowValuesFromRecordBasedOnColumnDefinition(Map, Item, List, String)}, but returns the values
+     * as an array parallel to the column definition list. Values that aren't present in the record are null. Values
+     * for column definitions marked as intern are interned (or memoized) in the given pool, if it's non-null.
+     */
+    public static String[] getColumnDefinitionValuesFromRecord(final Item record,
+            final List<ColumnDefinition> columnDefinitions, final String recordId,
+            final ValueInternPool valueInternPool) {
+        int numColumnDefs = columnDefinitions.size();
+        String[] values = new String[numColumnDefs];
+        for (int i = 0; i < numColumnDefs; i++) {
+            ColumnDefinition columnDefinition = columnDefinitions.get(i);
+            final String ddbName = getDdbNameForColumnDefinition(columnDefinition);
+            if (!record.hasAttribute(ddbName)) {
+                continue;
+            }
+
+            if (valueInternPool != null && columnDefinition.getIntern()) {
+                if (columnDefinition.getSanitize()) {
+                    values[i] = valueInternPool.intern(getRowValueFromRecord(record, columnDefinition, ddbName,
+                            recordId));
+                } else {
+                    values[i] = columnDefinition.getTransferMethod().transfer(ddbName, record, valueInternPool);
+                }
             } else {
-                TransferMethod transferMethod = columnDefinition.getTransferMethod();
-                valueToAdd = transferMethod.transfer(ddbName, record);
+                values[i] = getRowValueFromRecord(record, columnDefinition, ddbName, recordId);
+            }
+        }
+        return values;
+    }
+
+    // use name if there is no ddbName
+    private static String getDdbNameForColumnDefinition(ColumnDefinition columnDefinition) {
+        return columnDefinition.getDdbName() == null ? columnDefinition.getName() : columnDefinition.getDdbName();
+    }
+
+    private static String getRowValueFromRecord(Item record, ColumnDefinition columnDefinition, String ddbName,
+            String recordId) {
+        if (columnDefinition.getSanitize()) {
+            return sanitizeDdbValue(record, ddbName, columnDefinition.getMaximumSize(), recordId);
+        } else {
+            TransferMethod transferMethod = columnDefinition.getTransferMethod();
+            return transferMethod.transfer(ddbName, record);
+        }
+    }
+
+    /**
+     * <p>
+     * Extracts only the given top-level fields from a JSON object, using Jackson's streaming parser. Values for fields
+     * not in the set are skipped without being parsed into a tree, so large values that aren't exported don't cost
+     * any allocations. Sub-trees are only built for fields that are in the set (typically inline JSON blobs and
+     * multi-choice answers).
+     * </p>
+     * <p>
+     * The result is equivalent to parsing the full tree and removing all fields not in the set. If the JSON isn't an
+     * object, this falls back to parsing the full tree.
+     * </p>
+     *
+     * @param jsonText
+     *         JSON text to extract fields from
+     * @param fieldNameSet
+     *         names of the fields to extract
+     * @return JSON node with only the extracted fields
+     * @throws IOException
+     *         if the JSON text is malformed
+     */
+    public static JsonNode extractJsonFields(String jsonText, Set<String> fieldNameSet) throws IOException {
+        try (JsonParser parser = DefaultObjectMapper.INSTANCE.getFactory().createParser(jsonText)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return DefaultObjectMapper.INSTANCE.readTree(jsonText);
             }
 
-            rowMap.put(columnDefinition.getName(), valueToAdd);
+            ObjectNode objectNode = DefaultObjectMapper.INSTANCE.createObjectNode();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken valueToken = parser.nextToken();
+                if (!fieldNameSet.contains(fieldName)) {
+                    parser.skipChildren();
+                } else if (valueToken == JsonToken.VALUE_NULL) {
+                    objectNode.putNull(fieldName);
+                } else {
+                    JsonNode valueNode = DefaultObjectMapper.INSTANCE.readTree(parser);
+                    objectNode.set(fieldName, valueNode);
+                }
+            }
+            return objectNode;
         }
     }
-    
+
     public static String serializeSubstudyMemberships(Map<String, String> substudyMemberships) {
         if (substudyMemberships == null || substudyMemberships.isEmpty()) {
             return null;
@@ -0,0 +1,140 @@
+package org.sagebionetworks.bridge.exporter.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+
+/**
+ * <p>
+ * A bounded pool of canonical values, for TSV columns that repeat the same few values across many rows (such as
+ * sharing scope, time zone, data groups, and substudy memberships). Interning lets all of those rows share the same
+ * String instance, and memoization lets us skip deriving the value (sorting and joining data groups, serializing
+ * substudy memberships) when we've already seen the same raw DDB value.
+ * </p>
+ * <p>
+ * The pool is bounded by the number of entries. Once it's full, new values are returned as is and aren't added to the
+ * pool. This is thread-safe, since the pool is shared by all worker threads for a task.
+ * </p>
+ */
+public class ValueInternPool {
+    /** Default max number of entries (interned values plus memoized values) in a pool. */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final int maxSize;
+    private final AtomicInteger size = new AtomicInteger();
+    private final ConcurrentMap<String, String> internedValueMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<Object, String>> memoizedValueMapByNamespace =
+            new ConcurrentHashMap<>();
+
+    private final LongAdder internHitCount = new LongAdder();
+    private final LongAdder internMissCount = new LongAdder();
+    private final LongAdder memoizeHitCount = new LongAdder();
+    private final LongAdder memoizeMissCount = new LongAdder();
+
+    /** Creates a pool with the default max size. */
+    public ValueInternPool() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /** Creates a pool with the given max number of entries. */
+    public ValueInternPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the canonical instance of the given value. If the value isn't in the pool and the pool is full, this
+     * returns the value itself.
+     */
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        String internedValue = internedValueMap.get(value);
+        if (internedValue != null) {
+            internHitCount.increment();
+            return internedValue;
+        }
+
+        internMissCount.increment();
+        if (!reserveEntry()) {
+            return value;
+        }
+        internedValue = internedValueMap.putIfAbsent(value, value);
+        if (internedValue != null) {
+            // Another thread added it first. Give back the entry we reserved.
+            size.decrementAndGet();
+            return internedValue;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the derived value for the given raw value, computing it with the given function only if we haven't
+     * already seen an equal raw value in the same namespace. Derived values are interned. Null derived values aren't
+     * memoized.
+     *
+     * @param namespace
+     *         namespace for the raw value, generally the DDB attribute name, so that equal raw values from different
+     *         attributes don't collide
+     * @param rawValue
+     *         raw value, as read from DDB; must not be modified after being passed in
+     * @param deriveFunction
+     *         function to derive the value from the raw value
+     * @return derived value
+     */
+    public <T> String memoize(String namespace, T rawValue, Function<? super T, String> deriveFunction) {
+        ConcurrentMap<Object, String> memoizedValueMap = memoizedValueMapByNamespace.computeIfAbsent(namespace,
+                key -> new ConcurrentHashMap<>());
+        String derivedValue = memoizedValueMap.get(rawValue);
+        if (derivedValue != null) {
+            memoizeHitCount.increment();
+            return derivedValue;
+        }
+
+        memoizeMissCount.increment();
+        derivedValue = intern(deriveFunction.apply(rawValue));
+        if (derivedValue != null && reserveEntry()) {
+            if (memoizedValueMap.putIfAbsent(rawValue, derivedValue) != null) {
+                size.decrementAndGet();
+            }
+        }
+        return derivedValue;
+    }
+
+    /** Number of entries in the pool. Package-scoped for unit tests. */
+    int getSize() {
+        return size.get();
+    }
+
+    /** Writes the intern and memoize hit rates (as percentages) and the pool size to the given metrics. */
+    public void reportMetrics(Metrics metrics) {
+        metrics.addKeyValuePair("valueInternPool.internHitRate", formatHitRate(internHitCount.sum(),
+                internMissCount.sum()));
+        metrics.addKeyValuePair("valueInternPool.memoizeHitRate", formatHitRate(memoizeHitCount.sum(),
+                memoizeMissCount.sum()));
+        metrics.addKeyValuePair("valueInternPool.size", String.valueOf(size.get()));
+    }
+
+    // Reserves an entry in the pool. Returns false if the pool is full.
+    private boolean reserveEntry() {
+        if (size.incrementAndGet() > maxSize) {
+            size.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    // Formats the hit rate as a percentage, with one decimal place.
+    private static String formatHitRate(long hitCount, long missCount) {
+        long total = hitCount + missCount;
+        if (total == 0) {
+            return "n/a";
+        }
+        return String.format("%.1f%%", 100.0 * hitCount / total);
+    }
+}
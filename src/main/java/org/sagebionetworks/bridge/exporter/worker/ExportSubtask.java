@@ -1,14 +1,26 @@
 package org.sagebionetworks.bridge.exporter.worker;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.apache.commons.lang3.StringUtils;
 
+import org.sagebionetworks.bridge.exporter.handler.PhoneAppVersionInfo;
+import org.sagebionetworks.bridge.exporter.synapse.ColumnDefinition;
+import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
+import org.sagebionetworks.bridge.json.DefaultObjectMapper;
 import org.sagebionetworks.bridge.schema.UploadSchemaKey;
 
 /**
  * Represents a single subtask for a single handler. This generally corresponds one-to-one with a single health data
- * record. Subtasks are immutable, so it's safe to re-use the same subtask for multiple handlers.
+ * record. The same subtask is shared by all handlers for the record, which may run on different threads.
+ *
+ * The record, parent task, schema key, and study ID never change. Values derived from the record (parsed record data,
+ * phone and app version info, and column definition values) are computed lazily the first time they're needed, then
+ * memoized and shared by all handlers for this subtask. Memoization is synchronized, so this class is thread-safe.
  */
 public class ExportSubtask {
     /* package-scoped for unit tests */
@@ -16,16 +28,23 @@ public class ExportSubtask {
 
     private final Item originalRecord;
     private final ExportTask parentTask;
-    private final JsonNode recordData;
+    private final String recordDataJsonText;
     private final UploadSchemaKey schemaKey;
     private final String studyId;
 
+    // Memoized values derived from the original record. Guarded by this.
+    private JsonNode recordData;
+    private PhoneAppVersionInfo phoneAppVersionInfo;
+    private List<ColumnDefinition> columnDefinitionValuesKey;
+    private String[] columnDefinitionValues;
+
     // Private constructor. To build, use Builder.
-    private ExportSubtask(Item originalRecord, ExportTask parentTask, JsonNode recordData, UploadSchemaKey schemaKey,
-            String studyId) {
+    private ExportSubtask(Item originalRecord, ExportTask parentTask, JsonNode recordData, String recordDataJsonText,
+            UploadSchemaKey schemaKey, String studyId) {
         this.originalRecord = originalRecord;
         this.parentTask = parentTask;
         this.recordData = recordData;
+        this.recordDataJsonText = recordDataJsonText;
         this.schemaKey = schemaKey;
         this.studyId = studyId;
     }
@@ -44,11 +63,54 @@ public class ExportSubtask {
      * JSON node representing the data normally found in the DDB health data record. This exists because legacy iOS
      * surveys wrote their answers to an attachment instead of directly to the health data record. All handlers should
      * consume health data from getRecordData() instead of from getOriginalRecord().
+     *
+     * If the subtask was built from the record data JSON text, this parses the full tree the first time it's called.
+     * Handlers that only need a few fields should call {@link #getRecordDataFields} instead.
      */
-    public JsonNode getRecordData() {
+    public synchronized JsonNode getRecordData() throws IOException {
+        if (recordData == null) {
+            recordData = DefaultObjectMapper.INSTANCE.readTree(recordDataJsonText);
+        }
         return recordData;
     }
 
+    /**
+     * Record data, containing at least the given top-level fields. If the record data hasn't been parsed into a tree,
+     * this streams through the JSON text and extracts only those fields, without building (or memoizing) the full
+     * tree. Otherwise, this returns the full tree.
+     */
+    public JsonNode getRecordDataFields(Set<String> fieldNameSet) throws IOException {
+        synchronized (this) {
+            if (recordData != null) {
+                return recordData;
+            }
+        }
+        return BridgeExporterUtil.extractJsonFields(recordDataJsonText, fieldNameSet);
+    }
+
+    /** Phone and app version info, parsed from the record metadata. Parsed once and shared by all handlers. */
+    public synchronized PhoneAppVersionInfo getPhoneAppVersionInfo() {
+        if (phoneAppVersionInfo == null) {
+            phoneAppVersionInfo = PhoneAppVersionInfo.fromRecord(originalRecord, parentTask.getValueInternPool());
+        }
+        return phoneAppVersionInfo;
+    }
+
+    /**
+     * Values for the given column definitions, extracted and sanitized from the original record. The returned array
+     * is parallel to the column definition list, with null for values that aren't in the record. These are computed
+     * once and shared by all handlers. Callers must not modify the returned array.
+     */
+    public synchronized String[] getColumnDefinitionValues(List<ColumnDefinition> columnDefinitionList) {
+        // Column definitions come from a single Spring bean, so this is almost always the same list.
+        if (columnDefinitionValues == null || columnDefinitionValuesKey != columnDefinitionList) {
+            columnDefinitionValues = BridgeExporterUtil.getColumnDefinitionValuesFromRecord(originalRecord,
+                    columnDefinitionList, getRecordId(), parentTask.getValueInternPool());
+            columnDefinitionValuesKey = columnDefinitionList;
+        }
+        return columnDefinitionValues;
+    }
+
     /** Shortcut method for getting the record ID, which is obtained from the original Dynamo DB record. */
     public String getRecordId() {
         return originalRecord.getString(KEY_RECORD_ID);
@@ -72,6 +134,7 @@ public class ExportSubtask {
         private Item originalRecord;
         private ExportTask parentTask;
         private JsonNode recordData;
+        private String recordDataJsonText;
         private UploadSchemaKey schemaKey;
         private String studyId;
 
@@ -93,6 +156,15 @@ public class ExportSubtask {
             return this;
         }
 
+        /**
+         * Record data as JSON text, which is parsed lazily. Used instead of {@link #withRecordData} so that handlers
+         * can extract only the fields they need. If both are specified, the parsed record data wins.
+         */
+        public Builder withRecordDataJsonText(String recordDataJsonText) {
+            this.recordDataJsonText = recordDataJsonText;
+            return this;
+        }
+
         /** @see ExportSubtask#getSchemaKey */
         public Builder withSchemaKey(UploadSchemaKey schemaKey) {
             this.schemaKey = schemaKey;
@@ -116,7 +188,7 @@ public class ExportSubtask {
                 throw new IllegalStateException("parentTask must be non-null");
             }
 
-            if (recordData == null) {
+            if (recordData == null && recordDataJsonText == null) {
                 throw new IllegalStateException("recordData must be non-null");
             }
 
@@ -124,7 +196,7 @@ public class ExportSubtask {
                 throw new IllegalStateException("studyId must be specified");
             }
 
-            return new ExportSubtask(originalRecord, parentTask, recordData, schemaKey, studyId);
+            return new ExportSubtask(originalRecord, parentTask, recordData, recordDataJsonText, schemaKey, studyId);
         }
     }
 }
@@ -1,19 +1,27 @@
 package org.sagebionetworks.bridge.exporter.worker;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 import org.joda.time.LocalDate;
 
+import org.sagebionetworks.bridge.exporter.handler.TsvRowPlan;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterRequest;
+import org.sagebionetworks.bridge.exporter.request.BridgeExporterRequestType;
+import org.sagebionetworks.bridge.exporter.util.ValueInternPool;
 import org.sagebionetworks.bridge.schema.UploadSchemaKey;
 
 /**
@@ -24,15 +32,19 @@ public class ExportTask {
     // TASK PARAMETERS
 
     private final LocalDate exporterDate;
+    private final String exporterDateString;
     private final Metrics metrics;
     private final BridgeExporterRequest request;
+    private final boolean reexport;
     private final File tmpDir;
 
     /** Private constructor. To construct, use builder. */
     private ExportTask(LocalDate exporterDate, Metrics metrics, BridgeExporterRequest request, File tmpDir) {
         this.exporterDate = exporterDate;
+        this.exporterDateString = exporterDate.toString();
         this.metrics = metrics;
         this.request = request;
+        this.reexport = BridgeExporterRequestType.mayReexportRecords(request);
         this.tmpDir = tmpDir;
     }
 
@@ -44,6 +56,11 @@ public class ExportTask {
         return exporterDate;
     }
 
+    /** Exporter date as a string (YYYY-MM-DD), computed once since it's written to every row. */
+    public String getExporterDateString() {
+        return exporterDateString;
+    }
+
     /** Metrics collector for the task. */
     public Metrics getMetrics() {
         return metrics;
@@ -54,6 +71,14 @@ public class ExportTask {
         return request;
     }
 
+    /**
+     * True if this task may export records that have already been exported, for example, redrives and backfills. See
+     * {@link BridgeExporterRequestType#mayReexportRecords}.
+     */
+    public boolean isReexport() {
+        return reexport;
+    }
+
     /**
      * Temporary directory in the local file system, used for temporary scratch space such as downloading attachments
      * or writing temporary TSV files.
@@ -118,11 +143,33 @@ public class ExportTask {
 
     // TASK STATE MANAGEMENT
 
-    private final Map<UploadSchemaKey, TsvInfo> healthDataTsvInfoBySchema = new HashMap<>();
-    private final Set<String> studyIdSet = new HashSet<>();
-    private final Queue<ExportSubtaskFuture> subtaskFutureQueue = new LinkedList<>();
-    private boolean success = false;
+    // Task state is written to from worker threads (for example, IosSurveyExportHandler queues up health data subtasks
+    // from within a worker), so all of these need to be thread-safe.
+    private final Map<UploadSchemaKey, TsvInfo> healthDataTsvInfoBySchema = new ConcurrentHashMap<>();
+    private final Set<String> studyIdSet = ConcurrentHashMap.newKeySet();
+    private final Queue<ExportSubtaskFuture> subtaskFutureQueue = new LinkedBlockingQueue<>();
+    private volatile boolean success = false;
     private final Table<String, MetaTableType, TsvInfo> tsvInfoByStudyAndType = HashBasedTable.create();
+    private final ConcurrentMap<String, CompletableFuture<TsvInfo>> tsvInitFuturesByTableKey =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Queue<Future<Void>>> rotatedTsvUploadFuturesByTableKey =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, TsvRowPlan> tsvRowPlansByTableKey = new ConcurrentHashMap<>();
+    private final ValueInternPool valueInternPool = new ValueInternPool();
+    private final SynapseTableIdCache synapseTableIdCache = new SynapseTableIdCache();
+
+    /**
+     * Pool for interning values that repeat across many rows in this task, such as app versions, data groups, and
+     * substudy memberships.
+     */
+    public ValueInternPool getValueInternPool() {
+        return valueInternPool;
+    }
+
+    /** Cache of Synapse table IDs from the DDB Synapse table maps. See ExportWorkerManager.getSynapseTableIdFromDdb. */
+    public SynapseTableIdCache getSynapseTableIdCache() {
+        return synapseTableIdCache;
+    }
 
     /** Gets the health data table TSV info for the specified schema. */
     public TsvInfo getHealthDataTsvInfoForSchema(UploadSchemaKey schemaKey) {
@@ -166,11 +213,131 @@ public class ExportTask {
 
     /** Gets the TSV info for the specified study and meta-table type. */
     public TsvInfo getTsvInfoForStudyAndType(String studyId, MetaTableType type) {
-        return tsvInfoByStudyAndType.get(studyId, type);
+        synchronized (tsvInfoByStudyAndType) {
+            return tsvInfoByStudyAndType.get(studyId, type);
+        }
     }
 
     /** Sets the TSV info for the specified study and meta-table type into the task. */
     public void setTsvInfoForStudyAndType(String studyId, MetaTableType type, TsvInfo tsvInfo) {
-        tsvInfoByStudyAndType.put(studyId, type, tsvInfo);
+        synchronized (tsvInfoByStudyAndType) {
+            tsvInfoByStudyAndType.put(studyId, type, tsvInfo);
+        }
+    }
+
+    /**
+     * Gets the future for the TSV (and Synapse table) initialization for the given table key, or null if
+     * initialization hasn't started yet for this task.
+     */
+    public CompletableFuture<TsvInfo> getTsvInitFuture(String tableKey) {
+        return tsvInitFuturesByTableKey.get(tableKey);
+    }
+
+    /**
+     * Registers the TSV initialization future for the given table key, if one isn't already registered. Returns the
+     * previously registered future, or null if the given future was registered.
+     */
+    public CompletableFuture<TsvInfo> putTsvInitFutureIfAbsent(String tableKey, CompletableFuture<TsvInfo> future) {
+        return tsvInitFuturesByTableKey.putIfAbsent(tableKey, future);
+    }
+
+    /** Removes the TSV initialization future for the given table key, but only if it's the given future. */
+    public void removeTsvInitFuture(String tableKey, CompletableFuture<TsvInfo> future) {
+        tsvInitFuturesByTableKey.remove(tableKey, future);
+    }
+
+    /** Gets the compiled TSV row plan for the given table key, or null if there isn't one yet. */
+    public TsvRowPlan getTsvRowPlan(String tableKey) {
+        return tsvRowPlansByTableKey.get(tableKey);
+    }
+
+    /** Sets the compiled TSV row plan for the given table key, replacing any existing plan. */
+    public void setTsvRowPlan(String tableKey, TsvRowPlan tsvRowPlan) {
+        tsvRowPlansByTableKey.put(tableKey, tsvRowPlan);
+    }
+
+    /** Removes the compiled TSV row plan for the given table key, once all rows for the table have been written. */
+    public void removeTsvRowPlan(String tableKey) {
+        tsvRowPlansByTableKey.remove(tableKey);
+    }
+
+    /**
+     * Adds the future for the background upload of a TSV that was rotated out mid-stream for the given table key.
+     * These are waited on when the table's final TSV is uploaded.
+     */
+    public void addRotatedTsvUploadFuture(String tableKey, Future<Void> future) {
+        rotatedTsvUploadFuturesByTableKey.computeIfAbsent(tableKey, key -> new ConcurrentLinkedQueue<>()).add(future);
+    }
+
+    /** Gets the background upload futures for rotated TSVs for the given table key. Never returns null. */
+    public Collection<Future<Void>> getRotatedTsvUploadFutures(String tableKey) {
+        Queue<Future<Void>> futureQueue = rotatedTsvUploadFuturesByTableKey.get(tableKey);
+        if (futureQueue == null) {
+            return Collections.emptyList();
+        }
+        return futureQueue;
+    }
+
+    // PER-TASK MEMORY ACCOUNTING
+
+    // Multiple tasks can run at the same time and share the same worker executor. To keep one large task from
+    // flooding the executor queue (and the heap) with its subtasks, each task tracks the number and approximate size
+    // of its outstanding subtasks, and the record loop waits for them to drain below a limit before adding more. The
+    // count limit also bounds how far back in the shared queue another task's subtasks can end up.
+    private final Object outstandingSubtaskLock = new Object();
+    private int outstandingSubtaskCount = 0;
+    private long outstandingSubtaskBytes = 0;
+
+    /** Number of subtasks that have been queued but not yet completed. */
+    public int getOutstandingSubtaskCount() {
+        synchronized (outstandingSubtaskLock) {
+            return outstandingSubtaskCount;
+        }
+    }
+
+    /** Approximate size in bytes of subtasks that have been queued but not yet completed. */
+    public long getOutstandingSubtaskBytes() {
+        synchronized (outstandingSubtaskLock) {
+            return outstandingSubtaskBytes;
+        }
+    }
+
+    /** Adds a subtask of the given approximate size to the outstanding subtasks. Called when a subtask is queued. */
+    public void addOutstandingSubtask(long bytes) {
+        synchronized (outstandingSubtaskLock) {
+            outstandingSubtaskCount++;
+            outstandingSubtaskBytes += bytes;
+        }
+    }
+
+    /**
+     * Removes a subtask of the given approximate size from the outstanding subtasks. Called when every worker for the
+     * subtask has completed.
+     */
+    public void releaseOutstandingSubtask(long bytes) {
+        synchronized (outstandingSubtaskLock) {
+            outstandingSubtaskCount--;
+            outstandingSubtaskBytes -= bytes;
+            outstandingSubtaskLock.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until both the number and approximate size of outstanding subtasks are below the given limits.
+     *
+     * @param maxCount
+     *         maximum number of outstanding subtasks for this task, 0 means no limit
+     * @param budgetBytes
+     *         memory budget for this task's outstanding subtasks, 0 means no limit
+     * @throws InterruptedException
+     *         if interrupted while waiting
+     */
+    public void waitForOutstandingSubtasksBelow(int maxCount, long budgetBytes) throws InterruptedException {
+        synchronized (outstandingSubtaskLock) {
+            while ((maxCount > 0 && outstandingSubtaskCount >= maxCount) ||
+                    (budgetBytes > 0 && outstandingSubtaskBytes >= budgetBytes)) {
+                outstandingSubtaskLock.wait();
+            }
+        }
     }
 }
@@ -2,6 +2,7 @@ package org.sagebionetworks.bridge.exporter.worker;
 
 import java.io.IOException;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import org.sagebionetworks.client.exceptions.SynapseException;
 
@@ -24,6 +25,7 @@ import org.sagebionetworks.bridge.exporter.handler.ExportHandler;
 public class ExportWorker implements Callable<Void> {
     private final ExportHandler handler;
     private final ExportSubtask subtask;
+    private final OutstandingSubtask outstandingSubtask;
 
     /**
      * Creates an ExportWorker for the given handler and subtask.
@@ -34,8 +36,18 @@ public class ExportWorker implements Callable<Void> {
      *         export subtask to handle
      */
     public ExportWorker(ExportHandler handler, ExportSubtask subtask) {
+        this(handler, subtask, null);
+    }
+
+    /**
+     * Creates an ExportWorker for the given handler and subtask, which holds a reference to the subtask's memory
+     * accounting in the parent task and releases it when it completes. The caller must have already retained the
+     * reference. Package-scoped, since memory accounting is internal to the worker manager.
+     */
+    ExportWorker(ExportHandler handler, ExportSubtask subtask, OutstandingSubtask outstandingSubtask) {
         this.handler = handler;
         this.subtask = subtask;
+        this.outstandingSubtask = outstandingSubtask;
     }
 
     /** Export handler to run. Package-scoped to be available to unit tests. */
@@ -54,7 +66,20 @@ public class ExportWorker implements Callable<Void> {
      */
     @Override
     public Void call() throws BridgeExporterException, IOException, SchemaNotFoundException, SynapseException {
-        handler.handle(subtask);
+        CompletableFuture<Void> pendingFuture = null;
+        try {
+            pendingFuture = handler.handleAsync(subtask);
+        } finally {
+            if (outstandingSubtask != null) {
+                // If the handler is still finishing the subtask in the background, the subtask is still in memory, so
+                // don't release it until it's done.
+                if (pendingFuture != null) {
+                    pendingFuture.whenComplete((result, ex) -> outstandingSubtask.release());
+                } else {
+                    outstandingSubtask.release();
+                }
+            }
+        }
 
         // Callables have to have a return value. We don't have a return value, so return null.
         return null;
@@ -1,28 +1,49 @@
 package org.sagebionetworks.bridge.exporter.worker;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Resource;
 
 import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.document.BatchGetItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.document.utils.NameMap;
+import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.Stopwatch;
-import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.gson.JsonParseException;
 import com.google.gson.stream.MalformedJsonException;
 import org.apache.commons.lang3.StringUtils;
@@ -36,10 +57,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.dynamodb.DynamoScanHelper;
 import org.sagebionetworks.bridge.exporter.dynamo.DynamoHelper;
 import org.sagebionetworks.bridge.exporter.dynamo.StudyInfo;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterException;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterNonRetryableException;
+import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterPartialUploadException;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterTsvException;
 import org.sagebionetworks.bridge.exporter.exceptions.RestartBridgeExporterException;
 import org.sagebionetworks.bridge.exporter.exceptions.SchemaNotFoundException;
@@ -56,7 +79,6 @@ import org.sagebionetworks.bridge.exporter.synapse.SynapseHelper;
 import org.sagebionetworks.bridge.exporter.synapse.SynapseStatusTableHelper;
 import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
 import org.sagebionetworks.bridge.file.FileHelper;
-import org.sagebionetworks.bridge.json.DefaultObjectMapper;
 import org.sagebionetworks.bridge.rest.exceptions.BridgeSDKException;
 import org.sagebionetworks.bridge.s3.S3Helper;
 import org.sagebionetworks.bridge.schema.UploadSchemaKey;
@@ -74,6 +96,11 @@ public class ExportWorkerManager {
     public static final String CONFIG_KEY_EXPORTER_DDB_PREFIX = "exporter.ddb.prefix";
     public static final String CONFIG_KEY_REDRIVE_MAX_COUNT = "redrive.max.count";
     public static final String CONFIG_KEY_SYNAPSE_PRINCIPAL_ID = "synapse.principal.id";
+    public static final String CONFIG_KEY_TASK_MAX_OUTSTANDING_SUBTASKS = "task.max.outstanding.subtasks";
+    public static final String CONFIG_KEY_TASK_MEMORY_BUDGET_BYTES = "task.memory.budget.bytes";
+    public static final String CONFIG_KEY_TSV_ROTATE_MAX_BYTES = "tsv.rotate.max.bytes";
+    public static final String CONFIG_KEY_TSV_ROTATE_MAX_ROWS = "tsv.rotate.max.rows";
+    public static final String CONFIG_KEY_TSV_UPLOAD_CHUNK_MAX_BYTES = "tsv.upload.chunk.max.bytes";
     public static final String CONFIG_KEY_WORKER_MANAGER_PROGRESS_REPORT_PERIOD =
             "worker.manager.progress.report.period";
 
@@ -87,6 +114,19 @@ public class ExportWorkerManager {
     // NOTE: This maxes out at 900 seconds (15 min) before SQS throws an error.
     static final int REDRIVE_DELAY_SECONDS = 900;
 
+    // Meta table keys are always "[studyId][suffix]". See AppVersionExportHandler, SchemalessExportHandler, and
+    // SynapseStatusTableHelper.
+    static final List<String> META_TABLE_KEY_SUFFIX_LIST = ImmutableList.of("-appVersion", "-default", "-status");
+
+    // DDB BatchGetItem takes at most 100 keys per call. If keys are still unprocessed (generally because of
+    // throttling) after this many calls, we give up on preloading.
+    private static final int BATCH_GET_MAX_KEYS = 100;
+    private static final int BATCH_GET_MAX_ATTEMPTS = 5;
+
+    // Minimum approximate size of a subtask. Even a record with no data holds the DDB item, the subtask, and its
+    // workers in memory.
+    static final long MIN_SUBTASK_BYTES = 2048;
+
     // CONFIG
 
     private String exporterDdbPrefix;
@@ -95,6 +135,11 @@ public class ExportWorkerManager {
     private int redriveMaxCount;
     private long synapsePrincipalId;
     private String sqsQueueUrl;
+    private int taskMaxOutstandingSubtasks;
+    private long taskMemoryBudgetBytes;
+    private long tsvRotateMaxBytes;
+    private int tsvRotateMaxRows;
+    private long tsvUploadChunkMaxBytes;
 
     /** Bridge config. */
     @Autowired
@@ -104,6 +149,11 @@ public class ExportWorkerManager {
         this.redriveMaxCount = config.getInt(CONFIG_KEY_REDRIVE_MAX_COUNT);
         this.synapsePrincipalId = config.getInt(CONFIG_KEY_SYNAPSE_PRINCIPAL_ID);
         this.sqsQueueUrl = config.get(BridgeExporterUtil.CONFIG_KEY_SQS_QUEUE_URL);
+        this.taskMaxOutstandingSubtasks = config.getInt(CONFIG_KEY_TASK_MAX_OUTSTANDING_SUBTASKS);
+        this.taskMemoryBudgetBytes = getLongConfig(config, CONFIG_KEY_TASK_MEMORY_BUDGET_BYTES);
+        this.tsvRotateMaxBytes = getLongConfig(config, CONFIG_KEY_TSV_ROTATE_MAX_BYTES);
+        this.tsvRotateMaxRows = config.getInt(CONFIG_KEY_TSV_ROTATE_MAX_ROWS);
+        this.tsvUploadChunkMaxBytes = getLongConfig(config, CONFIG_KEY_TSV_UPLOAD_CHUNK_MAX_BYTES);
 
         this.progressReportPeriod = config.getInt(CONFIG_KEY_WORKER_MANAGER_PROGRESS_REPORT_PERIOD);
         if (progressReportPeriod == 0) {
@@ -112,6 +162,13 @@ public class ExportWorkerManager {
         }
     }
 
+    // Byte counts can be bigger than an int, so we parse them as longs. Missing values mean 0 (no limit), same as
+    // config.getInt().
+    private static long getLongConfig(Config config, String key) {
+        String value = config.get(key);
+        return StringUtils.isNotBlank(value) ? Long.parseLong(value) : 0;
+    }
+
     /**
      * The prefix for DynamoDB tables for mapping Synapse tables. Examples: "prod-exporter-". This checks for overrides
      * in the task's request before falling back to the globally configured prefix.
@@ -134,11 +191,132 @@ public class ExportWorkerManager {
         return synapsePrincipalId;
     }
 
+    /**
+     * Approximate size in bytes at which a table's TSV is rotated out and uploaded in the background, while new rows
+     * are written to a fresh TSV. 0 means never rotate based on size.
+     */
+    public long getTsvRotateMaxBytes() {
+        return tsvRotateMaxBytes;
+    }
+
+    /**
+     * Number of rows at which a table's TSV is rotated out and uploaded in the background, while new rows are written
+     * to a fresh TSV. 0 means never rotate based on row count.
+     */
+    public int getTsvRotateMaxRows() {
+        return tsvRotateMaxRows;
+    }
+
+    /**
+     * Approximate size in bytes above which a TSV is split into multiple chunks when uploading to Synapse. Each chunk
+     * is imported separately, so that very large TSVs don't time out the Synapse import. 0 means never split.
+     */
+    public long getTsvUploadChunkMaxBytes() {
+        return tsvUploadChunkMaxBytes;
+    }
+
     // DYNAMO DB HELPERS AND OVERRIDES
 
+    // DDB Synapse table map objects, keyed by full (prefixed) table name.
+    private final ConcurrentMap<String, Table> ddbTableMap = new ConcurrentHashMap<>();
+
+    /**
+     * <p>
+     * Preloads the task's Synapse table ID cache from the DDB Synapse table maps (SynapseTables and
+     * SynapseMetaTables), for the given studies. Meta tables have a fixed set of keys per study, so we batch get just
+     * those keys. Schema-based tables don't, so we scan SynapseTables.
+     * </p>
+     * <p>
+     * Record redrives (recordIdS3Override) and table redrives (tableWhitelist) only touch a handful of tables, so they
+     * skip the SynapseTables scan, and look up each table in DDB instead. If a preload fails, we log a warning and
+     * fall back to calling DDB for each lookup.
+     * </p>
+     *
+     * @param task
+     *         the export task, which contains context needed to get the Synapse table map and holds the cache
+     * @param studyIdSet
+     *         studies in scope for the task
+     */
+    public void preloadSynapseTableIds(ExportTask task, Set<String> studyIdSet) {
+        if (studyIdSet.isEmpty()) {
+            return;
+        }
+
+        BridgeExporterRequest request = task.getRequest();
+        if (StringUtils.isBlank(request.getRecordIdS3Override()) && request.getTableWhitelist() == null) {
+            preloadSchemaTableIds(task, studyIdSet);
+        }
+        preloadMetaTableIds(task, studyIdSet);
+    }
+
+    // Helper method to preload SynapseTables with a scan.
+    private void preloadSchemaTableIds(ExportTask task, Set<String> studyIdSet) {
+        Map<String, String> tableIdByKey = new HashMap<>();
+        try {
+            for (Item oneItem : ddbScanHelper.scan(getSynapseDdbTable(task, SynapseHelper.DDB_TABLE_SYNAPSE_TABLES))) {
+                tableIdByKey.put(oneItem.getString(SynapseHelper.DDB_KEY_SCHEMA_KEY),
+                        oneItem.getString(DDB_KEY_TABLE_ID));
+            }
+        } catch (AmazonClientException ex) {
+            LOG.warn("Error preloading Synapse table IDs from " + SynapseHelper.DDB_TABLE_SYNAPSE_TABLES + ": " +
+                    ex.getMessage(), ex);
+            return;
+        }
+        task.getSynapseTableIdCache().preload(SynapseHelper.DDB_TABLE_SYNAPSE_TABLES, studyIdSet, tableIdByKey);
+    }
+
+    // Helper method to preload SynapseMetaTables with batch gets of each study's meta table keys.
+    private void preloadMetaTableIds(ExportTask task, Set<String> studyIdSet) {
+        String fullTableName = getExporterDdbPrefixForTask(task) + SynapseHelper.DDB_TABLE_SYNAPSE_META_TABLES;
+        List<Object> keyList = new ArrayList<>();
+        for (String oneStudyId : studyIdSet) {
+            for (String oneSuffix : META_TABLE_KEY_SUFFIX_LIST) {
+                keyList.add(oneStudyId + oneSuffix);
+            }
+        }
+
+        Map<String, String> tableIdByKey = new HashMap<>();
+        try {
+            for (List<Object> oneKeyBatch : Lists.partition(keyList, BATCH_GET_MAX_KEYS)) {
+                BatchGetItemOutcome outcome = ddbClient.batchGetItem(new TableKeysAndAttributes(fullTableName)
+                        .addHashOnlyPrimaryKeys(SynapseHelper.DDB_KEY_TABLE_NAME, oneKeyBatch.toArray()));
+                int numAttempts = 1;
+                while (true) {
+                    List<Item> itemList = outcome.getTableItems().get(fullTableName);
+                    if (itemList != null) {
+                        for (Item oneItem : itemList) {
+                            tableIdByKey.put(oneItem.getString(SynapseHelper.DDB_KEY_TABLE_NAME),
+                                    oneItem.getString(DDB_KEY_TABLE_ID));
+                        }
+                    }
+
+                    Map<String, KeysAndAttributes> unprocessedKeys = outcome.getUnprocessedKeys();
+                    if (unprocessedKeys == null || unprocessedKeys.isEmpty()) {
+                        break;
+                    }
+                    if (numAttempts >= BATCH_GET_MAX_ATTEMPTS) {
+                        LOG.warn("Giving up preloading Synapse table IDs from " +
+                                SynapseHelper.DDB_TABLE_SYNAPSE_META_TABLES + " after " + numAttempts +
+                                " attempts, with keys still unprocessed");
+                        return;
+                    }
+                    outcome = ddbClient.batchGetItemUnprocessed(unprocessedKeys);
+                    numAttempts++;
+                }
+            }
+        } catch (AmazonClientException ex) {
+            LOG.warn("Error preloading Synapse table IDs from " + SynapseHelper.DDB_TABLE_SYNAPSE_META_TABLES + ": " +
+                    ex.getMessage(), ex);
+            return;
+        }
+        task.getSynapseTableIdCache().preload(SynapseHelper.DDB_TABLE_SYNAPSE_META_TABLES, studyIdSet,
+                tableIdByKey);
+    }
+
     /**
      * Gets the Synapse table ID, using the DDB Synapse table map. Returns null if the Synapse table doesn't exist (no
-     * entry in the DDB table).
+     * entry in the DDB table). Table IDs are cached in the task, so each existing table is only looked up in DDB once
+     * per task (or never, if it was preloaded).
      *
      * @param task
      *         the export task, which contains context needed to get the Synapse table map
@@ -152,18 +330,26 @@ public class ExportWorkerManager {
      */
     public String getSynapseTableIdFromDdb(ExportTask task, String ddbTableName, String ddbKeyName,
             String ddbKeyValue) {
+        SynapseTableIdCache synapseTableIdCache = task.getSynapseTableIdCache();
+        Optional<String> cachedTableId = synapseTableIdCache.get(ddbTableName, ddbKeyValue);
+        if (cachedTableId != null && cachedTableId.isPresent()) {
+            return cachedTableId.get();
+        }
+
+        // A negative cache hit is only as fresh as the preload, and another host may have created the table since
+        // then. Confirm with a consistent read, so we don't create a duplicate table.
         Table synapseTableMap = getSynapseDdbTable(task, ddbTableName);
-        Item tableMapItem = synapseTableMap.getItem(ddbKeyName, ddbKeyValue);
-        if (tableMapItem != null) {
-            return tableMapItem.getString(DDB_KEY_TABLE_ID);
-        } else {
-            return null;
+        String synapseTableId = getSynapseTableIdWithConsistentRead(synapseTableMap, ddbKeyName, ddbKeyValue);
+        if (synapseTableId != null) {
+            synapseTableIdCache.put(ddbTableName, ddbKeyValue, synapseTableId);
         }
+        return synapseTableId;
     }
 
     /**
-     * Writes the Synapse table ID back to the DDB Synapse table map. This is called at the end of Synapse table
-     * creation.
+     * Writes the Synapse table ID back to the DDB Synapse table map, and to the task's cache. This is called at the end
+     * of Synapse table creation. This is a conditional write, so that if two workers (or two hosts) create the same
+     * table at the same time, only the first one wins, and everyone uses the winner's table.
      *
      * @param task
      *         the export task, which contains context needed to get the Synapse table map
@@ -173,29 +359,85 @@ public class ExportWorkerManager {
      *         hash key name of the Dynamo DB table
      * @param ddbKeyValue
      *         value of the hash key of the Dynamo DB table (generally the Synapse table name)
+     * @param oldSynapseTableId
+     *         Synapse table ID that was previously in Dynamo DB, if we're replacing a table that was deleted from
+     *         Synapse, or null if there was no entry
      * @param synapseTableId
      *         Synapse table ID to write to Dynamo DB
+     * @return the Synapse table ID that's now in Dynamo DB, which is the winning table ID if another worker wrote a
+     *         different table ID first
      */
-    public void setSynapseTableIdToDdb(ExportTask task, String ddbTableName, String ddbKeyName, String ddbKeyValue,
-            String synapseTableId) {
+    public String setSynapseTableIdToDdb(ExportTask task, String ddbTableName, String ddbKeyName, String ddbKeyValue,
+            String oldSynapseTableId, String synapseTableId) {
         Table synapseTableMap = getSynapseDdbTable(task, ddbTableName);
         Item synapseTableNewItem = new Item();
         synapseTableNewItem.withString(ddbKeyName, ddbKeyValue);
         synapseTableNewItem.withString(DDB_KEY_TABLE_ID, synapseTableId);
-        synapseTableMap.putItem(synapseTableNewItem);
+
+        PutItemSpec putItemSpec = new PutItemSpec().withItem(synapseTableNewItem);
+        if (oldSynapseTableId == null) {
+            putItemSpec.withConditionExpression("attribute_not_exists(#k)")
+                    .withNameMap(new NameMap().with("#k", ddbKeyName));
+        } else {
+            putItemSpec.withConditionExpression("#t = :t").withNameMap(new NameMap().with("#t", DDB_KEY_TABLE_ID))
+                    .withValueMap(new ValueMap().withString(":t", oldSynapseTableId));
+        }
+
+        String winningSynapseTableId;
+        try {
+            synapseTableMap.putItem(putItemSpec);
+            winningSynapseTableId = synapseTableId;
+        } catch (ConditionalCheckFailedException ex) {
+            // Someone else wrote the table ID first. Use theirs.
+            winningSynapseTableId = getSynapseTableIdWithConsistentRead(synapseTableMap, ddbKeyName, ddbKeyValue);
+            if (winningSynapseTableId == null) {
+                // The entry was deleted out from under us. This should never happen, so just throw.
+                throw ex;
+            }
+            LOG.warn("Synapse table ID for " + ddbKeyValue + " was already written as " + winningSynapseTableId +
+                    ", deleting newly created table " + synapseTableId);
+            deleteOrphanedSynapseTable(task, synapseTableId);
+        }
+        task.getSynapseTableIdCache().put(ddbTableName, ddbKeyValue, winningSynapseTableId);
+        return winningSynapseTableId;
+    }
+
+    // Helper method to delete a Synapse table that lost the race to be written to the DDB Synapse table map. The table
+    // was just created, so nothing has been written to it yet. If the delete fails, the table is orphaned. We count
+    // these in the metrics, so they can be cleaned up by hand.
+    private void deleteOrphanedSynapseTable(ExportTask task, String synapseTableId) {
+        try {
+            synapseHelper.deleteTableWithRetry(synapseTableId);
+            task.getMetrics().incrementCounter("numDuplicateSynapseTablesDeleted");
+        } catch (RuntimeException | SynapseException ex) {
+            LOG.error("Error deleting duplicate Synapse table " + synapseTableId + ", table is orphaned: " +
+                    ex.getMessage(), ex);
+            task.getMetrics().incrementCounter("numOrphanedSynapseTables");
+            task.getMetrics().addKeyValuePair("orphanedSynapseTableIds", synapseTableId);
+        }
+    }
+
+    // Helper method to get the Synapse table ID from the DDB Synapse table map, with a consistent read. Returns null if
+    // there's no entry.
+    private static String getSynapseTableIdWithConsistentRead(Table synapseTableMap, String ddbKeyName,
+            String ddbKeyValue) {
+        Item tableMapItem = synapseTableMap.getItem(new GetItemSpec().withPrimaryKey(ddbKeyName, ddbKeyValue)
+                .withConsistentRead(true));
+        return tableMapItem != null ? tableMapItem.getString(DDB_KEY_TABLE_ID) : null;
     }
 
     // Helper method to get the DDB Synapse table map, called both to read and write the Synapse table ID to and from
-    // DDB.
+    // DDB. Table objects are memoized, since there are only a handful of them.
     private Table getSynapseDdbTable(ExportTask task, String ddbTableName) {
         String ddbPrefix = getExporterDdbPrefixForTask(task);
-        return ddbClient.getTable(ddbPrefix + ddbTableName);
+        return ddbTableMap.computeIfAbsent(ddbPrefix + ddbTableName, ddbClient::getTable);
     }
 
     // HELPER OBJECTS (CONFIGURED BY SPRING)
 
     private BridgeHelper bridgeHelper;
     private DynamoDB ddbClient;
+    private DynamoScanHelper ddbScanHelper;
     private DynamoHelper dynamoHelper;
     private ExportHelper exportHelper;
     private FileHelper fileHelper;
@@ -233,6 +475,12 @@ public class ExportWorkerManager {
         this.ddbClient = ddbClient;
     }
 
+    /** DDB scan helper, used to preload the Synapse table mappings. */
+    @Autowired
+    public final void setDdbScanHelper(DynamoScanHelper ddbScanHelper) {
+        this.ddbScanHelper = ddbScanHelper;
+    }
+
     /** DynamoHelper, used to get study info. */
     @Autowired
     public final void setDynamoHelper(DynamoHelper dynamoHelper) {
@@ -337,11 +585,17 @@ public class ExportWorkerManager {
 
     // TASK AND HANDLER MANAGEMENT
 
+    // Handler registries. These are read and written from both the record processor and from worker threads (see
+    // IosSurveyExportHandler), so these need to be concurrent. Health data handlers are memoized as futures, because
+    // creating them calls Bridge to validate the schema, and we don't want concurrent callers to duplicate that call.
     private ExecutorService executor;
-    private final com.google.common.collect.Table<String, MetaTableType, SynapseExportHandler> handlersByStudyAndType
-            = HashBasedTable.create();
-    private final Map<UploadSchemaKey, SchemaBasedExportHandler> healthDataHandlersBySchema = new HashMap<>();
-    private final Map<String, IosSurveyExportHandler> surveyHandlersByStudy = new HashMap<>();
+    private ExecutorService rotatedTsvUploadExecutor;
+    private ExecutorService synapseUploadExecutor;
+    private final ConcurrentMap<String, ConcurrentMap<MetaTableType, SynapseExportHandler>> handlersByStudyAndType =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<UploadSchemaKey, CompletableFuture<SchemaBasedExportHandler>>
+            healthDataHandlersBySchema = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, IosSurveyExportHandler> surveyHandlersByStudy = new ConcurrentHashMap<>();
 
     /** Executor that runs our export workers. */
     @Resource(name = "workerExecutorService")
@@ -349,6 +603,30 @@ public class ExportWorkerManager {
         this.executor = executor;
     }
 
+    /**
+     * Executor that uploads TSVs that are rotated out mid-stream. This is separate from the end of stream upload
+     * executor, because end of stream uploads wait for their table's rotated uploads. If both ran on the same pool, the
+     * end of stream uploads could take up every thread waiting for rotated uploads that can never run.
+     */
+    public final ExecutorService getRotatedTsvUploadExecutor() {
+        return rotatedTsvUploadExecutor;
+    }
+
+    /** @see #getRotatedTsvUploadExecutor */
+    @Resource(name = "rotatedTsvUploadExecutorService")
+    public final void setRotatedTsvUploadExecutor(ExecutorService rotatedTsvUploadExecutor) {
+        this.rotatedTsvUploadExecutor = rotatedTsvUploadExecutor;
+    }
+
+    /**
+     * Executor that uploads TSVs to Synapse at the end of the stream. The size of this executor controls how many
+     * tables are uploaded in parallel.
+     */
+    @Resource(name = "synapseUploadExecutorService")
+    public final void setSynapseUploadExecutor(ExecutorService synapseUploadExecutor) {
+        this.synapseUploadExecutor = synapseUploadExecutor;
+    }
+
     /**
      * Given the export task and one of the health data records in that task, this creates the export sub-tasks and
      * routes them to the appropriate export handlers. This returns immediately and queues up asynchronous workers to
@@ -364,26 +642,44 @@ public class ExportWorkerManager {
      *         if the schema corresponding the record can't be found
      */
     public void addSubtaskForRecord(ExportTask task, Item record) throws IOException, SchemaNotFoundException {
+        // If this task has too many outstanding subtasks, wait for them to drain. Since multiple tasks share the
+        // same executor queue, this keeps large tasks from starving small tasks and bounds the memory used by each
+        // task.
+        if (taskMaxOutstandingSubtasks > 0 || taskMemoryBudgetBytes > 0) {
+            try {
+                task.waitForOutstandingSubtasksBelow(taskMaxOutstandingSubtasks, taskMemoryBudgetBytes);
+            } catch (InterruptedException ex) {
+                LOG.error("Interrupted while waiting for outstanding subtasks: " + ex.getMessage(), ex);
+                Thread.currentThread().interrupt();
+            }
+        }
+
         String studyId = record.getString("studyId");
         UploadSchemaKey schemaKey = BridgeExporterUtil.getSchemaKeyForRecord(record);
 
         // Book-keeping: We need to know what study IDs this task has seen.
         task.addStudyId(studyId);
 
-        // Make subtask. Subtasks are immutable, so we can safely use the same one for each of the handlers.
-        JsonNode recordDataNode = DefaultObjectMapper.INSTANCE.readTree(record.getString("data"));
+        // Make subtask. Subtasks are thread-safe, so we can safely use the same one for each of the handlers. Record
+        // data is parsed lazily by the handlers, which generally only extract the fields in the schema.
         ExportSubtask subtask = new ExportSubtask.Builder().withOriginalRecord(record).withParentTask(task)
-                .withRecordData(recordDataNode).withSchemaKey(schemaKey).withStudyId(studyId).build();
+                .withRecordDataJsonText(record.getString("data")).withSchemaKey(schemaKey).withStudyId(studyId)
+                .build();
 
         // Multiplex on schema.
-        if (schemaKey != null && SCHEMA_IOS_SURVEY.equals(schemaKey.getSchemaId())) {
-            // Special case: In the olden days, iOS surveys were processed by the Exporter instead of Bridge Server
-            // Upload Validation. We don't do this anymore, but sometimes we want to re-export old uploads, so we still
-            // need to handle this case.
-            IosSurveyExportHandler surveyHandler = getSurveyHandlerForStudy(studyId);
-            queueWorker(surveyHandler, task, subtask);
-        } else {
-            addHealthDataSubtask(task, studyId, schemaKey, subtask);
+        OutstandingSubtask outstandingSubtask = new OutstandingSubtask(task, estimateSubtaskBytes(subtask));
+        try {
+            if (schemaKey != null && SCHEMA_IOS_SURVEY.equals(schemaKey.getSchemaId())) {
+                // Special case: In the olden days, iOS surveys were processed by the Exporter instead of Bridge Server
+                // Upload Validation. We don't do this anymore, but sometimes we want to re-export old uploads, so we
+                // still need to handle this case.
+                IosSurveyExportHandler surveyHandler = getSurveyHandlerForStudy(studyId);
+                queueWorker(surveyHandler, task, subtask, outstandingSubtask);
+            } else {
+                addHealthDataSubtask(task, studyId, schemaKey, subtask, outstandingSubtask);
+            }
+        } finally {
+            outstandingSubtask.release();
         }
     }
 
@@ -404,9 +700,20 @@ public class ExportWorkerManager {
      */
     public void addHealthDataSubtask(ExportTask parentTask, String studyId, UploadSchemaKey schemaKey,
             ExportSubtask subtask) throws SchemaNotFoundException {
+        OutstandingSubtask outstandingSubtask = new OutstandingSubtask(parentTask, estimateSubtaskBytes(subtask));
+        try {
+            addHealthDataSubtask(parentTask, studyId, schemaKey, subtask, outstandingSubtask);
+        } finally {
+            outstandingSubtask.release();
+        }
+    }
+
+    // Helper method to queue both health data workers, which share the subtask's memory accounting.
+    private void addHealthDataSubtask(ExportTask parentTask, String studyId, UploadSchemaKey schemaKey,
+            ExportSubtask subtask, OutstandingSubtask outstandingSubtask) throws SchemaNotFoundException {
         // Queue AppVersion (Health Data Summary) worker.
         SynapseExportHandler appVersionHandler = getHandlerForStudyAndType(studyId, MetaTableType.APP_VERSION);
-        queueWorker(appVersionHandler, parentTask, subtask);
+        queueWorker(appVersionHandler, parentTask, subtask, outstandingSubtask);
 
         // Queue data worker, depending on if there's a schema or not.
         SynapseExportHandler dataHandler;
@@ -415,7 +722,7 @@ public class ExportWorkerManager {
         } else {
             dataHandler = getHandlerForStudyAndType(studyId, MetaTableType.DEFAULT);
         }
-        queueWorker(dataHandler, parentTask, subtask);
+        queueWorker(dataHandler, parentTask, subtask, outstandingSubtask);
     }
 
     /**
@@ -427,20 +734,63 @@ public class ExportWorkerManager {
      *         parent export task, contains the task queue
      * @param subtask
      *         sub-task to queue up
+     * @param outstandingSubtask
+     *         memory accounting for the sub-task, shared by all workers for the sub-task
      */
-    private void queueWorker(ExportHandler handler, ExportTask parentTask, ExportSubtask subtask) {
-        ExportWorker worker = new ExportWorker(handler, subtask);
-        Future<Void> future = executor.submit(worker);
+    private void queueWorker(ExportHandler handler, ExportTask parentTask, ExportSubtask subtask,
+            OutstandingSubtask outstandingSubtask) {
+        // Memory accounting. The worker releases its reference when it's done, including any row writes that finish
+        // in the background.
+        outstandingSubtask.retain();
+        ExportWorker worker = new ExportWorker(handler, subtask, outstandingSubtask);
+
+        // If the handler's table is still being initialized for this task, don't submit the worker yet. Otherwise, it
+        // would just tie up a worker thread waiting for the initialization to finish. Instead, park the worker and
+        // submit it when initialization completes.
+        CompletableFuture<TsvInfo> tsvInitFuture = null;
+        if (handler instanceof SynapseExportHandler) {
+            tsvInitFuture = ((SynapseExportHandler) handler).getTsvInitFutureForTask(parentTask);
+        }
+
+        Future<Void> future;
+        if (tsvInitFuture != null && !tsvInitFuture.isDone()) {
+            FutureTask<Void> parkedWorker = new FutureTask<>(worker);
+            tsvInitFuture.whenComplete((tsvInfo, ex) -> {
+                try {
+                    executor.execute(parkedWorker);
+                } catch (RejectedExecutionException rejectedEx) {
+                    // If the executor rejects the worker (for example, it's shutting down), run it inline. Otherwise,
+                    // the parked future never completes, and endOfStream waits on it forever.
+                    LOG.error("Executor rejected parked worker, running inline: " + rejectedEx.getMessage(),
+                            rejectedEx);
+                    parkedWorker.run();
+                }
+            });
+            future = parkedWorker;
+        } else {
+            try {
+                future = executor.submit(worker);
+            } catch (RuntimeException ex) {
+                // The worker will never run, so it will never release its reference.
+                outstandingSubtask.release();
+                throw ex;
+            }
+        }
         parentTask.addSubtaskFuture(new ExportSubtaskFuture.Builder().withSubtask(subtask).withFuture(future).build());
     }
 
+    // Approximates the memory held by a queued subtask. The record data dominates, and Java strings are 2 bytes per
+    // char. We double it again to account for the parsed JSON. Package-scoped for unit tests.
+    static long estimateSubtaskBytes(ExportSubtask subtask) {
+        String data = subtask.getOriginalRecord().getString("data");
+        long dataBytes = data != null ? data.length() * 4L : 0;
+        return Math.max(dataBytes, MIN_SUBTASK_BYTES);
+    }
+
     private SynapseExportHandler getHandlerForStudyAndType(String studyId, MetaTableType type) {
-        SynapseExportHandler handler = handlersByStudyAndType.get(studyId, type);
-        if (handler == null) {
-            handler = createHandlerForStudyAndType(studyId, type);
-            handlersByStudyAndType.put(studyId, type, handler);
-        }
-        return handler;
+        ConcurrentMap<MetaTableType, SynapseExportHandler> handlersByType = handlersByStudyAndType.computeIfAbsent(
+                studyId, key -> new ConcurrentHashMap<>());
+        return handlersByType.computeIfAbsent(type, key -> createHandlerForStudyAndType(studyId, type));
     }
 
     // Factory method for creating a new handler for meta-tables. This exists and is package-scoped to enable unit
@@ -465,12 +815,37 @@ public class ExportWorkerManager {
      */
     private SchemaBasedExportHandler getHealthDataHandlerForSchema(Metrics metrics, UploadSchemaKey schemaKey)
             throws SchemaNotFoundException {
-        SchemaBasedExportHandler handler = healthDataHandlersBySchema.get(schemaKey);
-        if (handler == null) {
-            handler = createHealthDataHandler(metrics, schemaKey);
-            healthDataHandlersBySchema.put(schemaKey, handler);
+        CompletableFuture<SchemaBasedExportHandler> handlerFuture = healthDataHandlersBySchema.get(schemaKey);
+        if (handlerFuture == null) {
+            CompletableFuture<SchemaBasedExportHandler> newFuture = new CompletableFuture<>();
+            handlerFuture = healthDataHandlersBySchema.putIfAbsent(schemaKey, newFuture);
+            if (handlerFuture == null) {
+                // We won the race. Create the handler and complete the future.
+                try {
+                    SchemaBasedExportHandler handler = createHealthDataHandler(metrics, schemaKey);
+                    newFuture.complete(handler);
+                    return handler;
+                } catch (SchemaNotFoundException | RuntimeException ex) {
+                    // Don't memoize failures. Remove the future so the next caller tries again.
+                    healthDataHandlersBySchema.remove(schemaKey, newFuture);
+                    newFuture.completeExceptionally(ex);
+                    throw ex;
+                }
+            }
+        }
+
+        // Someone else is creating (or has created) this handler. Wait for it.
+        try {
+            return handlerFuture.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof SchemaNotFoundException) {
+                throw (SchemaNotFoundException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw ex;
         }
-        return handler;
     }
 
     // Factory method for creating a new health data handler. This exists and is package-scoped to enable unit tests.
@@ -496,14 +871,12 @@ public class ExportWorkerManager {
      * @return legacy survey handler
      */
     private IosSurveyExportHandler getSurveyHandlerForStudy(String studyId) {
-        IosSurveyExportHandler handler = surveyHandlersByStudy.get(studyId);
-        if (handler == null) {
-            handler = new IosSurveyExportHandler();
+        return surveyHandlersByStudy.computeIfAbsent(studyId, key -> {
+            IosSurveyExportHandler handler = new IosSurveyExportHandler();
             handler.setManager(this);
             handler.setStudyId(studyId);
-            surveyHandlersByStudy.put(studyId, handler);
-        }
-        return handler;
+            return handler;
+        });
     }
 
     /**
@@ -543,7 +916,15 @@ public class ExportWorkerManager {
                 String recordId = subtask.getRecordId();
                 UploadSchemaKey schemaKey = subtask.getSchemaKey();
                 if (isSynapseDown(originalEx)) {
-                    // If Synapse is down, we should restart the BridgeEX request. Note that since BridgeEX is
+                    // If Synapse is down, wait for it to recover. Synapse calls in other subtasks are paused at the
+                    // circuit breaker in the meantime. If it recovers, redrive this record.
+                    if (synapseHelper.awaitSynapseRecovery(originalEx)) {
+                        LOG.warn("Synapse recovered, redriving recordId=" + recordId);
+                        redriveRecordIdSet.add(recordId);
+                        continue;
+                    }
+
+                    // If Synapse is still down, we should restart the BridgeEX request. Note that since BridgeEX is
                     // multi-threaded, there may be other subtasks scheduled that will run to completion. Nothing will
                     // get written to the Synapse tables, however, since (a) we never call upload to Synapse and
                     // (b) Synapse is down anyway.
@@ -562,64 +943,99 @@ public class ExportWorkerManager {
                 }
             }
         }
-        if (!redriveRecordIdSet.isEmpty() && redriveCount < redriveMaxCount) {
-            // Upload the list of record IDs that need to be redriven to S3. The filename *should* be unique, since we
-            // use the timestamp for the filename, and we currently only run one Export job at a time.
-            // Use UTC timezone so we can easily sort and search for files. Redrives should be relatively rare, so
-            // performance considerations on S3 buckets aren't an issue.
-            String filename = "redrive-record-ids." + DateTime.now().withZone(DateTimeZone.UTC).toString();
-
-            // Create a copy of the original request, except add the record override and update the tag. Also, clear
-            // date, startDateTime, and endDateTime as these conflict with record override.
-            String redriveTag;
-            if (tag.startsWith(REDRIVE_TAG_PREFIX)) {
-                redriveTag = tag;
-            } else {
-                redriveTag = REDRIVE_TAG_PREFIX + tag;
-            }
-            BridgeExporterRequest redriveRequest = new BridgeExporterRequest.Builder().copyOf(request)
-                    .withStartDateTime(null).withEndDateTime(null).withRecordIdS3Override(filename).withTag(redriveTag)
-                    .withRedriveCount(redriveCount + 1).withUseLastExportTime(false).build();
-            LOG.info("Redriving records using S3 file " + filename);
-
-            try {
-                // upload to S3
-                s3Helper.writeLinesToS3(recordIdOverrideBucket, filename, redriveRecordIdSet);
+        LOG.info("All subtasks done for request " + request.toString());
 
-                // send request to SQS
-                sqsHelper.sendMessageAsJson(sqsQueueUrl, redriveRequest, REDRIVE_DELAY_SECONDS);
-            } catch (AmazonClientException | IOException ex) {
-                // log error, but move on
-                LOG.error("Error redriving records: " + ex.getMessage(), ex);
+        // Tell each health data handler to upload their TSVs to Synapse. Uploads run in parallel on the Synapse upload
+        // executor. (Rate limiting is handled by the SynapseHelper, which is shared by all uploads.) We wait for all
+        // of them to finish before examining the results, so that one table's failure doesn't affect the others.
+        CompletionService<Void> healthDataUploadCompletionService = new ExecutorCompletionService<>(
+                synapseUploadExecutor);
+        Map<Future<Void>, UploadSchemaKey> healthDataSchemasByUploadFuture = new HashMap<>();
+        for (Map.Entry<UploadSchemaKey, CompletableFuture<SchemaBasedExportHandler>> healthDataHandlerEntry
+                : healthDataHandlersBySchema.entrySet()) {
+            SchemaBasedExportHandler handler = getCompletedHandler(healthDataHandlerEntry.getValue());
+            if (handler == null) {
+                // Handler was never successfully created, so there's nothing to upload.
+                continue;
             }
+            healthDataSchemasByUploadFuture.put(healthDataUploadCompletionService.submit(makeUploadCallable(handler,
+                    task)), healthDataHandlerEntry.getKey());
         }
 
-        LOG.info("All subtasks done for request " + request.toString());
-
-        // Tell each health data handler to upload their TSVs to Synapse.
+        // Examine the uploads in the order they finish, not the order they were submitted. This way, if Synapse goes
+        // down, we notice right away and cancel the remaining uploads, instead of waiting behind unrelated tables.
         // Use a TreeMap so we can iterate our redrives in a predictable order.
         Map<String, Set<UploadSchemaKey>> redriveTablesByStudy = new TreeMap<>();
-        for (Map.Entry<UploadSchemaKey, SchemaBasedExportHandler> healthDataHandlerEntry
-                : healthDataHandlersBySchema.entrySet()) {
-            UploadSchemaKey schemaKey = healthDataHandlerEntry.getKey();
-            SchemaBasedExportHandler handler = healthDataHandlerEntry.getValue();
+        for (int i = 0; i < healthDataSchemasByUploadFuture.size(); i++) {
+            Future<Void> uploadFuture;
+            try {
+                uploadFuture = healthDataUploadCompletionService.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                cancelUploads(healthDataSchemasByUploadFuture.keySet());
+                throw new RestartBridgeExporterException("Restarting Bridge Exporter; interrupted while uploading " +
+                        "health data to Synapse", ex);
+            }
+
+            UploadSchemaKey schemaKey = healthDataSchemasByUploadFuture.get(uploadFuture);
             try {
-                handler.uploadToSynapseForTask(task);
-            } catch (BridgeExporterException | IOException | RuntimeException | SynapseException ex) {
-                Throwable originalEx = ex;
-                if (originalEx instanceof BridgeExporterTsvException) {
+                uploadFuture.get();
+            } catch (ExecutionException | InterruptedException ex) {
+                // The real exception is in the inner exception (if it's an ExecutionException).
+                Throwable originalEx = ex instanceof ExecutionException ? ex.getCause() : ex;
+                List<String> partialRedriveRecordIdList = null;
+                if (originalEx instanceof BridgeExporterPartialUploadException) {
+                    // Part of the table was already imported. Only redrive the records that weren't. The cause is the
+                    // real exception.
+                    partialRedriveRecordIdList = ((BridgeExporterPartialUploadException) originalEx)
+                            .getRedriveRecordIds();
+                    originalEx = originalEx.getCause();
+                } else if (originalEx instanceof BridgeExporterTsvException) {
                     // TSV exception is just a wrapper. Go down one level to get the real exception.
                     originalEx = originalEx.getCause();
                 }
 
+                boolean synapseRecovered = false;
                 if (isSynapseDown(originalEx)) {
-                    // Similarly, if Synapse is down, restart BridgeEX.
+                    // Similarly, if Synapse is down, wait for it to recover. Uploads that are still running are paused
+                    // at the circuit breaker and resume afterwards.
+                    synapseRecovered = synapseHelper.awaitSynapseRecovery(originalEx);
+                    if (synapseRecovered && partialRedriveRecordIdList == null) {
+                        // Nothing was imported, and the TSV is still on disk, so retry the upload once instead of
+                        // redriving the table. If the retry fails, fall through and redrive.
+                        SchemaBasedExportHandler handler = getCompletedHandler(healthDataHandlersBySchema.get(
+                                schemaKey));
+                        try {
+                            if (handler.retryUploadToSynapseForTask(task)) {
+                                LOG.warn("Synapse recovered, retried upload for schema=" + schemaKey);
+                                continue;
+                            }
+                        } catch (BridgeExporterPartialUploadException retryEx) {
+                            partialRedriveRecordIdList = retryEx.getRedriveRecordIds();
+                            originalEx = retryEx.getCause();
+                        } catch (BridgeExporterException | IOException | RuntimeException | SynapseException retryEx) {
+                            originalEx = retryEx;
+                        }
+                    }
+                    if (synapseRecovered) {
+                        LOG.warn("Synapse recovered, redriving schema=" + schemaKey);
+                    }
+                }
+
+                if (isSynapseDown(originalEx) && !synapseRecovered) {
+                    // If Synapse is still down, restart BridgeEX. Cancel any uploads that are still running, since
+                    // they won't succeed anyway.
+                    cancelUploads(healthDataSchemasByUploadFuture.keySet());
                     throw new RestartBridgeExporterException("Restarting Bridge Exporter; last schema=" + schemaKey +
                             ": " + originalEx.getMessage(), originalEx);
                 } else {
                     LOG.error("Error uploading health data to Synapse for schema=" + schemaKey + ": " +
                             originalEx.getMessage(), originalEx);
-                    if (isRetryable(originalEx)) {
+                    if (partialRedriveRecordIdList != null) {
+                        if (synapseRecovered || isRetryable(originalEx)) {
+                            redriveRecordIdSet.addAll(partialRedriveRecordIdList);
+                        }
+                    } else if (synapseRecovered || isRetryable(originalEx)) {
                         // Similarly, track which tables (schemas) to redrive.
                         String studyId = schemaKey.getAppId();
                         Set<UploadSchemaKey> redriveTableSet = redriveTablesByStudy.get(studyId);
@@ -632,6 +1048,72 @@ public class ExportWorkerManager {
                 }
             }
         }
+
+        // Also, the meta table handlers. These are also uploaded in parallel. Meta table failures never restart the
+        // request or redrive the table, so we can examine these in submission order.
+        Map<String, Future<Void>> metaTableUploadFuturesByDescription = new LinkedHashMap<>();
+        for (Map.Entry<String, ConcurrentMap<MetaTableType, SynapseExportHandler>> handlersByTypeEntry
+                : handlersByStudyAndType.entrySet()) {
+            String studyId = handlersByTypeEntry.getKey();
+            for (Map.Entry<MetaTableType, SynapseExportHandler> handlerEntry
+                    : handlersByTypeEntry.getValue().entrySet()) {
+                String description = handlerEntry.getKey() + " table to Synapse for study=" + studyId;
+                metaTableUploadFuturesByDescription.put(description, synapseUploadExecutor.submit(
+                        makeUploadCallable(handlerEntry.getValue(), task)));
+            }
+        }
+        for (Map.Entry<String, Future<Void>> uploadFutureEntry : metaTableUploadFuturesByDescription.entrySet()) {
+            try {
+                uploadFutureEntry.getValue().get();
+            } catch (ExecutionException | InterruptedException ex) {
+                // TODO: Improved error handling
+                Throwable originalEx = ex instanceof ExecutionException ? ex.getCause() : ex;
+                LOG.error("Error uploading " + uploadFutureEntry.getKey() + ": " + originalEx.getMessage(),
+                        originalEx);
+
+                // If part of the meta table was already imported, we can still redrive the records that weren't.
+                if (originalEx instanceof BridgeExporterPartialUploadException &&
+                        isRetryable(originalEx.getCause())) {
+                    redriveRecordIdSet.addAll(((BridgeExporterPartialUploadException) originalEx)
+                            .getRedriveRecordIds());
+                }
+            }
+        }
+
+        // Redrives are sent after all uploads are done, since partial upload failures also redrive records.
+        if (!redriveRecordIdSet.isEmpty() && redriveCount < redriveMaxCount) {
+            // Upload the list of record IDs that need to be redriven to S3. Multiple export tasks can run at the same
+            // time, so two tasks could finish in the same millisecond. Add a random UUID to keep the filename unique.
+            // Use UTC timezone so we can easily sort and search for files. Redrives should be relatively rare, so
+            // performance considerations on S3 buckets aren't an issue.
+            String filename = "redrive-record-ids." + DateTime.now().withZone(DateTimeZone.UTC).toString() + "." +
+                    UUID.randomUUID().toString();
+
+            // Create a copy of the original request, except add the record override and update the tag. Also, clear
+            // date, startDateTime, and endDateTime as these conflict with record override.
+            String redriveTag;
+            if (tag.startsWith(REDRIVE_TAG_PREFIX)) {
+                redriveTag = tag;
+            } else {
+                redriveTag = REDRIVE_TAG_PREFIX + tag;
+            }
+            BridgeExporterRequest redriveRequest = new BridgeExporterRequest.Builder().copyOf(request)
+                    .withStartDateTime(null).withEndDateTime(null).withRecordIdS3Override(filename).withTag(redriveTag)
+                    .withRedriveCount(redriveCount + 1).withUseLastExportTime(false).build();
+            LOG.info("Redriving records using S3 file " + filename);
+
+            try {
+                // upload to S3
+                s3Helper.writeLinesToS3(recordIdOverrideBucket, filename, redriveRecordIdSet);
+
+                // send request to SQS
+                sqsHelper.sendMessageAsJson(sqsQueueUrl, redriveRequest, REDRIVE_DELAY_SECONDS);
+            } catch (AmazonClientException | IOException ex) {
+                // log error, but move on
+                LOG.error("Error redriving records: " + ex.getMessage(), ex);
+            }
+        }
+
         if (!redriveTablesByStudy.isEmpty() && redriveCount < redriveMaxCount) {
             for (Map.Entry<String, Set<UploadSchemaKey>> oneRedriveTableEntry : redriveTablesByStudy.entrySet()) {
                 String oneStudyId = oneRedriveTableEntry.getKey();
@@ -673,22 +1155,6 @@ public class ExportWorkerManager {
             }
         }
 
-        // Also, the meta table handlers.
-        for (com.google.common.collect.Table.Cell<String, MetaTableType, SynapseExportHandler> handlerCell
-                : handlersByStudyAndType.cellSet()) {
-            String studyId = handlerCell.getRowKey();
-            MetaTableType type = handlerCell.getColumnKey();
-            SynapseExportHandler handler = handlerCell.getValue();
-            try {
-                //noinspection ConstantConditions
-                handler.uploadToSynapseForTask(task);
-            } catch (BridgeExporterException | IOException | RuntimeException | SynapseException ex) {
-                // TODO: Improved error handling
-                LOG.error("Error uploading " + type + " table to Synapse for study=" + studyId + ": " +
-                        ex.getMessage(), ex);
-            }
-        }
-
         // Write status table. Status tables are individual for each study.
         for (String oneStudyId : task.getStudyIdSet()) {
             try {
@@ -703,8 +1169,32 @@ public class ExportWorkerManager {
         LOG.info("Done uploading to Synapse for request " + request.toString());
     }
 
+    // Helper method to wrap a handler's TSV upload in a Callable, to submit to the Synapse upload executor.
+    private static Callable<Void> makeUploadCallable(SynapseExportHandler handler, ExportTask task) {
+        return () -> {
+            handler.uploadToSynapseForTask(task);
+            return null;
+        };
+    }
+
+    // Helper method to cancel uploads. Uploads that are already done are unaffected.
+    private static void cancelUploads(Iterable<Future<Void>> uploadFutures) {
+        for (Future<Void> oneUploadFuture : uploadFutures) {
+            oneUploadFuture.cancel(true);
+        }
+    }
+
+    // Helper method to get the handler from a memoized handler future. Returns null if the handler wasn't
+    // successfully created.
+    private static <T> T getCompletedHandler(CompletableFuture<T> handlerFuture) {
+        if (!handlerFuture.isDone() || handlerFuture.isCompletedExceptionally()) {
+            return null;
+        }
+        return handlerFuture.join();
+    }
+
     // Advice from Synapse team is that 503 means Synapse is down (either for maintenance or otherwise). In this case,
-    // instead of continuing, we should abort the request and restart BridgeEX immediately.
+    // we pause Synapse calls until Synapse recovers. If it doesn't recover, we abort the request and restart BridgeEX.
     //
     // Package-scoped for unit tests.
     static boolean isSynapseDown(Throwable t) {
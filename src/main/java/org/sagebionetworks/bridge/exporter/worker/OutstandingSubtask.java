@@ -0,0 +1,40 @@
+package org.sagebionetworks.bridge.exporter.worker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Accounts for a single subtask in its parent task's outstanding subtask count and bytes. A subtask is shared by all
+ * of the workers for its record (for example, the app version table and the health data table), and it stays in
+ * memory until the last of them is done. So the subtask is added to the task once, and each worker holds a reference
+ * to it. The subtask is released from the task when the last reference is released.
+ * </p>
+ * <p>
+ * The creator holds the initial reference, and must release it after queueing the workers. This way, the subtask
+ * isn't released early if the first worker finishes before the last worker is queued. This is thread-safe.
+ * </p>
+ */
+class OutstandingSubtask {
+    private final ExportTask parentTask;
+    private final long bytes;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    /** Adds a subtask of the given approximate size to the given task, with a single reference held by the caller. */
+    OutstandingSubtask(ExportTask parentTask, long bytes) {
+        this.parentTask = parentTask;
+        this.bytes = bytes;
+        parentTask.addOutstandingSubtask(bytes);
+    }
+
+    /** Adds a reference, for a worker that is about to be queued. */
+    void retain() {
+        refCount.incrementAndGet();
+    }
+
+    /** Releases a reference. If this was the last reference, this releases the subtask from the parent task. */
+    void release() {
+        if (refCount.decrementAndGet() == 0) {
+            parentTask.releaseOutstandingSubtask(bytes);
+        }
+    }
+}
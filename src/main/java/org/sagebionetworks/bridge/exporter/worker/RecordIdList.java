@@ -0,0 +1,187 @@
+package org.sagebionetworks.bridge.exporter.worker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * <p>
+ * Compact, append-only list of record IDs. Record IDs are almost always lowercase UUIDs, which are stored as two longs
+ * (16 bytes) in a primitive buffer, instead of as a 36-character String (plus object overhead). Record IDs that aren't
+ * in canonical UUID form are stored as is, so every record ID is returned exactly as it was added, in the order it
+ * was added.
+ * </p>
+ * <p>
+ * This class is thread-safe. Appends and reads are synchronized.
+ * </p>
+ */
+public class RecordIdList {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int UUID_LENGTH = 36;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // UUIDs are stored as pairs of longs (most significant bits, then least significant bits). Entries that aren't
+    // UUIDs have their bit set in nonUuidFlags, and are stored in order in nonUuidList.
+    private long[] uuidBuffer = new long[INITIAL_CAPACITY * 2];
+    private final BitSet nonUuidFlags = new BitSet();
+    private final List<String> nonUuidList = new ArrayList<>();
+    private int size = 0;
+
+    /** Appends the record ID to the list. */
+    public synchronized void add(String recordId) {
+        if (size * 2 == uuidBuffer.length) {
+            uuidBuffer = Arrays.copyOf(uuidBuffer, uuidBuffer.length * 2);
+        }
+
+        if (isCanonicalUuid(recordId)) {
+            uuidBuffer[size * 2] = parseHexLong(recordId, 0, 8, 9, 13, 14, 18);
+            uuidBuffer[size * 2 + 1] = parseHexLong(recordId, 19, 23, 24, 36, 36, 36);
+        } else {
+            nonUuidFlags.set(size);
+            nonUuidList.add(recordId);
+        }
+        size++;
+    }
+
+    /** Number of record IDs in the list. */
+    public synchronized int size() {
+        return size;
+    }
+
+    /** Returns all record IDs as a list, in the order they were added. */
+    public synchronized List<String> toList() {
+        ImmutableList.Builder<String> listBuilder = ImmutableList.builder();
+        forEachBatch(Integer.MAX_VALUE, listBuilder::addAll);
+        return listBuilder.build();
+    }
+
+    /**
+     * Streams the record IDs back in batches of at most the given size, in the order they were added. Only one batch
+     * is materialized as Strings at a time. Record IDs added while this is running may or may not be included.
+     *
+     * @param batchSize
+     *         max number of record IDs per batch
+     * @param batchConsumer
+     *         called once for each batch
+     */
+    public void forEachBatch(int batchSize, Consumer<List<String>> batchConsumer) {
+        forEachBatch(0, Integer.MAX_VALUE, batchSize, batchConsumer);
+    }
+
+    /**
+     * Similar to {@link #forEachBatch(int, Consumer)}, but only streams the record IDs at indexes [fromIndex,
+     * toIndex). If toIndex is past the end of the list, this stops at the end of the list.
+     *
+     * @param fromIndex
+     *         index of the first record ID to stream, inclusive
+     * @param toIndex
+     *         index of the last record ID to stream, exclusive
+     * @param batchSize
+     *         max number of record IDs per batch
+     * @param batchConsumer
+     *         called once for each batch
+     */
+    public void forEachBatch(int fromIndex, int toIndex, int batchSize, Consumer<List<String>> batchConsumer) {
+        if (fromIndex < 0 || toIndex < fromIndex) {
+            throw new IndexOutOfBoundsException("Invalid range [" + fromIndex + ", " + toIndex + ")");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+
+        int position = fromIndex;
+        int nonUuidPosition;
+        synchronized (this) {
+            if (fromIndex >= size) {
+                return;
+            }
+
+            // Skip over the non-UUID entries before the start of the range.
+            nonUuidPosition = nonUuidFlags.get(0, fromIndex).cardinality();
+        }
+        while (true) {
+            List<String> batch;
+            synchronized (this) {
+                int end = Math.min(toIndex, size);
+                if (position >= end) {
+                    return;
+                }
+
+                int batchEnd = (int) Math.min((long) position + batchSize, end);
+                batch = new ArrayList<>(batchEnd - position);
+                for (; position < batchEnd; position++) {
+                    if (nonUuidFlags.get(position)) {
+                        batch.add(nonUuidList.get(nonUuidPosition));
+                        nonUuidPosition++;
+                    } else {
+                        batch.add(formatUuid(uuidBuffer[position * 2], uuidBuffer[position * 2 + 1]));
+                    }
+                }
+            }
+
+            // Call the consumer outside the lock, so slow consumers (such as calls to Bridge) don't block appends.
+            batchConsumer.accept(batch);
+        }
+    }
+
+    // A canonical UUID is 36 chars, lowercase hex, with dashes at positions 8, 13, 18, and 23. Only these round trip
+    // exactly through two longs.
+    private static boolean isCanonicalUuid(String str) {
+        if (str == null || str.length() != UUID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            char c = str.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Parses the hex digits in the 3 given ranges [start, end) into a single long.
+    private static long parseHexLong(String str, int start1, int end1, int start2, int end2, int start3, int end3) {
+        long value = 0;
+        value = parseHexRange(str, start1, end1, value);
+        value = parseHexRange(str, start2, end2, value);
+        value = parseHexRange(str, start3, end3, value);
+        return value;
+    }
+
+    private static long parseHexRange(String str, int start, int end, long value) {
+        for (int i = start; i < end; i++) {
+            value = (value << 4) | Character.digit(str.charAt(i), 16);
+        }
+        return value;
+    }
+
+    // Formats the two longs back into a canonical UUID string.
+    private static String formatUuid(long mostSigBits, long leastSigBits) {
+        char[] chars = new char[UUID_LENGTH];
+        formatHex(mostSigBits, 60, chars, 0, 8);
+        chars[8] = '-';
+        formatHex(mostSigBits, 28, chars, 9, 4);
+        chars[13] = '-';
+        formatHex(mostSigBits, 12, chars, 14, 4);
+        chars[18] = '-';
+        formatHex(leastSigBits, 60, chars, 19, 4);
+        chars[23] = '-';
+        formatHex(leastSigBits, 44, chars, 24, 12);
+        return new String(chars);
+    }
+
+    // Writes numDigits hex digits from the value, starting at the given bit shift and moving right.
+    private static void formatHex(long value, int shift, char[] chars, int offset, int numDigits) {
+        for (int i = 0; i < numDigits; i++) {
+            chars[offset + i] = HEX_DIGITS[(int) ((value >>> (shift - 4 * i)) & 0xf)];
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.sagebionetworks.bridge.exporter.worker;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * <p>
+ * Per-task cache of the DDB Synapse table maps (SynapseTables and SynapseMetaTables), which map table keys to Synapse
+ * table IDs. This is preloaded at the start of the task for the studies in scope, and written through when we create
+ * new tables, so that table initialization, TSV upload, and status table lookups are served from memory.
+ * </p>
+ * <p>
+ * Table keys are always prefixed with the study ID. If a DDB table was preloaded, then a key for a preloaded study
+ * that isn't in the cache didn't exist at preload time. Another host may have created the table since then, so
+ * callers should confirm negative hits with a consistent read before creating a table. This is thread-safe.
+ * </p>
+ */
+public class SynapseTableIdCache {
+    // Optional.empty() means we looked the key up and there's no table.
+    private final ConcurrentMap<String, Optional<String>> tableIdMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> preloadedKeyPrefixSetByDdbTable = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the cached Synapse table ID for the given DDB table and key. Returns an empty Optional if the key had no
+     * table as of the last lookup or preload, or null if we don't know and need to call DDB.
+     */
+    public Optional<String> get(String ddbTableName, String ddbKeyValue) {
+        Optional<String> tableId = tableIdMap.get(makeCacheKey(ddbTableName, ddbKeyValue));
+        if (tableId != null) {
+            return tableId;
+        }
+
+        Set<String> preloadedKeyPrefixSet = preloadedKeyPrefixSetByDdbTable.get(ddbTableName);
+        if (preloadedKeyPrefixSet != null && hasAnyPrefix(ddbKeyValue, preloadedKeyPrefixSet)) {
+            return Optional.empty();
+        }
+        return null;
+    }
+
+    /** Caches the Synapse table ID for the given DDB table and key. A null table ID means there's no table. */
+    public void put(String ddbTableName, String ddbKeyValue, String synapseTableId) {
+        tableIdMap.put(makeCacheKey(ddbTableName, ddbKeyValue), Optional.ofNullable(synapseTableId));
+    }
+
+    /**
+     * Preloads the cache with the given DDB table contents, keeping only keys that belong to the given studies.
+     * After this, lookups for those studies in this DDB table never need to call DDB.
+     *
+     * @param ddbTableName
+     *         DDB table name, without the prefix
+     * @param studyIdSet
+     *         studies in scope for the task
+     * @param tableIdByKey
+     *         full contents of the DDB table, as a map from key value to Synapse table ID
+     */
+    public void preload(String ddbTableName, Set<String> studyIdSet, Map<String, String> tableIdByKey) {
+        ImmutableSet.Builder<String> keyPrefixSetBuilder = ImmutableSet.builder();
+        for (String oneStudyId : studyIdSet) {
+            keyPrefixSetBuilder.add(oneStudyId + '-');
+        }
+        Set<String> keyPrefixSet = keyPrefixSetBuilder.build();
+
+        tableIdByKey.forEach((key, tableId) -> {
+            if (hasAnyPrefix(key, keyPrefixSet)) {
+                // Don't clobber tables that were created while we were loading.
+                tableIdMap.putIfAbsent(makeCacheKey(ddbTableName, key), Optional.ofNullable(tableId));
+            }
+        });
+        preloadedKeyPrefixSetByDdbTable.put(ddbTableName, keyPrefixSet);
+    }
+
+    private static String makeCacheKey(String ddbTableName, String ddbKeyValue) {
+        return ddbTableName + ':' + ddbKeyValue;
+    }
+
+    private static boolean hasAnyPrefix(String key, Set<String> keyPrefixSet) {
+        for (String oneKeyPrefix : keyPrefixSet) {
+            if (key.startsWith(oneKeyPrefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -3,12 +3,11 @@ package org.sagebionetworks.bridge.exporter.worker;
 import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import au.com.bytecode.opencsv.CSVWriter;
-
 import com.google.common.collect.ImmutableList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,9 +26,11 @@ public class TsvInfo {
     private final File file;
     private final CSVWriter tsvWriter;
     private final Throwable initError;
-    private final List<String> recordIds = new ArrayList<>();
+    private final RecordIdList recordIds = new RecordIdList();
 
     private int lineCount = 0;
+    private long approximateByteCount = 0;
+    private boolean closedForWrites = false;
 
     /**
      * TSV info constructor.
@@ -105,16 +106,29 @@ public class TsvInfo {
         }
     }
 
+    /** List of column names in this TSV. Used to create new TSVs with the same columns when rotating. */
+    public List<String> getColumnNameList() {
+        return columnNameList;
+    }
+
     /** TSV file. */
     public File getFile() {
         return file;
     }
 
     /** Number of lines written to TSV file. */
-    public int getLineCount() {
+    public synchronized int getLineCount() {
         return lineCount;
     }
 
+    /**
+     * Approximate size of the rows written to the TSV file, in bytes. This is approximated from the number of
+     * characters in the row values and doesn't account for quoting or multi-byte characters.
+     */
+    public synchronized long getApproximateByteCount() {
+        return approximateByteCount;
+    }
+
     /**
      * helper method to add a record id into the list
      */
@@ -122,8 +136,68 @@ public class TsvInfo {
         this.recordIds.add(recordId);
     }
 
+    /** All record IDs written to this TSV. Prefer {@link #forEachRecordIdBatch} for large TSVs. */
     public List<String> getRecordIds() {
-        return ImmutableList.copyOf(this.recordIds);
+        return recordIds.toList();
+    }
+
+    /**
+     * Streams the record IDs written to this TSV in batches of at most the given size. Record IDs are stored
+     * compactly, and only one batch at a time is materialized as Strings.
+     */
+    public void forEachRecordIdBatch(int batchSize, Consumer<List<String>> batchConsumer) {
+        recordIds.forEachBatch(batchSize, batchConsumer);
+    }
+
+    /**
+     * Record IDs for the rows at indexes [fromRow, toRow). Row indexes exclude the header, and match the order rows
+     * were written.
+     */
+    public List<String> getRecordIds(int fromRow, int toRow) {
+        ImmutableList.Builder<String> listBuilder = ImmutableList.builder();
+        recordIds.forEachBatch(fromRow, toRow, Integer.MAX_VALUE, listBuilder::addAll);
+        return listBuilder.build();
+    }
+
+    /**
+     * Streams the record IDs for the rows at indexes [fromRow, toRow), in batches of at most the given size. This is
+     * used when only part of the TSV was imported.
+     */
+    public void forEachRecordIdBatch(int fromRow, int toRow, int batchSize, Consumer<List<String>> batchConsumer) {
+        recordIds.forEachBatch(fromRow, toRow, batchSize, batchConsumer);
+    }
+
+    /**
+     * Marks this TSV as closed for writes. This is used when the TSV is rotated out. Subsequent calls to
+     * {@link #writeRowForRecord} will return false, so the caller knows to write to the new TSV instead.
+     */
+    public synchronized void closeForWrites() {
+        closedForWrites = true;
+    }
+
+    /**
+     * Writes the row to the TSV and tracks the record ID, in a single atomic step, so that the record ID is always
+     * tracked with the same TSV that the row was written to. The row values must be in the same order as
+     * {@link #getColumnNameList}.
+     *
+     * @param recordId
+     *         record ID of the row
+     * @param rowValues
+     *         row values, indexed by column
+     * @return true if the row was written, false if this TSV has been closed for writes
+     * @throws BridgeExporterException
+     *         if the TSV info was not properly initialized
+     */
+    public synchronized boolean writeRowForRecord(String recordId, String[] rowValues)
+            throws BridgeExporterException {
+        checkInitAndThrow();
+        if (closedForWrites) {
+            return false;
+        }
+
+        writeRow(rowValues);
+        recordIds.add(recordId);
+        return true;
     }
 
     /**
@@ -135,17 +209,36 @@ public class TsvInfo {
      * @throws BridgeExporterException
      *         if the TSV info was not properly initialized
      */
-    public synchronized void writeRow(Map<String, String> rowValueMap) throws BridgeExporterException {
+    public void writeRow(Map<String, String> rowValueMap) throws BridgeExporterException {
         checkInitAndThrow();
+        writeRow(flattenRowValueMap(rowValueMap));
+    }
+
+    // Writes the row to the TSV writer and increments the line count. Automatically appends a newline. The row values
+    // must be in the same order as getColumnNameList(). Callers outside this class should use writeRowForRecord(), so
+    // that rows aren't written to a TSV that's closed for writes, and record IDs are tracked with their rows.
+    private synchronized void writeRow(String[] rowValues) throws BridgeExporterException {
+        checkInitAndThrow();
+
+        long rowSize = rowValues.length;
+        for (String value : rowValues) {
+            if (value != null) {
+                rowSize += value.length();
+            }
+        }
 
-        // Using the columnNameList, go through the row values in order and flatten them into an array.
+        tsvWriter.writeNext(rowValues);
+        lineCount++;
+        approximateByteCount += rowSize;
+    }
+
+    // Using the columnNameList, go through the row values in order and flatten them into an array.
+    private String[] flattenRowValueMap(Map<String, String> rowValueMap) {
         int numColumns = columnNameList.size();
         String[] rowValueArray = new String[numColumns];
         for (int i = 0; i < numColumns; i++) {
             rowValueArray[i] = rowValueMap.get(columnNameList.get(i));
         }
-
-        tsvWriter.writeNext(rowValueArray);
-        lineCount++;
+        return rowValueArray;
     }
 }
@@ -0,0 +1,204 @@
+package org.sagebionetworks.bridge.exporter.worker;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+import org.sagebionetworks.bridge.exporter.metrics.MetricsHelper;
+import org.sagebionetworks.bridge.exporter.synapse.SynapseHelper;
+
+/**
+ * Adjusts the size of the worker thread pool based on observed queue depth, throughput, and time spent waiting on the
+ * Synapse rate limiter. This uses AIMD (additive increase, multiplicative decrease): When there's a backlog, we add a
+ * thread each period. When the Synapse rate limiter is the bottleneck, or when the last increase made throughput
+ * worse, we cut the pool size. The pool size always stays within the configured min and max.
+ */
+@Component
+public class WorkerPoolController implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(WorkerPoolController.class);
+
+    // package-scoped to be available to unit tests
+    static final String CONFIG_KEY_ADJUST_PERIOD_MILLIS = "threadpool.worker.adjust.period.millis";
+    static final String CONFIG_KEY_MAX_COUNT = "threadpool.worker.max.count";
+    static final String CONFIG_KEY_MIN_COUNT = "threadpool.worker.min.count";
+
+    // If threads spend more than this fraction of their time waiting on the Synapse rate limiter, adding threads
+    // won't help.
+    static final double RATE_LIMITER_WAIT_THRESHOLD = 0.5;
+
+    // Throughput needs to drop by more than this fraction to count as a drop. This keeps noise from triggering cuts.
+    static final double THROUGHPUT_TOLERANCE = 0.1;
+
+    // Multiplicative decrease factor.
+    static final double DECREASE_FACTOR = 0.75;
+
+    // Publish accumulated metrics every this many periods.
+    private static final int METRICS_REPORT_PERIOD = 10;
+
+    /** Decisions made by the controller. Package-scoped to be available to unit tests. */
+    enum Decision {
+        INCREASE,
+        DECREASE,
+        HOLD,
+    }
+
+    // config attributes
+    private long adjustPeriodMillis;
+    private int maxPoolSize;
+    private int minPoolSize;
+
+    // Spring helpers
+    private MetricsHelper metricsHelper;
+    private SynapseHelper synapseHelper;
+    private ThreadPoolExecutor workerExecutor;
+
+    // controller state
+    private Metrics metrics = new Metrics();
+    private Decision lastDecision = Decision.HOLD;
+    private long lastCompletedTaskCount = 0;
+    private long lastAdjustTimeMillis = System.currentTimeMillis();
+    private double lastThroughput = 0.0;
+    private int numPeriods = 0;
+
+    /** Config, used to get pool size bounds and adjustment period. */
+    @Autowired
+    public final void setConfig(Config config) {
+        this.adjustPeriodMillis = config.getInt(CONFIG_KEY_ADJUST_PERIOD_MILLIS);
+        this.minPoolSize = Math.max(1, config.getInt(CONFIG_KEY_MIN_COUNT));
+        this.maxPoolSize = Math.max(minPoolSize, config.getInt(CONFIG_KEY_MAX_COUNT));
+    }
+
+    /** Metrics helper, used to publish the controller's decisions. */
+    @Autowired
+    public final void setMetricsHelper(MetricsHelper metricsHelper) {
+        this.metricsHelper = metricsHelper;
+    }
+
+    /** Synapse helper, used to get the time spent waiting on the Synapse rate limiter. */
+    @Autowired
+    public final void setSynapseHelper(SynapseHelper synapseHelper) {
+        this.synapseHelper = synapseHelper;
+    }
+
+    /** Worker executor, whose pool size this controller adjusts. */
+    @Resource(name = "workerExecutorService")
+    public final void setWorkerExecutor(ThreadPoolExecutor workerExecutor) {
+        this.workerExecutor = workerExecutor;
+    }
+
+    /** Metrics accumulated by the controller. Package-scoped to be available to unit tests. */
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    /** Periodically adjusts the worker pool size. Runs until interrupted. */
+    @Override
+    public void run() {
+        if (adjustPeriodMillis <= 0) {
+            LOG.info("Worker pool controller disabled");
+            return;
+        }
+
+        while (true) {
+            try {
+                Thread.sleep(adjustPeriodMillis);
+            } catch (InterruptedException ex) {
+                LOG.info("Worker pool controller interrupted, exiting");
+                return;
+            }
+
+            try {
+                adjustPoolSize(System.currentTimeMillis());
+            } catch (RuntimeException ex) {
+                // Never let the controller thread die.
+                LOG.error("Error adjusting worker pool size: " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * Measures the last period and adjusts the pool size. Package-scoped to be available to unit tests.
+     *
+     * @param nowMillis
+     *         current time in epoch milliseconds
+     */
+    void adjustPoolSize(long nowMillis) {
+        // Measure.
+        long elapsedMillis = Math.max(1, nowMillis - lastAdjustTimeMillis);
+        long completedTaskCount = workerExecutor.getCompletedTaskCount();
+        double throughput = (completedTaskCount - lastCompletedTaskCount) * 1000.0 / elapsedMillis;
+        int queueDepth = workerExecutor.getQueue().size();
+        int poolSize = workerExecutor.getCorePoolSize();
+        // Only worker threads' waits count, so this is the fraction of worker thread time spent waiting.
+        double rateLimiterWaitFraction = synapseHelper.getAndResetRateLimiterWaitMicros() / 1000.0 /
+                (elapsedMillis * poolSize);
+
+        // Decide.
+        Decision decision = decide(queueDepth, poolSize, throughput, rateLimiterWaitFraction);
+        int newPoolSize;
+        switch (decision) {
+            case INCREASE:
+                newPoolSize = Math.min(maxPoolSize, poolSize + 1);
+                break;
+            case DECREASE:
+                newPoolSize = Math.max(minPoolSize, (int) (poolSize * DECREASE_FACTOR));
+                break;
+            default:
+                newPoolSize = Math.max(minPoolSize, Math.min(maxPoolSize, poolSize));
+                break;
+        }
+        setPoolSize(newPoolSize);
+
+        // Publish.
+        LOG.info("Worker pool: decision=" + decision + ", poolSize=" + poolSize + "->" + newPoolSize +
+                ", queueDepth=" + queueDepth + ", throughputPerSec=" + String.format("%.2f", throughput) +
+                ", rateLimiterWaitFraction=" + String.format("%.2f", rateLimiterWaitFraction));
+        metrics.incrementCounter("workerPool.decision[" + decision + "]");
+        metrics.addKeyValuePair("workerPool.poolSizes", String.valueOf(newPoolSize));
+        numPeriods++;
+        if (numPeriods % METRICS_REPORT_PERIOD == 0) {
+            // Start fresh metrics, so each report only covers its own periods.
+            metricsHelper.publishMetrics(metrics);
+            metrics = new Metrics();
+        }
+
+        // Save state for the next period.
+        lastAdjustTimeMillis = nowMillis;
+        lastCompletedTaskCount = completedTaskCount;
+        lastThroughput = throughput;
+        lastDecision = decision;
+    }
+
+    // Package-scoped to be available to unit tests.
+    Decision decide(int queueDepth, int poolSize, double throughput, double rateLimiterWaitFraction) {
+        if (rateLimiterWaitFraction >= RATE_LIMITER_WAIT_THRESHOLD) {
+            // Synapse rate limiter is the bottleneck. Threads are just waiting on it.
+            return poolSize > minPoolSize ? Decision.DECREASE : Decision.HOLD;
+        } else if (lastDecision == Decision.INCREASE && throughput < lastThroughput * (1.0 - THROUGHPUT_TOLERANCE)) {
+            // Our last increase made things worse. Back off.
+            return poolSize > minPoolSize ? Decision.DECREASE : Decision.HOLD;
+        } else if (queueDepth > poolSize) {
+            // There's a backlog, and there's no sign that more threads will hurt.
+            return poolSize < maxPoolSize ? Decision.INCREASE : Decision.HOLD;
+        } else {
+            return Decision.HOLD;
+        }
+    }
+
+    // Order matters. Core pool size can't exceed max pool size, and vice versa.
+    private void setPoolSize(int newPoolSize) {
+        if (newPoolSize > workerExecutor.getMaximumPoolSize()) {
+            workerExecutor.setMaximumPoolSize(newPoolSize);
+            workerExecutor.setCorePoolSize(newPoolSize);
+        } else {
+            workerExecutor.setCorePoolSize(newPoolSize);
+            workerExecutor.setMaximumPoolSize(newPoolSize);
+        }
+    }
+}
@@ -11,12 +11,19 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -29,7 +36,8 @@ import com.google.common.collect.ImmutableList;
 import org.joda.time.DateTime;
 import org.sagebionetworks.bridge.exporter.synapse.ColumnDefinition;
 
-import org.sagebionetworks.repo.model.file.FileHandle;
+import org.sagebionetworks.client.exceptions.SynapseClientException;
+import org.sagebionetworks.client.exceptions.SynapseException;
 import org.sagebionetworks.repo.model.table.ColumnModel;
 import org.sagebionetworks.repo.model.table.ColumnType;
 import org.testng.annotations.DataProvider;
@@ -42,6 +50,7 @@ import org.sagebionetworks.bridge.exporter.metrics.Metrics;
 import org.sagebionetworks.bridge.exporter.synapse.SynapseHelper;
 import org.sagebionetworks.bridge.exporter.util.TestUtil;
 import org.sagebionetworks.bridge.exporter.worker.ExportSubtask;
+import org.sagebionetworks.bridge.exporter.worker.ExportSubtaskFuture;
 import org.sagebionetworks.bridge.exporter.worker.ExportTask;
 import org.sagebionetworks.bridge.exporter.worker.ExportWorkerManager;
 import org.sagebionetworks.bridge.file.InMemoryFileHelper;
@@ -254,6 +263,20 @@ public class HealthDataExportHandlerTest {
         assertEquals(rowValueMap.get("foo-field.other"), "bar, baz, foo");
     }
 
+    // Duplicate selections, both known and other, are only counted once.
+    @Test
+    public void duplicateSelections() throws Exception {
+        String answerText = "[\"two\", \"foo\", \"two\", \"foo\"]";
+        JsonNode answerNode = DefaultObjectMapper.INSTANCE.readTree(answerText);
+
+        Map<String, String> rowValueMap = HealthDataExportHandler.serializeMultiChoice("dummy", OTHER_CHOICE_FIELD_DEF,
+                answerNode);
+        assertEquals(rowValueMap.size(), 3);
+        assertEquals(rowValueMap.get("foo-field.one"), "false");
+        assertEquals(rowValueMap.get("foo-field.two"), "true");
+        assertEquals(rowValueMap.get("foo-field.other"), "foo");
+    }
+
     // branch coverage: The other choice is silently dropped and logged. Here, we just exercise the code and make sure
     // nothing crashes.
     @Test
@@ -307,14 +330,12 @@ public class HealthDataExportHandlerTest {
         when(mockSynapseHelper.serializeToSynapseType(any(), any(), any(), any(), any(), any(), any()))
                 .thenCallRealMethod();
 
-        // Mock uploadFromS3ToSynapseFileHandle() for raw data and metadata.
-        when(mockSynapseHelper.uploadFromS3ToSynapseFileHandle(SynapseExportHandlerTest.TEST_SYNAPSE_PROJECT_ID,
-                RAW_DATA_ATTACHMENT_ID)).thenReturn(RAW_DATA_FILEHANDLE_ID);
+        // Mock uploadFromS3ToSynapseFileHandleAsync() for raw data.
+        when(mockSynapseHelper.uploadFromS3ToSynapseFileHandleAsync(SynapseExportHandlerTest.TEST_SYNAPSE_PROJECT_ID,
+                RAW_DATA_ATTACHMENT_ID, false)).thenReturn(CompletableFuture.completedFuture(RAW_DATA_FILEHANDLE_ID));
 
-        FileHandle mockMetadataFileHandle = mock(FileHandle.class);
-        when(mockMetadataFileHandle.getId()).thenReturn(RAW_METADATA_FILEHANDLE_ID);
-        when(mockSynapseHelper.createFileHandleFromStringWithRetry(any(), any(), any()))
-                .thenReturn(mockMetadataFileHandle);
+        when(mockSynapseHelper.createFileHandleFromStringWithDedup(any(), any(), any())).thenReturn(
+                RAW_METADATA_FILEHANDLE_ID);
 
         // mock upload the TSV and capture the upload
         tsvBytes = null;
@@ -390,19 +411,22 @@ public class HealthDataExportHandlerTest {
                     .withParentTask(task).withRecordData(recordJsonNode).withSchemaKey(BridgeHelperTest.TEST_SCHEMA_KEY)
                     .withStudyId(BridgeHelperTest.TEST_STUDY_ID).build();
 
-            // execute record 1 - This should have 2 calls to getSchema(), one for TSV initialization, one for the
-            // record.
+            // execute record 1 - This should have 2 calls to getSchema(), one for TSV initialization, one for
+            // compiling the row plan.
             handler.handle(subtask);
             numGetSchemaCalls += 2;
             verify(mockBridgeHelper, times(numGetSchemaCalls)).getSchema(any(), eq(BridgeHelperTest.TEST_SCHEMA_KEY));
 
-            // execute record 2 - This should have another call to getSchema().
+            // execute record 2 - The row plan is re-used, so there are no more calls to getSchema().
             handler.handle(subtask);
-            numGetSchemaCalls++;
             verify(mockBridgeHelper, times(numGetSchemaCalls)).getSchema(any(), eq(BridgeHelperTest.TEST_SCHEMA_KEY));
 
-            // Upload table and validate tsv file
+            // The row plan is stored in the task.
+            assertNotNull(task.getTsvRowPlan(handler.getDdbTableKeyValue()));
+
+            // Upload table and validate tsv file. The row plan is no longer needed.
             handler.uploadToSynapseForTask(task);
+            assertNull(task.getTsvRowPlan(handler.getDdbTableKeyValue()));
             List<String> tsvLineList = TestUtil.bytesToLines(tsvBytes);
             assertEquals(tsvLineList.size(), 3);
             SynapseExportHandlerTest.validateTsvHeaders(tsvLineList.get(0), BridgeHelperTest.TEST_FIELD_NAME,
@@ -414,11 +438,95 @@ public class HealthDataExportHandlerTest {
         }
 
         // Sanity check to make sure we have the expected number of getSchema calls.
-        assertEquals(numGetSchemaCalls, 6);
+        assertEquals(numGetSchemaCalls, 4);
 
         // Verify calls to upload raw data.
-        verify(mockSynapseHelper, atLeastOnce()).uploadFromS3ToSynapseFileHandle(
-                SynapseExportHandlerTest.TEST_SYNAPSE_PROJECT_ID, RAW_DATA_ATTACHMENT_ID);
+        verify(mockSynapseHelper, atLeastOnce()).uploadFromS3ToSynapseFileHandleAsync(
+                SynapseExportHandlerTest.TEST_SYNAPSE_PROJECT_ID, RAW_DATA_ATTACHMENT_ID, false);
+    }
+
+    // Attachment uploads run in the background. If they haven't finished when the worker is done with the record, the
+    // row write is deferred and registered as a subtask future, so end of stream waits for it.
+    @Test
+    public void deferredAttachmentRow() throws Exception {
+        Study study = new Study().identifier(BridgeHelperTest.TEST_STUDY_ID).uploadMetadataFieldDefinitions(null);
+        setupTest(1, BridgeHelperTest.TEST_SCHEMA, study, ImmutableList.of(BridgeHelperTest.TEST_SYNAPSE_COLUMN));
+
+        CompletableFuture<String> rawDataFuture = new CompletableFuture<>();
+        when(mockSynapseHelper.uploadFromS3ToSynapseFileHandleAsync(SynapseExportHandlerTest.TEST_SYNAPSE_PROJECT_ID,
+                RAW_DATA_ATTACHMENT_ID, false)).thenReturn(rawDataFuture);
+
+        // make task and subtask
+        File tmpDir = mockFileHelper.createTempDir();
+        ExportTask task = new ExportTask.Builder().withExporterDate(SynapseExportHandlerTest.DUMMY_REQUEST_DATE)
+                .withMetrics(new Metrics()).withRequest(SynapseExportHandlerTest.DUMMY_REQUEST).withTmpDir(tmpDir)
+                .build();
+        JsonNode recordJsonNode = DefaultObjectMapper.INSTANCE.createObjectNode().put(
+                BridgeHelperTest.TEST_FIELD_NAME, FIELD_VALUE);
+        Item ddbRecord = SynapseExportHandlerTest.makeDdbRecord()
+                .withString(HealthDataExportHandler.DDB_KEY_RAW_DATA_ATTACHMENT_ID, RAW_DATA_ATTACHMENT_ID);
+        ExportSubtask subtask = new ExportSubtask.Builder().withOriginalRecord(ddbRecord).withParentTask(task)
+                .withRecordData(recordJsonNode).withSchemaKey(BridgeHelperTest.TEST_SCHEMA_KEY)
+                .withStudyId(BridgeHelperTest.TEST_STUDY_ID).build();
+
+        // execute - The handler returns without waiting for the attachment, and registers the row write.
+        handler.handle(subtask);
+        assertEquals(task.getSubtaskFutureQueue().size(), 1);
+        ExportSubtaskFuture rowFuture = task.getSubtaskFutureQueue().remove();
+        assertSame(rowFuture.getSubtask(), subtask);
+        assertFalse(rowFuture.getFuture().isDone());
+
+        // Complete the attachment. This writes the row.
+        rawDataFuture.complete(RAW_DATA_FILEHANDLE_ID);
+        rowFuture.getFuture().get();
+
+        // Upload table and validate tsv file
+        handler.uploadToSynapseForTask(task);
+        List<String> tsvLineList = TestUtil.bytesToLines(tsvBytes);
+        assertEquals(tsvLineList.size(), 2);
+        SynapseExportHandlerTest.validateTsvHeaders(tsvLineList.get(0), BridgeHelperTest.TEST_FIELD_NAME,
+                HealthDataExportHandler.COLUMN_NAME_RAW_DATA, HealthDataExportHandler.COLUMN_NAME_RAW_METADATA);
+        SynapseExportHandlerTest.validateTsvRow(tsvLineList.get(1), FIELD_VALUE, RAW_DATA_FILEHANDLE_ID,
+                RAW_METADATA_FILEHANDLE_ID);
+    }
+
+    @Test
+    public void deferredAttachmentRowError() throws Exception {
+        Study study = new Study().identifier(BridgeHelperTest.TEST_STUDY_ID).uploadMetadataFieldDefinitions(null);
+        setupTest(0, BridgeHelperTest.TEST_SCHEMA, study, ImmutableList.of(BridgeHelperTest.TEST_SYNAPSE_COLUMN));
+
+        CompletableFuture<String> rawDataFuture = new CompletableFuture<>();
+        when(mockSynapseHelper.uploadFromS3ToSynapseFileHandleAsync(SynapseExportHandlerTest.TEST_SYNAPSE_PROJECT_ID,
+                RAW_DATA_ATTACHMENT_ID, false)).thenReturn(rawDataFuture);
+
+        // make task and subtask
+        File tmpDir = mockFileHelper.createTempDir();
+        Metrics metrics = new Metrics();
+        ExportTask task = new ExportTask.Builder().withExporterDate(SynapseExportHandlerTest.DUMMY_REQUEST_DATE)
+                .withMetrics(metrics).withRequest(SynapseExportHandlerTest.DUMMY_REQUEST).withTmpDir(tmpDir)
+                .build();
+        JsonNode recordJsonNode = DefaultObjectMapper.INSTANCE.createObjectNode().put(
+                BridgeHelperTest.TEST_FIELD_NAME, FIELD_VALUE);
+        Item ddbRecord = SynapseExportHandlerTest.makeDdbRecord()
+                .withString(HealthDataExportHandler.DDB_KEY_RAW_DATA_ATTACHMENT_ID, RAW_DATA_ATTACHMENT_ID);
+        ExportSubtask subtask = new ExportSubtask.Builder().withOriginalRecord(ddbRecord).withParentTask(task)
+                .withRecordData(recordJsonNode).withSchemaKey(BridgeHelperTest.TEST_SCHEMA_KEY)
+                .withStudyId(BridgeHelperTest.TEST_STUDY_ID).build();
+
+        // execute
+        handler.handle(subtask);
+        ExportSubtaskFuture rowFuture = task.getSubtaskFutureQueue().remove();
+
+        // Fail the attachment. The row future fails with the original exception.
+        SynapseException originalEx = new SynapseClientException("test exception");
+        rawDataFuture.completeExceptionally(originalEx);
+        try {
+            rowFuture.getFuture().get();
+            fail("expected exception");
+        } catch (ExecutionException ex) {
+            assertSame(ex.getCause(), originalEx);
+        }
+        assertEquals(metrics.getCounterMap().count(handler.getDdbTableKeyValue() + ".errorCount"), 1);
     }
 
     // Similarly, this test primarily tests upload metadata. Most of the other stuff is tested in other tests.
@@ -561,9 +669,9 @@ public class HealthDataExportHandlerTest {
                 RAW_DATA_FILEHANDLE_ID, RAW_METADATA_FILEHANDLE_ID);
 
         // Verify calls to upload raw data and metadata.
-        verify(mockSynapseHelper, atLeastOnce()).uploadFromS3ToSynapseFileHandle(
-                SynapseExportHandlerTest.TEST_SYNAPSE_PROJECT_ID, RAW_DATA_ATTACHMENT_ID);
-        verify(mockSynapseHelper, atLeastOnce()).createFileHandleFromStringWithRetry(metadataJsonText,
+        verify(mockSynapseHelper, atLeastOnce()).uploadFromS3ToSynapseFileHandleAsync(
+                SynapseExportHandlerTest.TEST_SYNAPSE_PROJECT_ID, RAW_DATA_ATTACHMENT_ID, false);
+        verify(mockSynapseHelper, atLeastOnce()).createFileHandleFromStringWithDedup(metadataJsonText,
                 HealthDataExportHandler.FILE_NAME_RAW_METADATA_JSON,
                 HealthDataExportHandler.CONTENT_TYPE_APPLICATION_JSON);
     }
@@ -16,10 +16,10 @@ import static org.testng.Assert.assertEquals;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import com.google.common.collect.ImmutableList;
 import org.sagebionetworks.client.exceptions.SynapseNotFoundException;
-import org.sagebionetworks.repo.model.file.FileHandle;
 import org.sagebionetworks.repo.model.table.ColumnModel;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -139,17 +139,15 @@ public class SynapseExportHandlerNewTableTest {
         });
 
         // mock serializeToSynapseType() - We actually call through to the real method, but we mock out the underlying
-        // uploadFromS3ToSynapseFileHandle() to avoid hitting real back-ends.
+        // uploadFromS3ToSynapseFileHandleAsync() to avoid hitting real back-ends.
         when(mockSynapseHelper.serializeToSynapseType(any(), any(), any(), any(), any(), any(), any()))
                 .thenCallRealMethod();
-        when(mockSynapseHelper.uploadFromS3ToSynapseFileHandle(SynapseExportHandlerTest.TEST_SYNAPSE_PROJECT_ID,
-                SynapseExportHandlerTest.RAW_DATA_ATTACHMENT_ID))
-                .thenReturn(SynapseExportHandlerTest.RAW_DATA_FILEHANDLE_ID);
+        when(mockSynapseHelper.uploadFromS3ToSynapseFileHandleAsync(SynapseExportHandlerTest.TEST_SYNAPSE_PROJECT_ID,
+                SynapseExportHandlerTest.RAW_DATA_ATTACHMENT_ID, false))
+                .thenReturn(CompletableFuture.completedFuture(SynapseExportHandlerTest.RAW_DATA_FILEHANDLE_ID));
 
-        FileHandle mockMetadataFileHandle = mock(FileHandle.class);
-        when(mockMetadataFileHandle.getId()).thenReturn(SynapseExportHandlerTest.RAW_METADATA_FILEHANDLE_ID);
-        when(mockSynapseHelper.createFileHandleFromStringWithRetry(any(), any(), any()))
-                .thenReturn(mockMetadataFileHandle);
+        when(mockSynapseHelper.createFileHandleFromStringWithDedup(any(), any(), any())).thenReturn(
+                SynapseExportHandlerTest.RAW_METADATA_FILEHANDLE_ID);
 
         // spy StudyInfo getters
         // These calls through to a bunch of stuff (which we test in ExportWorkerManagerTest), so to simplify our test,
@@ -163,18 +161,23 @@ public class SynapseExportHandlerNewTableTest {
         // Similarly, spy get/setSynapseTableIdFromDDB.
         doAnswer(invocation -> ddbSynapseTableId).when(manager).getSynapseTableIdFromDdb(task,
                 handler.getDdbTableName(), handler.getDdbTableKeyName(), handler.getDdbTableKeyValue());
-        doAnswer(invocation -> ddbSynapseTableId = invocation.getArgumentAt(4, String.class)).when(manager)
+        doAnswer(invocation -> ddbSynapseTableId = invocation.getArgumentAt(5, String.class)).when(manager)
                 .setSynapseTableIdToDdb(same(task), eq(handler.getDdbTableName()), eq(handler.getDdbTableKeyName()),
-                        eq(handler.getDdbTableKeyValue()), anyString());
+                        eq(handler.getDdbTableKeyValue()), anyString(), anyString());
     }
 
     private void validateTableCreation(SynapseExportHandler handler) {
+        validateTableCreation(handler, null);
+    }
+
+    // oldSynapseTableId is the stale table ID in DDB, if the table was deleted from Synapse.
+    private void validateTableCreation(SynapseExportHandler handler, String oldSynapseTableId) {
         // Don't bother validating metrics or line counts or even file cleanup. This is all tested in the normal case.
         // Just worry about Synapse table creation.
 
         // validate setSynapseTableIdToDdb
         verify(manager).setSynapseTableIdToDdb(task, handler.getDdbTableName(), handler.getDdbTableKeyName(),
-                handler.getDdbTableKeyValue(), SynapseExportHandlerTest.TEST_SYNAPSE_TABLE_ID);
+                handler.getDdbTableKeyValue(), oldSynapseTableId, SynapseExportHandlerTest.TEST_SYNAPSE_TABLE_ID);
     }
 
     @Test
@@ -236,7 +239,7 @@ public class SynapseExportHandlerNewTableTest {
         SynapseExportHandlerTest.validateTsvRow(tsvLineList.get(1),
                 SynapseExportHandlerTest.DUMMY_SCHEMA_KEY.toString());
 
-        validateTableCreation(handler);
+        validateTableCreation(handler, SynapseExportHandlerTest.TEST_SYNAPSE_TABLE_ID);
     }
 
     @Test
@@ -12,8 +12,10 @@ import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
@@ -21,8 +23,11 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -32,15 +37,21 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multiset;
 import com.google.common.collect.SetMultimap;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
+import org.sagebionetworks.client.exceptions.SynapseClientException;
+import org.sagebionetworks.client.exceptions.SynapseServiceUnavailable;
 import org.sagebionetworks.repo.model.file.FileHandle;
 import org.sagebionetworks.repo.model.table.ColumnModel;
 import org.sagebionetworks.repo.model.table.ColumnType;
+import org.sagebionetworks.repo.model.table.UploadToTableResult;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterException;
+import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterPartialUploadException;
 import org.sagebionetworks.bridge.exporter.helper.BridgeHelper;
 import org.sagebionetworks.bridge.exporter.helper.BridgeHelperTest;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
@@ -182,16 +193,14 @@ public class SynapseExportHandlerTest {
         when(mockSynapseHelper.getColumnModelsForTableWithRetry(TEST_SYNAPSE_TABLE_ID)).thenReturn(columnModelList);
 
         // mock serializeToSynapseType() - We actually call through to the real method, but we mock out the underlying
-        // uploadFromS3ToSynapseFileHandle() to avoid hitting real back-ends.
+        // uploadFromS3ToSynapseFileHandleAsync() to avoid hitting real back-ends.
         when(mockSynapseHelper.serializeToSynapseType(any(), any(), any(), any(), any(), any(), any()))
                 .thenCallRealMethod();
-        when(mockSynapseHelper.uploadFromS3ToSynapseFileHandle(TEST_SYNAPSE_PROJECT_ID, RAW_DATA_ATTACHMENT_ID))
-                .thenReturn(RAW_DATA_FILEHANDLE_ID);
+        when(mockSynapseHelper.uploadFromS3ToSynapseFileHandleAsync(TEST_SYNAPSE_PROJECT_ID, RAW_DATA_ATTACHMENT_ID,
+                false)).thenReturn(CompletableFuture.completedFuture(RAW_DATA_FILEHANDLE_ID));
 
-        FileHandle mockMetadataFileHandle = mock(FileHandle.class);
-        when(mockMetadataFileHandle.getId()).thenReturn(RAW_METADATA_FILEHANDLE_ID);
-        when(mockSynapseHelper.createFileHandleFromStringWithRetry(any(), any(), any()))
-                .thenReturn(mockMetadataFileHandle);
+        when(mockSynapseHelper.createFileHandleFromStringWithDedup(any(), any(), any())).thenReturn(
+                RAW_METADATA_FILEHANDLE_ID);
 
         // spy StudyInfo getters
         // These calls through to a bunch of stuff (which we test in ExportWorkerManagerTest), so to simplify our test,
@@ -294,6 +303,337 @@ public class SynapseExportHandlerTest {
         assertTrue(tsvString.contains("test record"));
     }
 
+    @Test
+    public void rotateTsv() throws Exception {
+        // Rotate the TSV every 2 rows. We write 3 rows, so we expect one rotated TSV with 2 rows and a final TSV with
+        // 1 row.
+        SynapseExportHandler handler = new TestSynapseHandler();
+        setup(handler);
+        doReturn(2).when(manager).getTsvRotateMaxRows();
+        manager.setRotatedTsvUploadExecutor(MoreExecutors.newDirectExecutorService());
+
+        // Mock upload TSV. Capture each TSV, since each one is deleted after upload.
+        List<List<String>> uploadedTsvList = new ArrayList<>();
+        when(mockSynapseHelper.uploadTsvFileToTable(eq(TEST_SYNAPSE_PROJECT_ID), eq(TEST_SYNAPSE_TABLE_ID),
+                notNull(File.class))).thenAnswer(invocation -> {
+            File tsvFile = invocation.getArgumentAt(2, File.class);
+            List<String> tsvLineList = TestUtil.bytesToLines(mockFileHelper.getBytes(tsvFile));
+            uploadedTsvList.add(tsvLineList);
+
+            // Lines processed excludes the header.
+            return tsvLineList.size() - 1;
+        });
+
+        // execute
+        handler.handle(makeSubtask(task, "foo", "first record"));
+        handler.handle(makeSubtask(task, "foo", "second record"));
+        handler.handle(makeSubtask(task, "foo", "third record"));
+        handler.uploadToSynapseForTask(task);
+
+        // validate TSVs - Each TSV has its own header.
+        assertEquals(uploadedTsvList.size(), 2);
+
+        List<String> rotatedTsvLineList = uploadedTsvList.get(0);
+        assertEquals(rotatedTsvLineList.size(), 3);
+        validateTsvHeaders(rotatedTsvLineList.get(0), "foo");
+        validateTsvRow(rotatedTsvLineList.get(1), "first record");
+        validateTsvRow(rotatedTsvLineList.get(2), "second record");
+
+        List<String> finalTsvLineList = uploadedTsvList.get(1);
+        assertEquals(finalTsvLineList.size(), 2);
+        validateTsvHeaders(finalTsvLineList.get(0), "foo");
+        validateTsvRow(finalTsvLineList.get(1), "third record");
+
+        // validate metrics
+        Multiset<String> counterMap = task.getMetrics().getCounterMap();
+        assertEquals(counterMap.count(handler.getDdbTableKeyValue() + ".lineCount"), 3);
+        assertEquals(counterMap.count(handler.getDdbTableKeyValue() + ".rotatedTsvCount"), 1);
+
+        // The task's TSV is the final TSV, which only tracks its own record.
+        TsvInfo tsvInfo = handler.getTsvInfoForTask(task);
+        assertEquals(tsvInfo.getLineCount(), 1);
+        assertEquals(tsvInfo.getRecordIds(), ImmutableList.of(DUMMY_RECORD_ID));
+
+        postValidation();
+    }
+
+    @Test
+    public void rotatedTsvFailsFinalTsvSucceeds() throws Exception {
+        // Rotate the TSV every 2 rows. We write 3 rows. The rotated TSV fails to upload, but the final TSV succeeds.
+        // We only redrive the rotated TSV's records, not the whole table.
+        SynapseExportHandler handler = new TestSynapseHandler();
+        setup(handler);
+        doReturn(2).when(manager).getTsvRotateMaxRows();
+        manager.setRotatedTsvUploadExecutor(MoreExecutors.newDirectExecutorService());
+
+        BridgeExporterException uploadEx = new BridgeExporterException("test exception");
+        List<List<String>> uploadedTsvList = new ArrayList<>();
+        when(mockSynapseHelper.uploadTsvFileToTable(eq(TEST_SYNAPSE_PROJECT_ID), eq(TEST_SYNAPSE_TABLE_ID),
+                notNull(File.class))).thenAnswer(invocation -> {
+            File tsvFile = invocation.getArgumentAt(2, File.class);
+            List<String> tsvLineList = TestUtil.bytesToLines(mockFileHelper.getBytes(tsvFile));
+            uploadedTsvList.add(tsvLineList);
+            if (uploadedTsvList.size() == 1) {
+                throw uploadEx;
+            }
+            return tsvLineList.size() - 1;
+        });
+
+        // execute
+        handler.handle(makeSubtask(task, "foo", "first record"));
+        handler.handle(makeSubtask(task, "foo", "second record"));
+        handler.handle(makeSubtask(task, "foo", "third record"));
+        try {
+            handler.uploadToSynapseForTask(task);
+            fail("expected exception");
+        } catch (BridgeExporterPartialUploadException ex) {
+            assertSame(ex.getCause(), uploadEx);
+            assertEquals(ex.getRedriveRecordIds(), ImmutableList.of(DUMMY_RECORD_ID, DUMMY_RECORD_ID));
+        }
+
+        // Each TSV is uploaded exactly once. The final TSV only has the third record.
+        assertEquals(uploadedTsvList.size(), 2);
+        assertEquals(uploadedTsvList.get(0).size(), 3);
+        List<String> finalTsvLineList = uploadedTsvList.get(1);
+        assertEquals(finalTsvLineList.size(), 2);
+        validateTsvRow(finalTsvLineList.get(1), "third record");
+    }
+
+    @Test
+    public void retryUpload() throws Exception {
+        // The upload fails because Synapse is down. After Synapse recovers, the retry uploads the same TSV.
+        SynapseExportHandler handler = new TestSynapseHandler();
+        setup(handler);
+
+        SynapseServiceUnavailable synapseEx = new SynapseServiceUnavailable("test exception");
+        List<List<String>> uploadedTsvList = new ArrayList<>();
+        when(mockSynapseHelper.uploadTsvFileToTable(eq(TEST_SYNAPSE_PROJECT_ID), eq(TEST_SYNAPSE_TABLE_ID),
+                notNull(File.class))).thenAnswer(invocation -> {
+            File tsvFile = invocation.getArgumentAt(2, File.class);
+            List<String> tsvLineList = TestUtil.bytesToLines(mockFileHelper.getBytes(tsvFile));
+            uploadedTsvList.add(tsvLineList);
+            if (uploadedTsvList.size() == 1) {
+                throw synapseEx;
+            }
+            return tsvLineList.size() - 1;
+        });
+
+        // execute
+        handler.handle(makeSubtask(task, "foo", "first record"));
+        try {
+            handler.uploadToSynapseForTask(task);
+            fail("expected exception");
+        } catch (SynapseServiceUnavailable ex) {
+            assertSame(ex, synapseEx);
+        }
+        assertTrue(handler.retryUploadToSynapseForTask(task));
+
+        // Both attempts uploaded the same TSV.
+        assertEquals(uploadedTsvList.size(), 2);
+        assertEquals(uploadedTsvList.get(1), uploadedTsvList.get(0));
+        assertEquals(uploadedTsvList.get(1).size(), 2);
+        validateTsvRow(uploadedTsvList.get(1).get(1), "first record");
+
+        postValidation();
+    }
+
+    @Test
+    public void retryUploadWithRotatedTsvs() throws Exception {
+        // If any TSVs were rotated, we don't know which were imported, so the upload can't be retried.
+        SynapseExportHandler handler = new TestSynapseHandler();
+        setup(handler);
+        doReturn(2).when(manager).getTsvRotateMaxRows();
+        manager.setRotatedTsvUploadExecutor(MoreExecutors.newDirectExecutorService());
+        when(mockSynapseHelper.uploadTsvFileToTable(eq(TEST_SYNAPSE_PROJECT_ID), eq(TEST_SYNAPSE_TABLE_ID),
+                notNull(File.class))).thenThrow(new SynapseServiceUnavailable("test exception"));
+
+        // execute
+        handler.handle(makeSubtask(task, "foo", "first record"));
+        handler.handle(makeSubtask(task, "foo", "second record"));
+        handler.handle(makeSubtask(task, "foo", "third record"));
+        try {
+            handler.uploadToSynapseForTask(task);
+            fail("expected exception");
+        } catch (SynapseServiceUnavailable ex) {
+            // expected exception
+        }
+        assertFalse(handler.retryUploadToSynapseForTask(task));
+    }
+
+    @Test
+    public void uploadTsvInChunks() throws Exception {
+        // Chunk size is tiny, so each row gets its own chunk.
+        ChunkTestSynapseHandler handler = new ChunkTestSynapseHandler();
+        setup(handler);
+        Map<String, List<String>> chunkLinesByFileHandleId = mockChunkUploads();
+
+        // The second chunk times out, but the import finished in Synapse. Polling the original job succeeds.
+        when(mockSynapseHelper.waitForTsvImport(eq("file-handle-1"), any())).thenThrow(new BridgeExporterException(
+                "test timeout"));
+        when(mockSynapseHelper.waitForTsvImport(TEST_SYNAPSE_TABLE_ID, "file-handle-1", "job-for-file-handle-1"))
+                .thenReturn(1L);
+
+        // execute
+        handler.handle(makeSubtask(task, "foo", "first record"));
+        handler.handle(makeSubtask(task, "foo", "second record"));
+        handler.handle(makeSubtask(task, "foo", "third record"));
+        handler.uploadToSynapseForTask(task);
+
+        // Validate chunks. Each chunk has its own header and exactly one row.
+        assertEquals(chunkLinesByFileHandleId.size(), 3);
+        String[] expectedRowValues = { "first record", "second record", "third record" };
+        for (int i = 0; i < 3; i++) {
+            List<String> chunkLineList = chunkLinesByFileHandleId.get("file-handle-" + i);
+            assertEquals(chunkLineList.size(), 2);
+            validateTsvHeaders(chunkLineList.get(0), "foo");
+            validateTsvRow(chunkLineList.get(1), expectedRowValues[i]);
+        }
+
+        // Timed out chunk is not imported again.
+        verify(mockSynapseHelper, never()).uploadTsvFileToTable(any(), any(), any());
+        Multiset<String> counterMap = task.getMetrics().getCounterMap();
+        assertEquals(counterMap.count(handler.getDdbTableKeyValue() + ".tsvChunkRetryCount"), 0);
+
+        // All rows are post-processed.
+        assertEquals(handler.postProcessedRangeList, ImmutableList.of(ImmutableList.of(0, 1), ImmutableList.of(1, 2),
+                ImmutableList.of(2, 3)));
+
+        // Chunks and the original TSV are all cleaned up.
+        postValidation();
+    }
+
+    @Test
+    public void uploadTsvInChunksReimportsFailedJob() throws Exception {
+        ChunkTestSynapseHandler handler = new ChunkTestSynapseHandler();
+        setup(handler);
+        Map<String, List<String>> chunkLinesByFileHandleId = mockChunkUploads();
+
+        // The second chunk times out. Polling the original job shows the job failed, so the chunk is imported again.
+        // The re-import gets file handle 3.
+        when(mockSynapseHelper.waitForTsvImport(eq("file-handle-1"), any())).thenThrow(new BridgeExporterException(
+                "test timeout"));
+        when(mockSynapseHelper.waitForTsvImport(TEST_SYNAPSE_TABLE_ID, "file-handle-1", "job-for-file-handle-1"))
+                .thenThrow(new SynapseClientException("test job failed"));
+
+        // execute
+        handler.handle(makeSubtask(task, "foo", "first record"));
+        handler.handle(makeSubtask(task, "foo", "second record"));
+        handler.handle(makeSubtask(task, "foo", "third record"));
+        handler.uploadToSynapseForTask(task);
+
+        // Only the failed chunk is imported again.
+        assertEquals(chunkLinesByFileHandleId.size(), 4);
+        List<String> retriedLineList = chunkLinesByFileHandleId.get("file-handle-3");
+        assertEquals(retriedLineList.size(), 2);
+        validateTsvRow(retriedLineList.get(1), "second record");
+        verify(mockSynapseHelper).startTsvImport(TEST_SYNAPSE_TABLE_ID, "file-handle-3");
+
+        Multiset<String> counterMap = task.getMetrics().getCounterMap();
+        assertEquals(counterMap.count(handler.getDdbTableKeyValue() + ".tsvChunkRetryCount"), 1);
+
+        // All rows are post-processed, in order.
+        assertEquals(handler.postProcessedRangeList, ImmutableList.of(ImmutableList.of(0, 1), ImmutableList.of(1, 2),
+                ImmutableList.of(2, 3)));
+
+        postValidation();
+    }
+
+    @Test
+    public void uploadTsvInChunksPartialFailure() throws Exception {
+        ChunkTestSynapseHandler handler = new ChunkTestSynapseHandler();
+        setup(handler);
+        mockChunkUploads();
+
+        // The second chunk's import fails every time.
+        SynapseClientException importEx = new SynapseClientException("test job failed");
+        when(mockSynapseHelper.waitForTsvImport(eq("file-handle-1"), any())).thenThrow(importEx);
+        when(mockSynapseHelper.waitForTsvImport(eq("file-handle-3"), any())).thenThrow(importEx);
+
+        // execute
+        handler.handle(makeSubtask(task, "foo", "first record"));
+        handler.handle(makeSubtask(task, "foo", "second record"));
+        handler.handle(makeSubtask(task, "foo", "third record"));
+        try {
+            handler.uploadToSynapseForTask(task);
+            fail("expected exception");
+        } catch (BridgeExporterPartialUploadException ex) {
+            // Only the failed chunk's record is redriven.
+            assertSame(ex.getCause(), importEx);
+            assertEquals(ex.getRedriveRecordIds(), ImmutableList.of(DUMMY_RECORD_ID));
+        }
+
+        // Only the imported rows are post-processed.
+        assertEquals(handler.postProcessedRangeList, ImmutableList.of(ImmutableList.of(0, 1),
+                ImmutableList.of(2, 3)));
+
+        postValidation();
+    }
+
+    @Test
+    public void uploadTsvInChunksSplitsOnRowsNotLines() throws Exception {
+        // Chunk size is tiny, so each row gets its own chunk.
+        ChunkTestSynapseHandler handler = new ChunkTestSynapseHandler();
+        setup(handler);
+        Map<String, List<String>> chunkLinesByFileHandleId = mockChunkUploads();
+
+        // execute - Values with newlines, quotes, and multi-byte chars.
+        handler.handle(makeSubtask(task, "foo", "line one\nline two"));
+        handler.handle(makeSubtask(task, "foo", "caf\u00e9 \"quoted\nvalue\""));
+        handler.handle(makeSubtask(task, "foo", "third record"));
+        handler.uploadToSynapseForTask(task);
+
+        // Each row is in its own chunk, even though the first two rows span multiple lines.
+        assertEquals(chunkLinesByFileHandleId.size(), 3);
+        List<String> firstChunkLineList = chunkLinesByFileHandleId.get("file-handle-0");
+        assertEquals(firstChunkLineList.size(), 3);
+        validateTsvHeaders(firstChunkLineList.get(0), "foo");
+        assertTrue(firstChunkLineList.get(1).endsWith("line one"));
+        assertTrue(firstChunkLineList.get(2).startsWith("line two"));
+
+        List<String> secondChunkLineList = chunkLinesByFileHandleId.get("file-handle-1");
+        assertEquals(secondChunkLineList.size(), 3);
+        assertTrue(secondChunkLineList.get(1).contains("caf\u00e9 \"\"quoted"));
+
+        List<String> thirdChunkLineList = chunkLinesByFileHandleId.get("file-handle-2");
+        assertEquals(thirdChunkLineList.size(), 2);
+        validateTsvRow(thirdChunkLineList.get(1), "third record");
+    }
+
+    // Sets the chunk size so that each row gets its own chunk, and mocks file handle creation and imports. Each chunk
+    // gets file handle "file-handle-N", in the order they're created, and job token "job-for-file-handle-N". Unless
+    // otherwise mocked, imports succeed. Returns the chunk contents by file handle ID, since chunks are deleted after
+    // upload.
+    private Map<String, List<String>> mockChunkUploads() throws Exception {
+        doReturn(1L).when(manager).getTsvUploadChunkMaxBytes();
+
+        Map<String, List<String>> chunkLinesByFileHandleId = new HashMap<>();
+        when(mockSynapseHelper.createFileHandleWithRetry(notNull(File.class))).thenAnswer(invocation -> {
+            File chunkFile = invocation.getArgumentAt(0, File.class);
+            String fileHandleId = "file-handle-" + chunkLinesByFileHandleId.size();
+            chunkLinesByFileHandleId.put(fileHandleId, TestUtil.bytesToLines(mockFileHelper.getBytes(chunkFile)));
+
+            FileHandle mockFileHandle = mock(FileHandle.class);
+            when(mockFileHandle.getId()).thenReturn(fileHandleId);
+            return mockFileHandle;
+        });
+        when(mockSynapseHelper.startTsvImport(eq(TEST_SYNAPSE_TABLE_ID), any())).thenAnswer(invocation ->
+                "job-for-" + invocation.getArgumentAt(1, String.class));
+        when(mockSynapseHelper.pollTsvImport(eq(TEST_SYNAPSE_TABLE_ID), any())).thenAnswer(
+                invocation -> new CompletableFuture<UploadToTableResult>());
+        when(mockSynapseHelper.waitForTsvImport(any(), any())).thenReturn(1L);
+        return chunkLinesByFileHandleId;
+    }
+
+    // Records the row ranges that are post-processed.
+    private static class ChunkTestSynapseHandler extends TestSynapseHandler {
+        final List<List<Integer>> postProcessedRangeList = new ArrayList<>();
+
+        @Override
+        protected void postProcessTsv(TsvInfo tsvInfo, int fromRow, int toRow) {
+            postProcessedRangeList.add(ImmutableList.of(fromRow, toRow));
+        }
+    }
+
     @Test
     public void noRows() throws Exception {
         SynapseExportHandler handler = new TestSynapseHandler();
@@ -303,6 +303,47 @@ public class SynapseExportHandlerUpdateTableTest {
         verify(mockSynapseHelper, never()).updateTableColumns(any(), any());
     }
 
+    @Test
+    public void cachedColumnsUnchanged() throws Exception {
+        // Cached columns match the column defs.
+        List<ColumnModel> existingColumnList = new ArrayList<>();
+        existingColumnList.addAll(MOCK_EXISTING_COLUMN_LIST);
+        existingColumnList.add(makeColumn("modify-this", "modify-this-id"));
+        existingColumnList.add(makeColumn("add-this", "add-this-id"));
+        existingColumnList.add(makeColumn("swap-this-A", "swap-this-A-id"));
+        existingColumnList.add(makeColumn("swap-this-B", "swap-this-B-id"));
+
+        // setup and execute
+        setupAndExecuteSuccessCase(existingColumnList, existingColumnList);
+
+        // verify we never got the column models from Synapse, and we did not update the table
+        verify(mockSynapseHelper, never()).getColumnModelsForTableWithRetry(any());
+        verify(mockSynapseHelper, never()).cacheColumnModelsForTable(any(), any());
+        verify(mockSynapseHelper, never()).updateTableColumns(any(), any());
+    }
+
+    @Test
+    public void cachedColumnsChanged() throws Exception {
+        // Cached columns don't have "add-this". Existing columns in Synapse do.
+        List<ColumnModel> cachedColumnList = new ArrayList<>();
+        cachedColumnList.addAll(MOCK_EXISTING_COLUMN_LIST);
+        cachedColumnList.add(makeColumn("modify-this", "modify-this-id"));
+        cachedColumnList.add(makeColumn("swap-this-A", "swap-this-A-id"));
+        cachedColumnList.add(makeColumn("swap-this-B", "swap-this-B-id"));
+
+        List<ColumnModel> existingColumnList = new ArrayList<>();
+        existingColumnList.addAll(cachedColumnList);
+        existingColumnList.add(makeColumn("add-this", "add-this-id"));
+
+        // setup and execute
+        setupAndExecuteSuccessCase(existingColumnList, cachedColumnList);
+
+        // verify we refreshed the cache from Synapse, and we did not update the table
+        verify(mockSynapseHelper).getColumnModelsForTableWithRetry(SynapseExportHandlerTest.TEST_SYNAPSE_TABLE_ID);
+        verify(mockSynapseHelper).cacheColumnModelsForTable(any(), eq(existingColumnList));
+        verify(mockSynapseHelper, never()).updateTableColumns(any(), any());
+    }
+
     @Test
     public void addAndSwapColumns() throws Exception {
         // Existing columns does not have "add-this" and has swapped columns.
@@ -437,8 +478,14 @@ public class SynapseExportHandlerUpdateTableTest {
     }
 
     private void setupAndExecuteSuccessCase(List<ColumnModel> existingColumnList) throws Exception {
+        setupAndExecuteSuccessCase(existingColumnList, null);
+    }
+
+    private void setupAndExecuteSuccessCase(List<ColumnModel> existingColumnList, List<ColumnModel> cachedColumnList)
+            throws Exception {
         // setup and execute
         SynapseExportHandler handler = setup(existingColumnList);
+        when(mockSynapseHelper.getCachedColumnModelsForTable(any())).thenReturn(cachedColumnList);
         handler.handle(SynapseExportHandlerTest.makeSubtask(task));
         handler.uploadToSynapseForTask(task);
 
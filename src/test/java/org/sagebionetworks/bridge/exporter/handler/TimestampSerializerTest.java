@@ -0,0 +1,151 @@
+package org.sagebionetworks.bridge.exporter.handler;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class TimestampSerializerTest {
+    private static final DateTimeFormatter TIME_ZONE_FORMATTER = DateTimeFormat.forPattern("Z");
+    private static final String MUTATION_ALPHABET = "0123456789-+:.TZx ";
+
+    @DataProvider(name = "commonFormatProvider")
+    public Object[][] commonFormatProvider() {
+        return new Object[][] {
+                { "2017-09-26T17:39:11.703Z" },
+                { "2017-09-26T17:39:11Z" },
+                { "2017-09-26T17:39:11.7-07:00" },
+                { "2017-09-26T17:39:11.70+05:30" },
+                { "2016-02-29T23:59:59.999-00:00" },
+                { "1969-12-31T23:59:59.999Z" },
+                { "0001-01-01T00:00:00.000+14:00" },
+                { "9999-12-31T23:59:59.999-12:45" },
+        };
+    }
+
+    @Test(dataProvider = "commonFormatProvider")
+    public void commonFormat(String timestampString) {
+        String[] row = new String[2];
+        assertTrue(TimestampSerializer.serializeTimestamp(timestampString, row, 0, 1));
+        assertMatchesJoda(timestampString, row);
+    }
+
+    @DataProvider(name = "notHandledProvider")
+    public Object[][] notHandledProvider() {
+        return new Object[][] {
+                // Other ISO 8601 formats are left to Joda.
+                { "2017-09-26" },
+                { "2017-09-26T17:39:11" },
+                { "2017-09-26T17:39:11.703" },
+                { "2017-09-26T17:39:11.7031Z" },
+                { "2017-09-26T17:39:11,703Z" },
+                { "2017-09-26T17:39:11.Z" },
+                { "2017-09-26T17:39Z" },
+                { "2017-09-26T17:39:11+0700" },
+                { "2017-09-26T17:39:11+07" },
+                { "+2017-09-26T17:39:11Z" },
+
+                // So are out-of-range fields, which Joda rejects.
+                { "2017-13-26T17:39:11Z" },
+                { "2017-02-29T17:39:11Z" },
+                { "2017-09-31T17:39:11Z" },
+                { "2017-09-26T24:00:00Z" },
+                { "2017-09-26T17:60:11Z" },
+                { "2017-09-26T17:39:60Z" },
+                { "2017-09-26T17:39:11+24:00" },
+                { "2017-09-26T17:39:11-07:60" },
+
+                // Garbage.
+                { "" },
+                { "not a timestamp" },
+                { "2017-09-26T17:39:11Zextra" },
+        };
+    }
+
+    @Test(dataProvider = "notHandledProvider")
+    public void notHandled(String timestampString) {
+        String[] row = new String[2];
+        assertFalse(TimestampSerializer.serializeTimestamp(timestampString, row, 0, 1));
+        assertNull(row[0]);
+        assertNull(row[1]);
+    }
+
+    @Test
+    public void columnsNotInRow() {
+        // -1 means the column isn't in the row. Only write the columns that are.
+        String[] row = new String[1];
+        assertTrue(TimestampSerializer.serializeTimestamp("1970-01-01T00:00:01.000+01:00", row, -1, 0));
+        assertEquals(row[0], "+0100");
+    }
+
+    @Test
+    public void randomTimestampsMatchJoda() {
+        // Property test: generate random timestamps (some valid, some with out-of-range fields, some with random
+        // characters mutated). Whenever the serializer handles a timestamp, it must produce exactly what Joda
+        // produces, and Joda must accept it. Fixed seed, so failures are reproducible.
+        Random random = new Random(1234);
+        int numHandled = 0;
+        for (int i = 0; i < 100000; i++) {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format("%04d-%02d-%02dT%02d:%02d:%02d", random.nextInt(10000), random.nextInt(14),
+                    random.nextInt(33), random.nextInt(25), random.nextInt(61), random.nextInt(61)));
+
+            int numFractionDigits = random.nextInt(6) - 1;
+            if (numFractionDigits >= 0) {
+                builder.append('.');
+                for (int j = 0; j < numFractionDigits; j++) {
+                    builder.append(random.nextInt(10));
+                }
+            }
+
+            switch (random.nextInt(4)) {
+                case 0:
+                    builder.append('Z');
+                    break;
+                case 1:
+                    // No offset.
+                    break;
+                default:
+                    builder.append(random.nextBoolean() ? '+' : '-');
+                    builder.append(String.format("%02d:%02d", random.nextInt(25), random.nextInt(61)));
+                    break;
+            }
+
+            if (random.nextInt(4) == 0) {
+                builder.setCharAt(random.nextInt(builder.length()),
+                        MUTATION_ALPHABET.charAt(random.nextInt(MUTATION_ALPHABET.length())));
+            }
+
+            String timestampString = builder.toString();
+            String[] row = new String[2];
+            if (TimestampSerializer.serializeTimestamp(timestampString, row, 0, 1)) {
+                numHandled++;
+                assertMatchesJoda(timestampString, row);
+            }
+        }
+
+        // Sanity check that the test actually exercised the serializer.
+        assertTrue(numHandled > 10000);
+    }
+
+    private static void assertMatchesJoda(String timestampString, String[] row) {
+        DateTime dateTime;
+        try {
+            dateTime = DateTime.parse(timestampString);
+        } catch (IllegalArgumentException ex) {
+            fail("Joda rejected timestamp " + timestampString);
+            return;
+        }
+        assertEquals(row[0], String.valueOf(dateTime.getMillis()), timestampString);
+        assertEquals(row[1], TIME_ZONE_FORMATTER.print(dateTime), timestampString);
+    }
+}
@@ -0,0 +1,33 @@
+package org.sagebionetworks.bridge.exporter.handler;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.Test;
+
+public class TsvRowLayoutTest {
+    private static final List<String> COLUMN_NAME_LIST = ImmutableList.of("foo", "bar", "baz");
+
+    @Test
+    public void test() {
+        TsvRowLayout layout = new TsvRowLayout(COLUMN_NAME_LIST);
+        assertSame(layout.getColumnNameList(), COLUMN_NAME_LIST);
+        assertEquals(layout.indexOf("foo"), 0);
+        assertEquals(layout.indexOf("bar"), 1);
+        assertEquals(layout.indexOf("baz"), 2);
+        assertEquals(layout.indexOf("qux"), -1);
+
+        String[] row = layout.newRow();
+        assertEquals(row.length, 3);
+
+        TsvRowLayout.setRowValue(row, layout.indexOf("bar"), "bar value");
+        TsvRowLayout.setRowValue(row, layout.indexOf("qux"), "ignored");
+        assertNull(row[0]);
+        assertEquals(row[1], "bar value");
+        assertNull(row[2]);
+    }
+}
@@ -156,6 +156,7 @@ public class BridgeExporterRecordProcessorTest {
         // validate worker manager - Similarly, validate that we're passing the same task for each record, and that
         // we're calling endOfStream() with that same task at the end.
         ArgumentCaptor<ExportTask> managerTaskArgCaptor = ArgumentCaptor.forClass(ExportTask.class);
+        verify(mockManager).preloadSynapseTableIds(managerTaskArgCaptor.capture(), eq(fakeStudyIds.keySet()));
         verify(mockManager).addSubtaskForRecord(managerTaskArgCaptor.capture(), same(dummySuccessRecord1));
         verify(mockManager).addSubtaskForRecord(managerTaskArgCaptor.capture(), same(dummyErrorRecord));
         verify(mockManager).addSubtaskForRecord(managerTaskArgCaptor.capture(), same(dummySuccessRecord2));
@@ -163,10 +164,11 @@ public class BridgeExporterRecordProcessorTest {
         verifyNoMoreInteractions(mockManager);
 
         List<ExportTask> managerTaskArgList = managerTaskArgCaptor.getAllValues();
-        assertEquals(managerTaskArgList.size(), 4);
+        assertEquals(managerTaskArgList.size(), 5);
         assertSame(managerTaskArgList.get(1), managerTaskArgList.get(0));
         assertSame(managerTaskArgList.get(2), managerTaskArgList.get(0));
         assertSame(managerTaskArgList.get(3), managerTaskArgList.get(0));
+        assertSame(managerTaskArgList.get(4), managerTaskArgList.get(0));
 
         // verify that we marked the task as success
         verify(recordProcessor).setTaskSuccess(any());
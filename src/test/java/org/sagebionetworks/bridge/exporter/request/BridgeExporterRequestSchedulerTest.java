@@ -0,0 +1,222 @@
+package org.sagebionetworks.bridge.exporter.request;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.joda.time.DateTime;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.exporter.record.BridgeExporterRecordProcessor;
+
+public class BridgeExporterRequestSchedulerTest {
+    private static final DateTime END_DATE_TIME = DateTime.parse("2017-11-07T23:59:59.999Z");
+
+    private static final BridgeExporterRequest BACKFILL_REQUEST = new BridgeExporterRequest.Builder()
+            .withStartDateTime(END_DATE_TIME.minusDays(30)).withEndDateTime(END_DATE_TIME).withTag("backfill")
+            .withUseLastExportTime(false).build();
+    private static final BridgeExporterRequest DAILY_REQUEST = new BridgeExporterRequest.Builder()
+            .withEndDateTime(END_DATE_TIME).withTag("daily").withUseLastExportTime(true).build();
+    private static final BridgeExporterRequest HOURLY_REQUEST = new BridgeExporterRequest.Builder()
+            .withEndDateTime(END_DATE_TIME).withStudyWhitelist(ImmutableSet.of("hourly-study")).withTag("hourly")
+            .withUseLastExportTime(true).build();
+    private static final BridgeExporterRequest HOURLY_REQUEST_2 = new BridgeExporterRequest.Builder()
+            .withEndDateTime(END_DATE_TIME).withStudyWhitelist(ImmutableSet.of("hourly-study")).withTag("hourly2")
+            .withUseLastExportTime(true).build();
+    private static final BridgeExporterRequest REDRIVE_REQUEST = new BridgeExporterRequest.Builder()
+            .withRecordIdS3Override("record-ids.txt").withTag("redrive").withUseLastExportTime(false).build();
+
+    private ExecutorService executor;
+    private BridgeExporterRecordProcessor mockRecordProcessor;
+    private List<String> processedTagList;
+    private BridgeExporterRequestScheduler scheduler;
+
+    @BeforeMethod
+    public void before() {
+        executor = Executors.newCachedThreadPool();
+        mockRecordProcessor = mock(BridgeExporterRecordProcessor.class);
+        processedTagList = new CopyOnWriteArrayList<>();
+
+        scheduler = new BridgeExporterRequestScheduler();
+        scheduler.setRecordProcessor(mockRecordProcessor);
+    }
+
+    @AfterMethod
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void passThrough() throws Exception {
+        setupScheduler(2, 600000);
+        scheduler.processRequest(DAILY_REQUEST);
+        verify(mockRecordProcessor).processRecordsForRequest(DAILY_REQUEST);
+        assertEquals(scheduler.getWaitingCount(), 0);
+    }
+
+    @Test
+    public void waitingRequestsRunInPriorityOrder() throws Exception {
+        // One slot. The first request blocks until we release it.
+        setupScheduler(1, 600000);
+        CountDownLatch blockingLatch = blockFirstRequest();
+
+        Future<?> blockingFuture = submit(HOURLY_REQUEST);
+        waitForProcessedCount(1);
+
+        // Queue up requests in reverse priority order.
+        Future<?> backfillFuture = submit(BACKFILL_REQUEST);
+        waitForWaitingCount(1);
+        Future<?> dailyFuture = submit(DAILY_REQUEST);
+        waitForWaitingCount(2);
+        Future<?> redriveFuture = submit(REDRIVE_REQUEST);
+        waitForWaitingCount(3);
+
+        // Release the blocking request and wait for everything to finish.
+        blockingLatch.countDown();
+        blockingFuture.get(10, TimeUnit.SECONDS);
+        backfillFuture.get(10, TimeUnit.SECONDS);
+        dailyFuture.get(10, TimeUnit.SECONDS);
+        redriveFuture.get(10, TimeUnit.SECONDS);
+
+        assertEquals(processedTagList, ImmutableList.of("hourly", "redrive", "daily", "backfill"));
+    }
+
+    @Test
+    public void largeRequestsCantUseAllSlotsWhileSmallRequestWaits() throws Exception {
+        // Two slots, and aging is fast enough that a waiting backfill outranks a newly arrived hourly request.
+        setupScheduler(2, 1);
+        CountDownLatch dailyLatch = new CountDownLatch(1);
+        CountDownLatch hourlyLatch = new CountDownLatch(1);
+        blockRequests(ImmutableMap.of("daily", dailyLatch, "hourly", hourlyLatch));
+
+        // Daily and hourly take both slots.
+        Future<?> dailyFuture = submit(DAILY_REQUEST);
+        waitForProcessedCount(1);
+        Future<?> hourlyFuture = submit(HOURLY_REQUEST);
+        waitForProcessedCount(2);
+
+        // Backfill waits, and ages past the second hourly request.
+        Future<?> backfillFuture = submit(BACKFILL_REQUEST);
+        waitForWaitingCount(1);
+        Thread.sleep(100);
+        Future<?> hourly2Future = submit(HOURLY_REQUEST_2);
+        waitForWaitingCount(2);
+
+        // Release the first hourly request. The second hourly request gets the slot, since the backfill can't take
+        // the last slot while a small request is waiting.
+        hourlyLatch.countDown();
+        hourlyFuture.get(10, TimeUnit.SECONDS);
+        hourly2Future.get(10, TimeUnit.SECONDS);
+
+        // Once no small request is waiting, the backfill can take the last slot, even with daily still running.
+        backfillFuture.get(10, TimeUnit.SECONDS);
+        assertEquals(processedTagList, ImmutableList.of("daily", "hourly", "hourly2", "backfill"));
+
+        dailyLatch.countDown();
+        dailyFuture.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void largeRequestDoesntWaitForUnusedReservedSlot() throws Exception {
+        // Two slots. The daily request blocks. No small request is waiting, so the backfill takes the last slot
+        // instead of holding its SQS message while it waits.
+        setupScheduler(2, 600000);
+        CountDownLatch blockingLatch = blockFirstRequest();
+
+        Future<?> dailyFuture = submit(DAILY_REQUEST);
+        waitForProcessedCount(1);
+
+        submit(BACKFILL_REQUEST).get(10, TimeUnit.SECONDS);
+        assertEquals(processedTagList, ImmutableList.of("daily", "backfill"));
+        assertEquals(scheduler.getWaitingCount(), 0);
+
+        blockingLatch.countDown();
+        dailyFuture.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void aging() {
+        setupScheduler(1, 1000);
+
+        BridgeExporterRequestScheduler.ScheduledRequest backfill = new BridgeExporterRequestScheduler
+                .ScheduledRequest(BACKFILL_REQUEST, 0, 0);
+        assertEquals(scheduler.getEffectivePriority(backfill, 0), BridgeExporterRequestType.BACKFILL.ordinal());
+        assertEquals(scheduler.getEffectivePriority(backfill, 999), BridgeExporterRequestType.BACKFILL.ordinal());
+
+        // After waiting enough aging periods, the backfill has higher priority than a newly arrived redrive.
+        assertEquals(scheduler.getEffectivePriority(backfill, 5000), -1);
+    }
+
+    private void setupScheduler(int slots, int agingMillis) {
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.getInt(BridgeExporterRequestScheduler.CONFIG_KEY_SCHEDULER_SLOTS)).thenReturn(slots);
+        when(mockConfig.getInt(BridgeExporterRequestScheduler.CONFIG_KEY_SCHEDULER_AGING_MILLIS)).thenReturn(
+                agingMillis);
+        scheduler.setConfig(mockConfig);
+    }
+
+    // Record processor records each request's tag. The first request blocks until the returned latch is released.
+    private CountDownLatch blockFirstRequest() throws Exception {
+        CountDownLatch blockingLatch = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            BridgeExporterRequest request = invocation.getArgumentAt(0, BridgeExporterRequest.class);
+            boolean isFirst = processedTagList.isEmpty();
+            processedTagList.add(request.getTag());
+            if (isFirst) {
+                blockingLatch.await();
+            }
+            return null;
+        }).when(mockRecordProcessor).processRecordsForRequest(any());
+        return blockingLatch;
+    }
+
+    // Record processor records each request's tag. Requests with the given tags block until their latch is released.
+    private void blockRequests(Map<String, CountDownLatch> latchesByTag) throws Exception {
+        doAnswer(invocation -> {
+            BridgeExporterRequest request = invocation.getArgumentAt(0, BridgeExporterRequest.class);
+            processedTagList.add(request.getTag());
+            CountDownLatch latch = latchesByTag.get(request.getTag());
+            if (latch != null) {
+                latch.await();
+            }
+            return null;
+        }).when(mockRecordProcessor).processRecordsForRequest(any());
+    }
+
+    private Future<?> submit(BridgeExporterRequest request) {
+        return executor.submit(() -> {
+            scheduler.processRequest(request);
+            return null;
+        });
+    }
+
+    private void waitForProcessedCount(int count) throws Exception {
+        while (processedTagList.size() < count) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void waitForWaitingCount(int count) throws Exception {
+        while (scheduler.getWaitingCount() < count) {
+            Thread.sleep(10);
+        }
+    }
+}
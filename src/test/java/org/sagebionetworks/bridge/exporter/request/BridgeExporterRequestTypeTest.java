@@ -0,0 +1,91 @@
+package org.sagebionetworks.bridge.exporter.request;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+import org.joda.time.DateTime;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.schema.UploadSchemaKey;
+
+public class BridgeExporterRequestTypeTest {
+    private static final DateTime END_DATE_TIME = DateTime.parse("2017-11-07T23:59:59.999Z");
+    private static final UploadSchemaKey TEST_SCHEMA_KEY = new UploadSchemaKey.Builder().withAppId("test-study")
+            .withSchemaId("test-schema").withRevision(1).build();
+
+    @Test
+    public void recordRedrive() {
+        BridgeExporterRequest request = new BridgeExporterRequest.Builder().withRecordIdS3Override("record-ids.txt")
+                .withUseLastExportTime(false).build();
+        assertEquals(BridgeExporterRequestType.forRequest(request), BridgeExporterRequestType.RECORD_REDRIVE);
+        assertEquals(BridgeExporterRequestType.getWindowHours(request), 0);
+    }
+
+    @Test
+    public void hourly() {
+        BridgeExporterRequest request = new BridgeExporterRequest.Builder().withEndDateTime(END_DATE_TIME)
+                .withStudyWhitelist(ImmutableSet.of("hourly-study")).withUseLastExportTime(true).build();
+        assertEquals(BridgeExporterRequestType.forRequest(request), BridgeExporterRequestType.HOURLY);
+    }
+
+    @Test
+    public void tableRedrive() {
+        BridgeExporterRequest request = new BridgeExporterRequest.Builder()
+                .withStartDateTime(END_DATE_TIME.minusDays(1)).withEndDateTime(END_DATE_TIME)
+                .withTableWhitelist(ImmutableSet.of(TEST_SCHEMA_KEY)).withUseLastExportTime(false).build();
+        assertEquals(BridgeExporterRequestType.forRequest(request), BridgeExporterRequestType.TABLE_REDRIVE);
+        assertEquals(BridgeExporterRequestType.getWindowHours(request), 24);
+    }
+
+    @Test
+    public void daily() {
+        BridgeExporterRequest request = new BridgeExporterRequest.Builder().withEndDateTime(END_DATE_TIME)
+                .withUseLastExportTime(true).build();
+        assertEquals(BridgeExporterRequestType.forRequest(request), BridgeExporterRequestType.DAILY);
+    }
+
+    @Test
+    public void backfill() {
+        // Even with a table whitelist, more than a day is a backfill.
+        BridgeExporterRequest request = new BridgeExporterRequest.Builder()
+                .withStartDateTime(END_DATE_TIME.minusDays(30)).withEndDateTime(END_DATE_TIME)
+                .withTableWhitelist(ImmutableSet.of(TEST_SCHEMA_KEY)).withUseLastExportTime(false).build();
+        assertEquals(BridgeExporterRequestType.forRequest(request), BridgeExporterRequestType.BACKFILL);
+        assertEquals(BridgeExporterRequestType.getWindowHours(request), 720);
+    }
+
+    @Test
+    public void isLarge() {
+        assertFalse(BridgeExporterRequestType.RECORD_REDRIVE.isLarge());
+        assertFalse(BridgeExporterRequestType.HOURLY.isLarge());
+        assertFalse(BridgeExporterRequestType.TABLE_REDRIVE.isLarge());
+        assertTrue(BridgeExporterRequestType.DAILY.isLarge());
+        assertTrue(BridgeExporterRequestType.BACKFILL.isLarge());
+    }
+
+    @Test
+    public void mayReexportRecords() {
+        // Scheduled exports don't re-export records.
+        BridgeExporterRequest dailyRequest = new BridgeExporterRequest.Builder().withEndDateTime(END_DATE_TIME)
+                .withUseLastExportTime(true).build();
+        assertFalse(BridgeExporterRequestType.mayReexportRecords(dailyRequest));
+
+        // Redrives of scheduled exports do.
+        BridgeExporterRequest redrivenDailyRequest = new BridgeExporterRequest.Builder().copyOf(dailyRequest)
+                .withRedriveCount(1).build();
+        assertTrue(BridgeExporterRequestType.mayReexportRecords(redrivenDailyRequest));
+
+        // So do requests with an explicit time range.
+        BridgeExporterRequest timeRangeRequest = new BridgeExporterRequest.Builder()
+                .withStartDateTime(END_DATE_TIME.minusDays(1)).withEndDateTime(END_DATE_TIME)
+                .withUseLastExportTime(false).build();
+        assertTrue(BridgeExporterRequestType.mayReexportRecords(timeRangeRequest));
+
+        // So do record redrives.
+        BridgeExporterRequest recordRedriveRequest = new BridgeExporterRequest.Builder()
+                .withRecordIdS3Override("record-ids.txt").withUseLastExportTime(false).build();
+        assertTrue(BridgeExporterRequestType.mayReexportRecords(recordRedriveRequest));
+    }
+}
@@ -0,0 +1,249 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.ImmutableList;
+import org.sagebionetworks.client.exceptions.SynapseClientException;
+import org.sagebionetworks.client.exceptions.SynapseException;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.exporter.exceptions.AsyncJobInterruptedException;
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+
+public class AsyncJobPollerTest {
+    private static final String JOB_TYPE = "test-job";
+    private static final String RESULT = "result";
+
+    @Test
+    public void backsOffExponentially() throws Exception {
+        TestAsyncJobPoller poller = new TestAsyncJobPoller(100, 1000, 10, 0);
+        String result = poller.poll(JOB_TYPE, readyAfter(6));
+        assertEquals(result, RESULT);
+
+        // Delays are 100, 200, 400, 800, 1000, 1000, each with up to 20% jitter.
+        long[] expectedDelays = { 100, 200, 400, 800, 1000, 1000 };
+        assertEquals(poller.delayList.size(), expectedDelays.length);
+        for (int i = 0; i < expectedDelays.length; i++) {
+            assertWithinJitter(poller.delayList.get(i), expectedDelays[i]);
+        }
+    }
+
+    @Test
+    public void maxPolls() throws Exception {
+        TestAsyncJobPoller poller = new TestAsyncJobPoller(100, 1000, 3, 0);
+        AtomicInteger pollCount = new AtomicInteger();
+        String result = poller.poll(JOB_TYPE, () -> {
+            pollCount.incrementAndGet();
+            return null;
+        });
+        assertNull(result);
+        assertEquals(pollCount.get(), 3);
+    }
+
+    @Test
+    public void timeoutMillis() throws Exception {
+        // Real sleeps. Min delay is longer than the timeout, so we time out after the first poll.
+        AsyncJobPoller poller = new AsyncJobPoller(100, 100, 100, 50);
+        AtomicInteger pollCount = new AtomicInteger();
+        String result = poller.poll(JOB_TYPE, () -> {
+            pollCount.incrementAndGet();
+            return null;
+        });
+        assertNull(result);
+        assertEquals(pollCount.get(), 1);
+    }
+
+    @Test
+    public void zeroDelay() throws Exception {
+        TestAsyncJobPoller poller = new TestAsyncJobPoller(0, 0, 5, 0);
+        String result = poller.poll(JOB_TYPE, readyAfter(3));
+        assertEquals(result, RESULT);
+        assertEquals(poller.delayList, ImmutableList.of(0L, 0L, 0L));
+    }
+
+    @Test
+    public void pollException() throws Exception {
+        AsyncJobPoller poller = new AsyncJobPoller(0, 0, 5, 0);
+        SynapseException originalEx = new SynapseClientException("test exception");
+        try {
+            poller.poll(JOB_TYPE, () -> {
+                throw originalEx;
+            });
+            fail("expected exception");
+        } catch (SynapseException ex) {
+            assertSame(ex, originalEx);
+        }
+    }
+
+    @Test
+    public void multipleJobsPolledInBackground() throws Exception {
+        // Submit several jobs. None of them block the caller, and they're all polled from the poll threads.
+        AsyncJobPoller poller = new AsyncJobPoller(1, 5, 100, 0);
+        Set<String> pollThreadNameSet = ConcurrentHashMap.newKeySet();
+        List<CompletableFuture<String>> futureList = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            AsyncJobPoller.PollFunction<String> readyFunction = readyAfter(i + 1);
+            futureList.add(poller.submit(JOB_TYPE, () -> {
+                pollThreadNameSet.add(Thread.currentThread().getName());
+                return readyFunction.poll();
+            }));
+        }
+
+        for (CompletableFuture<String> oneFuture : futureList) {
+            assertEquals(AsyncJobPoller.waitFor(oneFuture), RESULT);
+        }
+        assertTrue(pollThreadNameSet.size() <= AsyncJobPoller.DEFAULT_POLL_THREAD_COUNT);
+        for (String onePollThreadName : pollThreadNameSet) {
+            assertTrue(onePollThreadName.startsWith("synapse-async-job-poller-"), "unexpected poll thread " +
+                    onePollThreadName);
+        }
+    }
+
+    @Test
+    public void slowPollDoesntDelayOtherJobs() throws Exception {
+        AsyncJobPoller poller = new AsyncJobPoller(0, 0, 100, 0, 2);
+
+        // The first job's poll blocks until we release it.
+        CountDownLatch slowPollStarted = new CountDownLatch(1);
+        CountDownLatch releaseSlowPoll = new CountDownLatch(1);
+        CompletableFuture<String> slowFuture = poller.submit(JOB_TYPE, () -> {
+            slowPollStarted.countDown();
+            try {
+                releaseSlowPoll.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return RESULT;
+        });
+        assertTrue(slowPollStarted.await(5, TimeUnit.SECONDS));
+
+        // While the slow poll is blocked, another job is still polled to completion.
+        CompletableFuture<String> fastFuture = poller.submit(JOB_TYPE, readyAfter(3));
+        assertEquals(fastFuture.get(5, TimeUnit.SECONDS), RESULT);
+        assertFalse(slowFuture.isDone());
+
+        // Release the slow poll.
+        releaseSlowPoll.countDown();
+        assertEquals(AsyncJobPoller.waitFor(slowFuture), RESULT);
+    }
+
+    @Test
+    public void interruptIsNotATimeout() throws Exception {
+        // The job never finishes.
+        CompletableFuture<String> future = new CompletableFuture<>();
+
+        Thread.currentThread().interrupt();
+        try {
+            AsyncJobPoller.waitFor(future);
+            fail("expected exception");
+        } catch (AsyncJobInterruptedException ex) {
+            // expected exception
+        } finally {
+            // Clear the interrupt flag, so it doesn't leak into other tests.
+            assertTrue(Thread.interrupted());
+        }
+
+        // We stop polling.
+        assertTrue(future.isCancelled());
+    }
+
+    @Test
+    public void latencyModel() {
+        AsyncJobPoller poller = new AsyncJobPoller(100, 10000, 10, 0);
+
+        // No history starts at the min delay.
+        assertEquals(poller.getInitialDelayMillis(null), 100);
+
+        // Otherwise, start a bit before the expected completion time, clamped to the min and max.
+        assertEquals(poller.getInitialDelayMillis(2000.0), 1500);
+        assertEquals(poller.getInitialDelayMillis(10.0), 100);
+        assertEquals(poller.getInitialDelayMillis(100000.0), 10000);
+    }
+
+    @Test
+    public void latencyModelLearnsFromCompletedJobs() throws Exception {
+        AsyncJobPoller poller = new AsyncJobPoller(0, 0, 10, 0);
+        assertNull(poller.getExpectedCompletionMillis(JOB_TYPE));
+
+        poller.poll(JOB_TYPE, () -> RESULT);
+        Double expectedCompletionMillis = poller.getExpectedCompletionMillis(JOB_TYPE);
+        assertTrue(expectedCompletionMillis != null && expectedCompletionMillis >= 0.0);
+
+        // Timeouts don't update the model.
+        poller.poll(JOB_TYPE, () -> null);
+        assertEquals(poller.getExpectedCompletionMillis(JOB_TYPE), expectedCompletionMillis);
+
+        // Other job types have their own model.
+        assertNull(poller.getExpectedCompletionMillis("other-job"));
+    }
+
+    @Test
+    public void jitter() {
+        assertEquals(AsyncJobPoller.addJitter(0), 0);
+        for (int i = 0; i < 1000; i++) {
+            assertWithinJitter(AsyncJobPoller.addJitter(1000), 1000);
+        }
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        AsyncJobPoller poller = new AsyncJobPoller(0, 0, 3, 0);
+        poller.poll(JOB_TYPE, readyAfter(2));
+        poller.poll(JOB_TYPE, () -> null);
+
+        Metrics metrics = new Metrics();
+        poller.reportMetrics(metrics);
+        assertEquals(metrics.getKeyValuesMap().get("asyncJob.test-job.jobs").first(), "2");
+        assertEquals(metrics.getKeyValuesMap().get("asyncJob.test-job.polls").first(), "5");
+        assertEquals(metrics.getKeyValuesMap().get("asyncJob.test-job.failures").first(), "0");
+        assertEquals(metrics.getKeyValuesMap().get("asyncJob.test-job.timeouts").first(), "1");
+        assertTrue(metrics.getKeyValuesMap().containsKey("asyncJob.test-job.avgCompletionMillis"));
+
+        // Stats are reset after reporting, so a second report with no new jobs writes nothing.
+        Metrics secondMetrics = new Metrics();
+        poller.reportMetrics(secondMetrics);
+        assertTrue(secondMetrics.getKeyValuesMap().isEmpty());
+    }
+
+    // Returns a poll function that returns null until the nth poll.
+    private static AsyncJobPoller.PollFunction<String> readyAfter(int numPolls) {
+        AtomicInteger pollCount = new AtomicInteger();
+        return () -> pollCount.incrementAndGet() >= numPolls ? RESULT : null;
+    }
+
+    private static void assertWithinJitter(long actual, long expected) {
+        assertTrue(actual >= expected * (1.0 - AsyncJobPoller.JITTER_FRACTION) - 1 &&
+                actual <= expected * (1.0 + AsyncJobPoller.JITTER_FRACTION) + 1, "expected " + expected +
+                " with jitter, got " + actual);
+    }
+
+    // Records delays, then polls without waiting.
+    private static class TestAsyncJobPoller extends AsyncJobPoller {
+        private final List<Long> delayList = Collections.synchronizedList(new ArrayList<>());
+
+        TestAsyncJobPoller(long minDelayMillis, long maxDelayMillis, int maxPolls, long timeoutMillis) {
+            super(minDelayMillis, maxDelayMillis, maxPolls, timeoutMillis);
+        }
+
+        @Override
+        void schedule(Runnable poll, long delayMillis) {
+            delayList.add(delayMillis);
+            super.schedule(poll, 0);
+        }
+    }
+}
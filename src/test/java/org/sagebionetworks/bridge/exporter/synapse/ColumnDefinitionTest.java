@@ -20,13 +20,15 @@ public class ColumnDefinitionTest {
     private static final TransferMethod TEST_TRANSFER_METHOD = TransferMethod.STRING;
     private static final String TEST_DDB_NAME = "healthCode";
     private static final boolean TEST_SANITIZE = true;
+    private static final boolean TEST_INTERN = true;
 
     private static final String TEST_JSON = "{\n" +
             "   \"name\":\"healthCode\",\n" +
             "   \"maximumSize\":36,\n" +
             "   \"transferMethod\":\"STRING\",\n" +
             "   \"ddbName\":\"healthCode\",\n" +
-            "   \"sanitize\":true\n" +
+            "   \"sanitize\":true,\n" +
+            "   \"intern\":true\n" +
             "}";
 
     @Test
@@ -40,6 +42,7 @@ public class ColumnDefinitionTest {
         assertEquals(value.getTransferMethod().getColumnType(), TEST_COLUMN_TYPE);
         assertEquals(value.getMaximumSize().intValue(), TEST_MAXIMUM_SIZE);
         assertEquals(value.getSanitize(), TEST_SANITIZE);
+        assertEquals(value.getIntern(), TEST_INTERN);
         assertEquals(value.getTransferMethod(), TEST_TRANSFER_METHOD);
     }
 
@@ -0,0 +1,73 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class DynamoTokenBucketStoreTest {
+    private static final String BUCKET_NAME = "test-bucket";
+
+    private Table mockDdbTable;
+    private DynamoTokenBucketStore store;
+
+    @BeforeMethod
+    public void before() {
+        mockDdbTable = mock(Table.class);
+        store = new DynamoTokenBucketStore(mockDdbTable);
+    }
+
+    @Test
+    public void getNoBucket() {
+        assertNull(store.get(BUCKET_NAME));
+    }
+
+    @Test
+    public void get() {
+        when(mockDdbTable.getItem(any(GetItemSpec.class))).thenReturn(new Item()
+                .withDouble(DynamoTokenBucketStore.DDB_KEY_TOKENS, 1.5)
+                .withLong(DynamoTokenBucketStore.DDB_KEY_UPDATED_MILLIS, 1234L)
+                .withLong(DynamoTokenBucketStore.DDB_KEY_VERSION, 7L));
+
+        TokenBucketStore.State state = store.get(BUCKET_NAME);
+        assertEquals(state, new TokenBucketStore.State(1.5, 1234L, 7L));
+    }
+
+    @Test
+    public void compareAndSet() {
+        assertTrue(store.compareAndSet(BUCKET_NAME, new TokenBucketStore.State(1.5, 1234L, 7L),
+                new TokenBucketStore.State(0.5, 2345L, 8L)));
+
+        // Validate the put is conditional on the old version.
+        ArgumentCaptor<PutItemSpec> putItemSpecCaptor = ArgumentCaptor.forClass(PutItemSpec.class);
+        verify(mockDdbTable).putItem(putItemSpecCaptor.capture());
+        PutItemSpec putItemSpec = putItemSpecCaptor.getValue();
+        assertEquals(putItemSpec.getConditionExpression(), "#v = :v");
+        assertEquals(((Number) putItemSpec.getValueMap().get(":v")).longValue(), 7L);
+
+        Item item = putItemSpec.getItem();
+        assertEquals(item.getString(DynamoTokenBucketStore.DDB_KEY_BUCKET_NAME), BUCKET_NAME);
+        assertEquals(item.getDouble(DynamoTokenBucketStore.DDB_KEY_TOKENS), 0.5, 0.0001);
+        assertEquals(item.getLong(DynamoTokenBucketStore.DDB_KEY_VERSION), 8L);
+    }
+
+    @Test
+    public void compareAndSetConflict() {
+        when(mockDdbTable.putItem(any(PutItemSpec.class))).thenThrow(new ConditionalCheckFailedException(
+                "test exception"));
+        assertFalse(store.compareAndSet(BUCKET_NAME, null, new TokenBucketStore.State(1.0, 1234L, 0L)));
+    }
+}
@@ -0,0 +1,121 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+
+public class FileHandleCacheTest {
+    private static final String CACHE_KEY = "test-key";
+    private static final String FILE_HANDLE_ID = "test-file-handle";
+    private static final long MOCK_NOW_MILLIS = DateTime.parse("2017-11-07T12:00:00Z").getMillis();
+
+    private FileHandleCache cache;
+    private Table mockDdbTable;
+
+    @BeforeMethod
+    public void before() {
+        mockDdbTable = mock(Table.class);
+        cache = new FileHandleCache("test", mockDdbTable, 100, 90);
+    }
+
+    @Test
+    public void miss() {
+        assertNull(cache.get(CACHE_KEY));
+        verify(mockDdbTable).getItem(FileHandleCache.DDB_KEY_CACHE_KEY, CACHE_KEY);
+    }
+
+    @Test
+    public void ddbHit() {
+        when(mockDdbTable.getItem(FileHandleCache.DDB_KEY_CACHE_KEY, CACHE_KEY)).thenReturn(new Item()
+                .withString(FileHandleCache.DDB_KEY_FILE_HANDLE_ID, FILE_HANDLE_ID));
+
+        // First call reads from DDB. Second call is served from memory.
+        assertEquals(cache.get(CACHE_KEY), FILE_HANDLE_ID);
+        assertEquals(cache.get(CACHE_KEY), FILE_HANDLE_ID);
+        verify(mockDdbTable, times(1)).getItem(FileHandleCache.DDB_KEY_CACHE_KEY, CACHE_KEY);
+    }
+
+    @Test
+    public void localOnlyMiss() {
+        assertNull(cache.get(CACHE_KEY, false));
+        verify(mockDdbTable, never()).getItem(anyString(), any());
+    }
+
+    @Test
+    public void put() {
+        DateTimeUtils.setCurrentMillisFixed(MOCK_NOW_MILLIS);
+        try {
+            cache.put(CACHE_KEY, FILE_HANDLE_ID);
+        } finally {
+            DateTimeUtils.setCurrentMillisSystem();
+        }
+        assertEquals(cache.get(CACHE_KEY), FILE_HANDLE_ID);
+        assertEquals(cache.get(CACHE_KEY, false), FILE_HANDLE_ID);
+
+        ArgumentCaptor<Item> itemCaptor = ArgumentCaptor.forClass(Item.class);
+        verify(mockDdbTable).putItem(itemCaptor.capture());
+        Item item = itemCaptor.getValue();
+        assertEquals(item.getString(FileHandleCache.DDB_KEY_CACHE_KEY), CACHE_KEY);
+        assertEquals(item.getString(FileHandleCache.DDB_KEY_FILE_HANDLE_ID), FILE_HANDLE_ID);
+
+        // Expires 90 days from now, in epoch seconds.
+        assertEquals(item.getLong(FileHandleCache.DDB_KEY_EXPIRES_ON), TimeUnit.MILLISECONDS.toSeconds(
+                MOCK_NOW_MILLIS) + TimeUnit.DAYS.toSeconds(90));
+
+        // Served from memory.
+        verify(mockDdbTable, times(0)).getItem(FileHandleCache.DDB_KEY_CACHE_KEY, CACHE_KEY);
+    }
+
+    @Test
+    public void ddbErrorsAreMisses() {
+        when(mockDdbTable.getItem(FileHandleCache.DDB_KEY_CACHE_KEY, CACHE_KEY)).thenThrow(
+                new AmazonClientException("test exception"));
+        when(mockDdbTable.putItem(any(Item.class))).thenThrow(new AmazonClientException("test exception"));
+
+        assertNull(cache.get(CACHE_KEY));
+
+        // Put still caches locally.
+        cache.put(CACHE_KEY, FILE_HANDLE_ID);
+        assertEquals(cache.get(CACHE_KEY), FILE_HANDLE_ID);
+    }
+
+    @Test
+    public void metrics() {
+        when(mockDdbTable.getItem(FileHandleCache.DDB_KEY_CACHE_KEY, "ddb-key")).thenReturn(new Item()
+                .withString(FileHandleCache.DDB_KEY_FILE_HANDLE_ID, FILE_HANDLE_ID));
+        cache.get("ddb-key");
+        cache.get("ddb-key");
+        cache.get(CACHE_KEY);
+
+        Metrics metrics = new Metrics();
+        cache.reportMetrics(metrics);
+        assertEquals(metrics.getKeyValuesMap().get("fileHandleCache.test.localHits").first(), "1");
+        assertEquals(metrics.getKeyValuesMap().get("fileHandleCache.test.ddbHits").first(), "1");
+        assertEquals(metrics.getKeyValuesMap().get("fileHandleCache.test.misses").first(), "1");
+
+        // Counts are reset after reporting.
+        Metrics secondMetrics = new Metrics();
+        cache.reportMetrics(secondMetrics);
+        assertTrue(secondMetrics.getKeyValuesMap().isEmpty());
+    }
+}
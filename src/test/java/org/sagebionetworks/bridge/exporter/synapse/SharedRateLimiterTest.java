@@ -0,0 +1,183 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.AmazonClientException;
+import org.testng.annotations.Test;
+
+public class SharedRateLimiterTest {
+    private static final String BUCKET_NAME = "test-bucket";
+
+    @Test
+    public void newBucketStartsFull() {
+        // 2 per second, so the bucket holds 2 tokens.
+        TestSharedRateLimiter rateLimiter = new TestSharedRateLimiter(new InMemoryTokenBucketStore(), 2.0);
+        assertEquals(rateLimiter.tryAcquire(), 0);
+        assertEquals(rateLimiter.tryAcquire(), 0);
+
+        // Bucket is empty. Wait for it to refill one token.
+        assertWaitMillis(rateLimiter.tryAcquire(), 500);
+    }
+
+    @Test
+    public void refill() {
+        TestSharedRateLimiter rateLimiter = new TestSharedRateLimiter(new InMemoryTokenBucketStore(), 2.0);
+        rateLimiter.tryAcquire();
+        rateLimiter.tryAcquire();
+
+        // Partial refill.
+        rateLimiter.nowMillis += 250;
+        assertWaitMillis(rateLimiter.tryAcquire(), 250);
+
+        // Full refill is capped at the bucket size.
+        rateLimiter.nowMillis += 10000;
+        assertEquals(rateLimiter.tryAcquire(), 0);
+        assertEquals(rateLimiter.tryAcquire(), 0);
+        assertTrue(rateLimiter.tryAcquire() > 0);
+    }
+
+    @Test
+    public void sharedBetweenHosts() {
+        // Two hosts share a bucket. One busy host can use the whole budget, and then the other host has to wait.
+        TokenBucketStore store = new InMemoryTokenBucketStore();
+        TestSharedRateLimiter busyHost = new TestSharedRateLimiter(store, 2.0);
+        TestSharedRateLimiter otherHost = new TestSharedRateLimiter(store, 2.0);
+        assertEquals(busyHost.tryAcquire(), 0);
+        assertEquals(busyHost.tryAcquire(), 0);
+        assertWaitMillis(otherHost.tryAcquire(), 500);
+    }
+
+    @Test
+    public void hostWithFastClockDoesntStopRefill() {
+        // The other host's clock is 10 minutes ahead, and it empties the bucket.
+        TokenBucketStore store = new InMemoryTokenBucketStore();
+        TestSharedRateLimiter fastHost = new TestSharedRateLimiter(store, 2.0);
+        fastHost.nowMillis += 10 * 60 * 1000;
+        assertEquals(fastHost.tryAcquire(), 0);
+        assertEquals(fastHost.tryAcquire(), 0);
+
+        // We reset the update time to our clock, then wait for the refill, not the full 10 minutes.
+        TestSharedRateLimiter ourHost = new TestSharedRateLimiter(store, 2.0);
+        assertEquals(ourHost.tryAcquire(), 1);
+        assertWaitMillis(ourHost.tryAcquire(), 500);
+        ourHost.nowMillis += 500;
+        assertEquals(ourHost.tryAcquire(), 0);
+    }
+
+    @Test
+    public void smallClockSkewIsWaitedOut() {
+        // The other host's clock is 200ms ahead, and it empties the bucket.
+        TokenBucketStore store = new InMemoryTokenBucketStore();
+        TestSharedRateLimiter fastHost = new TestSharedRateLimiter(store, 2.0);
+        fastHost.nowMillis += 200;
+        assertEquals(fastHost.tryAcquire(), 0);
+        assertEquals(fastHost.tryAcquire(), 0);
+
+        // We wait for the refill, plus the skew.
+        TestSharedRateLimiter ourHost = new TestSharedRateLimiter(store, 2.0);
+        assertWaitMillis(ourHost.tryAcquire(), 700);
+    }
+
+    @Test
+    public void hostWithSlowClockDoesntRefillTwice() {
+        // The other host's clock is 10 seconds behind. It takes a token, which doesn't move the update time backwards.
+        TokenBucketStore store = new InMemoryTokenBucketStore();
+        TestSharedRateLimiter ourHost = new TestSharedRateLimiter(store, 2.0);
+        TestSharedRateLimiter slowHost = new TestSharedRateLimiter(store, 2.0);
+        slowHost.nowMillis -= 10 * 1000;
+        assertEquals(ourHost.tryAcquire(), 0);
+        assertEquals(slowHost.tryAcquire(), 0);
+
+        // The bucket is empty for us too.
+        assertWaitMillis(ourHost.tryAcquire(), 500);
+    }
+
+    @Test
+    public void acquireWaitsForRefill() {
+        TestSharedRateLimiter rateLimiter = new TestSharedRateLimiter(new InMemoryTokenBucketStore(), 1.0);
+        rateLimiter.acquire();
+        rateLimiter.acquire();
+
+        // Second acquire waited for the bucket to refill. The first wait is one second, with jitter. If the jitter
+        // was short, there's a second, shorter wait.
+        long firstSleepMillis = rateLimiter.sleepList.get(0);
+        assertTrue(firstSleepMillis >= 800 && firstSleepMillis <= 1200, "unexpected sleep " + firstSleepMillis);
+
+        long totalSleepMillis = 0;
+        for (long oneSleepMillis : rateLimiter.sleepList) {
+            totalSleepMillis += oneSleepMillis;
+        }
+        assertTrue(totalSleepMillis >= 1000, "unexpected total sleep " + totalSleepMillis);
+    }
+
+    @Test
+    public void compareAndSetConflict() {
+        TokenBucketStore mockStore = mock(TokenBucketStore.class);
+        when(mockStore.compareAndSet(anyString(), any(), any())).thenReturn(false);
+
+        TestSharedRateLimiter rateLimiter = new TestSharedRateLimiter(mockStore, 2.0);
+        assertTrue(rateLimiter.tryAcquire() > 0);
+    }
+
+    @Test
+    public void storeErrorFallsBackToPerHostLimit() {
+        TokenBucketStore mockStore = mock(TokenBucketStore.class);
+        when(mockStore.get(BUCKET_NAME)).thenThrow(new AmazonClientException("test exception"));
+
+        // Doesn't throw or sleep.
+        TestSharedRateLimiter rateLimiter = new TestSharedRateLimiter(mockStore, 2.0);
+        rateLimiter.acquire();
+        assertTrue(rateLimiter.sleepList.isEmpty());
+    }
+
+    @Test
+    public void fallbackWarningIsRateLimited() {
+        TestSharedRateLimiter rateLimiter = new TestSharedRateLimiter(new InMemoryTokenBucketStore(), 2.0);
+        AmazonClientException ex = new AmazonClientException("test exception");
+
+        // First error is logged. Errors within the period aren't.
+        assertTrue(rateLimiter.logFallbackWarning(ex));
+        rateLimiter.nowMillis += SharedRateLimiter.FALLBACK_WARNING_PERIOD_MILLIS - 1;
+        assertFalse(rateLimiter.logFallbackWarning(ex));
+
+        // After the period, the next error is logged.
+        rateLimiter.nowMillis += 1;
+        assertTrue(rateLimiter.logFallbackWarning(ex));
+        assertFalse(rateLimiter.logFallbackWarning(ex));
+    }
+
+    // Wait times are computed with floating point, so allow for rounding.
+    private static void assertWaitMillis(long actual, long expected) {
+        assertTrue(Math.abs(actual - expected) <= 1, "expected wait " + expected + ", got " + actual);
+    }
+
+    // Uses a fake clock, which advances when we sleep.
+    private static class TestSharedRateLimiter extends SharedRateLimiter {
+        private final List<Long> sleepList = new ArrayList<>();
+        private long nowMillis = 1000000;
+
+        TestSharedRateLimiter(TokenBucketStore store, double permitsPerSecond) {
+            super(BUCKET_NAME, store, permitsPerSecond, permitsPerSecond);
+        }
+
+        @Override
+        long now() {
+            return nowMillis;
+        }
+
+        @Override
+        void sleep(long millis) {
+            sleepList.add(millis);
+            nowMillis += millis;
+        }
+    }
+}
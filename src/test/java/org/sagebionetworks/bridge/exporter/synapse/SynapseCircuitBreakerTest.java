@@ -0,0 +1,215 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+
+import org.sagebionetworks.client.exceptions.SynapseServiceUnavailable;
+import org.testng.annotations.Test;
+
+public class SynapseCircuitBreakerTest {
+    private static final long MIN_PROBE_DELAY_MILLIS = 1000;
+    private static final long MAX_PROBE_DELAY_MILLIS = 4000;
+    private static final long MAX_OPEN_MILLIS = 60000;
+    private static final Exception SYNAPSE_EX = new SynapseServiceUnavailable("test exception");
+
+    @Test
+    public void closedPassesThrough() {
+        TestCircuitBreaker circuitBreaker = new TestCircuitBreaker(new LinkedList<>());
+        assertFalse(circuitBreaker.isOpen());
+        assertTrue(circuitBreaker.awaitClosed());
+        assertEquals(circuitBreaker.probeCount, 0);
+        assertTrue(circuitBreaker.sleepList.isEmpty());
+    }
+
+    @Test
+    public void recovers() {
+        // Synapse is down for 2 probes, then comes back up.
+        Queue<Boolean> probeResults = new LinkedList<>();
+        probeResults.add(false);
+        probeResults.add(false);
+        probeResults.add(true);
+        TestCircuitBreaker circuitBreaker = new TestCircuitBreaker(probeResults);
+
+        assertTrue(circuitBreaker.tripAndAwaitRecovery(SYNAPSE_EX));
+        assertFalse(circuitBreaker.isOpen());
+        assertEquals(circuitBreaker.probeCount, 3);
+
+        // Delay backs off exponentially, with jitter.
+        assertEquals(circuitBreaker.sleepList.size(), 2);
+        assertSleepMillis(circuitBreaker.sleepList.get(0), 1000);
+        assertSleepMillis(circuitBreaker.sleepList.get(1), 2000);
+
+        // Once closed, callers pass through without probing.
+        assertTrue(circuitBreaker.awaitClosed());
+        assertEquals(circuitBreaker.probeCount, 3);
+    }
+
+    @Test
+    public void tripDoesntWait() {
+        Queue<Boolean> probeResults = new LinkedList<>();
+        probeResults.add(true);
+        TestCircuitBreaker circuitBreaker = new TestCircuitBreaker(probeResults);
+
+        // Tripping opens the breaker without probing.
+        circuitBreaker.trip(SYNAPSE_EX);
+        assertTrue(circuitBreaker.isOpen());
+        assertEquals(circuitBreaker.probeCount, 0);
+
+        // The next caller probes and closes the breaker.
+        assertTrue(circuitBreaker.awaitClosed());
+        assertFalse(circuitBreaker.isOpen());
+        assertEquals(circuitBreaker.probeCount, 1);
+    }
+
+    @Test
+    public void givesUp() {
+        // Synapse never comes back up.
+        TestCircuitBreaker circuitBreaker = new TestCircuitBreaker(null);
+        assertFalse(circuitBreaker.tripAndAwaitRecovery(SYNAPSE_EX));
+
+        // Breaker gives up, so calls fail fast without waiting or probing.
+        assertFalse(circuitBreaker.isOpen());
+        assertTrue(circuitBreaker.hasGivenUp());
+        int probeCount = circuitBreaker.probeCount;
+        int sleepCount = circuitBreaker.sleepList.size();
+        assertFalse(circuitBreaker.awaitClosed());
+        assertEquals(circuitBreaker.probeCount, probeCount);
+        assertEquals(circuitBreaker.sleepList.size(), sleepCount);
+
+        // Delay is capped at the max delay, and total wait is capped at the max open time.
+        long totalSleepMillis = 0;
+        for (long oneSleepMillis : circuitBreaker.sleepList) {
+            assertTrue(oneSleepMillis <= MAX_PROBE_DELAY_MILLIS * 1.2, "unexpected sleep " + oneSleepMillis);
+            totalSleepMillis += oneSleepMillis;
+        }
+        assertEquals(totalSleepMillis, MAX_OPEN_MILLIS);
+    }
+
+    @Test
+    public void probeErrorCountsAsDown() {
+        TestCircuitBreaker circuitBreaker = new TestCircuitBreaker(null);
+        circuitBreaker.probeThrows = true;
+        assertFalse(circuitBreaker.tripAndAwaitRecovery(SYNAPSE_EX));
+        assertTrue(circuitBreaker.probeCount > 1);
+    }
+
+    @Test
+    public void tripAgainAfterGivingUp() {
+        // After giving up, tripping again doesn't re-open the breaker with a fresh wait. Calls keep failing fast.
+        TestCircuitBreaker circuitBreaker = new TestCircuitBreaker(null);
+        assertFalse(circuitBreaker.tripAndAwaitRecovery(SYNAPSE_EX));
+        int probeCount = circuitBreaker.probeCount;
+        int sleepCount = circuitBreaker.sleepList.size();
+
+        assertFalse(circuitBreaker.tripAndAwaitRecovery(SYNAPSE_EX));
+        assertTrue(circuitBreaker.hasGivenUp());
+        assertEquals(circuitBreaker.probeCount, probeCount);
+        assertEquals(circuitBreaker.sleepList.size(), sleepCount);
+    }
+
+    @Test
+    public void probesAgainAfterGivingUp() {
+        TestCircuitBreaker circuitBreaker = new TestCircuitBreaker(null);
+        assertFalse(circuitBreaker.tripAndAwaitRecovery(SYNAPSE_EX));
+        int probeCount = circuitBreaker.probeCount;
+
+        // After the max probe delay, the next caller probes once. Synapse is still down, so it fails fast.
+        circuitBreaker.nowMillis += MAX_PROBE_DELAY_MILLIS;
+        assertFalse(circuitBreaker.awaitClosed());
+        assertEquals(circuitBreaker.probeCount, probeCount + 1);
+
+        // The next probe isn't due yet.
+        assertFalse(circuitBreaker.awaitClosed());
+        assertEquals(circuitBreaker.probeCount, probeCount + 1);
+
+        // After another delay, Synapse is back up. The probe closes the breaker.
+        circuitBreaker.nowMillis += MAX_PROBE_DELAY_MILLIS;
+        circuitBreaker.probeResults = new LinkedList<>();
+        circuitBreaker.probeResults.add(true);
+        assertTrue(circuitBreaker.awaitClosed());
+        assertFalse(circuitBreaker.hasGivenUp());
+        assertEquals(circuitBreaker.probeCount, probeCount + 2);
+
+        // A new outage opens the breaker with a fresh wait.
+        circuitBreaker.probeResults.add(true);
+        assertTrue(circuitBreaker.tripAndAwaitRecovery(SYNAPSE_EX));
+    }
+
+    @Test
+    public void synapseWritableClosesAfterGivingUp() {
+        TestCircuitBreaker circuitBreaker = new TestCircuitBreaker(null);
+        assertFalse(circuitBreaker.tripAndAwaitRecovery(SYNAPSE_EX));
+
+        circuitBreaker.onSynapseWritable();
+        assertFalse(circuitBreaker.hasGivenUp());
+        assertTrue(circuitBreaker.awaitClosed());
+    }
+
+    @Test
+    public void synapseWritableDoesntCloseOpenBreaker() {
+        // While the breaker is open, only the prober closes it.
+        TestCircuitBreaker circuitBreaker = new TestCircuitBreaker(null);
+        circuitBreaker.trip(SYNAPSE_EX);
+        circuitBreaker.onSynapseWritable();
+        assertTrue(circuitBreaker.isOpen());
+    }
+
+    // Jitter is +/- 20%.
+    private static void assertSleepMillis(long actual, long expected) {
+        assertTrue(actual >= expected * 0.8 && actual <= expected * 1.2, "expected sleep around " + expected +
+                ", got " + actual);
+    }
+
+    // Uses a fake clock, which advances when we sleep. Probe results come from a queue. If the queue is null or
+    // empty, Synapse is down.
+    private static class TestCircuitBreaker extends SynapseCircuitBreaker {
+        private final List<Long> sleepList = new ArrayList<>();
+        private long nowMillis = 1000000;
+        private int probeCount = 0;
+        private Queue<Boolean> probeResults;
+        private boolean probeThrows = false;
+
+        TestCircuitBreaker(Queue<Boolean> probeResults) {
+            this(new TestProbe(), probeResults);
+        }
+
+        private TestCircuitBreaker(TestProbe probe, Queue<Boolean> probeResults) {
+            super(probe, MIN_PROBE_DELAY_MILLIS, MAX_PROBE_DELAY_MILLIS, MAX_OPEN_MILLIS);
+            probe.circuitBreaker = this;
+            this.probeResults = probeResults;
+        }
+
+        @Override
+        long now() {
+            return nowMillis;
+        }
+
+        @Override
+        void sleep(long millis) {
+            sleepList.add(millis);
+            nowMillis += millis;
+        }
+    }
+
+    // The probe needs to be passed into the super constructor, so it calls back into the circuit breaker afterwards.
+    private static class TestProbe implements Callable<Boolean> {
+        private TestCircuitBreaker circuitBreaker;
+
+        @Override
+        public Boolean call() throws Exception {
+            circuitBreaker.probeCount++;
+            if (circuitBreaker.probeThrows) {
+                throw new SynapseServiceUnavailable("test probe exception");
+            }
+            Queue<Boolean> probeResults = circuitBreaker.probeResults;
+            return probeResults != null && !probeResults.isEmpty() && probeResults.remove();
+        }
+    }
+}
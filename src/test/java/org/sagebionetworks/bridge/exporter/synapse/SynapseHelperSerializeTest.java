@@ -10,10 +10,12 @@ import static org.testng.Assert.assertTrue;
 
 import java.io.File;
 import java.math.BigDecimal;
+import java.util.Random;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.BooleanNode;
 import com.fasterxml.jackson.databind.node.DecimalNode;
+import com.fasterxml.jackson.databind.node.DoubleNode;
 import com.fasterxml.jackson.databind.node.IntNode;
 import com.fasterxml.jackson.databind.node.LongNode;
 import com.fasterxml.jackson.databind.node.NullNode;
@@ -221,6 +223,63 @@ public class SynapseHelperSerializeTest {
         assertNull(retVal2);
     }
 
+    @Test
+    public void numberFastPathsMatchBigDecimal() throws Exception {
+        // Property test: for randomly generated numbers, the fast paths produce exactly the same output as going
+        // through BigDecimal and BigInteger. Fixed seed, so failures are reproducible.
+        Random random = new Random(1234);
+        for (int i = 0; i < 100000; i++) {
+            JsonNode node;
+            switch (i % 5) {
+                case 0:
+                    // Any bit pattern, including subnormals, huge and tiny values.
+                    double randomBitsValue = Double.longBitsToDouble(random.nextLong());
+                    if (Double.isNaN(randomBitsValue) || Double.isInfinite(randomBitsValue)) {
+                        continue;
+                    }
+                    node = new DoubleNode(randomBitsValue);
+                    break;
+                case 1:
+                    // Doubles with magnitudes around the plain vs scientific notation boundaries.
+                    double magnitude = Math.pow(10, random.nextInt(20) - 8);
+                    node = new DoubleNode((random.nextBoolean() ? 1 : -1) * random.nextDouble() * magnitude);
+                    break;
+                case 2:
+                    // Numbers the way the JSON parser sees them.
+                    String jsonText = Double.toString((random.nextInt(2000000) - 1000000) /
+                            Math.pow(10, random.nextInt(8)));
+                    node = DefaultObjectMapper.INSTANCE.readTree(jsonText);
+                    break;
+                case 3:
+                    node = new LongNode(random.nextLong());
+                    break;
+                default:
+                    node = new IntNode(random.nextInt());
+                    break;
+            }
+
+            assertEquals(SynapseHelper.serializeFloat(node), String.valueOf(node.decimalValue()), node.toString());
+            assertEquals(SynapseHelper.serializeInt(node), String.valueOf(node.bigIntegerValue()), node.toString());
+        }
+    }
+
+    @Test
+    public void numberFastPathEdgeCases() {
+        // Zeroes. BigDecimal has no negative zero.
+        assertEquals(SynapseHelper.serializeFloat(new DoubleNode(0.0)), "0.0");
+        assertEquals(SynapseHelper.serializeFloat(new DoubleNode(-0.0)), "0.0");
+
+        // Scientific notation goes through BigDecimal.
+        assertEquals(SynapseHelper.serializeFloat(new DoubleNode(1e-5)), "0.000010");
+        assertEquals(SynapseHelper.serializeFloat(new DoubleNode(1e20)), "1.0E+20");
+
+        // Plain doubles, longs, and truncated ints.
+        assertEquals(SynapseHelper.serializeFloat(new DoubleNode(-3.25)), "-3.25");
+        assertEquals(SynapseHelper.serializeFloat(new LongNode(Long.MIN_VALUE)), "-9223372036854775808");
+        assertEquals(SynapseHelper.serializeInt(new LongNode(Long.MAX_VALUE)), "9223372036854775807");
+        assertEquals(SynapseHelper.serializeInt(new DoubleNode(-13.9)), "-13");
+    }
+
     private static UploadFieldDefinition fieldDefForType(UploadFieldType type) {
         return new UploadFieldDefinition().name(TEST_FIELD_NAME).type(type);
     }
@@ -5,16 +5,21 @@ import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isNull;
 import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 import java.io.File;
 import java.io.InputStream;
@@ -22,11 +27,14 @@ import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Set;
 
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.ByteStreams;
 import org.mockito.ArgumentCaptor;
 import org.sagebionetworks.client.SynapseClient;
 import org.sagebionetworks.client.exceptions.SynapseResultNotReadyException;
+import org.sagebionetworks.client.exceptions.SynapseServiceUnavailable;
 import org.sagebionetworks.repo.model.AccessControlList;
 import org.sagebionetworks.repo.model.ResourceAccess;
 import org.sagebionetworks.repo.model.file.FileHandle;
@@ -318,6 +326,40 @@ public class SynapseHelperTest {
         assertSame(retVal, mockFileHandle);
     }
 
+    @Test
+    public void createFileHandleFromStringWithDedup() throws Exception {
+        // Mock Synapse Client. Each upload creates a new file handle.
+        SynapseClient mockSynapseClient = mock(SynapseClient.class);
+        when(mockSynapseClient.multipartUpload(any(), anyLong(), any(), any(), isNull(Long.class),
+                isNull(Boolean.class), eq(true))).thenAnswer(invocation -> {
+            S3FileHandle fileHandle = new S3FileHandle();
+            fileHandle.setId("file-handle-" + invocation.getArgumentAt(2, String.class));
+            return fileHandle;
+        });
+
+        // Cache is empty in DDB.
+        Table mockDdbTable = mock(Table.class);
+        SynapseHelper synapseHelper = new SynapseHelper();
+        synapseHelper.setRawMetadataFileHandleCache(new FileHandleCache("test", mockDdbTable, 100, 90));
+        synapseHelper.setSynapseClient(mockSynapseClient);
+
+        // First call uploads. Second call with the same content re-uses the file handle.
+        String fileHandleId = synapseHelper.createFileHandleFromStringWithDedup("{}", "a.json", "application/json");
+        assertEquals(fileHandleId, "file-handle-a.json");
+        assertEquals(synapseHelper.createFileHandleFromStringWithDedup("{}", "a.json", "application/json"),
+                fileHandleId);
+        verify(mockSynapseClient, times(1)).multipartUpload(any(), anyLong(), any(), any(), isNull(Long.class),
+                isNull(Boolean.class), eq(true));
+        verify(mockDdbTable).putItem(any(Item.class));
+
+        // Different content or a different file name is a different file handle.
+        synapseHelper.createFileHandleFromStringWithDedup("{\"foo\":1}", "a.json", "application/json");
+        assertEquals(synapseHelper.createFileHandleFromStringWithDedup("{}", "b.json", "application/json"),
+                "file-handle-b.json");
+        verify(mockSynapseClient, times(3)).multipartUpload(any(), anyLong(), any(), any(), isNull(Long.class),
+                isNull(Boolean.class), eq(true));
+    }
+
     @Test
     public void createS3FileHandleWithRetry() throws Exception {
         // Mock Synapse Client
@@ -689,4 +731,128 @@ public class SynapseHelperTest {
         UploadToTableResult retVal = synapseHelper.getUploadTsvStatus("job-token", "table-id");
         assertNull(retVal);
     }
+
+    @Test
+    public void serviceUnavailableTripsCircuitBreaker() throws Exception {
+        // mock SynapseClient - Synapse is down
+        SynapseServiceUnavailable synapseEx = new SynapseServiceUnavailable("test exception");
+        SynapseClient mockSynapseClient = mock(SynapseClient.class);
+        when(mockSynapseClient.createACL(any())).thenThrow(synapseEx);
+
+        SynapseCircuitBreaker mockCircuitBreaker = mock(SynapseCircuitBreaker.class);
+        when(mockCircuitBreaker.awaitClosed()).thenReturn(true);
+
+        SynapseHelper synapseHelper = new SynapseHelper();
+        synapseHelper.setSynapseClient(mockSynapseClient);
+        synapseHelper.setCircuitBreaker(mockCircuitBreaker);
+
+        // execute and validate - the error is rethrown, and the breaker is tripped so other calls wait
+        try {
+            synapseHelper.createAclWithRetry(new AccessControlList());
+            fail("expected exception");
+        } catch (SynapseServiceUnavailable ex) {
+            assertSame(ex, synapseEx);
+        }
+        verify(mockCircuitBreaker, atLeastOnce()).awaitClosed();
+        verify(mockCircuitBreaker, atLeastOnce()).trip(synapseEx);
+    }
+
+    @Test
+    public void pollServiceUnavailableTripsCircuitBreaker() throws Exception {
+        // mock SynapseClient - Synapse is down
+        SynapseServiceUnavailable synapseEx = new SynapseServiceUnavailable("test exception");
+        SynapseClient mockSynapseClient = mock(SynapseClient.class);
+        when(mockSynapseClient.uploadCsvToTableAsyncGet("job-token", "table-id")).thenThrow(synapseEx);
+
+        SynapseCircuitBreaker mockCircuitBreaker = mock(SynapseCircuitBreaker.class);
+
+        SynapseHelper synapseHelper = new SynapseHelper();
+        synapseHelper.setSynapseClient(mockSynapseClient);
+        synapseHelper.setCircuitBreaker(mockCircuitBreaker);
+
+        // execute and validate
+        try {
+            synapseHelper.getUploadTsvStatus("job-token", "table-id");
+            fail("expected exception");
+        } catch (SynapseServiceUnavailable ex) {
+            assertSame(ex, synapseEx);
+        }
+        verify(mockCircuitBreaker, atLeastOnce()).trip(synapseEx);
+    }
+
+    @Test
+    public void pollsDontWaitAtCircuitBreaker() throws Exception {
+        // mock SynapseClient
+        SynapseClient mockSynapseClient = mock(SynapseClient.class);
+        UploadToTableResult result = new UploadToTableResult();
+        when(mockSynapseClient.uploadCsvToTableAsyncGet("job-token", "table-id")).thenReturn(result);
+        when(mockSynapseClient.getTableTransactionJobResults("job-token", "table-id")).thenReturn(
+                ImmutableList.of());
+
+        SynapseCircuitBreaker mockCircuitBreaker = mock(SynapseCircuitBreaker.class);
+        when(mockCircuitBreaker.awaitClosed()).thenReturn(true);
+
+        SynapseHelper synapseHelper = new SynapseHelper();
+        synapseHelper.setSynapseClient(mockSynapseClient);
+        synapseHelper.setCircuitBreaker(mockCircuitBreaker);
+
+        // execute and validate - polls go through even if the breaker is open
+        assertSame(synapseHelper.getUploadTsvStatus("job-token", "table-id"), result);
+        assertTrue(synapseHelper.getTableTransactionResultWithRetry("job-token", "table-id").isEmpty());
+        verify(mockCircuitBreaker, never()).awaitClosed();
+
+        // Non-poll calls still wait at the breaker.
+        synapseHelper.getTableWithRetry("table-id");
+        verify(mockCircuitBreaker).awaitClosed();
+    }
+
+    @Test
+    public void failsFastAfterCircuitBreakerGivesUp() throws Exception {
+        SynapseClient mockSynapseClient = mock(SynapseClient.class);
+
+        // Breaker gave up on Synapse.
+        SynapseCircuitBreaker mockCircuitBreaker = mock(SynapseCircuitBreaker.class);
+        when(mockCircuitBreaker.awaitClosed()).thenReturn(false);
+
+        SynapseHelper synapseHelper = new SynapseHelper();
+        synapseHelper.setSynapseClient(mockSynapseClient);
+        synapseHelper.setCircuitBreaker(mockCircuitBreaker);
+
+        // execute and validate - calls fail without hitting Synapse
+        try {
+            synapseHelper.getTableWithRetry("table-id");
+            fail("expected exception");
+        } catch (SynapseServiceUnavailable ex) {
+            // expected exception
+        }
+        try {
+            synapseHelper.getColumnModelsForTableWithRetry("table-id");
+            fail("expected exception");
+        } catch (SynapseServiceUnavailable ex) {
+            // expected exception
+        }
+        verifyZeroInteractions(mockSynapseClient);
+    }
+
+    @Test
+    public void isSynapseWritableDoesntWaitAtCircuitBreaker() throws Exception {
+        // mock SynapseClient
+        StackStatus stackStatus = new StackStatus();
+        stackStatus.setStatus(StatusEnum.READ_WRITE);
+        SynapseClient mockSynapseClient = mock(SynapseClient.class);
+        when(mockSynapseClient.getCurrentStackStatus()).thenReturn(stackStatus);
+
+        // Breaker gave up on Synapse.
+        SynapseCircuitBreaker mockCircuitBreaker = mock(SynapseCircuitBreaker.class);
+        when(mockCircuitBreaker.awaitClosed()).thenReturn(false);
+
+        SynapseHelper synapseHelper = new SynapseHelper();
+        synapseHelper.setSynapseClient(mockSynapseClient);
+        synapseHelper.setCircuitBreaker(mockCircuitBreaker);
+
+        // execute and validate - the health check goes through, and tells the breaker Synapse is back
+        assertTrue(synapseHelper.isSynapseWritable());
+        verify(mockCircuitBreaker, never()).awaitClosed();
+        verify(mockCircuitBreaker).onSynapseWritable();
+    }
 }
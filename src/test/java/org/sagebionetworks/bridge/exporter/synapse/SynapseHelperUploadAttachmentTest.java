@@ -1,16 +1,29 @@
 package org.sagebionetworks.bridge.exporter.synapse;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.mockito.ArgumentCaptor;
 import org.sagebionetworks.client.SynapseClient;
+import org.sagebionetworks.client.exceptions.SynapseClientException;
+import org.sagebionetworks.client.exceptions.SynapseException;
 import org.sagebionetworks.repo.model.file.S3FileHandle;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -34,6 +47,7 @@ public class SynapseHelperUploadAttachmentTest {
 
     private SynapseHelper helper;
     private SynapseClient mockClient;
+    private S3Helper mockS3Helper;
     private ObjectMetadata s3ObjectMetadata;
 
     @BeforeMethod
@@ -44,7 +58,7 @@ public class SynapseHelperUploadAttachmentTest {
         s3ObjectMetadata.setContentType(CONTENT_TYPE);
         s3ObjectMetadata.addUserMetadata(BridgeExporterUtil.KEY_CUSTOM_CONTENT_MD5, CONTENT_MD5);
 
-        S3Helper mockS3Helper = mock(S3Helper.class);
+        mockS3Helper = mock(S3Helper.class);
         when(mockS3Helper.getObjectMetadata(TEST_ATTACHMENTS_BUCKET, TEST_ATTACHMENT_ID)).thenReturn(s3ObjectMetadata);
 
         // Mock Synapse Client.
@@ -52,6 +66,8 @@ public class SynapseHelperUploadAttachmentTest {
 
         // Set up Synapse Helper.
         helper = new SynapseHelper();
+        helper.setAttachmentFileHandleExecutor(MoreExecutors.newDirectExecutorService());
+        helper.setAttachmentMetadataExecutor(MoreExecutors.newDirectExecutorService());
         helper.setConfig(mockConfig());
         helper.setS3Helper(mockS3Helper);
         helper.setSynapseClient(mockClient);
@@ -95,6 +111,101 @@ public class SynapseHelperUploadAttachmentTest {
         verify(mockClient, never()).createExternalS3FileHandle(any());
     }
 
+    @Test
+    public void uploadAsync() throws Exception {
+        // Mock Synapse Client create file handle call.
+        S3FileHandle createdFileHandle = new S3FileHandle();
+        createdFileHandle.setId(TEST_FILE_HANDLE_ID);
+        when(mockClient.createExternalS3FileHandle(any())).thenReturn(createdFileHandle);
+
+        // execute and validate
+        String fileHandleId = helper.uploadFromS3ToSynapseFileHandleAsync(TEST_PROJECT_ID, TEST_ATTACHMENT_ID).get();
+        assertEquals(fileHandleId, TEST_FILE_HANDLE_ID);
+        verify(mockClient).createExternalS3FileHandle(any());
+    }
+
+    @Test
+    public void uploadAsyncEmptyAttachment() throws Exception {
+        s3ObjectMetadata.setContentLength(0);
+
+        String fileHandleId = helper.uploadFromS3ToSynapseFileHandleAsync(TEST_PROJECT_ID, TEST_ATTACHMENT_ID).get();
+        assertNull(fileHandleId);
+        verify(mockClient, never()).createExternalS3FileHandle(any());
+    }
+
+    @Test
+    public void uploadAsyncError() throws Exception {
+        SynapseException originalEx = new SynapseClientException("test exception");
+        when(mockClient.createExternalS3FileHandle(any())).thenThrow(originalEx);
+
+        CompletableFuture<String> future = helper.uploadFromS3ToSynapseFileHandleAsync(TEST_PROJECT_ID,
+                TEST_ATTACHMENT_ID);
+        try {
+            future.get();
+            fail("expected exception");
+        } catch (ExecutionException ex) {
+            assertSame(ex.getCause(), originalEx);
+        }
+    }
+
+    @Test
+    public void cachedAttachment() throws Exception {
+        // Attachment is already cached in DDB.
+        Table mockDdbTable = mock(Table.class);
+        when(mockDdbTable.getItem(FileHandleCache.DDB_KEY_CACHE_KEY, TEST_STORAGE_LOCATION_ID + ":" +
+                TEST_ATTACHMENT_ID)).thenReturn(new Item().withString(FileHandleCache.DDB_KEY_FILE_HANDLE_ID,
+                TEST_FILE_HANDLE_ID));
+        helper.setAttachmentFileHandleCache(new FileHandleCache("test", mockDdbTable, 100, 90));
+
+        // execute and validate - We never call S3 or Synapse.
+        assertEquals(helper.uploadFromS3ToSynapseFileHandle(TEST_PROJECT_ID, TEST_ATTACHMENT_ID),
+                TEST_FILE_HANDLE_ID);
+        assertEquals(helper.uploadFromS3ToSynapseFileHandleAsync(TEST_PROJECT_ID, TEST_ATTACHMENT_ID).get(),
+                TEST_FILE_HANDLE_ID);
+        verifyZeroInteractions(mockS3Helper, mockClient);
+    }
+
+    @Test
+    public void firstTimeExportSkipsDdbRead() throws Exception {
+        Table mockDdbTable = mock(Table.class);
+        helper.setAttachmentFileHandleCache(new FileHandleCache("test", mockDdbTable, 100, 90));
+
+        S3FileHandle createdFileHandle = new S3FileHandle();
+        createdFileHandle.setId(TEST_FILE_HANDLE_ID);
+        when(mockClient.createExternalS3FileHandle(any())).thenReturn(createdFileHandle);
+
+        // execute and validate - We create the file handle without reading DDB, but still write it to DDB for redrives.
+        assertEquals(helper.uploadFromS3ToSynapseFileHandleAsync(TEST_PROJECT_ID, TEST_ATTACHMENT_ID, false).get(),
+                TEST_FILE_HANDLE_ID);
+        verify(mockDdbTable, never()).getItem(anyString(), any());
+        verify(mockDdbTable).putItem(any(Item.class));
+    }
+
+    @Test
+    public void uncachedAttachmentIsCached() throws Exception {
+        Table mockDdbTable = mock(Table.class);
+        helper.setAttachmentFileHandleCache(new FileHandleCache("test", mockDdbTable, 100, 90));
+
+        S3FileHandle createdFileHandle = new S3FileHandle();
+        createdFileHandle.setId(TEST_FILE_HANDLE_ID);
+        when(mockClient.createExternalS3FileHandle(any())).thenReturn(createdFileHandle);
+
+        // First call creates the file handle. Second call re-uses it.
+        assertEquals(helper.uploadFromS3ToSynapseFileHandleAsync(TEST_PROJECT_ID, TEST_ATTACHMENT_ID).get(),
+                TEST_FILE_HANDLE_ID);
+        assertEquals(helper.uploadFromS3ToSynapseFileHandle(TEST_PROJECT_ID, TEST_ATTACHMENT_ID),
+                TEST_FILE_HANDLE_ID);
+        verify(mockS3Helper, times(1)).getObjectMetadata(TEST_ATTACHMENTS_BUCKET, TEST_ATTACHMENT_ID);
+        verify(mockClient, times(1)).createExternalS3FileHandle(any());
+
+        // The cache entry is persisted in DDB.
+        ArgumentCaptor<Item> itemCaptor = ArgumentCaptor.forClass(Item.class);
+        verify(mockDdbTable).putItem(itemCaptor.capture());
+        assertEquals(itemCaptor.getValue().getString(FileHandleCache.DDB_KEY_CACHE_KEY), TEST_STORAGE_LOCATION_ID +
+                ":" + TEST_ATTACHMENT_ID);
+        assertEquals(itemCaptor.getValue().getString(FileHandleCache.DDB_KEY_FILE_HANDLE_ID), TEST_FILE_HANDLE_ID);
+    }
+
     private static Config mockConfig() {
         Config mockConfig = mock(Config.class);
         when(mockConfig.get(BridgeExporterUtil.CONFIG_KEY_ATTACHMENT_S3_BUCKET)).thenReturn(TEST_ATTACHMENTS_BUCKET);
@@ -0,0 +1,61 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+import org.sagebionetworks.bridge.exporter.metrics.MetricsHelper;
+
+public class SynapseMetricsReporterTest {
+    @Test
+    public void reportMetrics() {
+        // Mock Synapse helper. Each report method writes a counter, so we can verify they all go to the same metrics.
+        SynapseHelper mockSynapseHelper = mock(SynapseHelper.class);
+        doAnswer(invocation -> invocation.getArgumentAt(0, Metrics.class).incrementCounter("asyncJob"))
+                .when(mockSynapseHelper).reportAsyncJobMetrics(any());
+        doAnswer(invocation -> invocation.getArgumentAt(0, Metrics.class).incrementCounter("cache"))
+                .when(mockSynapseHelper).reportCacheMetrics(any());
+        doAnswer(invocation -> invocation.getArgumentAt(0, Metrics.class).incrementCounter("rateLimiter"))
+                .when(mockSynapseHelper).reportRateLimiterMetrics(any());
+
+        MetricsHelper mockMetricsHelper = mock(MetricsHelper.class);
+
+        SynapseMetricsReporter reporter = new SynapseMetricsReporter();
+        reporter.setMetricsHelper(mockMetricsHelper);
+        reporter.setSynapseHelper(mockSynapseHelper);
+
+        // execute and verify
+        reporter.reportMetrics();
+
+        ArgumentCaptor<Metrics> metricsCaptor = ArgumentCaptor.forClass(Metrics.class);
+        verify(mockMetricsHelper).publishMetrics(metricsCaptor.capture());
+        Metrics metrics = metricsCaptor.getValue();
+        assertEquals(metrics.getCounterMap().count("asyncJob"), 1);
+        assertEquals(metrics.getCounterMap().count("cache"), 1);
+        assertEquals(metrics.getCounterMap().count("rateLimiter"), 1);
+    }
+
+    @Test
+    public void disabled() {
+        // Report period of 0 means disabled. run() returns immediately instead of looping.
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.getInt(SynapseMetricsReporter.CONFIG_KEY_REPORT_PERIOD_MILLIS)).thenReturn(0);
+
+        SynapseHelper mockSynapseHelper = mock(SynapseHelper.class);
+        SynapseMetricsReporter reporter = new SynapseMetricsReporter();
+        reporter.setConfig(mockConfig);
+        reporter.setSynapseHelper(mockSynapseHelper);
+        reporter.run();
+
+        verify(mockSynapseHelper, never()).reportAsyncJobMetrics(any());
+    }
+}
@@ -0,0 +1,91 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+
+public class SynapseRateLimiterTest {
+    @Test
+    public void sharesAddUpToOne() {
+        double totalShare = 0.0;
+        for (SynapseRateLimiter.Priority onePriority : SynapseRateLimiter.Priority.values()) {
+            totalShare += onePriority.getShare();
+        }
+        assertEquals(totalShare, 1.0, 0.0001);
+    }
+
+    @Test
+    public void borrowsIdleCapacityThenWaits() throws Exception {
+        // Each class starts with one permit available. Foreground uses its own, then borrows from background and poll
+        // without waiting. Run this on a worker thread, so that waits are counted.
+        SynapseRateLimiter rateLimiter = new SynapseRateLimiter(5.0);
+        List<Long> waitMicrosList = new ArrayList<>();
+        runOnWorkerThread(() -> {
+            rateLimiter.acquire(SynapseRateLimiter.Priority.FOREGROUND);
+            rateLimiter.acquire(SynapseRateLimiter.Priority.FOREGROUND);
+            rateLimiter.acquire(SynapseRateLimiter.Priority.FOREGROUND);
+            waitMicrosList.add(rateLimiter.getAndResetWorkerWaitMicros());
+
+            // Nothing left to borrow, so the next call waits for foreground's own share.
+            rateLimiter.acquire(SynapseRateLimiter.Priority.FOREGROUND);
+            waitMicrosList.add(rateLimiter.getAndResetWorkerWaitMicros());
+        });
+        assertEquals(waitMicrosList.get(0).longValue(), 0);
+        assertTrue(waitMicrosList.get(1) > 0);
+
+        // Total is reset.
+        assertEquals(rateLimiter.getAndResetWorkerWaitMicros(), 0);
+    }
+
+    @Test
+    public void nonWorkerWaitsNotCounted() {
+        // This test thread isn't a worker thread. Its waits show up in metrics, but not in the worker wait total.
+        SynapseRateLimiter rateLimiter = new SynapseRateLimiter(5.0);
+        for (int i = 0; i < 4; i++) {
+            rateLimiter.acquire(SynapseRateLimiter.Priority.FOREGROUND);
+        }
+        assertEquals(rateLimiter.getAndResetWorkerWaitMicros(), 0);
+
+        Metrics metrics = new Metrics();
+        rateLimiter.reportMetrics(metrics);
+        assertTrue(Long.parseLong(metrics.getKeyValuesMap().get("synapseRateLimiter.foreground.waitMillis")
+                .first()) > 0);
+    }
+
+    @Test
+    public void metrics() {
+        SynapseRateLimiter rateLimiter = new SynapseRateLimiter(5.0);
+        rateLimiter.acquire(SynapseRateLimiter.Priority.POLL);
+        rateLimiter.acquire(SynapseRateLimiter.Priority.POLL);
+        rateLimiter.acquire(SynapseRateLimiter.Priority.BACKGROUND);
+
+        Metrics metrics = new Metrics();
+        rateLimiter.reportMetrics(metrics);
+        assertEquals(metrics.getKeyValuesMap().get("synapseRateLimiter.poll.permits").first(), "2");
+        assertEquals(metrics.getKeyValuesMap().get("synapseRateLimiter.poll.waitMillis").first(), "0");
+        assertEquals(metrics.getKeyValuesMap().get("synapseRateLimiter.background.permits").first(), "1");
+        assertFalse(metrics.getKeyValuesMap().containsKey("synapseRateLimiter.foreground.permits"));
+
+        // Counts are reset after reporting.
+        Metrics secondMetrics = new Metrics();
+        rateLimiter.reportMetrics(secondMetrics);
+        assertTrue(secondMetrics.getKeyValuesMap().isEmpty());
+    }
+
+    // Worker thread marks are thread-local, so run on a new thread to avoid marking the test thread.
+    private static void runOnWorkerThread(Runnable runnable) throws InterruptedException {
+        Thread workerThread = new Thread(() -> {
+            SynapseRateLimiter.markWorkerThread();
+            runnable.run();
+        });
+        workerThread.start();
+        workerThread.join();
+    }
+}
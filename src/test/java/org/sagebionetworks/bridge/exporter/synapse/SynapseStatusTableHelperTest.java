@@ -64,9 +64,9 @@ public class SynapseStatusTableHelperTest {
         when(mockManager.getSynapseTableIdFromDdb(notNull(ExportTask.class),
                 eq(SynapseHelper.DDB_TABLE_SYNAPSE_META_TABLES), eq(SynapseHelper.DDB_KEY_TABLE_NAME),
                 eq(SYNAPSE_TABLE_NAME))).thenAnswer(invocation -> synapseTableId);
-        doAnswer(invocation -> synapseTableId = invocation.getArgumentAt(4, String.class)).when(mockManager)
+        doAnswer(invocation -> synapseTableId = invocation.getArgumentAt(5, String.class)).when(mockManager)
                 .setSynapseTableIdToDdb(notNull(ExportTask.class), eq(SynapseHelper.DDB_TABLE_SYNAPSE_META_TABLES),
-                        eq(SynapseHelper.DDB_KEY_TABLE_NAME), eq(SYNAPSE_TABLE_NAME), anyString());
+                        eq(SynapseHelper.DDB_KEY_TABLE_NAME), eq(SYNAPSE_TABLE_NAME), anyString(), anyString());
 
         // mock Synapse Helper
         mockSynapseHelper = mock(SynapseHelper.class);
@@ -104,7 +104,7 @@ public class SynapseStatusTableHelperTest {
         verify(mockSynapseHelper, times(1)).createTableWithColumnsAndAcls(SynapseStatusTableHelper.COLUMN_LIST,
                 DATA_ACCESS_TEAM_ID, SYNAPSE_PRINCIPAL_ID, SYNAPSE_PROJECT_ID, SYNAPSE_TABLE_NAME);
         verify(mockManager, times(1)).setSynapseTableIdToDdb(task1, SynapseHelper.DDB_TABLE_SYNAPSE_META_TABLES,
-                SynapseHelper.DDB_KEY_TABLE_NAME, SYNAPSE_TABLE_NAME, SYNAPSE_TABLE_ID);
+                SynapseHelper.DDB_KEY_TABLE_NAME, SYNAPSE_TABLE_NAME, null, SYNAPSE_TABLE_ID);
 
         // verify write to Synapse
         ArgumentCaptor<PartialRowSet> rowSetCaptor1 = ArgumentCaptor.forClass(PartialRowSet.class);
@@ -131,7 +131,7 @@ public class SynapseStatusTableHelperTest {
         verify(mockSynapseHelper, times(1)).createTableWithColumnsAndAcls(anyListOf(ColumnModel.class), anyLong(),
                 anyLong(), anyString(), anyString());
         verify(mockManager, times(1)).setSynapseTableIdToDdb(any(ExportTask.class), anyString(), anyString(),
-                anyString(), anyString());
+                anyString(), anyString(), anyString());
 
         // Verify a second write to Synapse. (Again, verify() is cumulative.)
         ArgumentCaptor<PartialRowSet> rowSetCaptor2 = ArgumentCaptor.forClass(PartialRowSet.class);
@@ -171,7 +171,8 @@ public class SynapseStatusTableHelperTest {
         verify(mockSynapseHelper, times(1)).createTableWithColumnsAndAcls(SynapseStatusTableHelper.COLUMN_LIST,
                 DATA_ACCESS_TEAM_ID, SYNAPSE_PRINCIPAL_ID, SYNAPSE_PROJECT_ID, SYNAPSE_TABLE_NAME);
         verify(mockManager, times(1)).setSynapseTableIdToDdb(task1, SynapseHelper.DDB_TABLE_SYNAPSE_META_TABLES,
-                SynapseHelper.DDB_KEY_TABLE_NAME, SYNAPSE_TABLE_NAME, SYNAPSE_TABLE_ID);
+                SynapseHelper.DDB_KEY_TABLE_NAME, SYNAPSE_TABLE_NAME, SYNAPSE_TABLE_ID,
+                SYNAPSE_TABLE_ID);
 
         // verify write to Synapse
         ArgumentCaptor<PartialRowSet> rowSetCaptor1 = ArgumentCaptor.forClass(PartialRowSet.class);
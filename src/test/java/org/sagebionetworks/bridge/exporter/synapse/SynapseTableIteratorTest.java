@@ -30,6 +30,9 @@ public class SynapseTableIteratorTest {
     private static final List<SelectColumn> DUMMY_HEADER_LIST = ImmutableList.of();
     private static final String TEST_SYNAPSE_TABLE_ID = "test-syn001";
 
+    // Poll without sleeping, so the test runs fast.
+    private static final AsyncJobPoller ASYNC_JOB_POLLER = new AsyncJobPoller(0, 0, 10, 0);
+
     @DataProvider(name = "dataProvider")
     public Iterator<Object[]> dataProvider() {
         List<Object[]> testParamList = new ArrayList<>();
@@ -113,7 +116,8 @@ public class SynapseTableIteratorTest {
         }
 
         // set up iterator, execute, and validate
-        SynapseTableIterator tableIter = new SynapseTableIterator(mockSynapseClient, null, TEST_SYNAPSE_TABLE_ID);
+        SynapseTableIterator tableIter = new SynapseTableIterator(mockSynapseClient, null, TEST_SYNAPSE_TABLE_ID,
+                ASYNC_JOB_POLLER);
         for (int i = 0; i < numRows; i++) {
             assertTrue(tableIter.hasNext());
             // extra call to hasNext() just to make sure it doesn't advance the iterator
@@ -0,0 +1,119 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.google.common.collect.ImmutableList;
+import org.mockito.ArgumentCaptor;
+import org.sagebionetworks.repo.model.table.ColumnModel;
+import org.sagebionetworks.repo.model.table.ColumnType;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+
+public class TableSchemaCacheTest {
+    private static final String ETAG = "test-etag";
+    private static final String TABLE_ID = "test-table";
+
+    private static final List<ColumnModel> COLUMN_LIST;
+    static {
+        ColumnModel column = new ColumnModel();
+        column.setId("test-column-id");
+        column.setName("test-column");
+        column.setColumnType(ColumnType.STRING);
+        column.setMaximumSize(100L);
+        COLUMN_LIST = ImmutableList.of(column);
+    }
+
+    private TableSchemaCache cache;
+    private Table mockDdbTable;
+
+    @BeforeMethod
+    public void before() {
+        mockDdbTable = mock(Table.class);
+        cache = new TableSchemaCache(mockDdbTable, 100);
+    }
+
+    @Test
+    public void miss() {
+        assertNull(cache.get(TABLE_ID, ETAG));
+        verify(mockDdbTable).getItem(TableSchemaCache.DDB_KEY_TABLE_ID, TABLE_ID);
+    }
+
+    @Test
+    public void putAndGet() {
+        cache.put(TABLE_ID, ETAG, COLUMN_LIST);
+        assertEquals(cache.get(TABLE_ID, ETAG), COLUMN_LIST);
+
+        // Served from memory.
+        verify(mockDdbTable, times(0)).getItem(TableSchemaCache.DDB_KEY_TABLE_ID, TABLE_ID);
+    }
+
+    @Test
+    public void ddbRoundTrip() {
+        // Capture the item written to DDB, and serve it to a second cache (as if from another run).
+        ArgumentCaptor<Item> itemCaptor = ArgumentCaptor.forClass(Item.class);
+        cache.put(TABLE_ID, ETAG, COLUMN_LIST);
+        verify(mockDdbTable).putItem(itemCaptor.capture());
+
+        Item item = itemCaptor.getValue();
+        assertEquals(item.getString(TableSchemaCache.DDB_KEY_TABLE_ID), TABLE_ID);
+        assertEquals(item.getString(TableSchemaCache.DDB_KEY_ETAG), ETAG);
+
+        Table secondDdbTable = mock(Table.class);
+        when(secondDdbTable.getItem(TableSchemaCache.DDB_KEY_TABLE_ID, TABLE_ID)).thenReturn(item);
+        TableSchemaCache secondCache = new TableSchemaCache(secondDdbTable, 100);
+        assertEquals(secondCache.get(TABLE_ID, ETAG), COLUMN_LIST);
+    }
+
+    @Test
+    public void etagChanged() {
+        cache.put(TABLE_ID, ETAG, COLUMN_LIST);
+        assertNull(cache.get(TABLE_ID, "new-etag"));
+
+        // On etag mismatch, we check DDB, in case another host refreshed the cache.
+        verify(mockDdbTable).getItem(TableSchemaCache.DDB_KEY_TABLE_ID, TABLE_ID);
+    }
+
+    @Test
+    public void ddbErrorsAreMisses() {
+        when(mockDdbTable.getItem(TableSchemaCache.DDB_KEY_TABLE_ID, TABLE_ID)).thenThrow(
+                new AmazonClientException("test exception"));
+        when(mockDdbTable.putItem(any(Item.class))).thenThrow(new AmazonClientException("test exception"));
+
+        assertNull(cache.get(TABLE_ID, ETAG));
+
+        // Put still caches locally.
+        cache.put(TABLE_ID, ETAG, COLUMN_LIST);
+        assertEquals(cache.get(TABLE_ID, ETAG), COLUMN_LIST);
+    }
+
+    @Test
+    public void metrics() {
+        cache.put(TABLE_ID, ETAG, COLUMN_LIST);
+        cache.get(TABLE_ID, ETAG);
+        cache.get(TABLE_ID, "new-etag");
+
+        Metrics metrics = new Metrics();
+        cache.reportMetrics(metrics);
+        assertEquals(metrics.getKeyValuesMap().get("tableSchemaCache.hits").first(), "1");
+        assertEquals(metrics.getKeyValuesMap().get("tableSchemaCache.misses").first(), "1");
+
+        // Counts are reset after reporting.
+        Metrics secondMetrics = new Metrics();
+        cache.reportMetrics(secondMetrics);
+        assertTrue(secondMetrics.getKeyValuesMap().isEmpty());
+    }
+}
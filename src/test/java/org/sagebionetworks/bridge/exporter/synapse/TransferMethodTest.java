@@ -3,11 +3,13 @@ package org.sagebionetworks.bridge.exporter.synapse;
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.google.common.collect.ImmutableMap;
 
+import org.sagebionetworks.bridge.exporter.util.ValueInternPool;
 import org.sagebionetworks.repo.model.table.ColumnType;
 import org.testng.annotations.Test;
 
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -43,6 +45,37 @@ public class TransferMethodTest {
         assertEquals(TransferMethod.STRINGMAP.transfer(testMap, testRecord), "|subA=extA|subB=|");
     }
 
+    @Test
+    public void testTransferWithInternPool() {
+        ValueInternPool pool = new ValueInternPool();
+
+        // Equal raw values in different records get the same derived instance.
+        Item record1 = new Item().withString("string", new String("value"))
+                .withStringSet("stringSet", "b", "a").withMap("map", ImmutableMap.of("subA", "extA"));
+        Item record2 = new Item().withString("string", new String("value"))
+                .withStringSet("stringSet", "a", "b").withMap("map", ImmutableMap.of("subA", "extA"));
+
+        String string1 = TransferMethod.STRING.transfer("string", record1, pool);
+        String string2 = TransferMethod.STRING.transfer("string", record2, pool);
+        assertEquals(string1, "value");
+        assertSame(string2, string1);
+
+        String stringSet1 = TransferMethod.STRINGSET.transfer("stringSet", record1, pool);
+        String stringSet2 = TransferMethod.STRINGSET.transfer("stringSet", record2, pool);
+        assertEquals(stringSet1, "a,b");
+        assertSame(stringSet2, stringSet1);
+
+        String map1 = TransferMethod.STRINGMAP.transfer("map", record1, pool);
+        String map2 = TransferMethod.STRINGMAP.transfer("map", record2, pool);
+        assertEquals(map1, "|subA=extA|");
+        assertSame(map2, map1);
+
+        // Missing values behave the same as without the pool.
+        Item emptyRecord = new Item();
+        assertEquals(TransferMethod.STRINGSET.transfer("stringSet", emptyRecord, pool), "");
+        assertNull(TransferMethod.STRINGMAP.transfer("map", emptyRecord, pool));
+    }
+
     // branch coverage
     @Test
     public void transferStringSetWithNullValue() {
@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.exporter.util;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
@@ -8,11 +9,18 @@ import static org.testng.Assert.assertTrue;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
 import com.amazonaws.services.dynamodbv2.document.Item;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.jsoup.Jsoup;
+import org.jsoup.safety.Whitelist;
 
 import org.sagebionetworks.bridge.exporter.synapse.ColumnDefinition;
 import org.sagebionetworks.bridge.exporter.synapse.TransferMethod;
@@ -160,6 +168,38 @@ public class BridgeExporterUtilTest {
         assertEquals(out, "123 4");
     }
 
+    @DataProvider(name = "extractJsonFieldsDataProvider")
+    public Object[][] extractJsonFieldsDataProvider() {
+        return new Object[][] {
+                { "{}" },
+                { "{\"skipped\":\"value\"}" },
+                { "{\"str\":\"value\", \"skipped\":{\"nested\":[1, 2, {\"str\":\"not top level\"}]}}" },
+                { "{\"skipped\":[[], {}], \"num\":3.14, \"bool\":true, \"nil\":null}" },
+                { "{\"blob\":{\"a\":[1, \"two\", null], \"b\":{}}, \"choices\":[\"foo\", \"bar\"]}" },
+                { "{\"str\":\"first\", \"str\":\"last\"}" },
+                { "[\"not\", \"an object\"]" },
+                { "\"not an object\"" },
+        };
+    }
+
+    @Test(dataProvider = "extractJsonFieldsDataProvider")
+    public void extractJsonFields(String jsonText) throws Exception {
+        Set<String> fieldNameSet = ImmutableSet.of("str", "num", "bool", "nil", "blob", "choices", "absent");
+        JsonNode extracted = BridgeExporterUtil.extractJsonFields(jsonText, fieldNameSet);
+
+        // Should be equivalent to parsing the full tree and removing everything not in the set.
+        JsonNode expected = DefaultObjectMapper.INSTANCE.readTree(jsonText);
+        if (expected.isObject()) {
+            ((ObjectNode) expected).retain(fieldNameSet);
+        }
+        assertEquals(extracted, expected);
+    }
+
+    @Test(expectedExceptions = JsonProcessingException.class)
+    public void extractJsonFieldsMalformed() throws Exception {
+        BridgeExporterUtil.extractJsonFields("{\"skipped\":[1, 2}", ImmutableSet.of("str"));
+    }
+
     @DataProvider(name = "sanitizeStringDataProvider")
     public Object[][] sanitizeStringDataProvider() {
         return new Object[][] {
@@ -183,6 +223,88 @@ public class BridgeExporterUtilTest {
                 "dummy-study"), expected);
     }
 
+    // Differential test corpus for the sanitizer fast path. Each of these must sanitize exactly the same as
+    // Jsoup.clean().
+    @DataProvider(name = "sanitizerCorpusProvider")
+    public Object[][] sanitizerCorpusProvider() {
+        return new Object[][] {
+                { "" },
+                { "lorem ipsum" },
+                { "externalId-1234" },
+                { "{\"field\":\"value\",\"list\":[1,2,3]}" },
+                { "Caf\u00e9 na\u00efve \u65e5\u672c\u8a9e" },
+                { "emoji \ud83d\ude00 surrogate pair" },
+                { "lone surrogate \ud83d" },
+                { "non-breaking\u00a0space" },
+                { "delete\u007fchar" },
+                { "C1\u0085control" },
+                { "null\u0000char" },
+                { "bell\u0007char" },
+                { " leading space" },
+                { "trailing space " },
+                { "double  space" },
+                { "tab\tchar" },
+                { "newline\nchar" },
+                { "crlf\r\nchar" },
+                { "form\ffeed" },
+                { "a < b" },
+                { "a > b" },
+                { "fish & chips" },
+                { "&amp; &lt; &gt; &nbsp; &#39; &unknown;" },
+                { "<script>alert('xss')</script>" },
+                { "<b>bold</b> and <i>italic</i>" },
+                { "<!-- comment -->text" },
+                { "text<br>more text" },
+                { "quote\"quote 'single'" },
+                { "back\\slash" },
+                { "all printable: !#$%()*+,-./0123456789:;=?@ABCXYZ[]^_`abcxyz{|}~" },
+        };
+    }
+
+    @Test(dataProvider = "sanitizerCorpusProvider")
+    public void sanitizerMatchesJsoup(String in) {
+        assertEquals(BridgeExporterUtil.sanitizeString(in, "key", null, "dummy-record", "dummy-study"),
+                Jsoup.clean(in, Whitelist.none()));
+    }
+
+    @Test
+    public void sanitizerMatchesJsoupRandomized() {
+        // Random strings drawn from an alphabet weighted towards characters that Jsoup treats specially. Fixed seed,
+        // so failures are reproducible.
+        String alphabet = "aZ09 .,\"'\\<>&;#/=!-\t\n\r\f\u0000\u0007\u007f\u0085\u00a0\u00e9\u65e5\ud83d\ude00";
+        Random random = new Random(1234);
+        for (int i = 0; i < 5000; i++) {
+            int length = random.nextInt(20);
+            StringBuilder builder = new StringBuilder();
+            for (int j = 0; j < length; j++) {
+                builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String in = builder.toString();
+            assertEquals(BridgeExporterUtil.sanitizeString(in, "key", null, "dummy-record", "dummy-study"),
+                    Jsoup.clean(in, Whitelist.none()), "input: " + in);
+        }
+    }
+
+    @Test
+    public void isJsoupInvariant() {
+        // Typical values take the fast path.
+        assertTrue(BridgeExporterUtil.isJsoupInvariant(""));
+        assertTrue(BridgeExporterUtil.isJsoupInvariant("lorem ipsum"));
+        assertTrue(BridgeExporterUtil.isJsoupInvariant("[ \"inline\", \"json\", \"blob\" ]"));
+        assertTrue(BridgeExporterUtil.isJsoupInvariant("Caf\u00e9"));
+
+        // Anything suspicious falls back to Jsoup.
+        assertFalse(BridgeExporterUtil.isJsoupInvariant("<b>bold</b>"));
+        assertFalse(BridgeExporterUtil.isJsoupInvariant("fish & chips"));
+        assertFalse(BridgeExporterUtil.isJsoupInvariant("a > b"));
+        assertFalse(BridgeExporterUtil.isJsoupInvariant(" leading"));
+        assertFalse(BridgeExporterUtil.isJsoupInvariant("trailing "));
+        assertFalse(BridgeExporterUtil.isJsoupInvariant("double  space"));
+        assertFalse(BridgeExporterUtil.isJsoupInvariant("new\nline"));
+        assertFalse(BridgeExporterUtil.isJsoupInvariant("non-breaking\u00a0space"));
+        assertFalse(BridgeExporterUtil.isJsoupInvariant("emoji \ud83d\ude00"));
+    }
+
     @Test
     public void canConvertToColumnList() {
         // Make column definitions, one for each type.
@@ -0,0 +1,95 @@
+package org.sagebionetworks.bridge.exporter.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SortedSetMultimap;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+
+public class ValueInternPoolTest {
+    @Test
+    public void intern() {
+        ValueInternPool pool = new ValueInternPool();
+        assertNull(pool.intern(null));
+
+        String value1 = new String("value");
+        String value2 = new String("value");
+        assertSame(pool.intern(value1), value1);
+        assertSame(pool.intern(value2), value1);
+        assertEquals(pool.getSize(), 1);
+    }
+
+    @Test
+    public void memoize() {
+        ValueInternPool pool = new ValueInternPool();
+        AtomicInteger numCalls = new AtomicInteger();
+
+        // Equal raw values only derive once.
+        String derived1 = pool.memoize("namespace", ImmutableSet.of("a", "b"), rawValue -> {
+            numCalls.incrementAndGet();
+            return String.join(",", rawValue);
+        });
+        String derived2 = pool.memoize("namespace", ImmutableSet.of("a", "b"), rawValue -> {
+            numCalls.incrementAndGet();
+            return String.join(",", rawValue);
+        });
+        assertEquals(derived1, "a,b");
+        assertSame(derived2, derived1);
+        assertEquals(numCalls.get(), 1);
+
+        // Different namespaces don't collide.
+        String derived3 = pool.memoize("other-namespace", ImmutableSet.of("a", "b"), rawValue -> "other");
+        assertEquals(derived3, "other");
+
+        // Null derived values aren't memoized.
+        assertNull(pool.memoize("namespace", ImmutableSet.of("c"), rawValue -> null));
+        assertEquals(pool.memoize("namespace", ImmutableSet.of("c"), rawValue -> "c"), "c");
+    }
+
+    @Test
+    public void bounded() {
+        ValueInternPool pool = new ValueInternPool(2);
+        String foo = new String("foo");
+        String bar = new String("bar");
+        pool.intern(foo);
+        pool.intern(bar);
+        assertEquals(pool.getSize(), 2);
+
+        // Pool is full. New values aren't added, but existing values are still interned.
+        String baz1 = new String("baz");
+        String baz2 = new String("baz");
+        assertSame(pool.intern(baz1), baz1);
+        assertSame(pool.intern(baz2), baz2);
+        assertNotSame(baz2, baz1);
+        assertSame(pool.intern(new String("foo")), foo);
+
+        // Memoized values are still derived, just not remembered.
+        Set<String> rawValue = ImmutableSet.of("qux");
+        assertEquals(pool.memoize("namespace", rawValue, value -> "qux"), "qux");
+        assertEquals(pool.getSize(), 2);
+    }
+
+    @Test
+    public void reportMetrics() {
+        ValueInternPool pool = new ValueInternPool();
+        pool.intern("foo");
+        pool.intern("foo");
+        pool.intern("foo");
+        pool.intern("bar");
+
+        Metrics metrics = new Metrics();
+        pool.reportMetrics(metrics);
+        SortedSetMultimap<String, String> keyValuesMap = metrics.getKeyValuesMap();
+        assertEquals(keyValuesMap.get("valueInternPool.internHitRate"), ImmutableSet.of("50.0%"));
+        assertEquals(keyValuesMap.get("valueInternPool.memoizeHitRate"), ImmutableSet.of("n/a"));
+        assertEquals(keyValuesMap.get("valueInternPool.size"), ImmutableSet.of("2"));
+    }
+}
@@ -6,15 +6,21 @@ import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
 
 import java.io.File;
+import java.util.List;
 
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
 import org.testng.annotations.Test;
 
+import org.sagebionetworks.bridge.exporter.handler.PhoneAppVersionInfo;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterRequest;
+import org.sagebionetworks.bridge.exporter.synapse.ColumnDefinition;
+import org.sagebionetworks.bridge.exporter.synapse.TransferMethod;
 import org.sagebionetworks.bridge.json.DefaultObjectMapper;
 import org.sagebionetworks.bridge.schema.UploadSchemaKey;
 
@@ -71,7 +77,7 @@ public class ExportSubtaskTest {
     }
 
     @Test
-    public void happyCase() {
+    public void happyCase() throws Exception {
         // build
         ExportSubtask subtask = makeValidSubtaskBuilder().build();
 
@@ -91,6 +97,65 @@ public class ExportSubtaskTest {
         assertEquals(subtask.getSchemaKey(), DUMMY_SCHEMA_KEY);
     }
 
+    @Test
+    public void recordDataFromJsonText() throws Exception {
+        String jsonText = "{\"foo\":\"foo-value\", \"bar\":{\"nested\":[1, 2, 3]}, \"baz\":42}";
+        ExportSubtask subtask = makeValidSubtaskBuilder().withRecordData(null).withRecordDataJsonText(jsonText)
+                .build();
+
+        // Extracting fields only returns those fields, and doesn't parse the full tree.
+        JsonNode fieldsNode = subtask.getRecordDataFields(ImmutableSet.of("foo", "baz"));
+        assertEquals(fieldsNode.size(), 2);
+        assertEquals(fieldsNode.get("foo").textValue(), "foo-value");
+        assertEquals(fieldsNode.get("baz").intValue(), 42);
+
+        // Full record data is parsed once.
+        JsonNode recordData = subtask.getRecordData();
+        assertEquals(recordData, DefaultObjectMapper.INSTANCE.readTree(jsonText));
+        assertSame(subtask.getRecordData(), recordData);
+
+        // Once the full tree is parsed, extracting fields just returns the full tree.
+        assertSame(subtask.getRecordDataFields(ImmutableSet.of("foo")), recordData);
+    }
+
+    @Test
+    public void parsedRecordDataWinsOverJsonText() throws Exception {
+        ExportSubtask subtask = makeValidSubtaskBuilder().withRecordDataJsonText("{\"foo\":\"foo-value\"}")
+                .build();
+        assertSame(subtask.getRecordData(), DUMMY_RECORD_DATA);
+        assertSame(subtask.getRecordDataFields(ImmutableSet.of("foo")), DUMMY_RECORD_DATA);
+    }
+
+    @Test
+    public void commonValuesAreComputedOnce() {
+        Item record = new Item().withString(ExportSubtask.KEY_RECORD_ID, DUMMY_RECORD_ID)
+                .withString("metadata", "{\"appVersion\":\"version 1.0\", \"phoneInfo\":\"Unit Tests\"}")
+                .withString("externalId", "ext-id");
+        ExportSubtask subtask = makeValidSubtaskBuilder().withOriginalRecord(record).build();
+
+        // Phone and app version info is parsed once.
+        PhoneAppVersionInfo phoneAppVersionInfo = subtask.getPhoneAppVersionInfo();
+        assertEquals(phoneAppVersionInfo.getAppVersion(), "version 1.0");
+        assertEquals(phoneAppVersionInfo.getPhoneInfo(), "Unit Tests");
+        assertSame(subtask.getPhoneAppVersionInfo(), phoneAppVersionInfo);
+
+        // Column definition values are extracted once per column definition list.
+        ColumnDefinition externalIdDef = new ColumnDefinition();
+        externalIdDef.setName("externalId");
+        externalIdDef.setTransferMethod(TransferMethod.STRING);
+
+        ColumnDefinition missingDef = new ColumnDefinition();
+        missingDef.setName("missing");
+        missingDef.setTransferMethod(TransferMethod.STRING);
+
+        List<ColumnDefinition> columnDefinitionList = ImmutableList.of(externalIdDef, missingDef);
+        String[] values = subtask.getColumnDefinitionValues(columnDefinitionList);
+        assertEquals(values.length, 2);
+        assertEquals(values[0], "ext-id");
+        assertNull(values[1]);
+        assertSame(subtask.getColumnDefinitionValues(columnDefinitionList), values);
+    }
+
     private static ExportSubtask.Builder makeValidSubtaskBuilder() {
         return new ExportSubtask.Builder().withOriginalRecord(ORIGINAL_RECORD).withParentTask(DUMMY_PARENT_TASK)
                 .withRecordData(DUMMY_RECORD_DATA).withStudyId(STUDY_ID);
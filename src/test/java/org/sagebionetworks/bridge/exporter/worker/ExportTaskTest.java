@@ -63,6 +63,7 @@ public class ExportTaskTest {
 
         // validate
         assertEquals(task.getExporterDate(), DUMMY_EXPORTER_DATE);
+        assertEquals(task.getExporterDateString(), DUMMY_EXPORTER_DATE.toString());
         assertSame(task.getMetrics(), metrics);
         assertSame(task.getRequest(), DUMMY_REQUEST);
         assertSame(task.getTmpDir(), mockFile);
@@ -146,6 +147,28 @@ public class ExportTaskTest {
         assertTrue(studyIdSet.contains("baz"));
     }
 
+    @Test
+    public void outstandingSubtasks() throws Exception {
+        ExportTask task = createTask();
+        assertEquals(task.getOutstandingSubtaskCount(), 0);
+        assertEquals(task.getOutstandingSubtaskBytes(), 0);
+
+        task.addOutstandingSubtask(100);
+        task.addOutstandingSubtask(50);
+        assertEquals(task.getOutstandingSubtaskCount(), 2);
+        assertEquals(task.getOutstandingSubtaskBytes(), 150);
+
+        task.releaseOutstandingSubtask(100);
+        assertEquals(task.getOutstandingSubtaskCount(), 1);
+        assertEquals(task.getOutstandingSubtaskBytes(), 50);
+
+        // Below both limits, so this returns immediately.
+        task.waitForOutstandingSubtasksBelow(2, 51);
+
+        // 0 means no limit, so this also returns immediately.
+        task.waitForOutstandingSubtasksBelow(0, 0);
+    }
+
     private static ExportTask createTask() {
         return new ExportTask.Builder().withExporterDate(DUMMY_EXPORTER_DATE).withMetrics(new Metrics())
                 .withRequest(DUMMY_REQUEST).withTmpDir(mock(File.class)).build();
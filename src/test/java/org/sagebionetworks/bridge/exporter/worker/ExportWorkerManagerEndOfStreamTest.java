@@ -3,6 +3,7 @@ package org.sagebionetworks.bridge.exporter.worker;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
@@ -19,20 +20,28 @@ import static org.testng.Assert.fail;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.amazonaws.services.dynamodbv2.document.Item;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeUtils;
 import org.joda.time.LocalDate;
 import org.mockito.ArgumentCaptor;
+import org.mockito.stubbing.Answer;
 import org.sagebionetworks.client.exceptions.SynapseServiceUnavailable;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
@@ -41,6 +50,7 @@ import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterException;
+import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterPartialUploadException;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterTsvException;
 import org.sagebionetworks.bridge.exporter.exceptions.RestartBridgeExporterException;
 import org.sagebionetworks.bridge.exporter.handler.SchemaBasedExportHandler;
@@ -48,6 +58,7 @@ import org.sagebionetworks.bridge.exporter.handler.SynapseExportHandler;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterRequest;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterSharingMode;
+import org.sagebionetworks.bridge.exporter.synapse.SynapseHelper;
 import org.sagebionetworks.bridge.exporter.synapse.SynapseStatusTableHelper;
 import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
 import org.sagebionetworks.bridge.rest.exceptions.BadRequestException;
@@ -58,6 +69,10 @@ import org.sagebionetworks.bridge.sqs.SqsHelper;
 public class ExportWorkerManagerEndOfStreamTest {
     private static final String DUMMY_JSON_TEXT = "{\"key\":\"value\"}";
     private static final String DUMMY_RECORD_ID_OVERRIDE_BUCKET = "dummy-bucket";
+
+    // Redrive filenames are the (mocked) timestamp plus a random UUID.
+    private static final String REDRIVE_FILENAME_PREFIX = "redrive-record-ids.2016-08-16T01:30:00.001Z.";
+
     private static final DateTime START_DATE_TIME = DateTime.parse("2015-12-08T09:19:11.193-0700");
     private static final DateTime END_DATE_TIME = DateTime.parse("2015-12-08T23:31:01.799-0700");
     private static final String TEST_STUDY = "test-study";
@@ -75,6 +90,7 @@ public class ExportWorkerManagerEndOfStreamTest {
     private List<Future<?>> mockFutureList;
     private List<SchemaBasedExportHandler> mockHealthDataHandlerList;
     private List<SynapseExportHandler> mockMetaTableHandlerList;
+    private SynapseHelper mockSynapseHelper;
     private SynapseStatusTableHelper mockSynapseStatusTableHelper;
     private S3Helper mockS3Helper;
     private SqsHelper mockSqsHelper;
@@ -109,6 +125,7 @@ public class ExportWorkerManagerEndOfStreamTest {
 
         // mock helpers - Individual tests can overwrite behavior or verify different behavior.
         mockExecutor = mock(ExecutorService.class);
+        mockSynapseHelper = mock(SynapseHelper.class);
         mockSynapseStatusTableHelper = mock(SynapseStatusTableHelper.class);
         mockS3Helper = mock(S3Helper.class);
         mockSqsHelper = mock(SqsHelper.class);
@@ -117,8 +134,10 @@ public class ExportWorkerManagerEndOfStreamTest {
         manager = spy(new ExportWorkerManager());
         manager.setConfig(mockConfig);
         manager.setExecutor(mockExecutor);
+        manager.setSynapseUploadExecutor(MoreExecutors.newDirectExecutorService());
         manager.setS3Helper(mockS3Helper);
         manager.setSqsHelper(mockSqsHelper);
+        manager.setSynapseHelper(mockSynapseHelper);
         manager.setSynapseStatusTableHelper(mockSynapseStatusTableHelper);
     }
 
@@ -155,6 +174,23 @@ public class ExportWorkerManagerEndOfStreamTest {
         }).when(manager).createHealthDataHandler(any(), any());
     }
 
+    private void mockSchemaIdUploads(Map<String, Answer<Void>> schemaIdToUploadAnswer) throws Exception {
+        // Similar to mockSchemaIdExceptions(), except each upload runs the given answer. This allows tests to control
+        // when each upload finishes.
+        doAnswer(invocation -> {
+            SchemaBasedExportHandler mockHandler = mock(SchemaBasedExportHandler.class);
+
+            UploadSchemaKey schemaKey = invocation.getArgumentAt(1, UploadSchemaKey.class);
+            Answer<Void> uploadAnswer = schemaIdToUploadAnswer.get(schemaKey.getSchemaId());
+            if (uploadAnswer != null) {
+                doAnswer(uploadAnswer).when(mockHandler).uploadToSynapseForTask(any());
+            }
+
+            mockHealthDataHandlerList.add(mockHandler);
+            return mockHandler;
+        }).when(manager).createHealthDataHandler(any(), any());
+    }
+
     private void mockStudyIdExceptions(Map<String, Exception> studyIdToException) throws Exception {
         // Similarly, spy createHandlerForStudyAndType(). This injects failures into the upload TSV step of the
         // both the appVersion table and the default (schemaless) table (keyed by study).
@@ -277,8 +313,8 @@ public class ExportWorkerManagerEndOfStreamTest {
 
         // verify redrives
         // We redrive records A and C, but not E, since TSV failures skip individual record redrives.
-        verify(mockS3Helper).writeLinesToS3(DUMMY_RECORD_ID_OVERRIDE_BUCKET,
-                "redrive-record-ids.2016-08-16T01:30:00.001Z", ImmutableSet.of("record-A", "record-C"));
+        verify(mockS3Helper).writeLinesToS3(eq(DUMMY_RECORD_ID_OVERRIDE_BUCKET), startsWith(REDRIVE_FILENAME_PREFIX),
+                eq(ImmutableSet.of("record-A", "record-C")));
 
         ArgumentCaptor<BridgeExporterRequest> redriveRequestCaptor = ArgumentCaptor.forClass(
                 BridgeExporterRequest.class);
@@ -289,7 +325,7 @@ public class ExportWorkerManagerEndOfStreamTest {
         BridgeExporterRequest redriveRecordRequest = redriveRequestList.get(0);
         assertNull(redriveRecordRequest.getStartDateTime());
         assertNull(redriveRecordRequest.getEndDateTime());
-        assertEquals(redriveRecordRequest.getRecordIdS3Override(), "redrive-record-ids.2016-08-16T01:30:00.001Z");
+        assertTrue(redriveRecordRequest.getRecordIdS3Override().startsWith(REDRIVE_FILENAME_PREFIX));
         assertEquals(redriveRecordRequest.getRedriveCount(), 1);
         assertEquals(redriveRecordRequest.getSharingMode(), request.getSharingMode());
         assertEquals(redriveRecordRequest.getTag(), ExportWorkerManager.REDRIVE_TAG_PREFIX + request.getTag());
@@ -515,8 +551,8 @@ public class ExportWorkerManagerEndOfStreamTest {
         // Skip verifying futures and handlers. This is tested elsewhere.
 
         // verify redrives - We redrive one record "test-record" and one table "test-schema".
-        verify(mockS3Helper).writeLinesToS3(DUMMY_RECORD_ID_OVERRIDE_BUCKET,
-                "redrive-record-ids.2016-08-16T01:30:00.001Z", ImmutableSet.of("test-record"));
+        verify(mockS3Helper).writeLinesToS3(eq(DUMMY_RECORD_ID_OVERRIDE_BUCKET), startsWith(REDRIVE_FILENAME_PREFIX),
+                eq(ImmutableSet.of("test-record")));
 
         ArgumentCaptor<BridgeExporterRequest> redriveRequestCaptor = ArgumentCaptor.forClass(
                 BridgeExporterRequest.class);
@@ -526,7 +562,7 @@ public class ExportWorkerManagerEndOfStreamTest {
 
         // Verify redrive count is bumped to 2. Since tag included the prefix, it's unchanged.
         BridgeExporterRequest redriveRecordRequest = redriveRequestList.get(0);
-        assertEquals(redriveRecordRequest.getRecordIdS3Override(), "redrive-record-ids.2016-08-16T01:30:00.001Z");
+        assertTrue(redriveRecordRequest.getRecordIdS3Override().startsWith(REDRIVE_FILENAME_PREFIX));
         assertEquals(redriveRecordRequest.getRedriveCount(), 2);
         assertEquals(redriveRecordRequest.getTag(), request.getTag());
 
@@ -687,4 +723,396 @@ public class ExportWorkerManagerEndOfStreamTest {
         verify(mockS3Helper, never()).writeLinesToS3(any(), any(), any());
         verify(mockSqsHelper, never()).sendMessageAsJson(any(), any(), any());
     }
+
+    @Test
+    public void recordFailureSynapse503Recovered() throws Exception {
+        // "Bad record" fails with a Synapse 503, but Synapse recovers. We redrive the bad record instead of
+        // restarting, and the rest of the records and tables are processed normally.
+        Item badRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "test-schema")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "bad-record");
+        Item goodRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "test-schema")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "good-record");
+
+        SynapseServiceUnavailable synapseEx = new SynapseServiceUnavailable("test exception");
+        mockRecordIdExceptions(ImmutableMap.of("bad-record", synapseEx));
+        mockSchemaIdExceptions(ImmutableMap.of());
+        mockStudyIdExceptions(ImmutableMap.of());
+        when(mockSynapseHelper.awaitSynapseRecovery(synapseEx)).thenReturn(true);
+
+        ExportTask task = new ExportTask.Builder().withExporterDate(LocalDate.parse("2015-12-09"))
+                .withMetrics(new Metrics()).withRequest(DUMMY_REQUEST).withTmpDir(mock(File.class)).build();
+
+        // execute
+        manager.addSubtaskForRecord(task, badRecord);
+        manager.addSubtaskForRecord(task, goodRecord);
+        manager.endOfStream(task, START_DATES_BY_STUDY);
+
+        // All futures are processed.
+        assertEquals(mockFutureList.size(), 4);
+        for (Future<?> oneMockFuture : mockFutureList) {
+            verify(oneMockFuture).get();
+        }
+
+        // Tables are uploaded.
+        assertEquals(mockHealthDataHandlerList.size(), 1);
+        verify(mockHealthDataHandlerList.get(0)).uploadToSynapseForTask(task);
+
+        assertEquals(mockMetaTableHandlerList.size(), 1);
+        verify(mockMetaTableHandlerList.get(0)).uploadToSynapseForTask(task);
+
+        // Bad record is redriven. (The bad record has 2 subtasks, health data and app version, but they're de-duped.)
+        verify(mockS3Helper).writeLinesToS3(eq(DUMMY_RECORD_ID_OVERRIDE_BUCKET), startsWith(REDRIVE_FILENAME_PREFIX),
+                eq(ImmutableSet.of("bad-record")));
+        verify(mockSqsHelper).sendMessageAsJson(eq(DUMMY_SQS_QUEUE_URL), any(BridgeExporterRequest.class),
+                eq(ExportWorkerManager.REDRIVE_DELAY_SECONDS));
+    }
+
+    @Test
+    public void tableFailureSynapse503RecoveredRetriesUpload() throws Exception {
+        // "Bad schema" upload TSV fails with a 503, but Synapse recovers. The TSV is still on disk, so we retry the
+        // upload instead of redriving the table.
+        Item badRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "bad-schema")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "bad-record");
+
+        SynapseServiceUnavailable synapseEx = new SynapseServiceUnavailable("test exception");
+        mockSchemaIdExceptions(ImmutableMap.of("bad-schema", synapseEx));
+        mockRecordIdExceptions(ImmutableMap.of());
+        mockStudyIdExceptions(ImmutableMap.of());
+        when(mockSynapseHelper.awaitSynapseRecovery(synapseEx)).thenReturn(true);
+
+        ExportTask task = new ExportTask.Builder().withExporterDate(LocalDate.parse("2015-12-09"))
+                .withMetrics(new Metrics()).withRequest(DUMMY_REQUEST).withTmpDir(mock(File.class)).build();
+
+        // execute
+        manager.addSubtaskForRecord(task, badRecord);
+        SchemaBasedExportHandler badHandler = mockHealthDataHandlerList.get(0);
+        when(badHandler.retryUploadToSynapseForTask(task)).thenReturn(true);
+        manager.endOfStream(task, START_DATES_BY_STUDY);
+
+        // Upload is retried once. Nothing is redriven.
+        verify(badHandler).uploadToSynapseForTask(task);
+        verify(badHandler).retryUploadToSynapseForTask(task);
+        verify(mockSynapseStatusTableHelper).initTableAndWriteStatus(task, TEST_STUDY);
+        verify(mockS3Helper, never()).writeLinesToS3(any(), any(), any());
+        verify(mockSqsHelper, never()).sendMessageAsJson(any(), any(), any());
+    }
+
+    @Test
+    public void tableFailureSynapse503RecoveredRetryFails() throws Exception {
+        // "Bad schema" upload TSV fails with a 503. Synapse recovers, but the retry fails too. We redrive the table.
+        Item badRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "bad-schema")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "bad-record");
+
+        SynapseServiceUnavailable synapseEx = new SynapseServiceUnavailable("test exception");
+        mockSchemaIdExceptions(ImmutableMap.of("bad-schema", synapseEx));
+        mockRecordIdExceptions(ImmutableMap.of());
+        mockStudyIdExceptions(ImmutableMap.of());
+        when(mockSynapseHelper.awaitSynapseRecovery(synapseEx)).thenReturn(true);
+
+        ExportTask task = new ExportTask.Builder().withExporterDate(LocalDate.parse("2015-12-09"))
+                .withMetrics(new Metrics()).withRequest(DUMMY_REQUEST).withTmpDir(mock(File.class)).build();
+
+        // execute
+        manager.addSubtaskForRecord(task, badRecord);
+        SchemaBasedExportHandler badHandler = mockHealthDataHandlerList.get(0);
+        when(badHandler.retryUploadToSynapseForTask(task)).thenThrow(new BridgeExporterException(
+                "test retry exception"));
+        manager.endOfStream(task, START_DATES_BY_STUDY);
+
+        // Upload is retried once, then the table is redriven.
+        verify(badHandler).retryUploadToSynapseForTask(task);
+
+        ArgumentCaptor<BridgeExporterRequest> redriveRequestCaptor = ArgumentCaptor.forClass(
+                BridgeExporterRequest.class);
+        verify(mockSqsHelper).sendMessageAsJson(eq(DUMMY_SQS_QUEUE_URL), redriveRequestCaptor.capture(),
+                eq(ExportWorkerManager.REDRIVE_DELAY_SECONDS));
+        assertEquals(redriveRequestCaptor.getValue().getTableWhitelist(), ImmutableSet.of(
+                new UploadSchemaKey.Builder().withAppId(TEST_STUDY).withSchemaId("bad-schema").withRevision(1)
+                        .build()));
+    }
+
+    @Test
+    public void tableFailureSynapse503Recovered() throws Exception {
+        // "Bad schema" upload TSV fails with a 503, but Synapse recovers. The upload can't be retried (the mock
+        // handler returns false, as if the table had rotated TSVs), so we redrive the bad table instead of restarting.
+        Item badRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "bad-schema")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "bad-record");
+        Item goodRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "good-schema")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "good-record");
+
+        SynapseServiceUnavailable synapseEx = new SynapseServiceUnavailable("test exception");
+        mockSchemaIdExceptions(ImmutableMap.of("bad-schema", synapseEx));
+        mockRecordIdExceptions(ImmutableMap.of());
+        mockStudyIdExceptions(ImmutableMap.of());
+        when(mockSynapseHelper.awaitSynapseRecovery(synapseEx)).thenReturn(true);
+
+        ExportTask task = new ExportTask.Builder().withExporterDate(LocalDate.parse("2015-12-09"))
+                .withMetrics(new Metrics()).withRequest(DUMMY_REQUEST).withTmpDir(mock(File.class)).build();
+
+        // execute
+        manager.addSubtaskForRecord(task, badRecord);
+        manager.addSubtaskForRecord(task, goodRecord);
+        manager.endOfStream(task, START_DATES_BY_STUDY);
+
+        // All tables are uploaded, and status tables are written.
+        assertEquals(mockHealthDataHandlerList.size(), 2);
+        for (SchemaBasedExportHandler oneMockHandler : mockHealthDataHandlerList) {
+            verify(oneMockHandler).uploadToSynapseForTask(task);
+        }
+
+        assertEquals(mockMetaTableHandlerList.size(), 1);
+        verify(mockMetaTableHandlerList.get(0)).uploadToSynapseForTask(task);
+
+        verify(mockSynapseStatusTableHelper).initTableAndWriteStatus(task, TEST_STUDY);
+
+        // Bad table is redriven.
+        verify(mockHealthDataHandlerList.get(0)).retryUploadToSynapseForTask(task);
+        verify(mockS3Helper, never()).writeLinesToS3(any(), any(), any());
+
+        ArgumentCaptor<BridgeExporterRequest> redriveRequestCaptor = ArgumentCaptor.forClass(
+                BridgeExporterRequest.class);
+        verify(mockSqsHelper).sendMessageAsJson(eq(DUMMY_SQS_QUEUE_URL), redriveRequestCaptor.capture(),
+                eq(ExportWorkerManager.REDRIVE_DELAY_SECONDS));
+        assertEquals(redriveRequestCaptor.getValue().getTableWhitelist(), ImmutableSet.of(
+                new UploadSchemaKey.Builder().withAppId(TEST_STUDY).withSchemaId("bad-schema").withRevision(1)
+                        .build()));
+    }
+
+    @Test
+    public void partialTableFailureRedrivesRecords() throws Exception {
+        // Part of the table was imported before the upload failed. We redrive only the records that weren't imported,
+        // not the whole table.
+        Item record = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "test-schema")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "test-record");
+
+        mockSchemaIdExceptions(ImmutableMap.of("test-schema", new BridgeExporterPartialUploadException(
+                "test exception", new BridgeExporterException(), ImmutableList.of("record-1", "record-2"))));
+        mockRecordIdExceptions(ImmutableMap.of());
+        mockStudyIdExceptions(ImmutableMap.of());
+
+        ExportTask task = new ExportTask.Builder().withExporterDate(LocalDate.parse("2015-12-09"))
+                .withMetrics(new Metrics()).withRequest(DUMMY_REQUEST).withTmpDir(mock(File.class)).build();
+
+        // execute
+        manager.addSubtaskForRecord(task, record);
+        manager.endOfStream(task, START_DATES_BY_STUDY);
+
+        // Records are redriven. The table isn't.
+        verify(mockS3Helper).writeLinesToS3(eq(DUMMY_RECORD_ID_OVERRIDE_BUCKET), startsWith(REDRIVE_FILENAME_PREFIX),
+                eq(ImmutableSet.of("record-1", "record-2")));
+
+        ArgumentCaptor<BridgeExporterRequest> redriveRequestCaptor = ArgumentCaptor.forClass(
+                BridgeExporterRequest.class);
+        verify(mockSqsHelper).sendMessageAsJson(eq(DUMMY_SQS_QUEUE_URL), redriveRequestCaptor.capture(),
+                eq(ExportWorkerManager.REDRIVE_DELAY_SECONDS));
+        BridgeExporterRequest redriveRequest = redriveRequestCaptor.getValue();
+        assertTrue(redriveRequest.getRecordIdS3Override().startsWith(REDRIVE_FILENAME_PREFIX));
+        assertNull(redriveRequest.getTableWhitelist());
+    }
+
+    @Test
+    public void partialTableFailureSynapse503Recovered() throws Exception {
+        // Part of the table was imported before Synapse went down. Synapse recovers, so we redrive the records that
+        // weren't imported instead of restarting.
+        Item record = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "test-schema")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "test-record");
+
+        SynapseServiceUnavailable synapseEx = new SynapseServiceUnavailable("test exception");
+        mockSchemaIdExceptions(ImmutableMap.of("test-schema", new BridgeExporterPartialUploadException(
+                "test exception", synapseEx, ImmutableList.of("record-1"))));
+        mockRecordIdExceptions(ImmutableMap.of());
+        mockStudyIdExceptions(ImmutableMap.of());
+        when(mockSynapseHelper.awaitSynapseRecovery(synapseEx)).thenReturn(true);
+
+        ExportTask task = new ExportTask.Builder().withExporterDate(LocalDate.parse("2015-12-09"))
+                .withMetrics(new Metrics()).withRequest(DUMMY_REQUEST).withTmpDir(mock(File.class)).build();
+
+        // execute
+        manager.addSubtaskForRecord(task, record);
+        manager.endOfStream(task, START_DATES_BY_STUDY);
+
+        // Only the record redrive is sent.
+        verify(mockS3Helper).writeLinesToS3(eq(DUMMY_RECORD_ID_OVERRIDE_BUCKET), startsWith(REDRIVE_FILENAME_PREFIX),
+                eq(ImmutableSet.of("record-1")));
+        verify(mockSqsHelper, times(1)).sendMessageAsJson(any(), any(), any());
+    }
+
+    @Test
+    public void healthDataUploadsRunConcurrently() throws Exception {
+        // Two tables. Each upload waits for the other one to start. If the uploads ran one at a time, the first
+        // upload would time out waiting.
+        Item aRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "schema-A")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "record-A");
+        Item bRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "schema-B")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "record-B");
+
+        CountDownLatch bothStartedLatch = new CountDownLatch(2);
+        List<Boolean> sawOtherUploadList = Collections.synchronizedList(new ArrayList<>());
+        Answer<Void> uploadAnswer = invocation -> {
+            bothStartedLatch.countDown();
+            sawOtherUploadList.add(bothStartedLatch.await(5, TimeUnit.SECONDS));
+            return null;
+        };
+        mockSchemaIdUploads(ImmutableMap.of("schema-A", uploadAnswer, "schema-B", uploadAnswer));
+        mockRecordIdExceptions(ImmutableMap.of());
+        mockStudyIdExceptions(ImmutableMap.of());
+
+        ExecutorService uploadExecutor = Executors.newFixedThreadPool(2);
+        manager.setSynapseUploadExecutor(uploadExecutor);
+        try {
+            ExportTask task = new ExportTask.Builder().withExporterDate(LocalDate.parse("2015-12-09"))
+                    .withMetrics(new Metrics()).withRequest(DUMMY_REQUEST).withTmpDir(mock(File.class)).build();
+
+            // execute
+            manager.addSubtaskForRecord(task, aRecord);
+            manager.addSubtaskForRecord(task, bRecord);
+            manager.endOfStream(task, START_DATES_BY_STUDY);
+        } finally {
+            uploadExecutor.shutdownNow();
+        }
+
+        // Both uploads saw the other one running.
+        assertEquals(sawOtherUploadList, ImmutableList.of(true, true));
+
+        // No redrives.
+        verify(mockS3Helper, never()).writeLinesToS3(any(), any(), any());
+        verify(mockSqsHelper, never()).sendMessageAsJson(any(), any(), any());
+    }
+
+    @Test
+    public void tableFailureSynapse503CancelsRemainingUploads() throws Exception {
+        // "Bad schema" fails with a 503 while "slow schema" is still uploading. Synapse doesn't recover. We restart
+        // right away without waiting for the slow upload, and the slow upload is cancelled.
+        Item badRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "bad-schema")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "bad-record");
+        Item slowRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "slow-schema")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "slow-record");
+
+        CountDownLatch slowStartedLatch = new CountDownLatch(1);
+        CountDownLatch slowInterruptedLatch = new CountDownLatch(1);
+        AtomicBoolean slowFinished = new AtomicBoolean(false);
+        mockSchemaIdUploads(ImmutableMap.of(
+                "bad-schema", invocation -> {
+                    // Wait for the slow upload to start, so that it's running when we fail.
+                    slowStartedLatch.await(5, TimeUnit.SECONDS);
+                    throw new SynapseServiceUnavailable("test exception");
+                },
+                "slow-schema", invocation -> {
+                    slowStartedLatch.countDown();
+                    try {
+                        Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+                        slowFinished.set(true);
+                    } catch (InterruptedException ex) {
+                        slowInterruptedLatch.countDown();
+                    }
+                    return null;
+                }));
+        mockRecordIdExceptions(ImmutableMap.of());
+        mockStudyIdExceptions(ImmutableMap.of());
+
+        ExecutorService uploadExecutor = Executors.newFixedThreadPool(2);
+        manager.setSynapseUploadExecutor(uploadExecutor);
+        try {
+            ExportTask task = new ExportTask.Builder().withExporterDate(LocalDate.parse("2015-12-09"))
+                    .withMetrics(new Metrics()).withRequest(DUMMY_REQUEST).withTmpDir(mock(File.class)).build();
+
+            // execute
+            manager.addSubtaskForRecord(task, badRecord);
+            manager.addSubtaskForRecord(task, slowRecord);
+            try {
+                manager.endOfStream(task, START_DATES_BY_STUDY);
+                fail("expected exception");
+            } catch (RestartBridgeExporterException ex) {
+                assertEquals(ex.getMessage(),
+                        "Restarting Bridge Exporter; last schema=test-study-bad-schema-v1: test exception");
+            }
+
+            // The slow upload was interrupted instead of running to completion.
+            assertTrue(slowInterruptedLatch.await(5, TimeUnit.SECONDS));
+            assertFalse(slowFinished.get());
+        } finally {
+            uploadExecutor.shutdownNow();
+        }
+
+        // Meta tables and status tables are never uploaded.
+        assertEquals(mockMetaTableHandlerList.size(), 1);
+        verify(mockMetaTableHandlerList.get(0), never()).uploadToSynapseForTask(any());
+        verify(mockSynapseStatusTableHelper, never()).initTableAndWriteStatus(any(), any());
+
+        // no redrives
+        verify(mockS3Helper, never()).writeLinesToS3(any(), any(), any());
+        verify(mockSqsHelper, never()).sendMessageAsJson(any(), any(), any());
+    }
+
+    @Test
+    public void redriveTablesWithOutOfOrderUploads() throws Exception {
+        // Three tables. Uploads finish in the order C, B, A. A and C fail. We redrive exactly A and C, regardless of
+        // the order they finish in.
+        Item aRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "schema-A")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "record-A");
+        Item bRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "schema-B")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "record-B");
+        Item cRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "schema-C")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "record-C");
+
+        CountDownLatch cDoneLatch = new CountDownLatch(1);
+        CountDownLatch bDoneLatch = new CountDownLatch(1);
+        List<String> finishedSchemaList = Collections.synchronizedList(new ArrayList<>());
+        mockSchemaIdUploads(ImmutableMap.of(
+                "schema-A", invocation -> {
+                    bDoneLatch.await(5, TimeUnit.SECONDS);
+                    finishedSchemaList.add("schema-A");
+                    throw new BridgeExporterException("test exception A");
+                },
+                "schema-B", invocation -> {
+                    cDoneLatch.await(5, TimeUnit.SECONDS);
+                    finishedSchemaList.add("schema-B");
+                    bDoneLatch.countDown();
+                    return null;
+                },
+                "schema-C", invocation -> {
+                    finishedSchemaList.add("schema-C");
+                    cDoneLatch.countDown();
+                    throw new BridgeExporterException("test exception C");
+                }));
+        mockRecordIdExceptions(ImmutableMap.of());
+        mockStudyIdExceptions(ImmutableMap.of());
+
+        ExecutorService uploadExecutor = Executors.newFixedThreadPool(3);
+        manager.setSynapseUploadExecutor(uploadExecutor);
+        try {
+            BridgeExporterRequest request = new BridgeExporterRequest.Builder().withStartDateTime(START_DATE_TIME)
+                    .withEndDateTime(END_DATE_TIME).withTag("test tag").withUseLastExportTime(false).build();
+            ExportTask task = new ExportTask.Builder().withExporterDate(LocalDate.parse("2015-12-09"))
+                    .withMetrics(new Metrics()).withRequest(request).withTmpDir(mock(File.class)).build();
+
+            // execute
+            manager.addSubtaskForRecord(task, aRecord);
+            manager.addSubtaskForRecord(task, bRecord);
+            manager.addSubtaskForRecord(task, cRecord);
+            manager.endOfStream(task, START_DATES_BY_STUDY);
+        } finally {
+            uploadExecutor.shutdownNow();
+        }
+
+        // Sanity check that uploads actually finished out of order.
+        assertEquals(finishedSchemaList, ImmutableList.of("schema-C", "schema-B", "schema-A"));
+
+        // Meta tables are uploaded after all health data uploads are done.
+        assertEquals(mockMetaTableHandlerList.size(), 1);
+        verify(mockMetaTableHandlerList.get(0)).uploadToSynapseForTask(any());
+
+        // One table redrive, with exactly A and C.
+        verify(mockS3Helper, never()).writeLinesToS3(any(), any(), any());
+
+        ArgumentCaptor<BridgeExporterRequest> redriveRequestCaptor = ArgumentCaptor.forClass(
+                BridgeExporterRequest.class);
+        verify(mockSqsHelper).sendMessageAsJson(eq(DUMMY_SQS_QUEUE_URL), redriveRequestCaptor.capture(),
+                eq(ExportWorkerManager.REDRIVE_DELAY_SECONDS));
+        assertEquals(redriveRequestCaptor.getValue().getTableWhitelist(), ImmutableSet.of(
+                new UploadSchemaKey.Builder().withAppId(TEST_STUDY).withSchemaId("schema-A").withRevision(1)
+                        .build(),
+                new UploadSchemaKey.Builder().withAppId(TEST_STUDY).withSchemaId("schema-C").withRevision(1)
+                        .build()));
+    }
 }
@@ -3,26 +3,46 @@ package org.sagebionetworks.bridge.exporter.worker;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.notNull;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
+import java.io.File;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.document.BatchGetItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.gson.JsonParseException;
 import com.google.gson.stream.MalformedJsonException;
+import org.joda.time.LocalDate;
 import org.mockito.ArgumentCaptor;
 import org.sagebionetworks.client.exceptions.SynapseBadRequestException;
 import org.sagebionetworks.client.exceptions.SynapseClientException;
@@ -33,6 +53,7 @@ import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.dynamodb.DynamoScanHelper;
 import org.sagebionetworks.bridge.exporter.dynamo.DynamoHelper;
 import org.sagebionetworks.bridge.exporter.dynamo.StudyInfo;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterException;
@@ -41,10 +62,12 @@ import org.sagebionetworks.bridge.exporter.handler.AppVersionExportHandler;
 import org.sagebionetworks.bridge.exporter.handler.IosSurveyExportHandler;
 import org.sagebionetworks.bridge.exporter.handler.SchemaBasedExportHandler;
 import org.sagebionetworks.bridge.exporter.handler.SchemalessExportHandler;
+import org.sagebionetworks.bridge.exporter.handler.SynapseExportHandler;
 import org.sagebionetworks.bridge.exporter.helper.BridgeHelper;
 import org.sagebionetworks.bridge.exporter.helper.BridgeHelperTest;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterRequest;
+import org.sagebionetworks.bridge.exporter.synapse.SynapseHelper;
 import org.sagebionetworks.bridge.rest.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.rest.exceptions.BridgeSDKException;
 import org.sagebionetworks.bridge.schema.UploadSchemaKey;
@@ -90,14 +113,15 @@ public class ExportWorkerManagerTest {
 
         ExportTask mockTask = mock(ExportTask.class);
         when(mockTask.getRequest()).thenReturn(mockRequest);
+        when(mockTask.getSynapseTableIdCache()).thenReturn(new SynapseTableIdCache());
 
         // mock DDB client
         Table mockDdbTable = mock(Table.class);
-        ArgumentCaptor<Item> putItemCaptor = ArgumentCaptor.forClass(Item.class);
-        when(mockDdbTable.getItem(TEST_DDB_KEY_NAME, TEST_SYNAPSE_TABLE_NAME))
-                .thenAnswer(invocation -> ddbSynapseMapItem);
-        when(mockDdbTable.putItem(putItemCaptor.capture())).thenAnswer(invocation -> {
-            ddbSynapseMapItem = invocation.getArgumentAt(0, Item.class);
+        ArgumentCaptor<GetItemSpec> getItemSpecCaptor = ArgumentCaptor.forClass(GetItemSpec.class);
+        when(mockDdbTable.getItem(getItemSpecCaptor.capture())).thenAnswer(invocation -> ddbSynapseMapItem);
+        ArgumentCaptor<PutItemSpec> putItemSpecCaptor = ArgumentCaptor.forClass(PutItemSpec.class);
+        when(mockDdbTable.putItem(putItemSpecCaptor.capture())).thenAnswer(invocation -> {
+            ddbSynapseMapItem = invocation.getArgumentAt(0, PutItemSpec.class).getItem();
 
             // We don't care about return value, but we require one. Arbitrarily return null.
             return null;
@@ -118,18 +142,306 @@ public class ExportWorkerManagerTest {
         assertNull(retVal1);
 
         // set value
-        manager.setSynapseTableIdToDdb(mockTask, TEST_DDB_TABLE_NAME, TEST_DDB_KEY_NAME, TEST_SYNAPSE_TABLE_NAME,
-                TEST_SYNAPSE_TABLE_ID);
+        String setRetVal = manager.setSynapseTableIdToDdb(mockTask, TEST_DDB_TABLE_NAME, TEST_DDB_KEY_NAME,
+                TEST_SYNAPSE_TABLE_NAME, null, TEST_SYNAPSE_TABLE_ID);
+        assertEquals(setRetVal, TEST_SYNAPSE_TABLE_ID);
 
         // get value back
         String retVal2 = manager.getSynapseTableIdFromDdb(mockTask, TEST_DDB_TABLE_NAME, TEST_DDB_KEY_NAME,
                 TEST_SYNAPSE_TABLE_NAME);
         assertEquals(retVal2, TEST_SYNAPSE_TABLE_ID);
 
-        // validate putItemCaptor
-        Item putItem = putItemCaptor.getValue();
+        // validate get is a consistent read
+        GetItemSpec getItemSpec = getItemSpecCaptor.getValue();
+        assertTrue(getItemSpec.isConsistentRead());
+        assertEquals(getItemSpec.getKeyComponents().iterator().next().getValue(), TEST_SYNAPSE_TABLE_NAME);
+
+        // validate put is conditional on the entry not existing
+        PutItemSpec putItemSpec = putItemSpecCaptor.getValue();
+        assertEquals(putItemSpec.getConditionExpression(), "attribute_not_exists(#k)");
+        assertEquals(putItemSpec.getNameMap().get("#k"), TEST_DDB_KEY_NAME);
+        Item putItem = putItemSpec.getItem();
         assertEquals(putItem.getString(TEST_DDB_KEY_NAME), TEST_SYNAPSE_TABLE_NAME);
         assertEquals(putItem.getString(ExportWorkerManager.DDB_KEY_TABLE_ID), TEST_SYNAPSE_TABLE_ID);
+
+        // Only the initial get calls DDB. The second get is served from the task's cache.
+        verify(mockDdbTable, times(1)).getItem(any(GetItemSpec.class));
+    }
+
+    @Test
+    public void negativePreloadHitChecksDdb() {
+        // mock config
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.get(ExportWorkerManager.CONFIG_KEY_EXPORTER_DDB_PREFIX)).thenReturn(DEFAULT_DDB_PREFIX);
+
+        // mock task
+        ExportTask mockTask = mock(ExportTask.class);
+        when(mockTask.getRequest()).thenReturn(mock(BridgeExporterRequest.class));
+        when(mockTask.getSynapseTableIdCache()).thenReturn(new SynapseTableIdCache());
+
+        // mock DDB client - preload finds nothing, but another host created the table after the preload
+        Table mockDdbTable = mock(Table.class);
+        when(mockDdbTable.getItem(any(GetItemSpec.class))).thenReturn(new Item().withString(
+                ExportWorkerManager.DDB_KEY_TABLE_ID, TEST_SYNAPSE_TABLE_ID));
+
+        DynamoDB mockDdbClient = mock(DynamoDB.class);
+        when(mockDdbClient.getTable(notNull(String.class))).thenReturn(mockDdbTable);
+
+        // set up worker manager
+        ExportWorkerManager manager = new ExportWorkerManager();
+        manager.setConfig(mockConfig);
+        manager.setDdbClient(mockDdbClient);
+
+        // preload, with no tables for our study
+        mockTask.getSynapseTableIdCache().preload(SynapseHelper.DDB_TABLE_SYNAPSE_TABLES,
+                ImmutableSet.of(TEST_STUDY_ID), ImmutableMap.of());
+
+        // execute and validate - the negative hit is confirmed with a consistent read, which finds the table
+        String synapseTableId = manager.getSynapseTableIdFromDdb(mockTask, SynapseHelper.DDB_TABLE_SYNAPSE_TABLES,
+                SynapseHelper.DDB_KEY_SCHEMA_KEY, TEST_STUDY_ID + "-schema-v1");
+        assertEquals(synapseTableId, TEST_SYNAPSE_TABLE_ID);
+
+        ArgumentCaptor<GetItemSpec> getItemSpecCaptor = ArgumentCaptor.forClass(GetItemSpec.class);
+        verify(mockDdbTable).getItem(getItemSpecCaptor.capture());
+        assertTrue(getItemSpecCaptor.getValue().isConsistentRead());
+    }
+
+    @Test
+    public void setSynapseTableIdLosesRace() throws Exception {
+        // mock task
+        Metrics metrics = new Metrics();
+        ExportTask mockTask = mock(ExportTask.class);
+        when(mockTask.getMetrics()).thenReturn(metrics);
+        when(mockTask.getRequest()).thenReturn(mock(BridgeExporterRequest.class));
+        when(mockTask.getSynapseTableIdCache()).thenReturn(new SynapseTableIdCache());
+
+        // set up worker manager - another worker already wrote its table ID
+        SynapseHelper mockSynapseHelper = mock(SynapseHelper.class);
+        ExportWorkerManager manager = setupManagerForLostRace(mockSynapseHelper);
+
+        // execute and validate - we use the winning table, both now and on subsequent gets
+        String setRetVal = manager.setSynapseTableIdToDdb(mockTask, TEST_DDB_TABLE_NAME, TEST_DDB_KEY_NAME,
+                TEST_SYNAPSE_TABLE_NAME, null, TEST_SYNAPSE_TABLE_ID);
+        assertEquals(setRetVal, "winning-table-id");
+
+        String getRetVal = manager.getSynapseTableIdFromDdb(mockTask, TEST_DDB_TABLE_NAME, TEST_DDB_KEY_NAME,
+                TEST_SYNAPSE_TABLE_NAME);
+        assertEquals(getRetVal, "winning-table-id");
+
+        // The losing table is deleted.
+        verify(mockSynapseHelper).deleteTableWithRetry(TEST_SYNAPSE_TABLE_ID);
+        assertEquals(metrics.getCounterMap().get("numDuplicateSynapseTablesDeleted").get(), 1);
+        assertNull(metrics.getCounterMap().get("numOrphanedSynapseTables"));
+    }
+
+    @Test
+    public void setSynapseTableIdLosesRaceDeleteFails() throws Exception {
+        // mock task
+        Metrics metrics = new Metrics();
+        ExportTask mockTask = mock(ExportTask.class);
+        when(mockTask.getMetrics()).thenReturn(metrics);
+        when(mockTask.getRequest()).thenReturn(mock(BridgeExporterRequest.class));
+        when(mockTask.getSynapseTableIdCache()).thenReturn(new SynapseTableIdCache());
+
+        // set up worker manager - deleting the losing table fails
+        SynapseHelper mockSynapseHelper = mock(SynapseHelper.class);
+        doThrow(SynapseClientException.class).when(mockSynapseHelper).deleteTableWithRetry(TEST_SYNAPSE_TABLE_ID);
+        ExportWorkerManager manager = setupManagerForLostRace(mockSynapseHelper);
+
+        // execute and validate - we still use the winning table, and the losing table is counted as orphaned
+        String setRetVal = manager.setSynapseTableIdToDdb(mockTask, TEST_DDB_TABLE_NAME, TEST_DDB_KEY_NAME,
+                TEST_SYNAPSE_TABLE_NAME, null, TEST_SYNAPSE_TABLE_ID);
+        assertEquals(setRetVal, "winning-table-id");
+        assertEquals(metrics.getCounterMap().get("numOrphanedSynapseTables").get(), 1);
+        assertEquals(metrics.getKeyValuesMap().get("orphanedSynapseTableIds").first(), TEST_SYNAPSE_TABLE_ID);
+    }
+
+    // Sets up a worker manager where another worker already wrote its table ID to the DDB Synapse table map.
+    private static ExportWorkerManager setupManagerForLostRace(SynapseHelper synapseHelper) {
+        // mock config
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.get(ExportWorkerManager.CONFIG_KEY_EXPORTER_DDB_PREFIX)).thenReturn(DEFAULT_DDB_PREFIX);
+
+        // mock DDB client
+        Table mockDdbTable = mock(Table.class);
+        when(mockDdbTable.putItem(any(PutItemSpec.class))).thenThrow(new ConditionalCheckFailedException(
+                "test exception"));
+        when(mockDdbTable.getItem(any(GetItemSpec.class))).thenReturn(new Item().withString(
+                ExportWorkerManager.DDB_KEY_TABLE_ID, "winning-table-id"));
+
+        DynamoDB mockDdbClient = mock(DynamoDB.class);
+        when(mockDdbClient.getTable(DEFAULT_DDB_PREFIX + TEST_DDB_TABLE_NAME)).thenReturn(mockDdbTable);
+
+        ExportWorkerManager manager = new ExportWorkerManager();
+        manager.setConfig(mockConfig);
+        manager.setDdbClient(mockDdbClient);
+        manager.setSynapseHelper(synapseHelper);
+        return manager;
+    }
+
+    @Test
+    public void setSynapseTableIdReplacesDeletedTable() {
+        // mock config
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.get(ExportWorkerManager.CONFIG_KEY_EXPORTER_DDB_PREFIX)).thenReturn(DEFAULT_DDB_PREFIX);
+
+        // mock task
+        ExportTask mockTask = mock(ExportTask.class);
+        when(mockTask.getRequest()).thenReturn(mock(BridgeExporterRequest.class));
+        when(mockTask.getSynapseTableIdCache()).thenReturn(new SynapseTableIdCache());
+
+        // mock DDB client
+        Table mockDdbTable = mock(Table.class);
+        DynamoDB mockDdbClient = mock(DynamoDB.class);
+        when(mockDdbClient.getTable(DEFAULT_DDB_PREFIX + TEST_DDB_TABLE_NAME)).thenReturn(mockDdbTable);
+
+        // set up worker manager
+        ExportWorkerManager manager = new ExportWorkerManager();
+        manager.setConfig(mockConfig);
+        manager.setDdbClient(mockDdbClient);
+
+        // execute
+        String setRetVal = manager.setSynapseTableIdToDdb(mockTask, TEST_DDB_TABLE_NAME, TEST_DDB_KEY_NAME,
+                TEST_SYNAPSE_TABLE_NAME, "deleted-table-id", TEST_SYNAPSE_TABLE_ID);
+        assertEquals(setRetVal, TEST_SYNAPSE_TABLE_ID);
+
+        // validate put is conditional on the old table ID
+        ArgumentCaptor<PutItemSpec> putItemSpecCaptor = ArgumentCaptor.forClass(PutItemSpec.class);
+        verify(mockDdbTable).putItem(putItemSpecCaptor.capture());
+        PutItemSpec putItemSpec = putItemSpecCaptor.getValue();
+        assertEquals(putItemSpec.getConditionExpression(), "#t = :t");
+        assertEquals(putItemSpec.getNameMap().get("#t"), ExportWorkerManager.DDB_KEY_TABLE_ID);
+        assertEquals(putItemSpec.getValueMap().get(":t"), "deleted-table-id");
+    }
+
+    @Test
+    public void preloadSynapseTableIdsScanError() {
+        // mock config
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.get(ExportWorkerManager.CONFIG_KEY_EXPORTER_DDB_PREFIX)).thenReturn(DEFAULT_DDB_PREFIX);
+
+        // mock task
+        ExportTask mockTask = mock(ExportTask.class);
+        when(mockTask.getRequest()).thenReturn(mock(BridgeExporterRequest.class));
+        when(mockTask.getSynapseTableIdCache()).thenReturn(new SynapseTableIdCache());
+
+        // mock DDB client - scans and batch gets fail, but getItem still works
+        Table mockDdbTable = mock(Table.class);
+        when(mockDdbTable.getItem(any(GetItemSpec.class))).thenReturn(new Item().withString(
+                ExportWorkerManager.DDB_KEY_TABLE_ID, TEST_SYNAPSE_TABLE_ID));
+
+        DynamoDB mockDdbClient = mock(DynamoDB.class);
+        when(mockDdbClient.getTable(notNull(String.class))).thenReturn(mockDdbTable);
+        when(mockDdbClient.batchGetItem(any(TableKeysAndAttributes.class))).thenThrow(new AmazonClientException(
+                "test exception"));
+
+        DynamoScanHelper mockDdbScanHelper = mock(DynamoScanHelper.class);
+        when(mockDdbScanHelper.scan(mockDdbTable)).thenThrow(new AmazonClientException("test exception"));
+
+        // set up worker manager
+        ExportWorkerManager manager = new ExportWorkerManager();
+        manager.setConfig(mockConfig);
+        manager.setDdbClient(mockDdbClient);
+        manager.setDdbScanHelper(mockDdbScanHelper);
+
+        // execute and validate - preload doesn't throw, and lookups fall back to DDB
+        manager.preloadSynapseTableIds(mockTask, ImmutableSet.of(TEST_STUDY_ID));
+        String synapseTableId = manager.getSynapseTableIdFromDdb(mockTask, SynapseHelper.DDB_TABLE_SYNAPSE_TABLES,
+                SynapseHelper.DDB_KEY_SCHEMA_KEY, TEST_STUDY_ID + "-schema-v1");
+        assertEquals(synapseTableId, TEST_SYNAPSE_TABLE_ID);
+
+        String metaTableId = manager.getSynapseTableIdFromDdb(mockTask, SynapseHelper.DDB_TABLE_SYNAPSE_META_TABLES,
+                SynapseHelper.DDB_KEY_TABLE_NAME, TEST_STUDY_ID + "-default");
+        assertEquals(metaTableId, TEST_SYNAPSE_TABLE_ID);
+    }
+
+    @Test
+    public void preloadSynapseTableIds() {
+        // mock config
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.get(ExportWorkerManager.CONFIG_KEY_EXPORTER_DDB_PREFIX)).thenReturn(DEFAULT_DDB_PREFIX);
+
+        // mock task
+        ExportTask mockTask = mock(ExportTask.class);
+        when(mockTask.getRequest()).thenReturn(mock(BridgeExporterRequest.class));
+        when(mockTask.getSynapseTableIdCache()).thenReturn(new SynapseTableIdCache());
+
+        // mock DDB client - SynapseTables is scanned. SynapseMetaTables is batch gotten, and only has the default
+        // table.
+        Table mockSchemaTable = mock(Table.class);
+        DynamoScanHelper mockDdbScanHelper = mock(DynamoScanHelper.class);
+        when(mockDdbScanHelper.scan(mockSchemaTable)).thenReturn(ImmutableList.of(new Item()
+                .withString(SynapseHelper.DDB_KEY_SCHEMA_KEY, TEST_STUDY_ID + "-schema-v1")
+                .withString(ExportWorkerManager.DDB_KEY_TABLE_ID, "schema-table-id")));
+
+        String metaTableName = DEFAULT_DDB_PREFIX + SynapseHelper.DDB_TABLE_SYNAPSE_META_TABLES;
+        BatchGetItemOutcome mockBatchGetOutcome = mock(BatchGetItemOutcome.class);
+        when(mockBatchGetOutcome.getTableItems()).thenReturn(ImmutableMap.of(metaTableName, ImmutableList.of(
+                new Item().withString(SynapseHelper.DDB_KEY_TABLE_NAME, TEST_STUDY_ID + "-default")
+                        .withString(ExportWorkerManager.DDB_KEY_TABLE_ID, "default-table-id"))));
+
+        DynamoDB mockDdbClient = mock(DynamoDB.class);
+        when(mockDdbClient.getTable(DEFAULT_DDB_PREFIX + SynapseHelper.DDB_TABLE_SYNAPSE_TABLES)).thenReturn(
+                mockSchemaTable);
+        ArgumentCaptor<TableKeysAndAttributes> keysCaptor = ArgumentCaptor.forClass(TableKeysAndAttributes.class);
+        when(mockDdbClient.batchGetItem(keysCaptor.capture())).thenReturn(mockBatchGetOutcome);
+
+        // set up worker manager
+        ExportWorkerManager manager = new ExportWorkerManager();
+        manager.setConfig(mockConfig);
+        manager.setDdbClient(mockDdbClient);
+        manager.setDdbScanHelper(mockDdbScanHelper);
+
+        // execute
+        manager.preloadSynapseTableIds(mockTask, ImmutableSet.of(TEST_STUDY_ID));
+
+        // validate - we batch get exactly the meta table keys for the study
+        TableKeysAndAttributes keys = keysCaptor.getValue();
+        assertEquals(keys.getTableName(), metaTableName);
+        assertEquals(keys.getPrimaryKeys().size(), ExportWorkerManager.META_TABLE_KEY_SUFFIX_LIST.size());
+
+        // All lookups are served from the cache, without calling DDB again.
+        SynapseTableIdCache cache = mockTask.getSynapseTableIdCache();
+        assertEquals(cache.get(SynapseHelper.DDB_TABLE_SYNAPSE_TABLES, TEST_STUDY_ID + "-schema-v1").get(),
+                "schema-table-id");
+        assertEquals(cache.get(SynapseHelper.DDB_TABLE_SYNAPSE_META_TABLES, TEST_STUDY_ID + "-default").get(),
+                "default-table-id");
+        assertFalse(cache.get(SynapseHelper.DDB_TABLE_SYNAPSE_META_TABLES, TEST_STUDY_ID + "-status").isPresent());
+    }
+
+    @Test
+    public void preloadSynapseTableIdsSkipsScanForRedrive() {
+        // mock config
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.get(ExportWorkerManager.CONFIG_KEY_EXPORTER_DDB_PREFIX)).thenReturn(DEFAULT_DDB_PREFIX);
+
+        // mock task - record redrive
+        BridgeExporterRequest mockRequest = mock(BridgeExporterRequest.class);
+        when(mockRequest.getRecordIdS3Override()).thenReturn("record-ids.txt");
+
+        ExportTask mockTask = mock(ExportTask.class);
+        when(mockTask.getRequest()).thenReturn(mockRequest);
+        when(mockTask.getSynapseTableIdCache()).thenReturn(new SynapseTableIdCache());
+
+        // mock DDB client
+        DynamoDB mockDdbClient = mock(DynamoDB.class);
+        when(mockDdbClient.getTable(notNull(String.class))).thenReturn(mock(Table.class));
+        when(mockDdbClient.batchGetItem(any(TableKeysAndAttributes.class))).thenReturn(mock(
+                BatchGetItemOutcome.class));
+        DynamoScanHelper mockDdbScanHelper = mock(DynamoScanHelper.class);
+
+        // set up worker manager
+        ExportWorkerManager manager = new ExportWorkerManager();
+        manager.setConfig(mockConfig);
+        manager.setDdbClient(mockDdbClient);
+        manager.setDdbScanHelper(mockDdbScanHelper);
+
+        // execute and validate - meta tables are still preloaded, but SynapseTables isn't scanned
+        manager.preloadSynapseTableIds(mockTask, ImmutableSet.of(TEST_STUDY_ID));
+        verify(mockDdbScanHelper, never()).scan(any());
+        verify(mockDdbClient).batchGetItem(any(TableKeysAndAttributes.class));
+        assertNull(mockTask.getSynapseTableIdCache().get(SynapseHelper.DDB_TABLE_SYNAPSE_TABLES,
+                TEST_STUDY_ID + "-schema-v1"));
     }
 
     @Test
@@ -421,6 +733,128 @@ public class ExportWorkerManagerTest {
         verify(mockTask, times(4)).addSubtaskFuture(any());
     }
 
+    @Test
+    public void subtasksParkedWhileTableInitializing() throws Exception {
+        // Mock executor.
+        ExecutorService mockExecutor = mock(ExecutorService.class);
+
+        // Mock task. We only need metrics.
+        ExportTask mockTask = mock(ExportTask.class);
+        when(mockTask.getMetrics()).thenReturn(new Metrics());
+
+        // Mock handler. Table initialization for this task has started, but hasn't finished yet.
+        CompletableFuture<TsvInfo> tsvInitFuture = new CompletableFuture<>();
+        SynapseExportHandler mockHandler = mock(SynapseExportHandler.class);
+        when(mockHandler.getTsvInitFutureForTask(mockTask)).thenReturn(tsvInitFuture);
+
+        // Set up worker manager. Spy the factory method so both the app version and schemaless tables use our handler.
+        ExportWorkerManager manager = spy(new ExportWorkerManager());
+        manager.setExecutor(mockExecutor);
+        doReturn(mockHandler).when(manager).createHandlerForStudyAndType(any(), any());
+
+        // Execute.
+        Item record = new Item().withString("studyId", TEST_STUDY_ID).withString("data", DUMMY_JSON_TEXT);
+        manager.addSubtaskForRecord(mockTask, record);
+
+        // Both subtasks are tracked in the task, but neither was submitted to the executor.
+        verify(mockTask, times(2)).addSubtaskFuture(any());
+        verify(mockExecutor, never()).submit(any(ExportWorker.class));
+        verify(mockExecutor, never()).execute(any());
+
+        // Finish table initialization. Both subtasks are now submitted.
+        tsvInitFuture.complete(mock(TsvInfo.class));
+        verify(mockExecutor, times(2)).execute(any(FutureTask.class));
+    }
+
+    @Test
+    public void parkedSubtaskRunsInlineIfExecutorRejects() throws Exception {
+        // Mock executor. It's shut down, so it rejects everything.
+        ExecutorService mockExecutor = mock(ExecutorService.class);
+        doThrow(RejectedExecutionException.class).when(mockExecutor).execute(any());
+
+        // Mock task. We only need metrics.
+        ExportTask mockTask = mock(ExportTask.class);
+        when(mockTask.getMetrics()).thenReturn(new Metrics());
+        ArgumentCaptor<ExportSubtaskFuture> subtaskFutureCaptor = ArgumentCaptor.forClass(ExportSubtaskFuture.class);
+        doNothing().when(mockTask).addSubtaskFuture(subtaskFutureCaptor.capture());
+
+        // Mock handler. Table initialization for this task hasn't finished yet.
+        CompletableFuture<TsvInfo> tsvInitFuture = new CompletableFuture<>();
+        SynapseExportHandler mockHandler = mock(SynapseExportHandler.class);
+        when(mockHandler.getTsvInitFutureForTask(mockTask)).thenReturn(tsvInitFuture);
+
+        // Set up worker manager.
+        ExportWorkerManager manager = spy(new ExportWorkerManager());
+        manager.setExecutor(mockExecutor);
+        doReturn(mockHandler).when(manager).createHandlerForStudyAndType(any(), any());
+
+        // Execute.
+        Item record = new Item().withString("studyId", TEST_STUDY_ID).withString("data", DUMMY_JSON_TEXT);
+        manager.addSubtaskForRecord(mockTask, record);
+        tsvInitFuture.complete(mock(TsvInfo.class));
+
+        // The parked subtasks ran inline, so their futures are done and endOfStream won't hang.
+        List<ExportSubtaskFuture> subtaskFutureList = subtaskFutureCaptor.getAllValues();
+        assertEquals(subtaskFutureList.size(), 2);
+        for (ExportSubtaskFuture oneSubtaskFuture : subtaskFutureList) {
+            assertTrue(oneSubtaskFuture.getFuture().isDone());
+        }
+        verify(mockHandler, times(2)).handleAsync(any());
+    }
+
+    @Test
+    public void recordAccountedOnceAcrossHandlers() throws Exception {
+        // Mock executor.
+        ArgumentCaptor<ExportWorker> workerCaptor = ArgumentCaptor.forClass(ExportWorker.class);
+        ExecutorService mockExecutor = mock(ExecutorService.class);
+        when(mockExecutor.submit(workerCaptor.capture())).thenAnswer(invocation -> mock(Future.class));
+
+        // Use a real task, since it does the accounting.
+        ExportTask task = new ExportTask.Builder().withExporterDate(LocalDate.parse("2015-12-09"))
+                .withMetrics(new Metrics()).withRequest(mock(BridgeExporterRequest.class))
+                .withTmpDir(mock(File.class)).build();
+
+        // Set up worker manager. Spy the factory method so both the app version and schemaless tables use our handler.
+        SynapseExportHandler mockHandler = mock(SynapseExportHandler.class);
+        ExportWorkerManager manager = spy(new ExportWorkerManager());
+        manager.setExecutor(mockExecutor);
+        doReturn(mockHandler).when(manager).createHandlerForStudyAndType(any(), any());
+
+        // Execute. The record is counted once, even though it has two workers.
+        Item record = new Item().withString("studyId", TEST_STUDY_ID).withString("data", DUMMY_JSON_TEXT);
+        manager.addSubtaskForRecord(task, record);
+        assertEquals(task.getOutstandingSubtaskCount(), 1);
+        assertEquals(task.getOutstandingSubtaskBytes(), ExportWorkerManager.MIN_SUBTASK_BYTES);
+
+        // The record stays outstanding until both workers are done.
+        List<ExportWorker> workerList = workerCaptor.getAllValues();
+        assertEquals(workerList.size(), 2);
+
+        workerList.get(0).call();
+        assertEquals(task.getOutstandingSubtaskCount(), 1);
+        assertEquals(task.getOutstandingSubtaskBytes(), ExportWorkerManager.MIN_SUBTASK_BYTES);
+
+        workerList.get(1).call();
+        assertEquals(task.getOutstandingSubtaskCount(), 0);
+        assertEquals(task.getOutstandingSubtaskBytes(), 0);
+    }
+
+    @Test
+    public void estimateSubtaskBytes() {
+        // Records with no data still count as the minimum.
+        ExportSubtask emptySubtask = new ExportSubtask.Builder().withOriginalRecord(new Item())
+                .withParentTask(mock(ExportTask.class)).withRecordDataJsonText("{}").withStudyId(TEST_STUDY_ID)
+                .build();
+        assertEquals(ExportWorkerManager.estimateSubtaskBytes(emptySubtask), ExportWorkerManager.MIN_SUBTASK_BYTES);
+
+        // Large records count as 4 bytes per char.
+        String data = Strings.repeat("a", 1000);
+        ExportSubtask largeSubtask = new ExportSubtask.Builder()
+                .withOriginalRecord(new Item().withString("data", data)).withParentTask(mock(ExportTask.class))
+                .withRecordDataJsonText(data).withStudyId(TEST_STUDY_ID).build();
+        assertEquals(ExportWorkerManager.estimateSubtaskBytes(largeSubtask), 4000);
+    }
+
     @DataProvider(name = "isSynapseDownProvider")
     public Object[][] isSynapseDownProvider() {
         // { exception, expected }
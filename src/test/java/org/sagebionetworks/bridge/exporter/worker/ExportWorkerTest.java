@@ -1,10 +1,17 @@
 package org.sagebionetworks.bridge.exporter.worker;
 
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
 
 import org.testng.annotations.Test;
 
+import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterException;
 import org.sagebionetworks.bridge.exporter.handler.ExportHandler;
 
 // ExportWorker is a fairly trivial class. This class exists mainly for unit test coverage.
@@ -17,6 +24,49 @@ public class ExportWorkerTest {
 
         // execute and verify call-through
         new ExportWorker(mockHandler, mockSubtask).call();
-        verify(mockHandler).handle(mockSubtask);
+        verify(mockHandler).handleAsync(mockSubtask);
+    }
+
+    @Test
+    public void releasesOutstandingSubtaskEvenOnError() throws Exception {
+        // mock task, subtask, and handler
+        ExportTask mockTask = mock(ExportTask.class);
+        ExportSubtask mockSubtask = mock(ExportSubtask.class);
+        OutstandingSubtask outstandingSubtask = new OutstandingSubtask(mockTask, 100);
+
+        ExportHandler mockHandler = mock(ExportHandler.class);
+        doThrow(BridgeExporterException.class).when(mockHandler).handleAsync(mockSubtask);
+
+        // execute
+        try {
+            new ExportWorker(mockHandler, mockSubtask, outstandingSubtask).call();
+            fail("expected exception");
+        } catch (BridgeExporterException ex) {
+            // expected exception
+        }
+
+        // verify subtask is released
+        verify(mockTask).releaseOutstandingSubtask(100);
+    }
+
+    @Test
+    public void releasesOutstandingSubtaskWhenPendingRowCompletes() throws Exception {
+        // mock task, subtask, and handler
+        ExportTask mockTask = mock(ExportTask.class);
+        ExportSubtask mockSubtask = mock(ExportSubtask.class);
+        OutstandingSubtask outstandingSubtask = new OutstandingSubtask(mockTask, 100);
+
+        // Handler is still writing the row in the background.
+        CompletableFuture<Void> pendingFuture = new CompletableFuture<>();
+        ExportHandler mockHandler = mock(ExportHandler.class);
+        when(mockHandler.handleAsync(mockSubtask)).thenReturn(pendingFuture);
+
+        // execute - subtask isn't released while the row is pending
+        new ExportWorker(mockHandler, mockSubtask, outstandingSubtask).call();
+        verify(mockTask, never()).releaseOutstandingSubtask(100);
+
+        // subtask is released when the row is written
+        pendingFuture.complete(null);
+        verify(mockTask).releaseOutstandingSubtask(100);
     }
 }
@@ -0,0 +1,30 @@
+package org.sagebionetworks.bridge.exporter.worker;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.testng.annotations.Test;
+
+public class OutstandingSubtaskTest {
+    @Test
+    public void releasedWithLastReference() {
+        // Creating the subtask adds it to the task.
+        ExportTask mockTask = mock(ExportTask.class);
+        OutstandingSubtask outstandingSubtask = new OutstandingSubtask(mockTask, 100);
+        verify(mockTask).addOutstandingSubtask(100);
+
+        // Two workers retain it.
+        outstandingSubtask.retain();
+        outstandingSubtask.retain();
+
+        // Creator and first worker release. Still outstanding.
+        outstandingSubtask.release();
+        outstandingSubtask.release();
+        verify(mockTask, never()).releaseOutstandingSubtask(100);
+
+        // Last worker releases. Now it's released from the task.
+        outstandingSubtask.release();
+        verify(mockTask).releaseOutstandingSubtask(100);
+    }
+}
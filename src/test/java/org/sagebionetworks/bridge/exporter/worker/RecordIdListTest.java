@@ -0,0 +1,145 @@
+package org.sagebionetworks.bridge.exporter.worker;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.Test;
+
+public class RecordIdListTest {
+    @Test
+    public void empty() {
+        RecordIdList recordIdList = new RecordIdList();
+        assertEquals(recordIdList.size(), 0);
+        assertTrue(recordIdList.toList().isEmpty());
+
+        List<List<String>> batchList = new ArrayList<>();
+        recordIdList.forEachBatch(25, batchList::add);
+        assertTrue(batchList.isEmpty());
+    }
+
+    @Test
+    public void roundTrip() {
+        // Mix of UUIDs (stored compactly) and other record IDs (stored as is). Uppercase UUIDs aren't canonical, so
+        // they're stored as is, to make sure they round trip exactly.
+        Random random = new Random(1234);
+        List<String> expectedList = new ArrayList<>();
+        RecordIdList recordIdList = new RecordIdList();
+        for (int i = 0; i < 1000; i++) {
+            String recordId;
+            switch (random.nextInt(4)) {
+                case 0:
+                    recordId = "legacy-record-" + i;
+                    break;
+                case 1:
+                    recordId = new UUID(random.nextLong(), random.nextLong()).toString().toUpperCase();
+                    break;
+                default:
+                    recordId = new UUID(random.nextLong(), random.nextLong()).toString();
+                    break;
+            }
+            expectedList.add(recordId);
+            recordIdList.add(recordId);
+        }
+
+        assertEquals(recordIdList.size(), 1000);
+        assertEquals(recordIdList.toList(), expectedList);
+    }
+
+    @Test
+    public void edgeUuids() {
+        List<String> expectedList = ImmutableList.of("00000000-0000-0000-0000-000000000000",
+                "ffffffff-ffff-ffff-ffff-ffffffffffff", "0123abcd-4567-89ef-0123-456789abcdef",
+                "0123abcd_4567-89ef-0123-456789abcdef", "0123abcg-4567-89ef-0123-456789abcdef", "");
+        RecordIdList recordIdList = new RecordIdList();
+        expectedList.forEach(recordIdList::add);
+        assertEquals(recordIdList.toList(), expectedList);
+    }
+
+    @Test
+    public void batches() {
+        RecordIdList recordIdList = new RecordIdList();
+        List<String> expectedList = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            String recordId = i % 2 == 0 ? UUID.randomUUID().toString() : "record-" + i;
+            expectedList.add(recordId);
+            recordIdList.add(recordId);
+        }
+
+        List<List<String>> batchList = new ArrayList<>();
+        recordIdList.forEachBatch(25, batchList::add);
+        assertEquals(batchList.size(), 3);
+        assertEquals(batchList.get(0), expectedList.subList(0, 25));
+        assertEquals(batchList.get(1), expectedList.subList(25, 50));
+        assertEquals(batchList.get(2), expectedList.subList(50, 60));
+    }
+
+    @Test
+    public void rangeBatches() {
+        // Mix of UUIDs and other record IDs, so the range has to skip over non-UUID entries before the start.
+        RecordIdList recordIdList = new RecordIdList();
+        List<String> expectedList = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            String recordId = i % 3 == 0 ? "record-" + i : UUID.randomUUID().toString();
+            expectedList.add(recordId);
+            recordIdList.add(recordId);
+        }
+
+        List<List<String>> batchList = new ArrayList<>();
+        recordIdList.forEachBatch(10, 40, 25, batchList::add);
+        assertEquals(batchList.size(), 2);
+        assertEquals(batchList.get(0), expectedList.subList(10, 35));
+        assertEquals(batchList.get(1), expectedList.subList(35, 40));
+
+        // Ranges past the end stop at the end.
+        batchList.clear();
+        recordIdList.forEachBatch(50, 100, 25, batchList::add);
+        assertEquals(batchList, ImmutableList.of(expectedList.subList(50, 60)));
+
+        batchList.clear();
+        recordIdList.forEachBatch(60, 100, 25, batchList::add);
+        assertTrue(batchList.isEmpty());
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void invalidRange() {
+        new RecordIdList().forEachBatch(5, 4, 25, batch -> {});
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void invalidBatchSize() {
+        new RecordIdList().forEachBatch(0, batch -> {});
+    }
+
+    @Test
+    public void concurrentAppends() throws Exception {
+        RecordIdList recordIdList = new RecordIdList();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futureList = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futureList.add(executor.submit(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        recordIdList.add(UUID.randomUUID().toString());
+                    }
+                }));
+            }
+            for (Future<?> oneFuture : futureList) {
+                oneFuture.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(recordIdList.size(), 4000);
+        assertEquals(recordIdList.toList().size(), 4000);
+    }
+}
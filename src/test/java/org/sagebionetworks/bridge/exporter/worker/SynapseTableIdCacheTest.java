@@ -0,0 +1,59 @@
+package org.sagebionetworks.bridge.exporter.worker;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+
+import java.util.Optional;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+
+public class SynapseTableIdCacheTest {
+    private static final String DDB_TABLE_NAME = "test-ddb-table";
+    private static final String OTHER_DDB_TABLE_NAME = "other-ddb-table";
+
+    @Test
+    public void unknownKey() {
+        assertNull(new SynapseTableIdCache().get(DDB_TABLE_NAME, "study-key"));
+    }
+
+    @Test
+    public void putAndGet() {
+        SynapseTableIdCache cache = new SynapseTableIdCache();
+        cache.put(DDB_TABLE_NAME, "study-key", "table-id");
+        assertEquals(cache.get(DDB_TABLE_NAME, "study-key"), Optional.of("table-id"));
+
+        // Keys are scoped to the DDB table.
+        assertNull(cache.get(OTHER_DDB_TABLE_NAME, "study-key"));
+    }
+
+    @Test
+    public void putNullMeansNoTable() {
+        SynapseTableIdCache cache = new SynapseTableIdCache();
+        cache.put(DDB_TABLE_NAME, "study-key", null);
+        assertFalse(cache.get(DDB_TABLE_NAME, "study-key").isPresent());
+    }
+
+    @Test
+    public void preload() {
+        SynapseTableIdCache cache = new SynapseTableIdCache();
+        cache.put(DDB_TABLE_NAME, "study-created", "created-table-id");
+        cache.preload(DDB_TABLE_NAME, ImmutableSet.of("study"), ImmutableMap.of("study-key", "table-id",
+                "study-created", "stale-table-id", "other-study-key", "other-table-id"));
+
+        // Preloaded keys.
+        assertEquals(cache.get(DDB_TABLE_NAME, "study-key"), Optional.of("table-id"));
+
+        // Preload doesn't clobber existing entries.
+        assertEquals(cache.get(DDB_TABLE_NAME, "study-created"), Optional.of("created-table-id"));
+
+        // Keys for preloaded studies that aren't in DDB are known not to exist.
+        assertFalse(cache.get(DDB_TABLE_NAME, "study-no-table").isPresent());
+
+        // Keys for other studies and other DDB tables aren't cached.
+        assertNull(cache.get(DDB_TABLE_NAME, "other-study-key"));
+        assertNull(cache.get(OTHER_DDB_TABLE_NAME, "study-key"));
+    }
+}
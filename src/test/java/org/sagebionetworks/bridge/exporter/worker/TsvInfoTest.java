@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.exporter.worker;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
@@ -8,6 +9,7 @@ import static org.testng.Assert.fail;
 
 import java.io.File;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.List;
 
 import com.google.common.collect.ImmutableList;
@@ -103,4 +105,57 @@ public class TsvInfoTest {
         assertEquals(errorTsvInfo.getLineCount(), 0);
         assertEquals(errorTsvInfo.getRecordIds().size(), 0);
     }
+
+    @Test
+    public void writeRowForRecordAndCloseForWrites() throws Exception {
+        // Write a row. Record ID is tracked with the row.
+        assertTrue(tsvInfo.writeRowForRecord(TEST_RECORD_ID, new String[] { "foo value", "bar" }));
+        assertEquals(tsvInfo.getLineCount(), 1);
+        assertEquals(tsvInfo.getRecordIds(), ImmutableList.of(TEST_RECORD_ID));
+
+        // Approximate byte count is the length of the values plus one per column.
+        assertEquals(tsvInfo.getApproximateByteCount(), 14);
+
+        // Close for writes. Further writes are rejected and neither the row nor the record ID are tracked.
+        tsvInfo.closeForWrites();
+        assertFalse(tsvInfo.writeRowForRecord("other record id", new String[] { "rejected", null }));
+        assertEquals(tsvInfo.getLineCount(), 1);
+        assertEquals(tsvInfo.getRecordIds(), ImmutableList.of(TEST_RECORD_ID));
+
+        // Validate TSV File.
+        tsvInfo.flushAndCloseWriter();
+        String expectedFileContents = "\"foo\"\t\"bar\"\n" +
+                "\"foo value\"\t\"bar\"\n";
+        String actualFileContents = new String(inMemoryFileHelper.getBytes(tsvFile));
+        assertEquals(actualFileContents, expectedFileContents);
+    }
+
+    @Test
+    public void recordIdBatches() {
+        tsvInfo.addRecordId("record-1");
+        tsvInfo.addRecordId("record-2");
+        tsvInfo.addRecordId("record-3");
+
+        List<List<String>> batchList = new ArrayList<>();
+        tsvInfo.forEachRecordIdBatch(2, batchList::add);
+        assertEquals(batchList, ImmutableList.of(ImmutableList.of("record-1", "record-2"),
+                ImmutableList.of("record-3")));
+    }
+
+    @Test
+    public void writeRowArray() throws Exception {
+        // Rows written as arrays are in column order, and null values are written as empty.
+        assertTrue(tsvInfo.writeRowForRecord(TEST_RECORD_ID, new String[] { "foo value", null }));
+        assertTrue(tsvInfo.writeRowForRecord("second record id", new String[] { null, "bar value" }));
+        assertEquals(tsvInfo.getLineCount(), 2);
+        assertEquals(tsvInfo.getRecordIds(), ImmutableList.of(TEST_RECORD_ID, "second record id"));
+        assertEquals(tsvInfo.getApproximateByteCount(), 22);
+
+        tsvInfo.flushAndCloseWriter();
+        String expectedFileContents = "\"foo\"\t\"bar\"\n" +
+                "\"foo value\"\t\n" +
+                "\t\"bar value\"\n";
+        String actualFileContents = new String(inMemoryFileHelper.getBytes(tsvFile));
+        assertEquals(actualFileContents, expectedFileContents);
+    }
 }
@@ -0,0 +1,120 @@
+package org.sagebionetworks.bridge.exporter.worker;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.exporter.metrics.MetricsHelper;
+import org.sagebionetworks.bridge.exporter.synapse.SynapseHelper;
+
+public class WorkerPoolControllerTest {
+    private static final int MIN_POOL_SIZE = 2;
+    private static final int MAX_POOL_SIZE = 5;
+
+    private WorkerPoolController controller;
+    private SynapseHelper mockSynapseHelper;
+    private ThreadPoolExecutor workerExecutor;
+    private BlockingQueue<Runnable> workQueue;
+
+    @BeforeMethod
+    public void before() {
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.getInt(WorkerPoolController.CONFIG_KEY_ADJUST_PERIOD_MILLIS)).thenReturn(1000);
+        when(mockConfig.getInt(WorkerPoolController.CONFIG_KEY_MAX_COUNT)).thenReturn(MAX_POOL_SIZE);
+        when(mockConfig.getInt(WorkerPoolController.CONFIG_KEY_MIN_COUNT)).thenReturn(MIN_POOL_SIZE);
+
+        mockSynapseHelper = mock(SynapseHelper.class);
+
+        // Real executor, so we can observe pool size changes. We don't actually run anything on it.
+        workQueue = new LinkedBlockingQueue<>();
+        workerExecutor = new ThreadPoolExecutor(4, 4, 0L, TimeUnit.MILLISECONDS, workQueue);
+
+        controller = new WorkerPoolController();
+        controller.setConfig(mockConfig);
+        controller.setMetricsHelper(new MetricsHelper());
+        controller.setSynapseHelper(mockSynapseHelper);
+        controller.setWorkerExecutor(workerExecutor);
+    }
+
+    @AfterMethod
+    public void after() {
+        workerExecutor.shutdownNow();
+    }
+
+    @Test
+    public void decide() {
+        // Backlog, no rate limiting. Increase.
+        assertEquals(controller.decide(10, 4, 100.0, 0.0), WorkerPoolController.Decision.INCREASE);
+
+        // Backlog, but already at max. Hold.
+        assertEquals(controller.decide(10, MAX_POOL_SIZE, 100.0, 0.0), WorkerPoolController.Decision.HOLD);
+
+        // No backlog. Hold.
+        assertEquals(controller.decide(0, 4, 100.0, 0.0), WorkerPoolController.Decision.HOLD);
+
+        // Rate limited. Decrease, even with a backlog.
+        assertEquals(controller.decide(10, 4, 100.0, 0.9), WorkerPoolController.Decision.DECREASE);
+
+        // Rate limited, but already at min. Hold.
+        assertEquals(controller.decide(10, MIN_POOL_SIZE, 100.0, 0.9), WorkerPoolController.Decision.HOLD);
+    }
+
+    @Test
+    public void increaseThenBackOffWhenThroughputDrops() {
+        // Fill the queue, so there's a backlog.
+        for (int i = 0; i < 10; i++) {
+            workQueue.add(() -> {});
+        }
+
+        // First period: backlog, increase.
+        controller.adjustPoolSize(System.currentTimeMillis() + 1000);
+        assertEquals(workerExecutor.getCorePoolSize(), 5);
+        assertEquals(workerExecutor.getMaximumPoolSize(), 5);
+
+        // Second period: still a backlog, but at max. Hold.
+        controller.adjustPoolSize(System.currentTimeMillis() + 2000);
+        assertEquals(workerExecutor.getCorePoolSize(), 5);
+
+        assertEquals(controller.getMetrics().getCounterMap().count("workerPool.decision[INCREASE]"), 1);
+        assertEquals(controller.getMetrics().getCounterMap().count("workerPool.decision[HOLD]"), 1);
+    }
+
+    @Test
+    public void rateLimitedDecreasesMultiplicatively() {
+        // Threads spent all their time waiting on the rate limiter.
+        when(mockSynapseHelper.getAndResetRateLimiterWaitMicros()).thenReturn(4L * 1000 * 1000);
+
+        controller.adjustPoolSize(System.currentTimeMillis() + 1000);
+        assertEquals(workerExecutor.getCorePoolSize(), 3);
+        assertEquals(workerExecutor.getMaximumPoolSize(), 3);
+
+        // Never goes below min.
+        controller.adjustPoolSize(System.currentTimeMillis() + 2000);
+        assertEquals(workerExecutor.getCorePoolSize(), MIN_POOL_SIZE);
+        controller.adjustPoolSize(System.currentTimeMillis() + 3000);
+        assertEquals(workerExecutor.getCorePoolSize(), MIN_POOL_SIZE);
+    }
+
+    @Test
+    public void metricsResetAfterPublish() {
+        // Metrics are published every 10 periods. After that, the controller starts fresh metrics.
+        for (int i = 1; i <= 10; i++) {
+            controller.adjustPoolSize(System.currentTimeMillis() + i * 1000);
+        }
+        assertTrue(controller.getMetrics().getCounterMap().isEmpty());
+
+        controller.adjustPoolSize(System.currentTimeMillis() + 11000);
+        assertEquals(controller.getMetrics().getCounterMap().count("workerPool.decision[HOLD]"), 1);
+    }
+}